@@ -0,0 +1,333 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A pool of open connections to each backend, so that forwarding a request doesn't pay for a new
+ * TCP connection every time.
+ *
+ * Each server has its own pool: idle connections wait in a lock-free MPMC queue, and the number of
+ * open connections (idle or borrowed) is capped by the server's concurrency limit with a CAS on a counter.
+ * Connections that stay idle longer than the idle timeout are closed by a background task, and a
+ * server that is added is pre-warmed with a few connections before it takes traffic.
+ *
+ * New connections are opened with a blocking connect and handed out in blocking mode;
+ * a caller may switch them to non-blocking mode.
+ */
+public final class BackendConnectionPool implements Closeable {
+
+	private final Map<String, ServerPool> serverNameToPool = new ConcurrentHashMap<>();
+	private final long idleTimeoutNanos;
+	private final int prewarmConnections;
+	private final ScheduledExecutorService evictor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param idleTimeoutMillis  how long a connection may stay idle before it is closed
+	 * @param prewarmConnections how many connections to open when a server is added
+	 */
+	public BackendConnectionPool(long idleTimeoutMillis, int prewarmConnections) {
+		this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+		this.prewarmConnections = prewarmConnections;
+		this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "backend-pool-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, idleTimeoutMillis / 2);
+		evictor.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Adds a server and pre-warms its pool. The pool holds at most the server's concurrency limit.
+	 *
+	 * @param server the server
+	 */
+	public void addServer(BackendServer server) {
+		ServerPool pool = new ServerPool(server);
+		if (serverNameToPool.putIfAbsent(server.getName(), pool) != null) {
+			return;
+		}
+		int connections = Math.min(prewarmConnections, server.getConcurrencyLimit());
+		for (int i = 0; i < connections; i++) {
+			if (!pool.tryReserve()) {
+				break;
+			}
+			try {
+				pool.idle.offer(new IdleConnection(pool.connect(), System.nanoTime()));
+			} catch (IOException e) {
+				// the server isn't up yet, connections will be opened on demand
+				pool.open.decrementAndGet();
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Removes a server and closes its idle connections. Borrowed connections are closed when released.
+	 *
+	 * @param serverName the server name
+	 */
+	public void removeServer(String serverName) {
+		ServerPool pool = serverNameToPool.remove(serverName);
+		if (pool != null) {
+			IdleConnection connection;
+			while ((connection = pool.idle.poll()) != null) {
+				pool.discard(connection.channel);
+			}
+		}
+	}
+
+	/**
+	 * Borrows a connection to a server without waiting: an idle one if there is one (a hit),
+	 * otherwise a new one if the server is below its concurrency limit (a miss).
+	 *
+	 * @param serverName the server name
+	 * @return a connected channel, or null if the server is unknown or at its limit
+	 * @throws IOException if a new connection can't be opened
+	 */
+	public SocketChannel tryBorrow(String serverName) throws IOException {
+		ServerPool pool = serverNameToPool.get(serverName);
+		return pool != null ? pool.tryBorrow() : null;
+	}
+
+	/**
+	 * Borrows an idle connection to a server, never a new one. An idle connection may have been closed
+	 * by the server in the meantime without that showing yet.
+	 *
+	 * @param serverName the server name
+	 * @return a connected channel, or null if the server is unknown or has no idle connection
+	 */
+	public SocketChannel tryBorrowIdle(String serverName) {
+		ServerPool pool = serverNameToPool.get(serverName);
+		return pool != null ? pool.pollIdle() : null;
+	}
+
+	/**
+	 * Borrows a connection to a server, waiting up to timeout for one to be released
+	 * if the server is at its concurrency limit.
+	 *
+	 * @param serverName the server name
+	 * @param timeout    how long to wait
+	 * @param unit       the unit of timeout
+	 * @return a connected channel, or null if the server is unknown or no connection became free in time
+	 * @throws IOException if a new connection can't be opened
+	 */
+	public SocketChannel borrow(String serverName, long timeout, TimeUnit unit) throws IOException {
+		ServerPool pool = serverNameToPool.get(serverName);
+		if (pool == null) {
+			return null;
+		}
+		SocketChannel channel = pool.tryBorrow();
+		if (channel != null) {
+			return channel;
+		}
+		long start = System.nanoTime();
+		long deadline = start + unit.toNanos(timeout);
+		long parkNanos = 1_000;
+		try {
+			while (channel == null && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+				LockSupport.parkNanos(parkNanos);
+				parkNanos = Math.min(parkNanos * 2, 1_000_000);
+				channel = pool.tryBorrow();
+			}
+		} finally {
+			pool.waits.increment();
+			pool.waitNanos.add(System.nanoTime() - start);
+		}
+		if (channel == null) {
+			pool.timeouts.increment();
+		}
+		return channel;
+	}
+
+	/**
+	 * Gives a borrowed connection back.
+	 *
+	 * @param serverName the server the connection is to
+	 * @param channel    the connection
+	 * @param reusable   false if the connection must not be reused, eg. the backend asked for it to be closed
+	 */
+	public void release(String serverName, SocketChannel channel, boolean reusable) {
+		ServerPool pool = serverNameToPool.get(serverName);
+		if (pool == null) {
+			// the server was removed while the connection was borrowed
+			closeQuietly(channel);
+			return;
+		}
+		if (reusable && channel.isOpen()) {
+			pool.idle.offer(new IdleConnection(channel, System.nanoTime()));
+		} else {
+			pool.discard(channel);
+		}
+	}
+
+	/**
+	 * Closes every connection that has been idle for longer than the idle timeout.
+	 */
+	void evictIdleConnections() {
+		long now = System.nanoTime();
+		for (ServerPool pool : serverNameToPool.values()) {
+			for (IdleConnection connection : pool.idle) {
+				// remove() only succeeds for one thread, so a connection being borrowed right now is left alone
+				if (now - connection.idleSinceNanos >= idleTimeoutNanos && pool.idle.remove(connection)) {
+					pool.discard(connection.channel);
+					pool.evictions.increment();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the metrics of a server's pool.
+	 *
+	 * @param serverName the server name
+	 * @return the metrics, or null if the server is unknown
+	 */
+	public Stats getStats(String serverName) {
+		ServerPool pool = serverNameToPool.get(serverName);
+		if (pool == null) {
+			return null;
+		}
+		return new Stats(pool.hits.sum(), pool.misses.sum(), pool.waits.sum(), pool.waitNanos.sum(),
+				pool.timeouts.sum(), pool.evictions.sum(), pool.open.get(), pool.idle.size());
+	}
+
+	/**
+	 * Stops evicting and closes all idle connections.
+	 */
+	@Override
+	public void close() {
+		evictor.shutdownNow();
+		for (String serverName : serverNameToPool.keySet()) {
+			removeServer(serverName);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("BackendConnectionPool [");
+		for (String serverName : serverNameToPool.keySet()) {
+			result.append("\nserver=").append(serverName).append(", ").append(getStats(serverName)).append("; ");
+		}
+		return result.append("]").toString();
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing left to do with it
+		}
+	}
+
+	/**
+	 * Metrics of one server's pool.
+	 *
+	 * @param hits      borrows served by an idle connection
+	 * @param misses    borrows that opened a new connection
+	 * @param waits     borrows that had to wait for a connection to be released
+	 * @param waitNanos total time spent waiting
+	 * @param timeouts  waits that timed out
+	 * @param evictions idle connections closed by the idle timeout
+	 * @param open      connections open now, idle or borrowed
+	 * @param idle      idle connections now
+	 */
+	public record Stats(long hits, long misses, long waits, long waitNanos, long timeouts, long evictions, int open,
+			int idle) {
+	}
+
+	private static class ServerPool {
+		final BackendServer server;
+		final Queue<IdleConnection> idle = new ConcurrentLinkedQueue<>();
+		final AtomicInteger open = new AtomicInteger();
+		final LongAdder hits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+		final LongAdder waits = new LongAdder();
+		final LongAdder waitNanos = new LongAdder();
+		final LongAdder timeouts = new LongAdder();
+		final LongAdder evictions = new LongAdder();
+
+		ServerPool(BackendServer server) {
+			this.server = server;
+		}
+
+		SocketChannel tryBorrow() throws IOException {
+			SocketChannel channel = pollIdle();
+			if (channel != null) {
+				return channel;
+			}
+			if (!tryReserve()) {
+				return null;
+			}
+			misses.increment();
+			try {
+				return connect();
+			} catch (IOException e) {
+				open.decrementAndGet();
+				throw e;
+			}
+		}
+
+		SocketChannel pollIdle() {
+			IdleConnection connection;
+			while ((connection = idle.poll()) != null) {
+				if (connection.channel.isOpen()) {
+					hits.increment();
+					return connection.channel;
+				}
+				// closed while idle
+				open.decrementAndGet();
+			}
+			return null;
+		}
+
+		/**
+		 * Reserves room for one more open connection, unless the server is at its concurrency limit.
+		 */
+		boolean tryReserve() {
+			int current;
+			do {
+				current = open.get();
+				if (current >= server.getConcurrencyLimit()) {
+					return false;
+				}
+			} while (!open.compareAndSet(current, current + 1));
+			return true;
+		}
+
+		SocketChannel connect() throws IOException {
+			SocketChannel channel = SocketChannel.open();
+			try {
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				channel.connect(server.getAddress());
+				return channel;
+			} catch (IOException e) {
+				closeQuietly(channel);
+				throw e;
+			}
+		}
+
+		void discard(SocketChannel channel) {
+			closeQuietly(channel);
+			open.decrementAndGet();
+		}
+	}
+
+	private record IdleConnection(SocketChannel channel, long idleSinceNanos) {
+	}
+}
@@ -0,0 +1,70 @@
+package org.example;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A server that requests are really forwarded to, at a network address.
+ * The forwarding is done by the proxy that picked the server, so handling a request here only checks
+ * that the server is available, so that setAvailable(false) takes it out of rotation.
+ *
+ * A multiplexed server speaks the MuxFrame protocol: many requests share a few connections as streams,
+ * and the concurrency limit caps the streams in flight rather than the connections.
+ */
+public class BackendServer extends Server {
+
+	static final int DEFAULT_CONCURRENCY_LIMIT = 128;
+
+	private final InetSocketAddress address;
+	// the most requests the server can work on at once
+	private final int concurrencyLimit;
+	private final boolean multiplexed;
+
+	public BackendServer(String name, InetSocketAddress address) {
+		this(name, address, DEFAULT_CONCURRENCY_LIMIT);
+	}
+
+	public BackendServer(String name, InetSocketAddress address, int concurrencyLimit) {
+		this(name, address, concurrencyLimit, false);
+	}
+
+	public BackendServer(String name, InetSocketAddress address, int concurrencyLimit, boolean multiplexed) {
+		super(name);
+		if (concurrencyLimit < 1) {
+			throw new IllegalArgumentException("concurrencyLimit must be at least 1: " + concurrencyLimit);
+		}
+		this.address = address;
+		this.concurrencyLimit = concurrencyLimit;
+		this.multiplexed = multiplexed;
+	}
+
+	/**
+	 * Checks that the server is available. The bytes of the request are forwarded to address by the proxy.
+	 *
+	 * @param request the request
+	 * @throws ServerUnavailableException if the server is unavailable
+	 */
+	@Override
+	public void handleIncomingRequest(Request request) {
+		if (!isAvailable()) {
+			throw new ServerUnavailableException(getName());
+		}
+	}
+
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	public int getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	public boolean isMultiplexed() {
+		return multiplexed;
+	}
+
+	@Override
+	public String toString() {
+		return "BackendServer [name=" + getName() + ", address=" + address + ", concurrencyLimit=" + concurrencyLimit
+				+ ", multiplexed=" + multiplexed + "]";
+	}
+}
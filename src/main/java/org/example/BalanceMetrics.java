@@ -0,0 +1,328 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Measures how evenly requests are spread over servers, while they are being served.
+ *
+ * Per server it counts the requests in flight, the requests served in total, and the peak number of requests
+ * in flight at once. Served requests and peaks are also kept per time window, in a ring of numWindows windows of
+ * windowNanos each, so a snapshot can tell how balanced the last numWindows windows were, not just the whole run.
+ * From those counts a Snapshot works out the usual balance measures: the coefficient of variation,
+ * Jain's fairness index and the max/mean ratio.
+ *
+ * Every counter sits on its own cache line in a PaddedCounterArray, and updates are atomic increments or
+ * compare-and-set loops, so recording takes no lock. The window that is reused when time moves on
+ * is cleared by the first thread that notices; a few updates racing with the clear may be lost.
+ *
+ * The clock is pluggable, so the windows can run on the virtual clock of a DiscreteEventSimulator.
+ */
+public class BalanceMetrics {
+
+	private static final long UNUSED = Long.MIN_VALUE;
+
+	private final List<String> serverNames;
+	private final Map<String, Integer> serverNameToIndex = new HashMap<>();
+	private final long windowNanos;
+	private final int numWindows;
+	private final LongSupplier clockNanos;
+	private final PaddedCounterArray inFlight;
+	private final PaddedCounterArray totalServed;
+	private final PaddedCounterArray peakConcurrency;
+	// the window number each slot of the ring holds
+	private final PaddedCounterArray windowOfSlot;
+	// per slot and server, at slot * servers + server
+	private final PaddedCounterArray windowServed;
+	private final PaddedCounterArray windowPeakConcurrency;
+
+	/**
+	 * Constructor for metrics on the wall clock.
+	 *
+	 * @param servers     the servers to measure
+	 * @param windowNanos the length of a window
+	 * @param numWindows  the number of windows a snapshot covers
+	 */
+	public BalanceMetrics(List<Server> servers, long windowNanos, int numWindows) {
+		this(servers, windowNanos, numWindows, System::nanoTime);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param servers     the servers to measure
+	 * @param windowNanos the length of a window
+	 * @param numWindows  the number of windows a snapshot covers
+	 * @param clockNanos  the time in nanos, eg. DiscreteEventSimulator.now()
+	 */
+	public BalanceMetrics(List<Server> servers, long windowNanos, int numWindows, LongSupplier clockNanos) {
+		if (windowNanos <= 0 || numWindows < 1) {
+			throw new IllegalArgumentException("invalid windows: " + numWindows + " of " + windowNanos + " ns");
+		}
+		this.serverNames = servers.stream().map(Server::getName).toList();
+		for (int i = 0; i < serverNames.size(); i++) {
+			serverNameToIndex.put(serverNames.get(i), i);
+		}
+		this.windowNanos = windowNanos;
+		this.numWindows = numWindows;
+		this.clockNanos = clockNanos;
+		int numServers = serverNames.size();
+		this.inFlight = new PaddedCounterArray(numServers);
+		this.totalServed = new PaddedCounterArray(numServers);
+		this.peakConcurrency = new PaddedCounterArray(numServers);
+		this.windowOfSlot = new PaddedCounterArray(numWindows);
+		for (int slot = 0; slot < numWindows; slot++) {
+			windowOfSlot.set(slot, UNUSED);
+		}
+		this.windowServed = new PaddedCounterArray(numWindows * numServers);
+		this.windowPeakConcurrency = new PaddedCounterArray(numWindows * numServers);
+	}
+
+	/**
+	 * Records that a server took on a request.
+	 *
+	 * @param serverName the server name, servers that aren't measured are ignored
+	 */
+	public void requestStarted(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		if (index == null) {
+			return;
+		}
+		long concurrency = inFlight.incrementAndGet(index);
+		raiseTo(peakConcurrency, index, concurrency);
+		raiseTo(windowPeakConcurrency, currentSlot() * serverNames.size() + index, concurrency);
+	}
+
+	/**
+	 * Records that a server is done with a request.
+	 *
+	 * @param serverName the server name, servers that aren't measured are ignored
+	 */
+	public void requestCompleted(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		if (index == null) {
+			return;
+		}
+		inFlight.decrementAndGet(index);
+		totalServed.incrementAndGet(index);
+		windowServed.incrementAndGet(currentSlot() * serverNames.size() + index);
+	}
+
+	private static void raiseTo(PaddedCounterArray counters, int index, long value) {
+		long current = counters.get(index);
+		while (value > current && !counters.compareAndSet(index, current, value)) {
+			current = counters.get(index);
+		}
+	}
+
+	/**
+	 * Finds the slot of the ring for the current window, clearing it if it still holds an older window.
+	 */
+	private int currentSlot() {
+		long window = Math.floorDiv(clockNanos.getAsLong(), windowNanos);
+		int slot = Math.floorMod(window, numWindows);
+		long slotWindow = windowOfSlot.get(slot);
+		if (slotWindow != window && (slotWindow == UNUSED || slotWindow < window)
+				&& windowOfSlot.compareAndSet(slot, slotWindow, window)) {
+			int numServers = serverNames.size();
+			for (int i = 0; i < numServers; i++) {
+				windowServed.set(slot * numServers + i, 0);
+				windowPeakConcurrency.set(slot * numServers + i, inFlight.get(i));
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * Takes a snapshot of the counts. The counts are read one by one, not atomically,
+	 * so requests that finish during the snapshot may show up in some counts and not others.
+	 *
+	 * @return the counts of every server, and for the windows those of the last numWindows windows,
+	 * including the current one
+	 */
+	public Snapshot snapshot() {
+		int numServers = serverNames.size();
+		long currentWindow = Math.floorDiv(clockNanos.getAsLong(), windowNanos);
+		long[] served = new long[numServers];
+		long[] windowed = new long[numServers];
+		long[] peaks = new long[numServers];
+		long[] windowPeaks = new long[numServers];
+		long[] current = new long[numServers];
+		for (int i = 0; i < numServers; i++) {
+			served[i] = totalServed.get(i);
+			peaks[i] = peakConcurrency.get(i);
+			current[i] = inFlight.get(i);
+		}
+		for (int slot = 0; slot < numWindows; slot++) {
+			long slotWindow = windowOfSlot.get(slot);
+			if (slotWindow == UNUSED || slotWindow > currentWindow || slotWindow <= currentWindow - numWindows) {
+				continue;
+			}
+			for (int i = 0; i < numServers; i++) {
+				windowed[i] += windowServed.get(slot * numServers + i);
+				windowPeaks[i] = Math.max(windowPeaks[i], windowPeakConcurrency.get(slot * numServers + i));
+			}
+		}
+		return new Snapshot(serverNames, served, windowed, peaks, windowPeaks, current);
+	}
+
+	/**
+	 * Jain's fairness index of the totals: 1 when they are all equal, 1/n when one server has everything.
+	 */
+	public static double jainsIndex(long[] totals) {
+		double sum = 0;
+		double sumOfSquares = 0;
+		for (long total : totals) {
+			sum += total;
+			sumOfSquares += (double) total * total;
+		}
+		return sumOfSquares == 0 ? 1 : sum * sum / (totals.length * sumOfSquares);
+	}
+
+	/**
+	 * The standard deviation of the totals over their mean: 0 when they are all equal.
+	 */
+	public static double coefficientOfVariation(long[] totals) {
+		if (totals.length == 0) {
+			return 0;
+		}
+		double mean = 0;
+		for (long total : totals) {
+			mean += total;
+		}
+		mean /= totals.length;
+		if (mean == 0) {
+			return 0;
+		}
+		double variance = 0;
+		for (long total : totals) {
+			variance += (total - mean) * (total - mean);
+		}
+		return Math.sqrt(variance / totals.length) / mean;
+	}
+
+	/**
+	 * The largest total over the mean total: 1 when they are all equal.
+	 */
+	public static double maxMeanRatio(long[] totals) {
+		long sum = 0;
+		long max = 0;
+		for (long total : totals) {
+			sum += total;
+			max = Math.max(max, total);
+		}
+		return sum == 0 ? 1 : (double) max * totals.length / sum;
+	}
+
+	/**
+	 * The counts of every server at one point in time.
+	 */
+	public static final class Snapshot {
+		private final List<String> serverNames;
+		private final long[] served;
+		private final long[] windowServed;
+		private final long[] peakConcurrency;
+		private final long[] windowPeakConcurrency;
+		private final long[] inFlight;
+
+		Snapshot(List<String> serverNames, long[] served, long[] windowServed, long[] peakConcurrency,
+				long[] windowPeakConcurrency, long[] inFlight) {
+			this.serverNames = serverNames;
+			this.served = served;
+			this.windowServed = windowServed;
+			this.peakConcurrency = peakConcurrency;
+			this.windowPeakConcurrency = windowPeakConcurrency;
+			this.inFlight = inFlight;
+		}
+
+		public List<String> getServerNames() {
+			return serverNames;
+		}
+
+		/**
+		 * Gets the requests each server served in total, in the order of getServerNames().
+		 */
+		public long[] getServed() {
+			return served.clone();
+		}
+
+		/**
+		 * Gets the requests each server served in the windows.
+		 */
+		public long[] getWindowServed() {
+			return windowServed.clone();
+		}
+
+		/**
+		 * Gets the most requests each server had in flight at once, in total.
+		 */
+		public long[] getPeakConcurrency() {
+			return peakConcurrency.clone();
+		}
+
+		/**
+		 * Gets the most requests each server had in flight at once, in the windows.
+		 */
+		public long[] getWindowPeakConcurrency() {
+			return windowPeakConcurrency.clone();
+		}
+
+		public long[] getInFlight() {
+			return inFlight.clone();
+		}
+
+		public double jainsIndex() {
+			return BalanceMetrics.jainsIndex(served);
+		}
+
+		public double coefficientOfVariation() {
+			return BalanceMetrics.coefficientOfVariation(served);
+		}
+
+		public double maxMeanRatio() {
+			return BalanceMetrics.maxMeanRatio(served);
+		}
+
+		public double windowJainsIndex() {
+			return BalanceMetrics.jainsIndex(windowServed);
+		}
+
+		public double windowCoefficientOfVariation() {
+			return BalanceMetrics.coefficientOfVariation(windowServed);
+		}
+
+		public double windowMaxMeanRatio() {
+			return BalanceMetrics.maxMeanRatio(windowServed);
+		}
+
+		/**
+		 * Gets the most requests any server had in flight at once, in total.
+		 */
+		public long maxPeakConcurrency() {
+			long max = 0;
+			for (long peak : peakConcurrency) {
+				max = Math.max(max, peak);
+			}
+			return max;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder result = new StringBuilder();
+			result.append(String.format("Balance: Jain's index=%.4f, CoV=%.4f, max/mean=%.3f, peak concurrency=%d",
+					jainsIndex(), coefficientOfVariation(), maxMeanRatio(), maxPeakConcurrency()));
+			result.append(String.format("%nWindows: Jain's index=%.4f, CoV=%.4f, max/mean=%.3f", windowJainsIndex(),
+					windowCoefficientOfVariation(), windowMaxMeanRatio()));
+			for (int i = 0; i < serverNames.size(); i++) {
+				result.append("\nserver=" + serverNames.get(i));
+				result.append(", served=" + served[i]);
+				result.append(", window served=" + windowServed[i]);
+				result.append(", peak concurrency=" + peakConcurrency[i]);
+				result.append(", in flight=" + inFlight[i]);
+			}
+			return result.toString();
+		}
+	}
+}
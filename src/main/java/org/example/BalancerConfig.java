@@ -0,0 +1,190 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * The configuration of a ReloadingLoadBalancer, read from a properties file:
+ *
+ *   strategy=least-connected            round-robin, weighted-round-robin, least-connected,
+ *                                       sharded-least-connected or zone-aware
+ *   servers=a,b,c,d                     the servers, in order
+ *   zone.a=us-east-1a                   the zone of a server, default Server.DEFAULT_ZONE
+ *   weight.a=3                          the weight of a server for weighted-round-robin, default 1
+ *   lease.millis=60000                  how long least-connected acquires a server for
+ *   limit.maxInFlight=1000              the most requests in flight in total, 0 for no limit
+ *   limit.maxInFlightPerServer=100      the most requests in flight on one server, 0 for no limit
+ *   zoneAware.localZone=us-east-1a      the zone of the load balancer, for zone-aware
+ *   zoneAware.spilloverThreshold=4      see ZoneAwareLoadBalancer, default 4
+ *   sharded.shards=4                    see ShardedLeastConnectedLoadBalancer, default 1
+ *   sharded.maxStalenessNanos=0         see ShardedLeastConnectedLoadBalancer, default 0
+ *
+ * A config is immutable and checked as a whole when it is parsed, so a file with a mistake in it is
+ * rejected rather than half applied.
+ */
+public record BalancerConfig(Strategy strategy, List<String> serverNames, Map<String, String> zones,
+		Map<String, Integer> weights, long leaseMillis, long maxInFlight, long maxInFlightPerServer, String localZone,
+		double spilloverThreshold, int shards, long maxStalenessNanos) {
+
+	public enum Strategy {
+		ROUND_ROBIN("round-robin"),
+		WEIGHTED_ROUND_ROBIN("weighted-round-robin"),
+		LEAST_CONNECTED("least-connected"),
+		SHARDED_LEAST_CONNECTED("sharded-least-connected"),
+		ZONE_AWARE("zone-aware");
+
+		private final String key;
+
+		Strategy(String key) {
+			this.key = key;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		static Strategy of(String key) {
+			for (Strategy strategy : values()) {
+				if (strategy.key.equals(key)) {
+					return strategy;
+				}
+			}
+			throw new IllegalArgumentException("unknown strategy: " + key);
+		}
+	}
+
+	/**
+	 * Constructor. Checks the config, and copies the collections so that it can't change afterwards.
+	 *
+	 * @throws IllegalArgumentException if a value is out of range
+	 */
+	public BalancerConfig {
+		if (strategy == null) {
+			throw new IllegalArgumentException("strategy is missing");
+		}
+		if (serverNames.isEmpty()) {
+			throw new IllegalArgumentException("servers is empty");
+		}
+		if (new HashSet<>(serverNames).size() != serverNames.size()) {
+			throw new IllegalArgumentException("servers has duplicates: " + serverNames);
+		}
+		for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+			if (weight.getValue() < 1) {
+				throw new IllegalArgumentException("weight." + weight.getKey() + " must be at least 1");
+			}
+		}
+		if (leaseMillis <= 0) {
+			throw new IllegalArgumentException("lease.millis must be positive: " + leaseMillis);
+		}
+		if (maxInFlight < 0 || maxInFlightPerServer < 0) {
+			throw new IllegalArgumentException("limits must not be negative");
+		}
+		if (strategy == Strategy.ZONE_AWARE && localZone == null) {
+			throw new IllegalArgumentException("zoneAware.localZone is missing");
+		}
+		if (!(spilloverThreshold > 0)) {
+			throw new IllegalArgumentException("zoneAware.spilloverThreshold must be positive: " + spilloverThreshold);
+		}
+		if (shards < 1 || maxStalenessNanos < 0) {
+			throw new IllegalArgumentException("invalid sharding: " + shards + " shards, " + maxStalenessNanos + " ns");
+		}
+		serverNames = List.copyOf(serverNames);
+		zones = Map.copyOf(zones);
+		weights = Map.copyOf(weights);
+	}
+
+	/**
+	 * Reads a config file.
+	 *
+	 * @param file the properties file
+	 * @return the config
+	 * @throws IOException              if the file can't be read
+	 * @throws IllegalArgumentException if the config is invalid
+	 */
+	public static BalancerConfig load(Path file) throws IOException {
+		Properties properties = new Properties();
+		try (Reader reader = Files.newBufferedReader(file)) {
+			properties.load(reader);
+		}
+		return parse(properties);
+	}
+
+	/**
+	 * Parses a config from properties.
+	 *
+	 * @param properties the properties
+	 * @return the config
+	 * @throws IllegalArgumentException if the config is invalid
+	 */
+	public static BalancerConfig parse(Properties properties) {
+		Set<String> knownKeys = new HashSet<>(List.of("strategy", "servers", "lease.millis", "limit.maxInFlight",
+				"limit.maxInFlightPerServer", "zoneAware.localZone", "zoneAware.spilloverThreshold", "sharded.shards",
+				"sharded.maxStalenessNanos"));
+		List<String> serverNames = new ArrayList<>();
+		for (String serverName : properties.getProperty("servers", "").split(",")) {
+			if (!serverName.isBlank()) {
+				serverNames.add(serverName.strip());
+			}
+		}
+		Map<String, String> zones = new HashMap<>();
+		Map<String, Integer> weights = new HashMap<>();
+		for (String serverName : serverNames) {
+			String zone = properties.getProperty("zone." + serverName);
+			if (zone != null) {
+				zones.put(serverName, zone.strip());
+			}
+			String weight = properties.getProperty("weight." + serverName);
+			if (weight != null) {
+				weights.put(serverName, (int) parseLong(properties, "weight." + serverName, 1));
+			}
+			knownKeys.add("zone." + serverName);
+			knownKeys.add("weight." + serverName);
+		}
+		for (String key : properties.stringPropertyNames()) {
+			// a typo would otherwise silently leave the default in place
+			if (!knownKeys.contains(key)) {
+				throw new IllegalArgumentException("unknown key: " + key);
+			}
+		}
+		String localZone = properties.getProperty("zoneAware.localZone");
+		return new BalancerConfig(Strategy.of(properties.getProperty("strategy", "").strip()), serverNames, zones,
+				weights, parseLong(properties, "lease.millis", 60_000), parseLong(properties, "limit.maxInFlight", 0),
+				parseLong(properties, "limit.maxInFlightPerServer", 0), localZone != null ? localZone.strip() : null,
+				parseDouble(properties, "zoneAware.spilloverThreshold", 4), (int) parseLong(properties, "sharded.shards", 1),
+				parseLong(properties, "sharded.maxStalenessNanos", 0));
+	}
+
+	private static long parseLong(Properties properties, String key, long defaultValue) {
+		String value = properties.getProperty(key);
+		try {
+			return value != null ? Long.parseLong(value.strip()) : defaultValue;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(key + " is not a number: " + value, e);
+		}
+	}
+
+	private static double parseDouble(Properties properties, String key, double defaultValue) {
+		String value = properties.getProperty(key);
+		try {
+			return value != null ? Double.parseDouble(value.strip()) : defaultValue;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(key + " is not a number: " + value, e);
+		}
+	}
+
+	/**
+	 * Gets the zone of a server.
+	 */
+	public String zoneOf(String serverName) {
+		return zones.getOrDefault(serverName, Server.DEFAULT_ZONE);
+	}
+}
@@ -0,0 +1,247 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A ConnectionTracker that keeps servers in buckets by request count, instead of on a heap.
+ *
+ * Bucket i is an intrusive doubly-linked list of the servers with i active requests, so moving a server to
+ * the next bucket up or down is O(1). The lowest bucket that may hold a server is remembered; it only moves
+ * down when a server lands below it, and moves up past empty buckets when the least connected server is taken.
+ * Counts change by 1 at a time, so it rarely moves more than one bucket, and increment, decrement and
+ * getLeastUsedServer() cost the same on 10 servers as on a million, where the heap's cost grows with log n
+ * and its remove is linear.
+ *
+ * Ties go to the server that has been in its bucket longest, rather than to the lexicographically
+ * smallest name as in ServerActiveConnectionTracker. Counts below 0, which only a decrement without
+ * an increment can cause, are kept but share bucket 0.
+ */
+public class BucketedConnectionTracker implements ConnectionTracker {
+
+	private final Map<String, Node> serverToNode = new HashMap<>();
+	// heads[i] and tails[i] are the first and last servers with count i, or null
+	private Node[] heads = new Node[16];
+	private Node[] tails = new Node[16];
+	// no bucket below it has servers in it
+	private int minBucket;
+	// the servers linked into a bucket, ie. not taken out by getLeastUsedServer()
+	private int linkedCount;
+	// links and unlinks, for LoadBalancerEvents
+	private long operations;
+	// time each thread spent waiting for lock, for LoadBalancerEvents; a thread's own, so reading it
+	// takes no lock and an event doesn't count the waits of other threads
+	private final ThreadLocal<long[]> lockWaitNanos = ThreadLocal.withInitial(() -> new long[1]);
+	private Lock lock = new ReentrantLock();
+
+	@Override
+	public void addServer(String serverName) {
+		updateServerCount(serverName, 0);
+	}
+
+	@Override
+	public void removeServer(String serverName) {
+		lockAndTimeWait();
+		try {
+			Node node = serverToNode.remove(serverName);
+			if (node != null && node.linked) {
+				unlink(node);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes servers, each in O(1).
+	 */
+	@Override
+	public void removeServers(Collection<String> serverNames) {
+		lockAndTimeWait();
+		try {
+			for (String serverName : serverNames) {
+				removeServer(serverName);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void updateServerCount(String serverName, int countDelta) {
+		lockAndTimeWait();
+		try {
+			Node node = serverToNode.get(serverName);
+			if (node == null) {
+				node = new Node(serverName);
+				serverToNode.put(serverName, node);
+			} else if (node.linked) {
+				unlink(node);
+			}
+			node.count += countDelta;
+			link(node);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int getServerCount(String serverName) {
+		lockAndTimeWait();
+		try {
+			Node node = serverToNode.get(serverName);
+			return node != null ? node.count : 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String getLeastUsedServer() {
+		lockAndTimeWait();
+		try {
+			if (linkedCount == 0) {
+				return null;
+			}
+			while (heads[minBucket] == null) {
+				minBucket++;
+			}
+			Node node = heads[minBucket];
+			unlink(node);
+			return node.serverName;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lockAndTimeWait();
+		try {
+			return linkedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Gets the number of links into and unlinks from buckets done so far.
+	 */
+	@Override
+	public long getOperationCount() {
+		lockAndTimeWait();
+		try {
+			return operations;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getLockWaitNanos() {
+		return lockWaitNanos.get()[0];
+	}
+
+	/**
+	 * Takes the lock, timing the wait only if it is held by another thread,
+	 * so that the uncontended case costs no clock reads.
+	 */
+	private void lockAndTimeWait() {
+		if (lock.tryLock()) {
+			return;
+		}
+		long start = System.nanoTime();
+		lock.lock();
+		lockWaitNanos.get()[0] += System.nanoTime() - start;
+	}
+
+	/**
+	 * Appends a server to the tail of the bucket of its count.
+	 */
+	private void link(Node node) {
+		int bucket = Math.max(0, node.count);
+		if (bucket >= heads.length) {
+			int length = Math.max(heads.length * 2, bucket + 1);
+			heads = Arrays.copyOf(heads, length);
+			tails = Arrays.copyOf(tails, length);
+		}
+		node.bucket = bucket;
+		node.prev = tails[bucket];
+		node.next = null;
+		if (tails[bucket] != null) {
+			tails[bucket].next = node;
+		} else {
+			heads[bucket] = node;
+		}
+		tails[bucket] = node;
+		node.linked = true;
+		linkedCount++;
+		operations++;
+		if (bucket < minBucket) {
+			minBucket = bucket;
+		}
+	}
+
+	private void unlink(Node node) {
+		if (node.prev != null) {
+			node.prev.next = node.next;
+		} else {
+			heads[node.bucket] = node.next;
+		}
+		if (node.next != null) {
+			node.next.prev = node.prev;
+		} else {
+			tails[node.bucket] = node.prev;
+		}
+		node.prev = null;
+		node.next = null;
+		node.linked = false;
+		linkedCount--;
+		operations++;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer result = new StringBuffer();
+		lockAndTimeWait();
+		try {
+			result.append("BucketedConnectionTracker [");
+			for (Map.Entry<String, Node> entrySet : serverToNode.entrySet()) {
+				result.append("\nserver=");
+				result.append(entrySet.getKey());
+				result.append(", active connections=");
+				result.append(entrySet.getValue().count);
+				result.append("; ");
+			}
+			result.append("]");
+		} finally {
+			lock.unlock();
+		}
+		return result.toString();
+	}
+
+	/**
+	 * A server in the list of its bucket.
+	 */
+	private static final class Node {
+		final String serverName;
+		int count;
+		int bucket;
+		boolean linked;
+		Node prev;
+		Node next;
+
+		Node(String serverName) {
+			this.serverName = serverName;
+		}
+	}
+}
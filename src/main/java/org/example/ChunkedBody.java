@@ -0,0 +1,123 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Follows the framing of a message body with "Transfer-Encoding: chunked" as its bytes go by, to find
+ * where the body ends without decoding it:
+ *
+ *   chunk-size [; extensions] CRLF chunk-data CRLF ... 0 [; extensions] CRLF [trailer fields CRLF] CRLF
+ *
+ * The bytes can come in pieces of any size, eg. one read into a buffer at a time.
+ */
+final class ChunkedBody {
+
+	static final int MALFORMED = -2;
+
+	private static final int SIZE = 0;
+	private static final int EXTENSION = 1;
+	private static final int SIZE_LF = 2;
+	private static final int DATA = 3;
+	private static final int DATA_CR = 4;
+	private static final int DATA_LF = 5;
+	private static final int TRAILER = 6;
+	private static final int TRAILER_LF = 7;
+	private static final int DONE = 8;
+
+	private int state = SIZE;
+	private long chunkRemaining;
+	private int sizeDigits;
+	// bytes in the trailer line being read, to tell the empty line that ends the body
+	private int trailerLineLength;
+
+	/**
+	 * Scans more bytes of the body.
+	 *
+	 * @param buffer the buffer
+	 * @param from   index of the first byte not scanned before
+	 * @param to     index to stop scanning at (exclusive)
+	 * @return the index of the first byte after the body, -1 if the body doesn't end before to,
+	 * or MALFORMED if the framing is broken
+	 */
+	int scan(ByteBuffer buffer, int from, int to) {
+		int i = from;
+		while (i < to) {
+			if (state == DATA) {
+				int count = (int) Math.min(chunkRemaining, to - i);
+				i += count;
+				chunkRemaining -= count;
+				if (chunkRemaining == 0) {
+					state = DATA_CR;
+				}
+				continue;
+			}
+			byte b = buffer.get(i++);
+			switch (state) {
+			case SIZE -> {
+				int digit = Character.digit(b, 16);
+				if (digit >= 0) {
+					// more than 15 hex digits could overflow
+					if (++sizeDigits > 15) {
+						return MALFORMED;
+					}
+					chunkRemaining = chunkRemaining << 4 | digit;
+				} else if (sizeDigits == 0) {
+					return MALFORMED;
+				} else if (b == ';' || b == ' ' || b == '\t') {
+					state = EXTENSION;
+				} else if (b == '\r') {
+					state = SIZE_LF;
+				} else {
+					return MALFORMED;
+				}
+			}
+			case EXTENSION -> {
+				if (b == '\r') {
+					state = SIZE_LF;
+				}
+			}
+			case SIZE_LF -> {
+				if (b != '\n') {
+					return MALFORMED;
+				}
+				sizeDigits = 0;
+				state = chunkRemaining == 0 ? TRAILER : DATA;
+			}
+			case DATA_CR -> {
+				if (b != '\r') {
+					return MALFORMED;
+				}
+				state = DATA_LF;
+			}
+			case DATA_LF -> {
+				if (b != '\n') {
+					return MALFORMED;
+				}
+				state = SIZE;
+			}
+			case TRAILER -> {
+				if (b == '\r') {
+					state = TRAILER_LF;
+				} else {
+					trailerLineLength++;
+				}
+			}
+			case TRAILER_LF -> {
+				if (b != '\n') {
+					return MALFORMED;
+				}
+				if (trailerLineLength == 0) {
+					state = DONE;
+					return i;
+				}
+				trailerLineLength = 0;
+				state = TRAILER;
+			}
+			default -> {
+				return MALFORMED;
+			}
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,161 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A token bucket per client, for up to a fixed number of clients, so that memory stays bounded however
+ * many client ids come along.
+ *
+ * The table is set associative: a client id hashes to a set of WAYS slots, and is looked for in those
+ * only. A client that isn't there takes an empty slot of its set, or evicts one by the CLOCK algorithm:
+ * every request after a client's first marks its slot as referenced, and the set's hand sweeps over the
+ * slots, clearing marks, until it finds one that wasn't referenced since the last sweep. A new client
+ * starts unmarked, so a run of one-off ids evicts each other rather than the clients that keep sending.
+ * A new or evicted-and-returning client starts with a full bucket.
+ *
+ * Nothing is locked. Keys, the 64-bit hash of the client id, and buckets are in AtomicLongArrays, and
+ * a slot is claimed with a CAS on its key. The reference marks and hands are plain bytes, as a lost
+ * update only makes CLOCK a little less exact. Two clients whose ids hash the same share a bucket, and
+ * a request that checks its bucket while the client is being evicted may take the token from the bucket
+ * of the client that replaces it; either makes the limit a little looser, never stricter.
+ */
+public class ClientRateLimiter {
+
+	static final int WAYS = 8;
+	private static final long EMPTY = 0;
+
+	private final TokenBucket tokenBucket;
+	private final AtomicLongArray keys;
+	private final AtomicLongArray buckets;
+	private final byte[] referenced;
+	private final byte[] hands;
+	private final int setMask;
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructor
+	 *
+	 * @param tokenBucket the rate and burst of each client
+	 * @param maxClients  the number of clients to keep a bucket for, rounded up to a power of two and at least WAYS
+	 */
+	public ClientRateLimiter(TokenBucket tokenBucket, int maxClients) {
+		if (maxClients < 1 || maxClients > 1 << 30) {
+			throw new IllegalArgumentException("maxClients must be in [1, 2^30]: " + maxClients);
+		}
+		this.tokenBucket = tokenBucket;
+		int minSets = (maxClients + WAYS - 1) / WAYS;
+		int numSets = minSets <= 1 ? 1 : Integer.highestOneBit(minSets - 1) << 1;
+		this.setMask = numSets - 1;
+		this.keys = new AtomicLongArray(numSets * WAYS);
+		this.buckets = new AtomicLongArray(numSets * WAYS);
+		this.referenced = new byte[numSets * WAYS];
+		this.hands = new byte[numSets];
+	}
+
+	/**
+	 * Takes a token from a client's bucket.
+	 *
+	 * @param clientId the client id
+	 * @return true if the client is within its rate
+	 */
+	public boolean tryAcquire(String clientId) {
+		long key = hash(clientId);
+		int base = ((int) (key ^ (key >>> 32)) & setMask) * WAYS;
+		int slot = find(base, key);
+		if (slot < 0) {
+			slot = claim(base, key);
+		} else if (referenced[slot] == 0) {
+			referenced[slot] = 1;
+		}
+		return tokenBucket.tryAcquire(buckets, slot);
+	}
+
+	private int find(int base, long key) {
+		for (int way = 0; way < WAYS; way++) {
+			if (keys.get(base + way) == key) {
+				return base + way;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Puts a client in an empty slot of its set, or in the slot CLOCK evicts.
+	 */
+	private int claim(int base, long key) {
+		while (true) {
+			for (int way = 0; way < WAYS; way++) {
+				int slot = base + way;
+				if (keys.get(slot) == EMPTY) {
+					buckets.set(slot, tokenBucket.full());
+					if (keys.compareAndSet(slot, EMPTY, key)) {
+						return slot;
+					}
+				}
+			}
+			int set = base / WAYS;
+			int hand = hands[set];
+			// at most two sweeps: the first may only clear marks
+			for (int i = 0; i < 2 * WAYS; i++) {
+				int slot = base + hand;
+				hand = (hand + 1) % WAYS;
+				if (referenced[slot] != 0) {
+					referenced[slot] = 0;
+					continue;
+				}
+				long victim = keys.get(slot);
+				buckets.set(slot, tokenBucket.full());
+				if (keys.compareAndSet(slot, victim, key)) {
+					hands[set] = (byte) hand;
+					if (victim != EMPTY) {
+						evictions.increment();
+					}
+					return slot;
+				}
+			}
+			hands[set] = (byte) hand;
+			// another thread may have put this client in the set meanwhile
+			int slot = find(base, key);
+			if (slot >= 0) {
+				return slot;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of clients with a bucket, by counting the slots in use.
+	 */
+	public int size() {
+		int size = 0;
+		for (int slot = 0; slot < keys.length(); slot++) {
+			if (keys.get(slot) != EMPTY) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the number of clients the table has room for.
+	 */
+	public int capacity() {
+		return keys.length();
+	}
+
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * FNV-1a over the chars of the client id, never EMPTY.
+	 */
+	static long hash(String clientId) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < clientId.length(); i++) {
+			hash ^= clientId.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash != EMPTY ? hash : 1;
+	}
+}
@@ -0,0 +1,88 @@
+package org.example;
+
+import java.util.Collection;
+
+/**
+ * Tracks the number of active requests of each server, for LeastConnectedLoadBalancer to find the least
+ * connected one.
+ *
+ * ServerActiveConnectionTracker keeps the servers on a min-heap, BucketedConnectionTracker in buckets by count.
+ * Like polling a heap, getLeastUsedServer() takes the server it returns out of the running until its count
+ * is next updated; its count is kept meanwhile.
+ */
+public interface ConnectionTracker {
+
+	/**
+	 * Adds a server, with a request count of 0.
+	 *
+	 * @param serverName the server name
+	 */
+	void addServer(String serverName);
+
+	/**
+	 * Adds servers, all at once, eg. a whole fleet at startup. The default adds them one by one.
+	 *
+	 * @param serverNames the server names, servers that are already tracked are put back in the running
+	 */
+	default void addServers(Collection<String> serverNames) {
+		for (String serverName : serverNames) {
+			addServer(serverName);
+		}
+	}
+
+	/**
+	 * Stops tracking a server.
+	 *
+	 * @param serverName the server name
+	 */
+	void removeServer(String serverName);
+
+	/**
+	 * Stops tracking servers, all at once.
+	 *
+	 * @param serverNames the server names, servers that aren't tracked are ignored
+	 */
+	void removeServers(Collection<String> serverNames);
+
+	/**
+	 * Adds to the request count of a server, and puts it back in the running if it was taken out by
+	 * getLeastUsedServer(). A server that isn't tracked is added with countDelta as its count.
+	 *
+	 * @param serverName the server name
+	 * @param countDelta the request count delta to add to the server
+	 */
+	void updateServerCount(String serverName, int countDelta);
+
+	/**
+	 * Gets the request count of a server.
+	 *
+	 * @param serverName the server name
+	 * @return the request count, or 0 if the server is not tracked.
+	 */
+	int getServerCount(String serverName);
+
+	/**
+	 * Retrieves and takes out of the running the least connected server.
+	 *
+	 * @return the least connected server, or null if there is none.
+	 */
+	String getLeastUsedServer();
+
+	/**
+	 * Gets the number of servers in the running.
+	 */
+	int size();
+
+	boolean isEmpty();
+
+	/**
+	 * Gets the number of operations done on the index of counts so far, for LoadBalancerEvents.
+	 */
+	long getOperationCount();
+
+	/**
+	 * Gets the nanos the calling thread has spent waiting for the tracker's own lock so far, for LoadBalancerEvents.
+	 * Only waits for a lock held by another thread are timed.
+	 */
+	long getLockWaitNanos();
+}
@@ -0,0 +1,76 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lock-free pool of direct ByteBuffers of one size.
+ *
+ * Allocating a direct buffer is expensive and its memory is only given back when the buffer
+ * is garbage collected, so connections borrow buffers from the pool and give them back on close.
+ */
+public class DirectBufferPool {
+
+	private final int bufferSize;
+	private final int maxPooledBuffers;
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooledBuffers = new AtomicInteger();
+
+	/**
+	 * Constructor
+	 *
+	 * @param bufferSize       the size of every buffer in bytes
+	 * @param maxPooledBuffers how many released buffers are kept, the rest are left to the GC
+	 */
+	public DirectBufferPool(int bufferSize, int maxPooledBuffers) {
+		this.bufferSize = bufferSize;
+		this.maxPooledBuffers = maxPooledBuffers;
+	}
+
+	/**
+	 * Takes a cleared buffer from the pool, or allocates a new one if the pool is empty.
+	 *
+	 * @return a buffer of bufferSize bytes.
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		pooledBuffers.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the pool. The caller must not use the buffer afterwards.
+	 *
+	 * @param buffer the buffer, ignored if it wasn't acquired from this pool
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+			return;
+		}
+		if (pooledBuffers.incrementAndGet() > maxPooledBuffers) {
+			pooledBuffers.decrementAndGet();
+			return;
+		}
+		buffer.clear();
+		buffers.offer(buffer);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Gets the number of buffers waiting in the pool.
+	 *
+	 * @return the number of pooled buffers.
+	 */
+	public int size() {
+		return pooledBuffers.get();
+	}
+}
@@ -0,0 +1,620 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * A discrete-event simulator: a virtual clock and a queue of events ordered by the time they are due.
+ * run() takes the earliest event off the queue, moves the clock to its time and runs it, and the event
+ * schedules the events that follow from it. Nothing sleeps, so hours of traffic take as long as the
+ * events take to run, and with the seeded random source every run of a simulation gives the same result.
+ *
+ * Events due at the same time run in the order they were scheduled. The simulator is single threaded:
+ * events and the load balancers they call all run on the thread that called run().
+ *
+ * Lease expiry runs on the virtual clock too: a TimedServerPool made by createServerPool() reads its time
+ * from the simulator, and scheduleLeaseExpiry() adds an event at each server's deadline that expires it.
+ *
+ * A workload can give its requests a deadline and hedge them, see RequestPolicy. Servers all work at the
+ * same speed unless setServerSpeed() makes some faster or slower.
+ */
+public class DiscreteEventSimulator {
+
+	private static final long NANOS_PER_MILLI = 1_000_000;
+
+	private final PriorityQueue<Event> events = new PriorityQueue<>();
+	private final Random random;
+	private final Map<String, Double> serverSpeeds = new HashMap<>();
+	private long now;
+	private long nextSequence;
+	private long eventsRun;
+
+	/**
+	 * Constructor
+	 *
+	 * @param seed the seed of the random source, the same seed gives the same simulation
+	 */
+	public DiscreteEventSimulator(long seed) {
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Gets the virtual time in nanos since the simulation started.
+	 */
+	public long now() {
+		return now;
+	}
+
+	/**
+	 * Gets the virtual time in millis since the simulation started.
+	 */
+	public long nowMillis() {
+		return now / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * Gets the seeded random source, for anything in the simulation that needs one.
+	 */
+	public Random getRandom() {
+		return random;
+	}
+
+	public long getEventsRun() {
+		return eventsRun;
+	}
+
+	/**
+	 * Schedules an action to run after a delay.
+	 *
+	 * @param delayNanos the delay in virtual nanos
+	 * @param action     the action
+	 */
+	public void schedule(long delayNanos, Runnable action) {
+		if (delayNanos < 0) {
+			throw new IllegalArgumentException("delayNanos must not be negative: " + delayNanos);
+		}
+		scheduleAt(now + delayNanos, action);
+	}
+
+	/**
+	 * Schedules an action to run at a point in virtual time.
+	 *
+	 * @param timeNanos the time, not before now()
+	 * @param action    the action
+	 */
+	public void scheduleAt(long timeNanos, Runnable action) {
+		if (timeNanos < now) {
+			throw new IllegalArgumentException("time " + timeNanos + " is before now " + now);
+		}
+		events.add(new Event(timeNanos, nextSequence++, action));
+	}
+
+	/**
+	 * Runs events until there are none left.
+	 */
+	public void run() {
+		runUntil(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Runs events that are due up to and including a point in virtual time, and moves the clock there
+	 * unless the events ran out first.
+	 *
+	 * @param timeNanos the time to stop at
+	 */
+	public void runUntil(long timeNanos) {
+		while (!events.isEmpty() && events.peek().time <= timeNanos) {
+			runNextEvent();
+		}
+		if (timeNanos != Long.MAX_VALUE && timeNanos > now) {
+			now = timeNanos;
+		}
+	}
+
+	private void runNextEvent() {
+		Event event = events.poll();
+		now = event.time;
+		eventsRun++;
+		event.action.run();
+	}
+
+	/**
+	 * Sets how fast a server works in the workloads run from now on: the service time of a request
+	 * on it is the one drawn or recorded divided by its speed. Servers work at speed 1 by default.
+	 *
+	 * @param serverName the server name
+	 * @param speed      the speed, eg. 2 for a server that serves a request in half the time
+	 */
+	public void setServerSpeed(String serverName, double speed) {
+		if (!(speed > 0)) {
+			throw new IllegalArgumentException("speed must be positive: " + speed);
+		}
+		serverSpeeds.put(serverName, speed);
+	}
+
+	/**
+	 * Creates a TimedServerPool whose leases run on the virtual clock. Servers are only removed
+	 * from it by expiry events, see scheduleLeaseExpiry().
+	 */
+	public TimedServerPool createServerPool() {
+		return new TimedServerPool(this::nowMillis);
+	}
+
+	/**
+	 * Schedules an event at the lease deadline of each server that expires it from the pool.
+	 *
+	 * @param pool        a pool made by createServerPool()
+	 * @param serverNames the servers in the pool
+	 */
+	public void scheduleLeaseExpiry(TimedServerPool pool, Collection<String> serverNames) {
+		for (String serverName : serverNames) {
+			long deadlineMillis = pool.getExpiryDeadline(serverName);
+			if (deadlineMillis >= 0) {
+				scheduleAt(Math.max(now, deadlineMillis * NANOS_PER_MILLI), () -> pool.expire(serverName));
+			}
+		}
+	}
+
+	/**
+	 * Runs an open workload against a load balancer until every request is done: requests arrive with gaps drawn
+	 * from interArrival whether or not earlier ones are done, and the load balancer picks a server for each.
+	 * A server works on up to serverParallelism requests at a time, each for a time drawn from serviceTime,
+	 * and queues the rest in arrival order. A request is done when its service time is up, and the load balancer's
+	 * count for the server is decremented then. Requests the load balancer has no server for are rejected.
+	 * Events run until the last request is done; events scheduled for later, eg. lease expiry, stay queued.
+	 *
+	 * @param loadBalancer      the load balancer
+	 * @param interArrival      the time between two arrivals
+	 * @param serviceTime       the time a server takes to serve a request, not counting the time it waits in the queue
+	 * @param numRequests       the number of requests
+	 * @param serverParallelism the number of requests a server works on at a time
+	 * @return what happened
+	 */
+	public Result runWorkload(LoadBalancer loadBalancer, Distribution interArrival, Distribution serviceTime,
+			int numRequests, int serverParallelism) {
+		return runWorkload(loadBalancer, interArrival, serviceTime, numRequests, serverParallelism, RequestPolicy.NONE);
+	}
+
+	/**
+	 * Runs an open workload like runWorkload() above, with deadlines and hedging for its requests.
+	 *
+	 * @param loadBalancer      the load balancer
+	 * @param interArrival      the time between two arrivals
+	 * @param serviceTime       the time a server takes to serve a request, not counting the time it waits in the queue
+	 * @param numRequests       the number of requests
+	 * @param serverParallelism the number of requests a server works on at a time
+	 * @param policy            the deadlines and hedging
+	 * @return what happened
+	 */
+	public Result runWorkload(LoadBalancer loadBalancer, Distribution interArrival, Distribution serviceTime,
+			int numRequests, int serverParallelism, RequestPolicy policy) {
+		Iterator<Arrival> arrivals = new Iterator<>() {
+			private int generated;
+			private long arrivalNanos;
+
+			@Override
+			public boolean hasNext() {
+				return generated < numRequests;
+			}
+
+			@Override
+			public Arrival next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				generated++;
+				arrivalNanos += interArrival.sampleNanos(random);
+				return new Arrival(arrivalNanos, serviceTime.sampleNanos(random), "GET");
+			}
+		};
+		return runUntilDone(new Workload(loadBalancer, arrivals, 1, serverParallelism, policy, serviceTime));
+	}
+
+	/**
+	 * Runs a workload of given arrivals against a load balancer, like runWorkload() but with the arrival times,
+	 * service times and request types taken from the arrivals, eg. ones read from a trace.
+	 *
+	 * The arrivals are read lazily, up to readAhead of them ahead of the virtual clock, so they don't have to fit
+	 * in memory. They need not be in arrival order: one that arrives before one read earlier is put back in order,
+	 * as long as the clock hasn't passed its arrival time by the time it is read. If it has, it arrives
+	 * right away, so readAhead should be larger than the distance arrivals can be out of order by.
+	 *
+	 * @param loadBalancer      the load balancer
+	 * @param arrivals          the requests, with arrival times relative to the start of the replay
+	 * @param readAhead         how many arrivals may be read before they are due, at least 1
+	 * @param serverParallelism the number of requests a server works on at a time
+	 * @return what happened
+	 */
+	public Result replay(LoadBalancer loadBalancer, Iterator<Arrival> arrivals, int readAhead,
+			int serverParallelism) {
+		return replay(loadBalancer, arrivals, readAhead, serverParallelism, RequestPolicy.NONE);
+	}
+
+	/**
+	 * Runs a workload of given arrivals like replay() above, with deadlines and hedging for its requests.
+	 *
+	 * @param loadBalancer      the load balancer
+	 * @param arrivals          the requests, with arrival times relative to the start of the replay
+	 * @param readAhead         how many arrivals may be read before they are due, at least 1
+	 * @param serverParallelism the number of requests a server works on at a time
+	 * @param policy            the deadlines and hedging
+	 * @return what happened
+	 */
+	public Result replay(LoadBalancer loadBalancer, Iterator<Arrival> arrivals, int readAhead,
+			int serverParallelism, RequestPolicy policy) {
+		if (readAhead < 1) {
+			throw new IllegalArgumentException("readAhead must be at least 1: " + readAhead);
+		}
+		return runUntilDone(new Workload(loadBalancer, arrivals, readAhead, serverParallelism, policy, null));
+	}
+
+	private Result runUntilDone(Workload workload) {
+		long eventsAtStart = eventsRun;
+		workload.readArrivals();
+		while (!workload.isDone() && !events.isEmpty()) {
+			runNextEvent();
+		}
+		return workload.result(eventsRun - eventsAtStart);
+	}
+
+	/**
+	 * A request of a workload.
+	 *
+	 * @param arrivalNanos when the request arrives, relative to the start of the workload
+	 * @param serviceNanos the time a server takes to serve it
+	 * @param requestType  the request type
+	 */
+	public record Arrival(long arrivalNanos, long serviceNanos, String requestType) {
+	}
+
+	/**
+	 * How a workload treats its requests.
+	 *
+	 * A request with a deadline is given up on when it isn't done by then: it is taken off its server, or out of
+	 * the server's queue, and counted as timed out rather than served.
+	 *
+	 * A hedged request is sent a second time if it isn't done after a delay: the delay is the hedgeQuantile of
+	 * the latencies of the requests done so far, eg. their p95 for 0.95, so that only the slowest requests are
+	 * hedged. The duplicate goes to the server the load balancer picks for it, the same way as for any request.
+	 * In runWorkload() its service time is drawn again, as the time a request takes depends on the server and
+	 * the moment as much as on the request, which is what makes hedging pay off; in replay() it takes as long
+	 * as the recorded request. Whichever of the two is done first is the response, and the other one is
+	 * cancelled. Every copy that got a server is decremented once, when it is done or cancelled, so the load
+	 * balancer's counts match what the servers are working on. A request is not hedged until HEDGE_WARMUP
+	 * requests are done, nor when the load balancer picks the server it is already on, nor when the delay
+	 * would run past its deadline.
+	 *
+	 * @param timeoutNanos  the time from a request's arrival to its deadline, 0 for no deadline
+	 * @param hedgeQuantile the latency quantile to hedge after, 0 not to hedge
+	 */
+	public record RequestPolicy(long timeoutNanos, double hedgeQuantile) {
+
+		/**
+		 * No deadlines and no hedging.
+		 */
+		public static final RequestPolicy NONE = new RequestPolicy(0, 0);
+
+		/**
+		 * The number of requests that have to be done before the hedge delay is known.
+		 */
+		public static final int HEDGE_WARMUP = 100;
+
+		public RequestPolicy {
+			if (timeoutNanos < 0) {
+				throw new IllegalArgumentException("timeoutNanos must not be negative: " + timeoutNanos);
+			}
+			if (hedgeQuantile < 0 || hedgeQuantile >= 1) {
+				throw new IllegalArgumentException("hedgeQuantile must be in [0, 1): " + hedgeQuantile);
+			}
+		}
+	}
+
+	/**
+	 * What happened in a workload. Latencies are from arrival to done, so they include the time spent queued,
+	 * and are of the requests served.
+	 *
+	 * @param timedOut  the requests given up on at their deadline
+	 * @param hedges    the duplicates sent for hedged requests
+	 * @param hedgeWins the hedged requests whose duplicate was done first
+	 */
+	public record Result(long served, long rejected, long simulatedNanos, double meanLatencyMillis,
+			double p99LatencyMillis, Map<String, Long> completedByServer, long events, long timedOut, long hedges,
+			long hedgeWins) {
+
+		/**
+		 * Gets the requests served per second of virtual time.
+		 */
+		public double throughput() {
+			return simulatedNanos == 0 ? 0 : served * 1e9 / simulatedNanos;
+		}
+	}
+
+	private static final class Event implements Comparable<Event> {
+		private final long time;
+		private final long sequence;
+		private final Runnable action;
+
+		Event(long time, long sequence, Runnable action) {
+			this.time = time;
+			this.sequence = sequence;
+			this.action = action;
+		}
+
+		@Override
+		public int compareTo(Event other) {
+			int byTime = Long.compare(time, other.time);
+			return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+		}
+	}
+
+	/**
+	 * The state of one workload.
+	 */
+	private final class Workload {
+		// the latencies the hedge delay is taken from, the most recent ones
+		private static final int HEDGE_SAMPLES = 1024;
+		// how often the hedge delay is worked out again, in requests done
+		private static final int HEDGE_UPDATE_INTERVAL = 64;
+
+		private final LoadBalancer loadBalancer;
+		private final Iterator<Arrival> arrivals;
+		private final int readAhead;
+		private final int serverParallelism;
+		private final RequestPolicy policy;
+		// the service time of a duplicate, null for the same as the request's
+		private final Distribution hedgeServiceTime;
+		private final long start;
+		private final Map<String, SimulatedServer> serverNameToServer = new HashMap<>();
+		private long[] latencies = new long[1024];
+		private final long[] recentLatencies;
+		// -1 until HEDGE_WARMUP requests are done
+		private long hedgeDelay = -1;
+		private long lastDone;
+		private int arrived;
+		// arrivals read but not yet due
+		private int scheduled;
+		// requests on a server or queued for one
+		private int outstanding;
+		private int served;
+		private int rejected;
+		private int timedOut;
+		private int hedges;
+		private int hedgeWins;
+
+		Workload(LoadBalancer loadBalancer, Iterator<Arrival> arrivals, int readAhead, int serverParallelism,
+				RequestPolicy policy, Distribution hedgeServiceTime) {
+			if (serverParallelism < 1) {
+				throw new IllegalArgumentException("serverParallelism must be at least 1: " + serverParallelism);
+			}
+			this.loadBalancer = loadBalancer;
+			this.arrivals = arrivals;
+			this.readAhead = readAhead;
+			this.serverParallelism = serverParallelism;
+			this.policy = policy;
+			this.hedgeServiceTime = hedgeServiceTime;
+			this.recentLatencies = policy.hedgeQuantile() > 0 ? new long[HEDGE_SAMPLES] : null;
+			this.start = now;
+			this.lastDone = now;
+		}
+
+		void readArrivals() {
+			while (scheduled < readAhead && arrivals.hasNext()) {
+				Arrival arrival = arrivals.next();
+				scheduled++;
+				scheduleAt(Math.max(now, start + arrival.arrivalNanos()), () -> arrive(arrival));
+			}
+		}
+
+		private void arrive(Arrival arrival) {
+			scheduled--;
+			readArrivals();
+			int requestId = ++arrived;
+			long deadline = policy.timeoutNanos() > 0 ? now + policy.timeoutNanos() : Request.NO_DEADLINE;
+			Request request = new Request(String.valueOf(requestId), arrival.requestType(), deadline);
+			String serverName = loadBalancer.serveRequest(request);
+			if (serverName == null) {
+				rejected++;
+				lastDone = now;
+				return;
+			}
+			outstanding++;
+			InFlightRequest inFlight = new InFlightRequest(request, now);
+			inFlight.primary = send(inFlight, serverName, arrival.serviceNanos());
+			if (request.hasDeadline()) {
+				scheduleAt(deadline, () -> timeOut(inFlight));
+			}
+			if (hedgeDelay >= 0 && hedgeDelay < request.remainingNanos(now)) {
+				schedule(hedgeDelay, () -> hedge(inFlight));
+			}
+		}
+
+		private Attempt send(InFlightRequest inFlight, String serverName, long serviceNanos) {
+			SimulatedServer server = serverNameToServer.computeIfAbsent(serverName,
+					name -> new SimulatedServer(name, serverSpeeds.getOrDefault(name, 1.0)));
+			Attempt attempt = new Attempt(inFlight, server, serviceNanos);
+			if (server.busy < serverParallelism) {
+				startService(attempt);
+			} else {
+				server.queued.add(attempt);
+			}
+			return attempt;
+		}
+
+		private void startService(Attempt attempt) {
+			attempt.server.busy++;
+			attempt.started = true;
+			schedule((long) (attempt.serviceNanos / attempt.server.speed), () -> complete(attempt));
+		}
+
+		private void hedge(InFlightRequest inFlight) {
+			if (inFlight.done) {
+				return;
+			}
+			String serverName = loadBalancer.serveRequest(inFlight.request);
+			if (serverName == null) {
+				return;
+			}
+			if (serverName.equals(inFlight.primary.server.name)) {
+				// a duplicate on the same server can't be done sooner
+				loadBalancer.decrementRequestCount(serverName);
+				return;
+			}
+			hedges++;
+			long serviceNanos = hedgeServiceTime != null ? hedgeServiceTime.sampleNanos(random)
+					: inFlight.primary.serviceNanos;
+			inFlight.hedge = send(inFlight, serverName, serviceNanos);
+		}
+
+		private void complete(Attempt attempt) {
+			if (attempt.released) {
+				// cancelled while it was being served
+				return;
+			}
+			InFlightRequest inFlight = attempt.request;
+			attempt.server.completed++;
+			inFlight.done = true;
+			outstanding--;
+			if (served == latencies.length) {
+				latencies = Arrays.copyOf(latencies, served * 2);
+			}
+			long latency = now - inFlight.arrivalTime;
+			latencies[served++] = latency;
+			lastDone = now;
+			if (attempt == inFlight.hedge) {
+				hedgeWins++;
+			}
+			release(attempt);
+			release(attempt == inFlight.hedge ? inFlight.primary : inFlight.hedge);
+			if (recentLatencies != null) {
+				updateHedgeDelay(latency);
+			}
+		}
+
+		private void timeOut(InFlightRequest inFlight) {
+			if (inFlight.done) {
+				return;
+			}
+			inFlight.done = true;
+			outstanding--;
+			timedOut++;
+			lastDone = now;
+			release(inFlight.primary);
+			release(inFlight.hedge);
+		}
+
+		/**
+		 * Takes a copy of a request off its server, or out of the server's queue, once it is done or cancelled.
+		 */
+		private void release(Attempt attempt) {
+			if (attempt == null || attempt.released) {
+				return;
+			}
+			attempt.released = true;
+			SimulatedServer server = attempt.server;
+			if (attempt.started) {
+				server.busy--;
+			}
+			loadBalancer.decrementRequestCount(server.name);
+			if (attempt.started) {
+				// copies cancelled while queued are skipped here rather than searched for in the queue
+				Attempt queued = server.queued.poll();
+				while (queued != null && queued.released) {
+					queued = server.queued.poll();
+				}
+				if (queued != null) {
+					startService(queued);
+				}
+			}
+		}
+
+		private void updateHedgeDelay(long latency) {
+			recentLatencies[served % HEDGE_SAMPLES] = latency;
+			if (served >= RequestPolicy.HEDGE_WARMUP && served % HEDGE_UPDATE_INTERVAL == 0) {
+				long[] sorted = Arrays.copyOf(recentLatencies, Math.min(served, HEDGE_SAMPLES));
+				Arrays.sort(sorted);
+				hedgeDelay = sorted[(int) Math.ceil(sorted.length * policy.hedgeQuantile()) - 1];
+			}
+		}
+
+		boolean isDone() {
+			return scheduled == 0 && outstanding == 0 && !arrivals.hasNext();
+		}
+
+		Result result(long events) {
+			long[] sorted = Arrays.copyOf(latencies, served);
+			Arrays.sort(sorted);
+			double total = 0;
+			for (long latency : sorted) {
+				total += latency;
+			}
+			double mean = served == 0 ? 0 : total / served / NANOS_PER_MILLI;
+			double p99 = served == 0 ? 0 : (double) sorted[(int) Math.ceil(served * 0.99) - 1] / NANOS_PER_MILLI;
+			Map<String, Long> completedByServer = new TreeMap<>();
+			for (SimulatedServer server : serverNameToServer.values()) {
+				completedByServer.put(server.name, server.completed);
+			}
+			return new Result(served, rejected, lastDone - start, mean, p99,
+					Collections.unmodifiableMap(completedByServer), events, timedOut, hedges, hedgeWins);
+		}
+	}
+
+	/**
+	 * A request of a workload, from its arrival until it is done or given up on.
+	 */
+	private static final class InFlightRequest {
+		private final Request request;
+		private final long arrivalTime;
+		private Attempt primary;
+		// the duplicate, if the request was hedged
+		private Attempt hedge;
+		private boolean done;
+
+		InFlightRequest(Request request, long arrivalTime) {
+			this.request = request;
+			this.arrivalTime = arrivalTime;
+		}
+	}
+
+	/**
+	 * A copy of a request on a server, or queued for one.
+	 */
+	private static final class Attempt {
+		private final InFlightRequest request;
+		private final SimulatedServer server;
+		private final long serviceNanos;
+		private boolean started;
+		// done or cancelled, and decremented
+		private boolean released;
+
+		Attempt(InFlightRequest request, SimulatedServer server, long serviceNanos) {
+			this.request = request;
+			this.server = server;
+			this.serviceNanos = serviceNanos;
+		}
+	}
+
+	/**
+	 * A server as the workload sees it: the requests it is working on and the ones waiting for it.
+	 */
+	private static final class SimulatedServer {
+		private final String name;
+		private final double speed;
+		private final ArrayDeque<Attempt> queued = new ArrayDeque<>();
+		private int busy;
+		private long completed;
+
+		SimulatedServer(String name, double speed) {
+			this.name = name;
+			this.speed = speed;
+		}
+	}
+}
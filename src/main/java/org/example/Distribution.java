@@ -0,0 +1,97 @@
+package org.example;
+
+import java.util.Random;
+
+/**
+ * A distribution of durations, eg. the time between two request arrivals or the time a server takes
+ * to serve a request, for the DiscreteEventSimulator. Samples are drawn from the random source passed in,
+ * so a simulation with a seeded Random draws the same durations every run.
+ */
+@FunctionalInterface
+public interface Distribution {
+
+	/**
+	 * Draws a duration.
+	 *
+	 * @param random the random source
+	 * @return the duration in nanos, never negative
+	 */
+	long sampleNanos(Random random);
+
+	/**
+	 * The same duration every time.
+	 *
+	 * @param nanos the duration
+	 */
+	static Distribution constant(long nanos) {
+		if (nanos < 0) {
+			throw new IllegalArgumentException("nanos must not be negative: " + nanos);
+		}
+		return random -> nanos;
+	}
+
+	/**
+	 * Exponentially distributed durations, eg. the gaps between Poisson arrivals.
+	 *
+	 * @param meanNanos the mean duration
+	 */
+	static Distribution exponential(double meanNanos) {
+		if (!(meanNanos > 0)) {
+			throw new IllegalArgumentException("meanNanos must be positive: " + meanNanos);
+		}
+		// 1 - nextDouble() is in (0, 1], so the log is finite
+		return random -> (long) (-meanNanos * Math.log(1.0 - random.nextDouble()));
+	}
+
+	/**
+	 * Durations spread evenly between two bounds.
+	 *
+	 * @param minNanos the shortest duration, inclusive
+	 * @param maxNanos the longest duration, exclusive
+	 */
+	static Distribution uniform(long minNanos, long maxNanos) {
+		if (minNanos < 0 || maxNanos <= minNanos) {
+			throw new IllegalArgumentException("invalid bounds: [" + minNanos + ", " + maxNanos + ")");
+		}
+		return random -> minNanos + (long) (random.nextDouble() * (maxNanos - minNanos));
+	}
+
+	/**
+	 * Log-normally distributed durations: most requests take about the median, with a long tail of slow ones,
+	 * which is how service times tend to look.
+	 *
+	 * @param medianNanos the median duration
+	 * @param sigma       the standard deviation of the log of the duration, the larger the longer the tail
+	 */
+	static Distribution logNormal(double medianNanos, double sigma) {
+		if (!(medianNanos > 0) || sigma < 0) {
+			throw new IllegalArgumentException("invalid parameters: median=" + medianNanos + ", sigma=" + sigma);
+		}
+		double mu = Math.log(medianNanos);
+		return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+	}
+
+	/**
+	 * Gaps between arrivals that come in bursts: burstLength arrivals burstFactor times as close together
+	 * as the mean, then a quiet gap long enough that the gaps still average meanNanos. The gaps within a
+	 * burst and the quiet gaps are exponentially distributed.
+	 * The distribution keeps count of where it is in a burst, so each workload needs one of its own.
+	 *
+	 * @param meanNanos   the mean gap
+	 * @param burstFactor how many times the mean rate arrivals come at in a burst, more than 1
+	 * @param burstLength the number of arrivals in a burst, at least 2
+	 */
+	static Distribution bursty(double meanNanos, double burstFactor, int burstLength) {
+		if (!(meanNanos > 0) || !(burstFactor > 1) || burstLength < 2) {
+			throw new IllegalArgumentException("invalid parameters: mean=" + meanNanos + ", burstFactor=" + burstFactor
+					+ ", burstLength=" + burstLength);
+		}
+		Distribution inBurst = exponential(meanNanos / burstFactor);
+		Distribution quiet = exponential(burstLength * meanNanos - (burstLength - 1) * meanNanos / burstFactor);
+		int[] position = { 0 };
+		return random -> {
+			position[0] = (position[0] + 1) % burstLength;
+			return position[0] == 0 ? quiet.sampleNanos(random) : inBurst.sampleNanos(random);
+		};
+	}
+}
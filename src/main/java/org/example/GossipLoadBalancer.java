@@ -0,0 +1,410 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A least-connected load balancer that runs as one node of a cluster, and picks servers by the load of the
+ * whole cluster rather than only its own.
+ *
+ * Each node counts the requests it has in flight per server, like any other load balancer, and every gossip
+ * interval sends its peers the counts that changed since the last interval, as GossipMessage datagrams over
+ * UDP. Every FULL_STATE_ROUNDS rounds it sends all of them, so a peer that lost a datagram or joined late
+ * catches up. What a node hears from its peers is summed per server into the remote counts, and selection
+ * picks the server with the lowest local plus remote count, ties going to the first in the server list.
+ *
+ * Without gossip, nodes that see the same local counts pick the same servers, so a burst that reaches every
+ * node lands on the same few servers. With it, a node sees the others' load at most an interval and a
+ * network hop late. A peer that hasn't been heard from for STALE_ROUNDS intervals is taken to be gone, and
+ * its counts are dropped.
+ *
+ * Every node of a cluster must have the same server list, in the same order. Sending, receiving and the
+ * bookkeeping of peers all happen on one selector thread; selection only reads counters.
+ */
+public class GossipLoadBalancer implements LoadBalancer, Closeable {
+
+	static final int FULL_STATE_ROUNDS = 10;
+	static final int STALE_ROUNDS = 5;
+
+	private final List<Server> servers;
+	private final Map<String, Integer> serverNameToIndex = new HashMap<>();
+	private final int nodeId;
+	private final long gossipIntervalNanos;
+	private final PaddedCounterArray localCounts;
+	// the counts of all peers, summed
+	private final PaddedCounterArray remoteCounts;
+	private final List<InetSocketAddress> peers = new CopyOnWriteArrayList<>();
+	private final DatagramChannel channel;
+	private final Selector selector;
+	private final Thread eventLoop;
+	private volatile boolean running;
+
+	// only used on the event loop
+	private final long[] lastSent;
+	private final int[] changedIndexes;
+	private final long[] changedCounts;
+	private final Map<Integer, PeerState> nodeIdToPeer = new HashMap<>();
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(64 * 1024);
+	private long round;
+
+	private final LongAdder datagramsSent = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder datagramsReceived = new LongAdder();
+	private final LongAdder datagramsDropped = new LongAdder();
+
+	/**
+	 * Constructor. Binds the gossip socket, add peers and call start() to start gossiping.
+	 * Until then it balances on its own counts only.
+	 *
+	 * @param servers              the list of servers to be used, the same on every node
+	 * @param nodeId               the id of this node, unique in the cluster
+	 * @param bindAddress          the address to gossip on, port 0 for any free port
+	 * @param gossipIntervalMillis how often the node sends its counts
+	 * @throws IOException if the address can't be bound
+	 */
+	public GossipLoadBalancer(List<Server> servers, int nodeId, InetSocketAddress bindAddress,
+			long gossipIntervalMillis) throws IOException {
+		if (gossipIntervalMillis <= 0) {
+			throw new IllegalArgumentException("gossipIntervalMillis must be positive: " + gossipIntervalMillis);
+		}
+		this.servers = List.copyOf(servers);
+		for (int i = 0; i < this.servers.size(); i++) {
+			serverNameToIndex.put(this.servers.get(i).getName(), i);
+		}
+		this.nodeId = nodeId;
+		this.gossipIntervalNanos = TimeUnit.MILLISECONDS.toNanos(gossipIntervalMillis);
+		int numServers = this.servers.size();
+		this.localCounts = new PaddedCounterArray(numServers);
+		this.remoteCounts = new PaddedCounterArray(numServers);
+		this.lastSent = new long[numServers];
+		this.changedIndexes = new int[numServers];
+		this.changedCounts = new long[numServers];
+		this.selector = Selector.open();
+		this.channel = DatagramChannel.open();
+		try {
+			channel.bind(bindAddress);
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			channel.close();
+			selector.close();
+			throw e;
+		}
+		this.eventLoop = new Thread(this::runEventLoop, "gossip-" + nodeId);
+		this.eventLoop.setDaemon(true);
+	}
+
+	/**
+	 * Adds a node to gossip with.
+	 *
+	 * @param peer the gossip address of the other node
+	 */
+	public void addPeer(InetSocketAddress peer) {
+		peers.add(peer);
+	}
+
+	/**
+	 * Starts the selector thread.
+	 */
+	public void start() {
+		running = true;
+		eventLoop.start();
+	}
+
+	public InetSocketAddress getLocalAddress() {
+		try {
+			return (InetSocketAddress) channel.getLocalAddress();
+		} catch (IOException e) {
+			throw new IllegalStateException("Gossip channel is closed", e);
+		}
+	}
+
+	public int getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Determines the server with the least requests in flight across the cluster, as far as this node knows,
+	 * and issues the request to it.
+	 *
+	 * @param request the request that the LB will issue to the next server.
+	 */
+	@Override
+	public String serveRequest(Request request) {
+		return serveRequest(request, 0);
+	}
+
+	/**
+	 * Determines the server like serveRequest(), leaving out the excluded servers, and issues the request to it.
+	 *
+	 * @param request         the request that the LB will issue to the next server.
+	 * @param excludedServers the LoadBalancer.serverBit() of each excluded server, or-ed together
+	 */
+	@Override
+	public String serveRequest(Request request, long excludedServers) {
+		int index = selectLeastLoaded(excludedServers);
+		if (index < 0) {
+			return null;
+		}
+		Server server = servers.get(index);
+		server.handleIncomingRequest(request);
+		localCounts.incrementAndGet(index);
+		return server.getName();
+	}
+
+	private int selectLeastLoaded(long excludedServers) {
+		int best = -1;
+		long bestLoad = Long.MAX_VALUE;
+		for (int i = 0; i < servers.size(); i++) {
+			if (excludedServers != 0 && (excludedServers & LoadBalancer.serverBit(servers.get(i).getName())) != 0) {
+				continue;
+			}
+			long load = localCounts.get(i) + remoteCounts.get(i);
+			if (load < bestLoad) {
+				best = i;
+				bestLoad = load;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Increments the no of requests that a server has by 1.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void incrementRequestCount(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		if (index != null) {
+			localCounts.incrementAndGet(index);
+		}
+	}
+
+	/**
+	 * Decrements the no of requests that a server has by 1.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void decrementRequestCount(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		if (index != null) {
+			localCounts.decrementAndGet(index);
+		}
+	}
+
+	/**
+	 * Gets the load of a server that the other nodes have told this one about.
+	 *
+	 * @param serverName the server name
+	 * @return the requests the peers have in flight on the server, or 0 if it isn't one of the servers
+	 */
+	public long getRemoteCount(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		return index != null ? remoteCounts.get(index) : 0;
+	}
+
+	public long getDatagramsSent() {
+		return datagramsSent.sum();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	public long getDatagramsReceived() {
+		return datagramsReceived.sum();
+	}
+
+	/**
+	 * Gets the status of the servers.
+	 *
+	 * @return the status of the servers.
+	 */
+	@Override
+	public String getStatus() {
+		StringBuilder status = new StringBuilder();
+		status.append("Gossip node ").append(nodeId).append(", peers=").append(peers.size());
+		status.append(", datagrams sent=").append(datagramsSent.sum());
+		status.append(", bytes sent=").append(bytesSent.sum());
+		status.append(", datagrams received=").append(datagramsReceived.sum());
+		status.append(", dropped=").append(datagramsDropped.sum());
+		for (int i = 0; i < servers.size(); i++) {
+			status.append("\nserver=").append(servers.get(i).getName());
+			status.append(", local=").append(localCounts.get(i));
+			status.append(", remote=").append(remoteCounts.get(i));
+		}
+		return status.toString();
+	}
+
+	/**
+	 * Stops gossiping. Peers drop this node's counts once they stop hearing from it.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		if (eventLoop.isAlive() && Thread.currentThread() != eventLoop) {
+			try {
+				eventLoop.join(5_000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} else if (!eventLoop.isAlive()) {
+			closeChannel();
+		}
+	}
+
+	private void runEventLoop() {
+		long nextGossip = System.nanoTime();
+		try {
+			while (running) {
+				long waitNanos = nextGossip - System.nanoTime();
+				if (waitNanos > 0) {
+					selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+				} else {
+					selector.selectNow();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					keys.next();
+					keys.remove();
+					receive();
+				}
+				long now = System.nanoTime();
+				if (now - nextGossip >= 0) {
+					sendGossip();
+					dropStalePeers(now);
+					nextGossip = now + gossipIntervalNanos;
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			e.printStackTrace();
+		} finally {
+			closeChannel();
+		}
+	}
+
+	/**
+	 * Reads every datagram waiting, and folds the counts into remoteCounts.
+	 */
+	private void receive() throws IOException {
+		while (true) {
+			receiveBuffer.clear();
+			if (channel.receive(receiveBuffer) == null) {
+				return;
+			}
+			receiveBuffer.flip();
+			GossipMessage message;
+			try {
+				message = GossipMessage.decode(receiveBuffer);
+			} catch (IllegalArgumentException e) {
+				datagramsDropped.increment();
+				continue;
+			}
+			datagramsReceived.increment();
+			if (message.nodeId == nodeId) {
+				continue;
+			}
+			PeerState peer = nodeIdToPeer.computeIfAbsent(message.nodeId, id -> new PeerState(servers.size()));
+			// datagrams may arrive out of order, counts from an older round are out of date.
+			// A peer that restarts from round 1 is heard again once its old state has gone stale.
+			if (message.round < peer.round) {
+				datagramsDropped.increment();
+				continue;
+			}
+			peer.round = message.round;
+			peer.lastHeardNanos = System.nanoTime();
+			for (int i = 0; i < message.serverIndexes.length; i++) {
+				int index = message.serverIndexes[i];
+				if (index >= 0 && index < servers.size()) {
+					remoteCounts.getAndAdd(index, message.counts[i] - peer.counts[index]);
+					peer.counts[index] = message.counts[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends the counts that changed since the last round to every peer, or all of them every FULL_STATE_ROUNDS.
+	 */
+	private void sendGossip() {
+		round++;
+		boolean full = round % FULL_STATE_ROUNDS == 1;
+		int numChanged = 0;
+		for (int i = 0; i < servers.size(); i++) {
+			long count = localCounts.get(i);
+			if (full || count != lastSent[i]) {
+				changedIndexes[numChanged] = i;
+				changedCounts[numChanged] = count;
+				numChanged++;
+				lastSent[i] = count;
+			}
+		}
+		List<ByteBuffer> datagrams = GossipMessage.encode(nodeId, round, full, changedIndexes, changedCounts,
+				numChanged);
+		for (InetSocketAddress peer : peers) {
+			for (ByteBuffer datagram : datagrams) {
+				try {
+					int sent = channel.send(datagram.duplicate(), peer);
+					if (sent > 0) {
+						datagramsSent.increment();
+						bytesSent.add(sent);
+					}
+				} catch (IOException e) {
+					// the peer may be down, it catches up from a full round when it's back
+					datagramsDropped.increment();
+				}
+			}
+		}
+	}
+
+	private void dropStalePeers(long now) {
+		Iterator<PeerState> iterator = nodeIdToPeer.values().iterator();
+		while (iterator.hasNext()) {
+			PeerState peer = iterator.next();
+			if (now - peer.lastHeardNanos > STALE_ROUNDS * gossipIntervalNanos) {
+				for (int i = 0; i < peer.counts.length; i++) {
+					remoteCounts.getAndAdd(i, -peer.counts[i]);
+				}
+				iterator.remove();
+			}
+		}
+	}
+
+	private void closeChannel() {
+		try {
+			channel.close();
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * What this node last heard from a peer.
+	 */
+	private static final class PeerState {
+		final long[] counts;
+		long round = -1;
+		long lastHeardNanos;
+
+		PeerState(int numServers) {
+			this.counts = new long[numServers];
+		}
+	}
+}
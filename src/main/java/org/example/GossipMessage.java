@@ -0,0 +1,149 @@
+package org.example;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The wire format of the load that GossipLoadBalancer instances tell each other, one message per datagram.
+ *
+ * A message holds the local count of some of the sender's servers. Servers are given by their index in
+ * the server list, which every instance of a cluster must share, and as the gap from the previous index,
+ * so that a run of changed servers costs a byte each. Counts are zig-zag varints. A message is:
+ *
+ *   int   MAGIC
+ *   varint node id
+ *   varint round, which goes up by one every gossip interval
+ *   byte  flags, FLAG_FULL when the round has every server and not just the ones that changed
+ *   short number of entries
+ *   entries: varint index gap, zig-zag varint count
+ *
+ * A round whose entries don't fit in one datagram is split over several, each a complete message.
+ */
+final class GossipMessage {
+
+	static final int MAGIC = 0x4C424753;
+	static final int MAX_DATAGRAM_BYTES = 1400;
+	static final byte FLAG_FULL = 1;
+	// magic, two one-byte varints, flags and the number of entries
+	private static final int MIN_HEADER_BYTES = 4 + 1 + 1 + 1 + 2;
+	// an index gap and a count
+	private static final int MAX_ENTRY_BYTES = 5 + 10;
+
+	final int nodeId;
+	final long round;
+	final boolean full;
+	final int[] serverIndexes;
+	final long[] counts;
+
+	GossipMessage(int nodeId, long round, boolean full, int[] serverIndexes, long[] counts) {
+		this.nodeId = nodeId;
+		this.round = round;
+		this.full = full;
+		this.serverIndexes = serverIndexes;
+		this.counts = counts;
+	}
+
+	/**
+	 * Encodes a round into as many datagrams as it takes. A round with no entries is one datagram, so that
+	 * peers still hear that the node is alive.
+	 *
+	 * @param nodeId        the sending node
+	 * @param round         the round
+	 * @param full          whether the entries are every server
+	 * @param serverIndexes the servers, in ascending order
+	 * @param counts        their counts
+	 * @param numEntries    the number of entries to take from serverIndexes and counts
+	 * @return the datagrams, flipped for sending
+	 */
+	static List<ByteBuffer> encode(int nodeId, long round, boolean full, int[] serverIndexes, long[] counts,
+			int numEntries) {
+		List<ByteBuffer> datagrams = new ArrayList<>();
+		int entry = 0;
+		do {
+			ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+			datagram.putInt(MAGIC);
+			putVarint(datagram, nodeId);
+			putVarint(datagram, round);
+			datagram.put(full ? FLAG_FULL : 0);
+			int countPosition = datagram.position();
+			datagram.putShort((short) 0);
+			int entriesInDatagram = 0;
+			int previousIndex = -1;
+			while (entry < numEntries && datagram.remaining() >= MAX_ENTRY_BYTES && entriesInDatagram < 0xFFFF) {
+				putVarint(datagram, serverIndexes[entry] - previousIndex - 1);
+				putVarint(datagram, zigZag(counts[entry]));
+				previousIndex = serverIndexes[entry];
+				entry++;
+				entriesInDatagram++;
+			}
+			datagram.putShort(countPosition, (short) entriesInDatagram);
+			datagrams.add(datagram.flip());
+		} while (entry < numEntries);
+		return datagrams;
+	}
+
+	/**
+	 * Decodes a datagram.
+	 *
+	 * @param datagram the datagram, from its position to its limit
+	 * @return the message
+	 * @throws IllegalArgumentException if the datagram is not a message of this format
+	 */
+	static GossipMessage decode(ByteBuffer datagram) {
+		if (datagram.remaining() < MIN_HEADER_BYTES || datagram.getInt() != MAGIC) {
+			throw new IllegalArgumentException("not a gossip message");
+		}
+		try {
+			int nodeId = (int) getVarint(datagram);
+			long round = getVarint(datagram);
+			boolean full = (datagram.get() & FLAG_FULL) != 0;
+			int numEntries = datagram.getShort() & 0xFFFF;
+			int[] serverIndexes = new int[numEntries];
+			long[] counts = new long[numEntries];
+			int previousIndex = -1;
+			for (int i = 0; i < numEntries; i++) {
+				long index = previousIndex + getVarint(datagram) + 1;
+				// a gap past Integer.MAX_VALUE, or one that wrapped the long, is corrupt
+				if (index < 0 || index > Integer.MAX_VALUE) {
+					throw new IllegalArgumentException("server index out of range: " + index);
+				}
+				previousIndex = (int) index;
+				serverIndexes[i] = previousIndex;
+				counts[i] = unZigZag(getVarint(datagram));
+			}
+			return new GossipMessage(nodeId, round, full, serverIndexes, counts);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("truncated gossip message", e);
+		}
+	}
+
+	static void putVarint(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long getVarint(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("varint longer than 10 bytes");
+	}
+
+	static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
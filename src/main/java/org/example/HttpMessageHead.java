@@ -0,0 +1,189 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the head (start line and headers) of an HTTP/1.1 message straight out of a ByteBuffer,
+ * using absolute indexes so that the buffer's position and limit are left alone.
+ * Only the few headers a proxy needs for framing are looked at.
+ */
+final class HttpMessageHead {
+
+	static final long ABSENT = -1;
+	static final long MALFORMED = -2;
+
+	private HttpMessageHead() {
+	}
+
+	/**
+	 * Finds the end of a message head, ie the blank line after the headers.
+	 *
+	 * @param buffer the buffer
+	 * @param from   index to start searching at
+	 * @param to     index to stop searching at (exclusive)
+	 * @return the index of the first byte after the head, or -1 if the head isn't complete
+	 */
+	static int findHeadEnd(ByteBuffer buffer, int from, int to) {
+		for (int i = from; i + 3 < to; i++) {
+			if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n' && buffer.get(i + 2) == '\r'
+					&& buffer.get(i + 3) == '\n') {
+				return i + 4;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the Content-Length of a message.
+	 *
+	 * @return the content length, ABSENT if there is none, MALFORMED if it isn't a number
+	 */
+	static long contentLength(ByteBuffer buffer, int headStart, int headEnd) {
+		long value = findHeader(buffer, headStart, headEnd, "content-length");
+		if (value == ABSENT) {
+			return ABSENT;
+		}
+		int start = (int) (value >>> 32);
+		int end = (int) value;
+		if (start == end || end - start > 18) {
+			return MALFORMED;
+		}
+		long length = 0;
+		for (int i = start; i < end; i++) {
+			byte digit = buffer.get(i);
+			if (digit < '0' || digit > '9') {
+				return MALFORMED;
+			}
+			length = length * 10 + (digit - '0');
+		}
+		return length;
+	}
+
+	/**
+	 * Checks if a header's value contains a token, eg. "Connection: close" or "Transfer-Encoding: chunked".
+	 * Both the header name and the token are matched case-insensitively.
+	 */
+	static boolean headerContains(ByteBuffer buffer, int headStart, int headEnd, String name, String token) {
+		long value = findHeader(buffer, headStart, headEnd, name);
+		if (value == ABSENT) {
+			return false;
+		}
+		int start = (int) (value >>> 32);
+		int end = (int) value;
+		for (int i = start; i + token.length() <= end; i++) {
+			if (regionMatches(buffer, i, token)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the method of a request, ie the first token of the request line.
+	 */
+	static String method(ByteBuffer buffer, int headStart, int headEnd) {
+		StringBuilder method = new StringBuilder(8);
+		for (int i = headStart; i < headEnd; i++) {
+			byte b = buffer.get(i);
+			if (b == ' ' || b == '\r') {
+				break;
+			}
+			method.append((char) b);
+		}
+		return method.toString();
+	}
+
+	/**
+	 * Checks if a request method is idempotent, ie sending the request twice has the same effect as once.
+	 */
+	static boolean isIdempotent(String method) {
+		return switch (method) {
+		case "GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE" -> true;
+		default -> false;
+		};
+	}
+
+	/**
+	 * Checks if a request line is for HTTP/1.0, where connections aren't kept alive by default.
+	 */
+	static boolean isHttp10(ByteBuffer buffer, int headStart, int headEnd) {
+		int lineEnd = findLineEnd(buffer, headStart, headEnd);
+		return lineEnd - headStart >= 8 && regionMatches(buffer, lineEnd - 8, "http/1.0");
+	}
+
+	/**
+	 * Gets the status code of a response, ie the number after the version in the status line.
+	 *
+	 * @return the status code, or -1 if the status line is malformed
+	 */
+	static int statusCode(ByteBuffer buffer, int headStart, int headEnd) {
+		int i = headStart;
+		while (i < headEnd && buffer.get(i) != ' ') {
+			i++;
+		}
+		if (i + 4 > headEnd) {
+			return -1;
+		}
+		int status = 0;
+		for (int j = i + 1; j < i + 4; j++) {
+			byte digit = buffer.get(j);
+			if (digit < '0' || digit > '9') {
+				return -1;
+			}
+			status = status * 10 + (digit - '0');
+		}
+		return status;
+	}
+
+	/**
+	 * Finds a header by name, skipping the start line.
+	 *
+	 * @return the start index of the trimmed value in the high 32 bits and its end index in the low
+	 * 32 bits, or ABSENT if there is no such header
+	 */
+	private static long findHeader(ByteBuffer buffer, int headStart, int headEnd, String name) {
+		int lineStart = findLineEnd(buffer, headStart, headEnd) + 2;
+		while (lineStart < headEnd) {
+			int lineEnd = findLineEnd(buffer, lineStart, headEnd);
+			if (lineEnd - lineStart > name.length() && buffer.get(lineStart + name.length()) == ':'
+					&& regionMatches(buffer, lineStart, name)) {
+				int start = lineStart + name.length() + 1;
+				int end = lineEnd;
+				while (start < end && (buffer.get(start) == ' ' || buffer.get(start) == '\t')) {
+					start++;
+				}
+				while (end > start && (buffer.get(end - 1) == ' ' || buffer.get(end - 1) == '\t')) {
+					end--;
+				}
+				return ((long) start << 32) | end;
+			}
+			lineStart = lineEnd + 2;
+		}
+		return ABSENT;
+	}
+
+	private static int findLineEnd(ByteBuffer buffer, int from, int to) {
+		for (int i = from; i + 1 < to; i++) {
+			if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n') {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Compares bytes with a lower case ASCII string, ignoring the case of the bytes.
+	 */
+	private static boolean regionMatches(ByteBuffer buffer, int index, String lowerCase) {
+		for (int i = 0; i < lowerCase.length(); i++) {
+			int b = buffer.get(index + i);
+			if (b >= 'A' && b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (b != lowerCase.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,1119 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An HTTP/1.1 reverse proxy that puts a LoadBalancer in the data path.
+ *
+ * For each request read from a client, LoadBalancer.serveRequest() picks a backend, the request is
+ * forwarded to that BackendServer and its response is streamed back to the client. When the response
+ * is complete the backend's request count is decremented again.
+ *
+ * All connections are handled by one NIO selector thread. Every connection reads into a direct buffer
+ * from a DirectBufferPool, and response bytes are written to the client straight from the buffer they
+ * were read into. Client connections are kept alive between requests. Backend connections are borrowed
+ * from a BackendConnectionPool for each exchange and given back when the response is complete, so any
+ * client's request can reuse them. When a backend is at its concurrency limit the request gets a 503.
+ * A new backend connection is opened with a blocking connect on the selector thread, which is why
+ * backends are pre-warmed when the pool is built.
+ *
+ * A multiplexed BackendServer is reached through a few shared connections instead, each carrying many
+ * requests at once as MuxFrame streams. The load balancer's count for such a server is the number of
+ * streams in flight, since every request is counted from serveRequest() until its response is complete,
+ * which is the real concurrency at the backend whatever the number of connections.
+ *
+ * Limitations: a request (head and body) must fit in one buffer and request bodies must be framed by
+ * Content-Length. Responses may be framed by Content-Length, by chunked transfer coding or by the backend
+ * closing the connection; chunked bodies are passed on as they are, only their chunk sizes are read to find
+ * where they end.
+ */
+public final class HttpReverseProxy implements Closeable {
+
+	static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+	static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30_000;
+	static final int DEFAULT_PREWARM_CONNECTIONS = 4;
+	static final int DEFAULT_MUX_CONNECTIONS = 2;
+	// marks a response whose body runs until the backend closes the connection
+	private static final long UNTIL_CLOSE = -1;
+	// marks a chunked response whose end hasn't been read yet
+	private static final long CHUNKED = -2;
+
+	private final LoadBalancer loadBalancer;
+	private final Map<String, BackendServer> serverNameToBackend;
+	// only used by the selector thread
+	private final Map<String, Multiplexer> serverNameToMultiplexer = new HashMap<>();
+	private final DirectBufferPool bufferPool;
+	private final BackendConnectionPool connectionPool;
+	// the proxy only closes the connection pool if it created it
+	private final boolean ownsConnectionPool;
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final Thread eventLoop;
+	private volatile boolean running;
+
+	/**
+	 * Constructor. Binds the listening socket, call start() to start serving.
+	 *
+	 * @param loadBalancer the load balancer that picks a backend for every request
+	 * @param backends     the backends, by the server names the load balancer returns
+	 * @param bindAddress  the address to listen on, port 0 for any free port
+	 * @throws IOException if the address can't be bound
+	 */
+	public HttpReverseProxy(LoadBalancer loadBalancer, List<BackendServer> backends, InetSocketAddress bindAddress)
+			throws IOException {
+		this(loadBalancer, backends, bindAddress,
+				new BackendConnectionPool(DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_PREWARM_CONNECTIONS), true);
+	}
+
+	/**
+	 * Constructor with a connection pool shared with something else. The backends are added to the pool,
+	 * and the pool is left open when the proxy is closed.
+	 *
+	 * @param loadBalancer   the load balancer that picks a backend for every request
+	 * @param backends       the backends, by the server names the load balancer returns
+	 * @param bindAddress    the address to listen on, port 0 for any free port
+	 * @param connectionPool the pool to borrow backend connections from
+	 * @throws IOException if the address can't be bound
+	 */
+	public HttpReverseProxy(LoadBalancer loadBalancer, List<BackendServer> backends, InetSocketAddress bindAddress,
+			BackendConnectionPool connectionPool) throws IOException {
+		this(loadBalancer, backends, bindAddress, connectionPool, false);
+	}
+
+	private HttpReverseProxy(LoadBalancer loadBalancer, List<BackendServer> backends, InetSocketAddress bindAddress,
+			BackendConnectionPool connectionPool, boolean ownsConnectionPool) throws IOException {
+		this.loadBalancer = loadBalancer;
+		this.serverNameToBackend = new HashMap<>();
+		this.connectionPool = connectionPool;
+		this.ownsConnectionPool = ownsConnectionPool;
+		for (BackendServer backend : backends) {
+			serverNameToBackend.put(backend.getName(), backend);
+			if (!backend.isMultiplexed()) {
+				connectionPool.addServer(backend);
+			}
+		}
+		this.bufferPool = new DirectBufferPool(DEFAULT_BUFFER_SIZE, 1024);
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(bindAddress, 1024);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		this.eventLoop = new Thread(this::runEventLoop, "http-proxy-" + getLocalAddress().getPort());
+	}
+
+	/**
+	 * Starts the selector thread.
+	 */
+	public void start() {
+		running = true;
+		eventLoop.start();
+	}
+
+	/**
+	 * Gets the number of multiplexed connections currently open to a server.
+	 * Only meant for tests and monitoring, as the count is read outside the selector thread.
+	 *
+	 * @param serverName the server name
+	 * @return the number of open connections
+	 */
+	int getMuxConnectionCount(String serverName) {
+		Multiplexer multiplexer = serverNameToMultiplexer.get(serverName);
+		if (multiplexer == null) {
+			return 0;
+		}
+		int count = 0;
+		for (MuxConnection connection : multiplexer.connections) {
+			if (connection != null && !connection.closed) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public BackendConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
+	public InetSocketAddress getLocalAddress() {
+		try {
+			return (InetSocketAddress) serverChannel.getLocalAddress();
+		} catch (IOException e) {
+			throw new IllegalStateException("Proxy is closed", e);
+		}
+	}
+
+	/**
+	 * Stops the proxy and closes all connections. Requests in flight are dropped
+	 * and their request counts decremented.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		if (eventLoop.isAlive() && Thread.currentThread() != eventLoop) {
+			try {
+				eventLoop.join(5_000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} else if (!eventLoop.isAlive()) {
+			closeAll();
+		}
+	}
+
+	private void runEventLoop() {
+		try {
+			while (running) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handle(key);
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			e.printStackTrace();
+		} finally {
+			closeAll();
+		}
+	}
+
+	private void handle(SelectionKey key) {
+		Object attachment = key.attachment();
+		try {
+			if (!key.isValid()) {
+				return;
+			}
+			if (key.isAcceptable()) {
+				accept();
+			} else if (attachment instanceof ClientConnection client) {
+				if (key.isWritable()) {
+					client.onWritable();
+				}
+				if (key.isValid() && key.isReadable()) {
+					client.onReadable();
+				}
+			} else if (attachment instanceof BackendConnection backend) {
+				if (key.isWritable()) {
+					backend.onWritable();
+				}
+				if (key.isValid() && key.isReadable()) {
+					backend.onReadable();
+				}
+			} else if (attachment instanceof MuxConnection connection) {
+				if (key.isWritable()) {
+					connection.flush();
+				}
+				if (key.isValid() && key.isReadable()) {
+					connection.onReadable();
+				}
+			}
+		} catch (IOException | CancelledKeyException e) {
+			if (attachment instanceof ClientConnection client) {
+				client.close();
+			} else if (attachment instanceof BackendConnection backend) {
+				backend.fail();
+			} else if (attachment instanceof MuxConnection connection) {
+				connection.fail();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			ClientConnection client = new ClientConnection(channel);
+			client.key = channel.register(selector, SelectionKey.OP_READ, client);
+		}
+	}
+
+	private void closeAll() {
+		if (!selector.isOpen()) {
+			return;
+		}
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof ClientConnection client) {
+				client.close();
+			} else if (key.attachment() instanceof BackendConnection backend) {
+				backend.close();
+			} else if (key.attachment() instanceof MuxConnection connection) {
+				connection.close();
+			}
+		}
+		closeQuietly(serverChannel);
+		closeQuietly(selector);
+		if (ownsConnectionPool) {
+			connectionPool.close();
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// nothing left to do with it
+		}
+	}
+
+	/**
+	 * A connection from a client. Reads requests one at a time: while a request is in flight
+	 * the client is not read from, so requests that are pipelined wait in the buffer.
+	 */
+	private class ClientConnection {
+		final SocketChannel channel;
+		final String clientId;
+		final ByteBuffer in;
+		SelectionKey key;
+		// the exchange with the backend of the request in flight
+		Exchange backend;
+		// state of the request in flight
+		boolean inFlight;
+		String serverName;
+		int requestLength;
+		// the request may be sent again if its first attempt got no response
+		boolean idempotent;
+		boolean closeAfterResponse;
+		// an error response being written, instead of a backend's response
+		ByteBuffer errorResponse;
+		boolean closed;
+
+		ClientConnection(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			// per host, as each connection comes from a new ephemeral port
+			this.clientId = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+			this.in = bufferPool.acquire();
+		}
+
+		void onReadable() throws IOException {
+			int read = channel.read(in);
+			if (read < 0) {
+				close();
+				return;
+			}
+			processRequest();
+		}
+
+		/**
+		 * Starts the exchange for the request at the start of the buffer, if it has been read completely.
+		 */
+		void processRequest() throws IOException {
+			if (inFlight || closed) {
+				return;
+			}
+			int headEnd = HttpMessageHead.findHeadEnd(in, 0, in.position());
+			if (headEnd < 0) {
+				if (!in.hasRemaining()) {
+					sendError(431, "Request Header Fields Too Large", true);
+				}
+				return;
+			}
+			if (HttpMessageHead.headerContains(in, 0, headEnd, "transfer-encoding", "chunked")) {
+				sendError(501, "Not Implemented", true);
+				return;
+			}
+			long contentLength = HttpMessageHead.contentLength(in, 0, headEnd);
+			if (contentLength == HttpMessageHead.MALFORMED) {
+				sendError(400, "Bad Request", true);
+				return;
+			}
+			long length = headEnd + Math.max(0, contentLength);
+			if (length > in.capacity()) {
+				sendError(413, "Content Too Large", true);
+				return;
+			}
+			if (in.position() < length) {
+				// wait for the rest of the body
+				return;
+			}
+			requestLength = (int) length;
+			closeAfterResponse = HttpMessageHead.headerContains(in, 0, headEnd, "connection", "close")
+					|| (HttpMessageHead.isHttp10(in, 0, headEnd)
+							&& !HttpMessageHead.headerContains(in, 0, headEnd, "connection", "keep-alive"));
+			String method = HttpMessageHead.method(in, 0, headEnd);
+			idempotent = HttpMessageHead.isIdempotent(method);
+			Request request = new Request(clientId, method);
+			try {
+				serverName = loadBalancer.serveRequest(request);
+			} catch (RuntimeException e) {
+				// eg. ServerUnavailableException, which must not take the event loop and every client down
+				serverName = null;
+			}
+			if (serverName == null) {
+				sendError(503, "Service Unavailable", closeAfterResponse);
+				return;
+			}
+			BackendServer backendServer = serverNameToBackend.get(serverName);
+			if (backendServer == null) {
+				loadBalancer.decrementRequestCount(serverName);
+				sendError(502, "Bad Gateway", closeAfterResponse);
+				return;
+			}
+			inFlight = true;
+			key.interestOps(0);
+			boolean forwarded;
+			try {
+				if (backendServer.isMultiplexed()) {
+					forwarded = serverNameToMultiplexer.computeIfAbsent(serverName, name -> new Multiplexer(backendServer))
+							.openStream(this);
+				} else {
+					forwarded = forwardRequest(backendServer, false);
+				}
+			} catch (IOException e) {
+				failExchange(502, "Bad Gateway");
+				return;
+			}
+			if (!forwarded) {
+				failExchange(503, "Service Unavailable");
+			}
+		}
+
+		/**
+		 * Borrows a connection to the backend and starts writing the request to it.
+		 *
+		 * @return false if the backend is at its concurrency limit
+		 */
+		boolean forwardRequest(BackendServer backendServer, boolean retry) throws IOException {
+			SocketChannel backendChannel = connectionPool.tryBorrowIdle(serverName);
+			boolean reused = backendChannel != null;
+			if (!reused) {
+				backendChannel = connectionPool.tryBorrow(serverName);
+				if (backendChannel == null) {
+					return false;
+				}
+			}
+			BackendConnection backendConnection = new BackendConnection(backendServer, backendChannel, reused, retry);
+			backend = backendConnection;
+			try {
+				backendConnection.beginExchange(this);
+			} catch (IOException e) {
+				backendConnection.fail();
+			}
+			return true;
+		}
+
+		void onWritable() throws IOException {
+			if (errorResponse != null) {
+				writeErrorResponse();
+			} else if (inFlight && backend != null) {
+				backend.flushToClient();
+			}
+		}
+
+		/**
+		 * Called once the whole response has been written to the client.
+		 */
+		void completeExchange(boolean backendCloses) throws IOException {
+			loadBalancer.decrementRequestCount(serverName);
+			inFlight = false;
+			if (backend != null) {
+				backend.release(!backendCloses);
+				backend = null;
+			}
+			if (closeAfterResponse) {
+				close();
+				return;
+			}
+			consumeRequest();
+			key.interestOps(SelectionKey.OP_READ);
+			// a pipelined request may already be in the buffer
+			processRequest();
+		}
+
+		/**
+		 * Called when the request couldn't be forwarded, or the backend failed before any of its
+		 * response reached the client.
+		 */
+		void failExchange(int status, String reason) throws IOException {
+			loadBalancer.decrementRequestCount(serverName);
+			inFlight = false;
+			backend = null;
+			sendError(status, reason, closeAfterResponse);
+		}
+
+		private void consumeRequest() {
+			in.flip();
+			in.position(requestLength);
+			in.compact();
+			requestLength = 0;
+		}
+
+		private void sendError(int status, String reason, boolean closeAfter) throws IOException {
+			String response = "HTTP/1.1 " + status + " " + reason + "\r\nContent-Length: 0\r\n"
+					+ (closeAfter ? "Connection: close\r\n" : "") + "\r\n";
+			errorResponse = ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII));
+			closeAfterResponse = closeAfter;
+			writeErrorResponse();
+		}
+
+		private void writeErrorResponse() throws IOException {
+			channel.write(errorResponse);
+			if (errorResponse.hasRemaining()) {
+				key.interestOps(SelectionKey.OP_WRITE);
+				return;
+			}
+			errorResponse = null;
+			if (closeAfterResponse) {
+				close();
+				return;
+			}
+			if (requestLength > 0) {
+				consumeRequest();
+			}
+			key.interestOps(SelectionKey.OP_READ);
+			processRequest();
+		}
+
+		void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (key != null) {
+				key.cancel();
+			}
+			closeQuietly(channel);
+			if (backend != null) {
+				backend.close();
+				backend = null;
+			}
+			if (inFlight) {
+				inFlight = false;
+				loadBalancer.decrementRequestCount(serverName);
+			}
+			bufferPool.release(in);
+		}
+	}
+
+	/**
+	 * The backend side of one request, as seen by the client connection that sent it.
+	 */
+	private interface Exchange {
+
+		/**
+		 * Writes more of the response to the client, once the client can take more.
+		 */
+		void flushToClient() throws IOException;
+
+		/**
+		 * Ends the exchange after the whole response has been written to the client.
+		 *
+		 * @param reusable false if the backend is closing the connection
+		 */
+		void release(boolean reusable);
+
+		/**
+		 * Abandons the exchange, eg. because the client went away.
+		 */
+		void close();
+	}
+
+	/**
+	 * A connection to a backend borrowed from the pool for one exchange.
+	 */
+	private class BackendConnection implements Exchange {
+		final BackendServer server;
+		final String serverName;
+		final SocketChannel channel;
+		final ByteBuffer in;
+		final SelectionKey key;
+		ClientConnection client;
+		// the connection was idle in the pool, rather than opened for this exchange
+		final boolean reused;
+		// this exchange is already the retry of one whose connection broke
+		final boolean retry;
+		// the part of the client's buffer still to be written to the backend
+		ByteBuffer requestView;
+		// response state
+		boolean responseRead;
+		boolean headParsed;
+		boolean responseStarted;
+		boolean backendCloses;
+		long responseRemaining;
+		// the chunk framing of a chunked response, and where the bytes not scanned yet start in the buffer
+		ChunkedBody chunkedBody;
+		int chunkScanFrom;
+		boolean closed;
+
+		BackendConnection(BackendServer server, SocketChannel channel, boolean reused, boolean retry)
+				throws IOException {
+			this.server = server;
+			this.serverName = server.getName();
+			this.channel = channel;
+			this.reused = reused;
+			this.retry = retry;
+			try {
+				// a pooled connection that served an earlier exchange is still registered, with no interest
+				SelectionKey existingKey = channel.keyFor(selector);
+				if (existingKey != null && existingKey.isValid()) {
+					existingKey.attach(this);
+					this.key = existingKey;
+				} else {
+					channel.configureBlocking(false);
+					this.key = channel.register(selector, 0, this);
+				}
+			} catch (IOException e) {
+				connectionPool.release(serverName, channel, false);
+				throw e;
+			}
+			this.in = bufferPool.acquire();
+		}
+
+		void beginExchange(ClientConnection client) throws IOException {
+			this.client = client;
+			requestView = client.in.duplicate();
+			requestView.position(0).limit(client.requestLength);
+			writeRequest();
+		}
+
+		void onWritable() throws IOException {
+			writeRequest();
+		}
+
+		private void writeRequest() throws IOException {
+			channel.write(requestView);
+			key.interestOps(requestView.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+
+		void onReadable() throws IOException {
+			if (client == null) {
+				return;
+			}
+			int read = channel.read(in);
+			if (read > 0) {
+				responseRead = true;
+			}
+			if (read < 0) {
+				if (headParsed && responseRemaining == UNTIL_CLOSE) {
+					in.flip();
+					forward(true);
+				} else {
+					fail();
+				}
+				return;
+			}
+			if (!headParsed && !parseHead()) {
+				return;
+			}
+			in.flip();
+			forward(false);
+		}
+
+		/**
+		 * Parses the response head once it is in the buffer.
+		 *
+		 * @return true if the head was parsed.
+		 */
+		private boolean parseHead() throws IOException {
+			int headEnd = HttpMessageHead.findHeadEnd(in, 0, in.position());
+			if (headEnd < 0) {
+				if (!in.hasRemaining()) {
+					throw new IOException("Response head from " + serverName + " doesn't fit in a buffer");
+				}
+				return false;
+			}
+			int status = HttpMessageHead.statusCode(in, 0, headEnd);
+			if (status < 0) {
+				throw new IOException("Malformed status line from " + serverName);
+			}
+			backendCloses = HttpMessageHead.headerContains(in, 0, headEnd, "connection", "close");
+			long contentLength = HttpMessageHead.contentLength(in, 0, headEnd);
+			boolean noBody = status < 200 || status == 204 || status == 304;
+			if (noBody) {
+				responseRemaining = headEnd;
+			} else if (HttpMessageHead.headerContains(in, 0, headEnd, "transfer-encoding", "chunked")) {
+				// takes precedence over a Content-Length
+				responseRemaining = CHUNKED;
+				chunkedBody = new ChunkedBody();
+				chunkScanFrom = headEnd;
+			} else if (contentLength >= 0) {
+				responseRemaining = headEnd + contentLength;
+			} else if (contentLength == HttpMessageHead.MALFORMED) {
+				throw new IOException("Unsupported response framing from " + serverName);
+			} else {
+				responseRemaining = UNTIL_CLOSE;
+				backendCloses = true;
+			}
+			headParsed = true;
+			return true;
+		}
+
+		/**
+		 * Writes the response bytes in the (flipped) buffer to the client.
+		 */
+		private void forward(boolean endOfStream) throws IOException {
+			if (responseRemaining == CHUNKED) {
+				int end = chunkedBody.scan(in, chunkScanFrom, in.limit());
+				chunkScanFrom = 0;
+				if (end == ChunkedBody.MALFORMED) {
+					throw new IOException("Malformed chunked response from " + serverName);
+				}
+				if (end >= 0) {
+					// the end of the body has been read, so from here on it is like a Content-Length
+					responseRemaining = end - in.position();
+				}
+			}
+			if (responseRemaining >= 0 && in.remaining() > responseRemaining) {
+				// anything past the end of the response is not ours to forward
+				in.limit(in.position() + (int) responseRemaining);
+			}
+			flushToClient(endOfStream);
+		}
+
+		@Override
+		public void flushToClient() throws IOException {
+			flushToClient(false);
+		}
+
+		private void flushToClient(boolean endOfStream) throws IOException {
+			int written = client.channel.write(in);
+			if (written > 0) {
+				responseStarted = true;
+			}
+			if (responseRemaining >= 0) {
+				responseRemaining -= written;
+			}
+			if (in.hasRemaining()) {
+				// the client is slower than the backend: stop reading until the client drains
+				key.interestOps(0);
+				client.key.interestOps(SelectionKey.OP_WRITE);
+				return;
+			}
+			in.clear();
+			if (responseRemaining == 0 || endOfStream) {
+				ClientConnection owner = client;
+				client = null;
+				owner.completeExchange(backendCloses || endOfStream);
+				return;
+			}
+			client.key.interestOps(0);
+			key.interestOps(SelectionKey.OP_READ);
+		}
+
+		/**
+		 * Handles a broken backend connection. A pooled connection may have been closed by the backend
+		 * while it was idle, so an idempotent request whose reused connection broke before a single byte
+		 * of response was read is retried once on another connection, since the request is still in the
+		 * client's buffer. Anything else may already have been processed by the backend, so it isn't sent again.
+		 */
+		void fail() {
+			ClientConnection owner = client;
+			close();
+			if (owner == null || owner.closed) {
+				return;
+			}
+			owner.backend = null;
+			try {
+				if (responseStarted) {
+					// part of a response has been sent, the client can only find out by the connection closing
+					owner.close();
+				} else if (retry || !reused || responseRead || !owner.idempotent) {
+					owner.failExchange(502, "Bad Gateway");
+				} else if (!owner.forwardRequest(server, true)) {
+					owner.failExchange(503, "Service Unavailable");
+				}
+			} catch (IOException e) {
+				owner.close();
+			}
+		}
+
+		/**
+		 * Gives the connection back to the pool once the exchange is complete.
+		 *
+		 * @param reusable false if the backend is closing the connection
+		 */
+		@Override
+		public void release(boolean reusable) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			client = null;
+			if (reusable) {
+				// stays registered while idle, so the next exchange on it doesn't register again
+				key.interestOps(0);
+				key.attach(null);
+			}
+			connectionPool.release(serverName, channel, reusable);
+			bufferPool.release(in);
+		}
+
+		/**
+		 * Closes the connection, eg. because it broke or the proxy is closing.
+		 */
+		@Override
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			key.cancel();
+			connectionPool.release(serverName, channel, false);
+			bufferPool.release(in);
+		}
+	}
+
+	/**
+	 * The multiplexed connections to one backend. A new stream goes on the open connection with the
+	 * fewest streams, and a connection is only opened while fewer than DEFAULT_MUX_CONNECTIONS are.
+	 */
+	private class Multiplexer {
+		final BackendServer server;
+		final MuxConnection[] connections = new MuxConnection[DEFAULT_MUX_CONNECTIONS];
+		int openStreams;
+
+		Multiplexer(BackendServer server) {
+			this.server = server;
+		}
+
+		/**
+		 * Opens a stream for the request of a client and starts sending it.
+		 *
+		 * @return false if the backend is at its concurrency limit
+		 */
+		boolean openStream(ClientConnection client) throws IOException {
+			if (openStreams >= server.getConcurrencyLimit()) {
+				return false;
+			}
+			MuxConnection least = null;
+			int emptySlot = -1;
+			for (int i = 0; i < connections.length; i++) {
+				MuxConnection connection = connections[i];
+				if (connection == null || connection.closed) {
+					emptySlot = i;
+				} else if (least == null || connection.streams.size() < least.streams.size()) {
+					least = connection;
+				}
+			}
+			if (emptySlot >= 0 && (least == null || !least.streams.isEmpty())) {
+				least = new MuxConnection(this);
+				connections[emptySlot] = least;
+			}
+			Stream stream = new Stream(least, client);
+			client.backend = stream;
+			openStreams++;
+			least.send(stream);
+			return true;
+		}
+	}
+
+	/**
+	 * One multiplexed connection to a backend. Requests are copied into its output buffer as frames,
+	 * and the frames read back are split up between the streams they belong to.
+	 *
+	 * Response bytes are copied into a buffer per stream and written to the client from there. If a client
+	 * is slower than its backend and its buffer fills up, the whole connection stops being read until that
+	 * client drains: without flow control windows, that is the only way to apply back pressure.
+	 */
+	private class MuxConnection {
+		final Multiplexer multiplexer;
+		final SocketChannel channel;
+		final SelectionKey key;
+		final ByteBuffer in;
+		final ByteBuffer out;
+		final Map<Integer, Stream> streams = new HashMap<>();
+		// streams whose request didn't fit in the output buffer yet
+		final Deque<Stream> waitingToSend = new ArrayDeque<>();
+		int nextStreamId = 1;
+		// the frame being read
+		boolean inFrame;
+		Stream frameStream;
+		int frameRemaining;
+		boolean frameEnds;
+		// not reading because frameStream's buffer is full
+		boolean readBlocked;
+		boolean parsing;
+		boolean closed;
+
+		MuxConnection(Multiplexer multiplexer) throws IOException {
+			this.multiplexer = multiplexer;
+			this.channel = SocketChannel.open();
+			try {
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				channel.connect(multiplexer.server.getAddress());
+				channel.configureBlocking(false);
+				this.key = channel.register(selector, SelectionKey.OP_READ, this);
+			} catch (IOException e) {
+				closeQuietly(channel);
+				throw e;
+			}
+			// room for a few requests, each of which fits in a client's buffer
+			this.in = ByteBuffer.allocateDirect(4 * DEFAULT_BUFFER_SIZE);
+			this.out = ByteBuffer.allocateDirect(4 * (DEFAULT_BUFFER_SIZE + MuxFrame.HEADER_BYTES));
+		}
+
+		void send(Stream stream) {
+			do {
+				stream.id = nextStreamId;
+				nextStreamId = nextStreamId == Integer.MAX_VALUE ? 1 : nextStreamId + 1;
+			} while (streams.containsKey(stream.id));
+			streams.put(stream.id, stream);
+			waitingToSend.add(stream);
+			try {
+				flush();
+			} catch (IOException e) {
+				fail();
+			}
+		}
+
+		/**
+		 * Copies waiting requests into the output buffer and writes as much of it as the backend takes.
+		 */
+		void flush() throws IOException {
+			if (closed) {
+				return;
+			}
+			fillOutput();
+			out.flip();
+			channel.write(out);
+			out.compact();
+			fillOutput();
+			updateInterest();
+		}
+
+		private void fillOutput() {
+			Stream stream;
+			while ((stream = waitingToSend.peek()) != null) {
+				if (stream.closed) {
+					waitingToSend.poll();
+					continue;
+				}
+				int length = stream.client.requestLength;
+				if (out.remaining() < MuxFrame.HEADER_BYTES + length) {
+					return;
+				}
+				waitingToSend.poll();
+				MuxFrame.putHeader(out, stream.id, MuxFrame.FLAG_END, length);
+				out.put(out.position(), stream.client.in, 0, length);
+				out.position(out.position() + length);
+			}
+		}
+
+		void onReadable() throws IOException {
+			if (channel.read(in) < 0) {
+				throw new IOException("Multiplexed connection to " + multiplexer.server.getName() + " closed");
+			}
+			parseFrames();
+		}
+
+		/**
+		 * Hands the payload of the frames read so far to their streams.
+		 */
+		private void parseFrames() throws IOException {
+			if (parsing || closed) {
+				return;
+			}
+			parsing = true;
+			in.flip();
+			try {
+				while (!readBlocked && !closed) {
+					if (!inFrame) {
+						if (in.remaining() < MuxFrame.HEADER_BYTES) {
+							break;
+						}
+						int start = in.position();
+						int length = MuxFrame.length(in, start);
+						if (length < 0) {
+							throw new IOException("Malformed frame from " + multiplexer.server.getName());
+						}
+						// a stream the client abandoned has its frames skipped
+						frameStream = streams.get(MuxFrame.streamId(in, start));
+						frameEnds = (MuxFrame.flags(in, start) & MuxFrame.FLAG_END) != 0;
+						frameRemaining = length;
+						inFrame = true;
+						in.position(start + MuxFrame.HEADER_BYTES);
+					}
+					int count = Math.min(frameRemaining, in.remaining());
+					if (frameStream != null) {
+						count = Math.min(count, frameStream.response.remaining());
+						if (count == 0 && frameRemaining > 0) {
+							readBlocked = in.hasRemaining();
+							break;
+						}
+						frameStream.response.put(frameStream.response.position(), in, in.position(), count);
+						frameStream.response.position(frameStream.response.position() + count);
+					}
+					in.position(in.position() + count);
+					frameRemaining -= count;
+					Stream stream = frameStream;
+					if (frameRemaining == 0) {
+						inFrame = false;
+						frameStream = null;
+						if (frameEnds && stream != null) {
+							streams.remove(stream.id);
+							stream.ended = true;
+						}
+					}
+					if (stream != null) {
+						stream.deliver();
+					}
+					if (!in.hasRemaining()) {
+						break;
+					}
+				}
+			} finally {
+				in.compact();
+				parsing = false;
+			}
+			updateInterest();
+		}
+
+		/**
+		 * Starts reading again after the stream that blocked reading drained or went away.
+		 */
+		void resume() {
+			if (!readBlocked || closed) {
+				return;
+			}
+			readBlocked = false;
+			try {
+				parseFrames();
+			} catch (IOException e) {
+				fail();
+			}
+		}
+
+		private void updateInterest() {
+			if (closed) {
+				return;
+			}
+			int ops = (readBlocked ? 0 : SelectionKey.OP_READ) | (out.position() > 0 ? SelectionKey.OP_WRITE : 0);
+			if (key.interestOps() != ops) {
+				key.interestOps(ops);
+			}
+		}
+
+		/**
+		 * Handles a broken connection: every stream on it fails with it.
+		 */
+		void fail() {
+			List<Stream> broken = new ArrayList<>(streams.values());
+			close();
+			for (Stream stream : broken) {
+				stream.fail();
+			}
+		}
+
+		void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			key.cancel();
+			closeQuietly(channel);
+		}
+	}
+
+	/**
+	 * One request and its response on a multiplexed connection.
+	 */
+	private class Stream implements Exchange {
+		final MuxConnection connection;
+		final ClientConnection client;
+		final ByteBuffer response;
+		int id;
+		boolean responseStarted;
+		boolean ended;
+		boolean closed;
+
+		Stream(MuxConnection connection, ClientConnection client) {
+			this.connection = connection;
+			this.client = client;
+			this.response = bufferPool.acquire();
+		}
+
+		/**
+		 * Called by the connection when more of the response has arrived.
+		 */
+		void deliver() {
+			try {
+				flushToClient();
+			} catch (IOException e) {
+				// the client went away, which doesn't concern the other streams
+				client.close();
+			}
+		}
+
+		@Override
+		public void flushToClient() throws IOException {
+			if (closed) {
+				return;
+			}
+			response.flip();
+			if (client.channel.write(response) > 0) {
+				responseStarted = true;
+			}
+			response.compact();
+			if (response.position() > 0) {
+				client.key.interestOps(SelectionKey.OP_WRITE);
+				return;
+			}
+			client.key.interestOps(0);
+			if (ended) {
+				client.completeExchange(false);
+			} else if (connection.frameStream == this) {
+				connection.resume();
+			}
+		}
+
+		@Override
+		public void release(boolean reusable) {
+			close();
+		}
+
+		@Override
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			connection.multiplexer.openStreams--;
+			if (connection.streams.get(id) == this) {
+				connection.streams.remove(id);
+			}
+			bufferPool.release(response);
+			if (connection.frameStream == this) {
+				// the rest of the frame is skipped
+				connection.frameStream = null;
+				connection.resume();
+			}
+		}
+
+		void fail() {
+			boolean started = responseStarted;
+			close();
+			if (client.closed) {
+				return;
+			}
+			try {
+				if (started) {
+					client.close();
+				} else {
+					client.failExchange(502, "Bad Gateway");
+				}
+			} catch (IOException e) {
+				client.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Summarizes the LoadBalancerEvents in a JFR recording: how long server selections took and how long they
+ * waited for the balancer's and the tracker's locks, how many heap operations and lease lookups they did,
+ * and how many counts were updated and leases expired. Events of other types in the recording are skipped.
+ *
+ * Usage: JfrReport recording.jfr
+ */
+public class JfrReport {
+
+	private JfrReport() {
+	}
+
+	/**
+	 * Reads the LoadBalancerEvents of a recording.
+	 *
+	 * @param recording the recording file
+	 * @return the summary of the events
+	 * @throws IOException if the file can't be read or is not a recording
+	 */
+	public static Report analyze(Path recording) throws IOException {
+		Samples selectionNanos = new Samples();
+		Samples selectionLockWaitNanos = new Samples();
+		Samples heapOperations = new Samples();
+		Samples leaseLookups = new Samples();
+		Samples updateLockWaitNanos = new Samples();
+		long selectionTrackerLockWait = 0;
+		long updateTrackerLockWait = 0;
+		long updateHeapOperations = 0;
+		long emptySelections = 0;
+		long leaseExpiries = 0;
+		try (RecordingFile file = new RecordingFile(recording)) {
+			while (file.hasMoreEvents()) {
+				RecordedEvent event = file.readEvent();
+				switch (event.getEventType().getName()) {
+				case "org.example.ServerSelection" -> {
+					selectionNanos.add(event.getDuration().toNanos());
+					selectionLockWaitNanos.add(event.getDuration("lockWait").toNanos());
+					heapOperations.add(event.getInt("heapOperations"));
+					leaseLookups.add(event.getInt("leaseLookups"));
+					selectionTrackerLockWait += event.getDuration("trackerLockWait").toNanos();
+					if (event.getString("serverName") == null) {
+						emptySelections++;
+					}
+				}
+				case "org.example.CountUpdate" -> {
+					updateLockWaitNanos.add(event.getDuration("lockWait").toNanos());
+					updateHeapOperations += event.getInt("heapOperations");
+					updateTrackerLockWait += event.getDuration("trackerLockWait").toNanos();
+				}
+				case "org.example.LeaseExpiry" -> leaseExpiries++;
+				default -> {
+				}
+				}
+			}
+		}
+		return new Report(selectionNanos.count, emptySelections, selectionNanos.mean(), selectionNanos.percentile(0.5),
+				selectionNanos.percentile(0.99), selectionNanos.max(), selectionLockWaitNanos.sum,
+				selectionLockWaitNanos.percentile(0.99), selectionLockWaitNanos.nonZero, selectionTrackerLockWait,
+				heapOperations.mean(), heapOperations.max(), leaseLookups.mean(), leaseLookups.max(),
+				updateLockWaitNanos.count, updateLockWaitNanos.sum, updateLockWaitNanos.nonZero, updateTrackerLockWait,
+				updateHeapOperations, leaseExpiries);
+	}
+
+	/**
+	 * The summary of a recording. Times are in nanos.
+	 *
+	 * @param selections                 the ServerSelection events
+	 * @param emptySelections            the selections that found no server
+	 * @param meanSelectionNanos         the mean duration of a selection, including its lock wait
+	 * @param p50SelectionNanos          the median duration of a selection
+	 * @param p99SelectionNanos          the 99th percentile duration of a selection
+	 * @param maxSelectionNanos          the longest selection
+	 * @param selectionLockWait          the total time selections waited for the lock
+	 * @param p99SelectionLockWait       the 99th percentile lock wait of a selection
+	 * @param contendedSelections        the selections that found the lock held
+	 * @param selectionTrackerLockWait   the total time selections waited for the tracker's lock
+	 * @param meanHeapOperations         the mean heap operations per selection
+	 * @param maxHeapOperations          the most heap operations in one selection
+	 * @param meanLeaseLookups           the mean lease lookups per selection
+	 * @param maxLeaseLookups            the most lease lookups in one selection
+	 * @param countUpdates               the CountUpdate events
+	 * @param countUpdateLockWait        the total time count updates waited for the lock
+	 * @param contendedUpdates           the count updates that found the lock held
+	 * @param countUpdateTrackerLockWait the total time count updates waited for the tracker's lock
+	 * @param updateHeapOperations       the heap operations of all count updates
+	 * @param leaseExpiries              the LeaseExpiry events
+	 */
+	public record Report(long selections, long emptySelections, double meanSelectionNanos, long p50SelectionNanos,
+			long p99SelectionNanos, long maxSelectionNanos, long selectionLockWait, long p99SelectionLockWait,
+			long contendedSelections, long selectionTrackerLockWait, double meanHeapOperations, long maxHeapOperations,
+			double meanLeaseLookups, long maxLeaseLookups, long countUpdates, long countUpdateLockWait,
+			long contendedUpdates, long countUpdateTrackerLockWait, long updateHeapOperations, long leaseExpiries) {
+
+		@Override
+		public String toString() {
+			StringBuilder result = new StringBuilder();
+			result.append(String.format("Server selections: %d (%d found no server)%n", selections, emptySelections));
+			result.append(String.format("  duration: mean=%.0f ns, p50=%d ns, p99=%d ns, max=%d ns%n",
+					meanSelectionNanos, p50SelectionNanos, p99SelectionNanos, maxSelectionNanos));
+			result.append(String.format("  lock wait: total=%s, p99=%d ns, contended=%.2f%%%n",
+					Duration.ofNanos(selectionLockWait), p99SelectionLockWait, percent(contendedSelections, selections)));
+			result.append(String.format("  tracker lock wait: total=%s%n", Duration.ofNanos(selectionTrackerLockWait)));
+			result.append(String.format("  heap operations: mean=%.2f, max=%d%n", meanHeapOperations, maxHeapOperations));
+			result.append(String.format("  lease lookups: mean=%.2f, max=%d%n", meanLeaseLookups, maxLeaseLookups));
+			result.append(String.format("Count updates: %d%n", countUpdates));
+			result.append(String.format("  lock wait: total=%s, contended=%.2f%%%n", Duration.ofNanos(countUpdateLockWait),
+					percent(contendedUpdates, countUpdates)));
+			result.append(String.format("  tracker lock wait: total=%s%n", Duration.ofNanos(countUpdateTrackerLockWait)));
+			result.append(String.format("  heap operations: total=%d%n", updateHeapOperations));
+			result.append(String.format("Lease expiries: %d", leaseExpiries));
+			return result.toString();
+		}
+
+		private static double percent(long part, long total) {
+			return total == 0 ? 0 : 100.0 * part / total;
+		}
+	}
+
+	/**
+	 * A growable array of samples, sorted once the first percentile is asked for.
+	 */
+	private static final class Samples {
+		private long[] values = new long[1024];
+		private int count;
+		private long sum;
+		private long nonZero;
+		private boolean sorted;
+
+		void add(long value) {
+			if (count == values.length) {
+				values = Arrays.copyOf(values, count * 2);
+			}
+			values[count++] = value;
+			sum += value;
+			if (value != 0) {
+				nonZero++;
+			}
+			sorted = false;
+		}
+
+		double mean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		long percentile(double fraction) {
+			if (count == 0) {
+				return 0;
+			}
+			if (!sorted) {
+				Arrays.sort(values, 0, count);
+				sorted = true;
+			}
+			return values[Math.min(count - 1, (int) Math.ceil(fraction * count) - 1)];
+		}
+
+		long max() {
+			return percentile(1.0);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: JfrReport recording.jfr");
+			return;
+		}
+		System.out.println(analyze(Paths.get(args[0])));
+	}
+}
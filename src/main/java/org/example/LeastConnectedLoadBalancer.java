@@ -1,18 +1,31 @@
 package org.example;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
 public class LeastConnectedLoadBalancer implements LoadBalancer {
 
-    private ServerActiveConnectionTracker serverTracker;
+    private ConnectionTracker serverTracker;
     private TimedServerPool acquiredServers;
     private Map<String, Server> serverNameToServer;
     private Lock lock = new ReentrantLock();
+    // Lookups in acquiredServers, guarded by lock, for LoadBalancerEvents.
+    private long leaseLookups;
+    // Optional off-heap mirror of the balancer state, eg. for StateCheckpointer.
+    private volatile OffHeapServerStateTable stateTable;
+    // Optional slow-start for servers added after construction.
+    private volatile SlowStartRamp slowStartRamp;
+    // Excluded servers polled off the minHeap during a selection, guarded by lock.
+    private final List<String> skippedServers = new ArrayList<>();
 
     /**
      * Constructor
@@ -20,32 +33,128 @@ public class LeastConnectedLoadBalancer implements LoadBalancer {
      * @param servers the list of servers to be used
      */
     public LeastConnectedLoadBalancer(List<Server> servers) {
-        serverTracker = new ServerActiveConnectionTracker();
-        acquiredServers = new TimedServerPool(servers.size());
+        this(servers, new ServerActiveConnectionTracker());
+    }
+
+    /**
+     * Constructor that picks how the counts are tracked, eg. a BucketedConnectionTracker for large fleets.
+     *
+     * @param servers       the list of servers to be used
+     * @param serverTracker an empty tracker for the counts
+     */
+    public LeastConnectedLoadBalancer(List<Server> servers, ConnectionTracker serverTracker) {
+        this.serverTracker = serverTracker;
+        acquiredServers = new TimedServerPool();
+        acquiredServers.getMembershipEventBus().subscribe(this::serversExpired);
         setupServerAcquiredTime(servers);
     }
 
+    /**
+     * Constructor for simulations, where the servers are acquired in a pool the caller owns,
+     * eg. one that runs on the virtual clock of a DiscreteEventSimulator.
+     *
+     * @param servers         the list of servers to be used
+     * @param acquiredServers the pool the servers are acquired in
+     * @param leaseMillis     how long each server is acquired for, asked once per server
+     */
+    LeastConnectedLoadBalancer(List<Server> servers, TimedServerPool acquiredServers, LongSupplier leaseMillis) {
+        this(servers, acquiredServers, leaseMillis, new ServerActiveConnectionTracker());
+    }
+
+    /**
+     * Constructor for simulations that also picks how the counts are tracked.
+     *
+     * @param servers         the list of servers to be used
+     * @param acquiredServers the pool the servers are acquired in
+     * @param leaseMillis     how long each server is acquired for, asked once per server
+     * @param serverTracker   an empty tracker for the counts
+     */
+    LeastConnectedLoadBalancer(List<Server> servers, TimedServerPool acquiredServers, LongSupplier leaseMillis,
+            ConnectionTracker serverTracker) {
+        this.serverTracker = serverTracker;
+        this.acquiredServers = acquiredServers;
+        acquiredServers.getMembershipEventBus().subscribe(this::serversExpired);
+        serverNameToServer = new ConcurrentHashMap<>(servers.size());
+        Map<String, Long> leases = new LinkedHashMap<>();
+        for (Server server : servers) {
+            serverNameToServer.put(server.getName(), server);
+            leases.put(server.getName(), leaseMillis.getAsLong());
+        }
+        acquiredServers.putAll(leases);
+        serverTracker.addServers(leases.keySet());
+    }
+
+    /**
+     * Constructor that warm-starts from state restored by StateCheckpointer, so that a restart
+     * doesn't send all traffic to whichever server wins the tie-break between counts of 0.
+     * Servers are looked up in the table by ServerFactory.serverIndex(name). A server found in the
+     * table keeps its remaining lease and starts at its restored active count. Servers not in the
+     * table are set up as in the other constructor, and servers whose lease ran out while the
+     * balancer was down are not added.
+     * The connections behind the restored counts belonged to the previous process and will never
+     * be decremented, so the restored counts are taken back off after drainMillis.
+     *
+     * @param servers       the list of servers to be used
+     * @param restoredState the state restored from a checkpoint
+     * @param drainMillis   how long the restored counts are kept
+     */
+    public LeastConnectedLoadBalancer(List<Server> servers, OffHeapServerStateTable restoredState, long drainMillis) {
+        serverTracker = new ServerActiveConnectionTracker();
+        acquiredServers = new TimedServerPool();
+        acquiredServers.getMembershipEventBus().subscribe(this::serversExpired);
+        serverNameToServer = new ConcurrentHashMap<>();
+        Random random = new Random();
+        long currentTime = System.currentTimeMillis();
+        for (Server server : servers) {
+            int slot = ServerFactory.serverIndex(server.getName());
+            boolean restored = slot >= 0 && slot < restoredState.capacity()
+                    && (restoredState.getHealth(slot) & OffHeapServerStateTable.HEALTH_REGISTERED) != 0;
+            if (!restored) {
+                serverNameToServer.put(server.getName(), server);
+                acquiredServers.put(server.getName(), random.nextInt(10_000) + 1_000);
+                serverTracker.addServer(server.getName());
+                continue;
+            }
+            long millisRemaining = restoredState.getLeaseDeadline(slot) - currentTime;
+            if (millisRemaining <= 0) {
+                continue;
+            }
+            serverNameToServer.put(server.getName(), server);
+            acquiredServers.put(server.getName(), millisRemaining);
+            int restoredCount = Math.max(0, restoredState.getActiveCount(slot));
+            serverTracker.updateServerCount(server.getName(), restoredCount);
+            if (restoredCount > 0) {
+                // through updateRequestCount() so that an attached state table drains as well
+                CompletableFuture.delayedExecutor(drainMillis, TimeUnit.MILLISECONDS)
+                        .execute(() -> updateRequestCount(server.getName(), -restoredCount));
+            }
+        }
+    }
+
     /**
      * Assigns each server with an expiryTime of 1-10 seconds.
-     * Also adds the server to serverTracker which adds it to the minHeap
+     * Also adds the servers to serverTracker which adds them to the minHeap.
+     * The servers are added to acquiredServers and serverTracker all at once, which builds
+     * their heaps in O(n), so that a fleet of 100k servers starts in milliseconds.
      *
      * @param servers the list of servers
      */
     private void setupServerAcquiredTime(List<Server> servers) {
-        serverNameToServer = new ConcurrentHashMap<>();
+        serverNameToServer = new ConcurrentHashMap<>(servers.size());
+        Map<String, Long> leases = new LinkedHashMap<>();
         Random random = new Random();
         for (Server server : servers) {
             serverNameToServer.put(server.getName(), server);
             // a server can be acquired for [1-10] seconds
             int timePeriodInMilliseconds = random.nextInt(10_000) + 1_000; //random.nextInt(10_000) + 1_000;
-            //System.out.println("Random: " + timePeriodInMilliseconds);
-            acquiredServers.put(server.getName(), timePeriodInMilliseconds);
-            // serverTracker will start tracking each server
-            // ie 1. add serverCountPair object (with count=0) to the minHeap
-            // 2. add serverCountPair object to a map (serverToServerCountPair)
-            //    for quicker access of what's in the minHeap
-            serverTracker.addServer(server.getName());
+            leases.put(server.getName(), (long) timePeriodInMilliseconds);
         }
+        acquiredServers.putAll(leases);
+        // serverTracker will start tracking each server
+        // ie 1. add serverCountPair objects (with count=0) to the minHeap
+        // 2. add serverCountPair objects to a map (serverToServerCountPair)
+        //    for quicker access of what's in the minHeap
+        serverTracker.addServers(leases.keySet());
     }
 
     /**
@@ -55,15 +164,48 @@ public class LeastConnectedLoadBalancer implements LoadBalancer {
      */
     @Override
     public String serveRequest(Request request) {
-        Server server = getNextServer();
+        return serveRequest(request, 0);
+    }
+
+    /**
+     * Determines the least connected server that is not excluded, and issues the request to it.
+     * The lock is held from polling the server off the minHeap until it is put back with its new count,
+     * so that concurrent requests never find the minHeap emptied by servers that are being selected.
+     * The server is called after the lock is released; if it is unavailable, the count is given back.
+     *
+     * @param request         the request that the LB will issue to the next server.
+     * @param excludedServers the LoadBalancer.serverBit() of each excluded server, or-ed together
+     */
+    @Override
+    public String serveRequest(Request request, long excludedServers) {
+        LoadBalancerEvents.ServerSelection event = new LoadBalancerEvents.ServerSelection();
+        Server server;
+        long lockWait = lockAndTimeWait();
+        try {
+            event.begin();
+            server = getNextServer(event, lockWait, excludedServers);
+            event.end();
+            if (server != null) {
+                incrementRequestCount(server.getName());
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (event.shouldCommit()) {
+            event.loadBalancer = getClass().getSimpleName();
+            event.serverName = server != null ? server.getName() : null;
+            event.commit();
+        }
         if (server == null) {
-            System.out.println();
+            return null;
         }
-        if (server != null) {
+        try {
             server.handleIncomingRequest(request);
-            incrementRequestCount(server.getName());
+        } catch (ServerUnavailableException e) {
+            decrementRequestCount(server.getName());
+            throw e;
         }
-        return server != null ? server.getName() : null;
+        return server.getName();
     }
 
     /**
@@ -72,57 +214,301 @@ public class LeastConnectedLoadBalancer implements LoadBalancer {
      * @param serverName the server name.
      */
     public void incrementRequestCount(String serverName) {
+        updateRequestCount(serverName, 1);
+    }
+
+    /**
+     * Decrements the no of requests that a server has by 1.
+     *
+     * @param serverName the server name.
+     */
+    public void decrementRequestCount(String serverName) {
+        updateRequestCount(serverName, -1);
+    }
+
+    /**
+     * Adds to the no of requests that a server has, with one update of the tracker.
+     *
+     * @param serverName the server name.
+     * @param countDelta the request count delta
+     */
+    @Override
+    public void updateRequestCount(String serverName, int countDelta) {
+        LoadBalancerEvents.CountUpdate event = new LoadBalancerEvents.CountUpdate();
+        event.begin();
+        long lockWait = lockAndTimeWait();
+        try {
+            boolean instrumented = event.isEnabled();
+            long heapOperationsBefore = instrumented ? serverTracker.getOperationCount() : 0;
+            long trackerLockWaitBefore = instrumented ? serverTracker.getLockWaitNanos() : 0;
+            if (lookupLease(serverName) != null) {
+                serverTracker.updateServerCount(serverName, countDelta);
+                mirrorCount(serverName, countDelta);
+            }
+            if (instrumented) {
+                event.heapOperations = (int) (serverTracker.getOperationCount() - heapOperationsBefore);
+                event.trackerLockWait = serverTracker.getLockWaitNanos() - trackerLockWaitBefore;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (event.shouldCommit()) {
+            event.loadBalancer = getClass().getSimpleName();
+            event.serverName = serverName;
+            event.delta = countDelta;
+            event.lockWait = lockWait;
+            event.commit();
+        }
+    }
+
+    /**
+     * Takes the lock, timing the wait only if it is held by another thread,
+     * so that the uncontended case costs no clock reads.
+     *
+     * @return the nanos spent waiting for the lock.
+     */
+    private long lockAndTimeWait() {
+        if (lock.tryLock()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Looks a server up in acquiredServers. Must be called with the lock held.
+     *
+     * @return the server name, or null if its lease ran out.
+     */
+    private String lookupLease(String serverName) {
+        leaseLookups++;
+        return acquiredServers.get(serverName);
+    }
+
+    /**
+     * Mirrors the balancer state into an off-heap table, so that it can be checkpointed
+     * by StateCheckpointer without locking the balancer. Every acquired server is registered
+     * in slot ServerFactory.serverIndex(name) with its current count and lease deadline,
+     * after which every count change is also applied to the table.
+     *
+     * @param table the table to mirror the state into
+     */
+    public void attachStateTable(OffHeapServerStateTable table) {
         lock.lock();
         try {
-            if (acquiredServers.get(serverName) != null) {
-                serverTracker.updateServerCount(serverName, 1);
+            for (String serverName : serverNameToServer.keySet()) {
+                registerInTable(table, serverName);
             }
+            stateTable = table;
         } finally {
             lock.unlock();
         }
     }
 
     /**
-     * Decrements the no of requests that a server has by 1.
+     * Registers an acquired server in the state table with its lease deadline and current count.
+     * Must be called with the lock held.
+     */
+    private void registerInTable(OffHeapServerStateTable table, String serverName) {
+        int slot = ServerFactory.serverIndex(serverName);
+        long leaseDeadline = acquiredServers.getExpiryDeadline(serverName);
+        if (slot < 0 || slot >= table.capacity() || leaseDeadline < 0) {
+            return;
+        }
+        table.register(slot, slot, 1, leaseDeadline);
+        table.updateActiveCount(slot, serverTracker.getServerCount(serverName));
+    }
+
+    /**
+     * Removes a server whose lease ran out from the state table, so that it isn't checkpointed and restored.
+     * Must be called with the lock held.
+     */
+    private void unregisterFromTable(String serverName) {
+        OffHeapServerStateTable table = stateTable;
+        if (table != null) {
+            int slot = ServerFactory.serverIndex(serverName);
+            if (slot >= 0 && slot < table.capacity()) {
+                table.unregister(slot);
+            }
+        }
+    }
+
+    private void mirrorCount(String serverName, int countDelta) {
+        OffHeapServerStateTable table = stateTable;
+        if (table != null) {
+            int slot = ServerFactory.serverIndex(serverName);
+            if (slot >= 0 && slot < table.capacity()) {
+                table.updateActiveCount(slot, countDelta);
+            }
+        }
+    }
+
+    /**
+     * Adds a server that joins after the load balancer was created.
+     * If slow-start is on, the server ramps up instead of getting every request until it catches up.
      *
-     * @param serverName the server name.
+     * @param server             the server to add
+     * @param acquiredTimeMillis how long the server is acquired for
      */
-    public void decrementRequestCount(String serverName) {
+    public void addServer(Server server, long acquiredTimeMillis) {
         lock.lock();
         try {
-            if (acquiredServers.get(serverName) != null) {
-                serverTracker.updateServerCount(serverName, -1);
+            serverNameToServer.put(server.getName(), server);
+            acquiredServers.put(server.getName(), acquiredTimeMillis);
+            serverTracker.addServer(server.getName());
+            OffHeapServerStateTable table = stateTable;
+            if (table != null) {
+                registerInTable(table, server.getName());
+            }
+            if (slowStartRamp != null) {
+                slowStartRamp.serverAdded(server.getName());
             }
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Turns on slow-start for servers added from now on.
+     *
+     * @param slowStartRamp the ramp for new servers, or null to turn slow-start off
+     */
+    public void setSlowStartRamp(SlowStartRamp slowStartRamp) {
+        this.slowStartRamp = slowStartRamp;
+    }
+
     /**
      * Finds the least connected server and ensures that it is still alive.
+     * If that server is still ramping up, its count is weighted by its ramp factor: it is only chosen while
+     * its count would stay within the factor times the count of the next least connected server, so that it
+     * settles at that fraction of a fair share. Otherwise the next server is chosen and the ramping server
+     * goes back on the minHeap.
      *
+     * Must be called with the lock held.
+     *
+     * @param event           the event to record the lock wait, heap operations and lease lookups in, if it is enabled
+     * @param lockWait        the nanos spent waiting for the lock
+     * @param excludedServers the servers not to choose
      * @return the least connected server.
      */
-    private Server getNextServer() {
-        Server server = null;
+    private Server getNextServer(LoadBalancerEvents.ServerSelection event, long lockWait, long excludedServers) {
+        boolean instrumented = event.isEnabled();
+        long heapOperationsBefore = instrumented ? serverTracker.getOperationCount() : 0;
+        long trackerLockWaitBefore = instrumented ? serverTracker.getLockWaitNanos() : 0;
+        long leaseLookupsBefore = leaseLookups;
+        Server server = pollAvailableServer(excludedServers);
+        SlowStartRamp ramp = slowStartRamp;
+        if (server != null && ramp != null) {
+            double factor = ramp.factor(server.getName());
+            if (factor < 1.0) {
+                Server nextServer = pollAvailableServer(excludedServers);
+                if (nextServer != null) {
+                    // compares the counts each would have with the request, the ramping server's scaled up by its factor
+                    if (serverTracker.getServerCount(server.getName()) + 1
+                            <= factor * (serverTracker.getServerCount(nextServer.getName()) + 1)) {
+                        serverTracker.updateServerCount(nextServer.getName(), 0);
+                    } else {
+                        // put the ramping server back on the minHeap with its count unchanged
+                        serverTracker.updateServerCount(server.getName(), 0);
+                        server = nextServer;
+                    }
+                }
+            }
+        }
+        if (instrumented) {
+            event.lockWait = lockWait;
+            event.heapOperations = (int) (serverTracker.getOperationCount() - heapOperationsBefore);
+            event.leaseLookups = (int) (leaseLookups - leaseLookupsBefore);
+            event.trackerLockWait = serverTracker.getLockWaitNanos() - trackerLockWaitBefore;
+        }
+        return server;
+    }
+
+    /**
+     * Takes servers whose lease ran out off the minHeap as soon as acquiredServers publishes them,
+     * so selection doesn't have to poll past them. Runs on the thread that expired them, in batches.
+     * The lock keeps a count update that already found the lease from putting a server back afterwards.
+     * The batch arrives after acquiredServers has let go of its own lock, so a server may have been added
+     * again in between; those have a lease again and are left alone.
+     *
+     * @param serverNames the expired servers
+     */
+    private void serversExpired(List<String> serverNames) {
         lock.lock();
         try {
-            // while minHeap is not empty
-            while (!serverTracker.isEmpty() && server == null) {
-                String leastConnectedServerName = serverTracker.getLeastUsedServer();
-                // there is a chance that least connected server off the minHeap has timed out
-                // and isn't in the acquired servers pool anymore
-                String availableServerName = acquiredServers.get(leastConnectedServerName);
-                if (availableServerName == null) {
-                    // not in servers pool so remove from server tracker and go through while loop again
-                    serverTracker.removeServer(leastConnectedServerName);
-                } else {
-                    server = serverNameToServer.get(availableServerName);
+            List<String> expiredServerNames = new ArrayList<>(serverNames.size());
+            for (String serverName : serverNames) {
+                if (acquiredServers.get(serverName) == null) {
+                    expiredServerNames.add(serverName);
+                }
+            }
+            serverTracker.removeServers(expiredServerNames);
+            for (String serverName : expiredServerNames) {
+                unregisterFromTable(serverName);
+            }
+            SlowStartRamp ramp = slowStartRamp;
+            if (ramp != null) {
+                for (String serverName : expiredServerNames) {
+                    ramp.serverRemoved(serverName);
                 }
             }
         } finally {
             lock.unlock();
         }
+    }
+
+    /**
+     * Removes a server whose lease ran out from the minHeap, the state table and the slow-start ramp.
+     * Must be called with the lock held.
+     *
+     * @param serverName the expired server
+     */
+    private void removeExpiredServer(String serverName) {
+        serverTracker.removeServer(serverName);
+        unregisterFromTable(serverName);
+        SlowStartRamp ramp = slowStartRamp;
+        if (ramp != null) {
+            ramp.serverRemoved(serverName);
+        }
+    }
+
+    /**
+     * Polls the least connected server off the minHeap, removing servers that timed out on the way.
+     * Expired servers are normally gone already (see serversExpired); this only catches one whose
+     * lease ran out but whose batch hasn't been delivered yet. Excluded servers are passed over,
+     * and put back once a server is found.
+     * Must be called with the lock held.
+     *
+     * @param excludedServers the servers not to choose
+     * @return the least connected server that is still alive, or null if there is none.
+     */
+    private Server pollAvailableServer(long excludedServers) {
+        Server server = null;
+        while (server == null) {
+            // null once minHeap is empty, checked this way as skipped servers are off the minHeap
+            // but still tracked, which isEmpty() asserts against
+            String leastConnectedServerName = serverTracker.getLeastUsedServer();
+            if (leastConnectedServerName == null) {
+                break;
+            }
+            // there is a chance that least connected server off the minHeap has timed out
+            // and isn't in the acquired servers pool anymore
+            String availableServerName = lookupLease(leastConnectedServerName);
+            if (availableServerName == null) {
+                // not in servers pool so remove from server tracker and go through while loop again
+                removeExpiredServer(leastConnectedServerName);
+            } else if (excludedServers != 0 && (excludedServers & LoadBalancer.serverBit(availableServerName)) != 0) {
+                skippedServers.add(availableServerName);
+            } else {
+                server = serverNameToServer.get(availableServerName);
+            }
+        }
+        for (String skippedServer : skippedServers) {
+            // back on the minHeap with the count unchanged
+            serverTracker.updateServerCount(skippedServer, 0);
+        }
+        skippedServers.clear();
         return server;
     }
 
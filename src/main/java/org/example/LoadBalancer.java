@@ -5,5 +5,45 @@ interface LoadBalancer {
     String getStatus();
     void incrementRequestCount(String name);
     void decrementRequestCount(String name);
-}
 
+    /**
+     * Adds to the request count of a server in one go, eg. to seed a new load balancer with the requests
+     * a server has in flight. The default increments or decrements once per request.
+     *
+     * @param serverName the server name.
+     * @param countDelta the request count delta
+     */
+    default void updateRequestCount(String serverName, int countDelta) {
+        for (int i = 0; i < countDelta; i++) {
+            incrementRequestCount(serverName);
+        }
+        for (int i = 0; i > countDelta; i--) {
+            decrementRequestCount(serverName);
+        }
+    }
+
+    /**
+     * Issues the request like serveRequest(), but not to the excluded servers, eg. the ones a retry already tried.
+     * The default ignores the exclusions, which suits strategies that move on to the next server on every call,
+     * eg. round robin; the caller gives back a server that is excluded and asks again.
+     *
+     * @param request         the request that the LB will issue to a server.
+     * @param excludedServers the serverBit() of each excluded server, or-ed together
+     * @return the server name, or null if there is no server that isn't excluded
+     */
+    default String serveRequest(Request request, long excludedServers) {
+        return serveRequest(request);
+    }
+
+    /**
+     * Gets the bit that stands for a server in a set of excluded servers. The set is 64 bits, so it works
+     * like a Bloom filter: a set may also exclude a server whose name shares a bit with one in it, never
+     * the other way round. Single letter names, eg. the first 26 from ServerFactory, never share a bit.
+     *
+     * @param serverName the server name
+     * @return the bit
+     */
+    static long serverBit(String serverName) {
+        return 1L << (serverName.hashCode() & 63);
+    }
+}
@@ -0,0 +1,129 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events for the hot path of LeastConnectedLoadBalancer and TimedServerPool:
+ * how long a selection takes, how long it waits for the balancer's and the tracker's locks, how many
+ * heap operations and lease lookups it does, and when leases expire.
+ *
+ * The events are recorded by any recording that enables them, eg. one started with the bundled settings:
+ *
+ *   java -XX:StartFlightRecording:settings=loadbalancer.jfc,filename=lb.jfr ...
+ *   jcmd pid JFR.start settings=loadbalancer.jfc filename=lb.jfr
+ *
+ * and summarized by JfrReport. While no recording enables them, an event is not committed and the JIT
+ * removes its allocation, so instrumented code costs about a branch. disable() switches them off even
+ * while a recording runs, by unregistering them, and enable() switches them back on.
+ */
+public final class LoadBalancerEvents {
+
+	private static final String CATEGORY = "Load Balancer";
+
+	private LoadBalancerEvents() {
+	}
+
+	/**
+	 * Records the events in recordings that enable them. This is the default.
+	 */
+	public static void enable() {
+		FlightRecorder.register(ServerSelection.class);
+		FlightRecorder.register(CountUpdate.class);
+		FlightRecorder.register(LeaseExpiry.class);
+	}
+
+	/**
+	 * Stops recording the events, in every recording.
+	 */
+	public static void disable() {
+		FlightRecorder.unregister(ServerSelection.class);
+		FlightRecorder.unregister(CountUpdate.class);
+		FlightRecorder.unregister(LeaseExpiry.class);
+	}
+
+	/**
+	 * A load balancer picking a server for a request. Its duration is the selection time, including lockWait.
+	 */
+	@Name("org.example.ServerSelection")
+	@Label("Server Selection")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class ServerSelection extends Event {
+		@Label("Load Balancer")
+		String loadBalancer;
+
+		@Label("Server")
+		@Description("The server picked, null if there was none")
+		String serverName;
+
+		@Label("Lock Wait")
+		@Timespan(Timespan.NANOSECONDS)
+		long lockWait;
+
+		@Label("Heap Operations")
+		@Description("Operations on the index of counts: polls, offers and removes on a heap, or moves between buckets")
+		int heapOperations;
+
+		@Label("Lease Lookups")
+		@Description("Lookups of a server in the pool of acquired servers")
+		int leaseLookups;
+
+		@Label("Tracker Lock Wait")
+		@Description("Time spent waiting for the lock of the ConnectionTracker, within the selection")
+		@Timespan(Timespan.NANOSECONDS)
+		long trackerLockWait;
+	}
+
+	/**
+	 * A load balancer incrementing or decrementing the count of a server.
+	 */
+	@Name("org.example.CountUpdate")
+	@Label("Count Update")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class CountUpdate extends Event {
+		@Label("Load Balancer")
+		String loadBalancer;
+
+		@Label("Server")
+		String serverName;
+
+		@Label("Delta")
+		int delta;
+
+		@Label("Lock Wait")
+		@Timespan(Timespan.NANOSECONDS)
+		long lockWait;
+
+		@Label("Heap Operations")
+		int heapOperations;
+
+		@Label("Tracker Lock Wait")
+		@Description("Time spent waiting for the lock of the ConnectionTracker")
+		@Timespan(Timespan.NANOSECONDS)
+		long trackerLockWait;
+	}
+
+	/**
+	 * A server leaving a TimedServerPool because its lease ran out.
+	 */
+	@Name("org.example.LeaseExpiry")
+	@Label("Lease Expiry")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class LeaseExpiry extends Event {
+		@Label("Server")
+		String serverName;
+
+		@Label("Lease")
+		@Timespan(Timespan.MILLISECONDS)
+		long leaseMillis;
+	}
+}
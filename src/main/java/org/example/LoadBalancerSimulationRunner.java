@@ -4,12 +4,22 @@ import java.util.Random;
 import java.util.Scanner;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.HashMap;
 import java.util.InputMismatchException;
 import java.util.List;
+import java.util.Map;
 
 public class LoadBalancerSimulationRunner {
 
+	// mocked network delay added to each direction of a request that crosses zones
+	private static final long CROSS_ZONE_HOP_MILLIS = 2;
+	// requests a mocked server works on at full speed, more than this share its time
+	private static final int SERVER_PARALLELISM = 2;
+
 	/**
 	 * Simulates the RoundRobinLoadBalancer.
 	 * 1. Generate a list of servers, and pass it to the load balancer.
@@ -17,10 +27,12 @@ public class LoadBalancerSimulationRunner {
 	 * reuse previously constructed threads when they are available.
 	 * 3. Create up to 100 RequestTask objects and submit them to the thread pool.
 	 * 4. Shut down the thread pool but wait for each thread to complete.
+	 * 5. Print how evenly the requests were spread.
 	 */
 	public void runRoundRobinLB() {
 		List<Server> servers = ServerFactory.createServers(7);
-		LoadBalancer roundRobinLB = new RoundRobinLoadBalancer(servers);
+		MeteredLoadBalancer roundRobinLB = new MeteredLoadBalancer(new RoundRobinLoadBalancer(servers),
+				new BalanceMetrics(servers, TimeUnit.SECONDS.toNanos(1), 10));
 
 		Random random = new Random();
 		int numRequests = random.nextInt(100) + 1;
@@ -42,6 +54,7 @@ public class LoadBalancerSimulationRunner {
 		long endTime = System.currentTimeMillis();
 		long elapsedTime = endTime - startTime;
 		System.out.println("Simulation ended in " + elapsedTime + " milliseconds");
+		System.out.println(roundRobinLB.getMetrics().snapshot());
 	}
 
 	/**
@@ -51,10 +64,12 @@ public class LoadBalancerSimulationRunner {
 	 * reuse previously constructed threads when they are available.
 	 * 3. Create up to 100 RequestTask objects and submit them to the thread pool.
 	 * 4. Shut down the thread pool but wait for each thread to complete.
+	 * 5. Print how evenly the requests were spread.
 	 */
 	public void runLeastConnectedLB() {
 		List<Server> servers = ServerFactory.createServers(7);
-		LoadBalancer leastConnectedLB = new LeastConnectedLoadBalancer(servers);
+		MeteredLoadBalancer leastConnectedLB = new MeteredLoadBalancer(new LeastConnectedLoadBalancer(servers),
+				new BalanceMetrics(servers, TimeUnit.SECONDS.toNanos(1), 10));
 
 		Random random = new Random();
 		int numRequests = 4000;//random.nextInt(100) + 1;
@@ -76,23 +91,170 @@ public class LoadBalancerSimulationRunner {
 		long endTime = System.currentTimeMillis();
 		long elapsedTime = endTime - startTime;
 		System.out.println("Simulation ended in " + elapsedTime + " milliseconds");
+		System.out.println(leastConnectedLB.getMetrics().snapshot());
+	}
+
+	/**
+	 * Simulates the ZoneAwareLoadBalancer next to a least connected load balancer that ignores zones.
+	 * 1. Generate 9 servers spread over 3 zones, the load balancers run in the first zone.
+	 * 2. For a light, a medium and a heavy load, have a fixed number of clients issue requests one after the other.
+	 * Each request holds its server for a random service time, which grows once the server has more than
+	 * SERVER_PARALLELISM requests, plus a network delay both ways if it crosses zones.
+	 * 3. Print the share of requests that crossed zones and the mean latency, for each load balancer and load.
+	 * "local-only" never spills over, to show what the spillover is for.
+	 */
+	public void runZoneAwareLB() {
+		List<String> zones = List.of("zone-1", "zone-2", "zone-3");
+		List<Server> servers = ServerFactory.createServers(9, zones);
+		String localZone = zones.get(0);
+		Map<String, String> serverNameToZone = new HashMap<>();
+		for (Server server : servers) {
+			serverNameToZone.put(server.getName(), server.getZone());
+		}
+
+		StringBuilder results = new StringBuilder();
+		for (int clients : new int[] { 6, 12, 36 }) {
+			LoadBalancer zoneAwareLB = new ZoneAwareLoadBalancer(servers, localZone, SERVER_PARALLELISM);
+			LoadBalancer localOnlyLB = new ZoneAwareLoadBalancer(servers, localZone, Double.MAX_VALUE);
+			LoadBalancer zoneBlindLB = new ShardedLeastConnectedLoadBalancer(servers, 1, 0);
+			results.append(runZoneWorkload("zone-aware", zoneAwareLB, localZone, serverNameToZone, clients, 40));
+			results.append(runZoneWorkload("local-only", localOnlyLB, localZone, serverNameToZone, clients, 40));
+			results.append(runZoneWorkload("zone-blind", zoneBlindLB, localZone, serverNameToZone, clients, 40));
+		}
+		System.out.println("\n" + results);
+	}
+
+	/**
+	 * Runs the zone workload against one load balancer.
+	 *
+	 * @return one line with the cross-zone share and the mean latency
+	 */
+	private String runZoneWorkload(String label, LoadBalancer loadBalancer, String localZone,
+			Map<String, String> serverNameToZone, int clients, int requestsPerClient) {
+		LongAdder crossZoneRequests = new LongAdder();
+		LongAdder totalLatencyNanos = new LongAdder();
+		Map<String, AtomicInteger> serverNameToInFlight = new HashMap<>();
+		for (String serverName : serverNameToZone.keySet()) {
+			serverNameToInFlight.put(serverName, new AtomicInteger());
+		}
+		ExecutorService executorService = Executors.newFixedThreadPool(clients);
+		for (int client = 0; client < clients; client++) {
+			int clientId = client;
+			executorService.execute(() -> {
+				for (int i = 0; i < requestsPerClient; i++) {
+					long start = System.nanoTime();
+					String serverName = loadBalancer.serveRequest(new Request(clientId + "-" + i, "GET"));
+					boolean crossZone = !localZone.equals(serverNameToZone.get(serverName));
+					AtomicInteger inFlight = serverNameToInFlight.get(serverName);
+					int sharing = Math.max(1, inFlight.incrementAndGet() - SERVER_PARALLELISM + 1);
+					long timeForRequestRun = ThreadLocalRandom.current().nextLong(5, 16) * sharing
+							+ (crossZone ? 2 * CROSS_ZONE_HOP_MILLIS : 0);
+					try {
+						Thread.sleep(timeForRequestRun);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					} finally {
+						inFlight.decrementAndGet();
+					}
+					loadBalancer.decrementRequestCount(serverName);
+					if (crossZone) {
+						crossZoneRequests.increment();
+					}
+					totalLatencyNanos.add(System.nanoTime() - start);
+				}
+			});
+		}
+		executorService.shutdown();
+		try {
+			executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long numRequests = (long) clients * requestsPerClient;
+		return String.format("%-10s clients=%-3d cross-zone=%5.1f%% mean latency=%5.1f ms%n", label, clients,
+				100.0 * crossZoneRequests.sum() / numRequests, totalLatencyNanos.sum() / 1e6 / numRequests);
+	}
+
+	/**
+	 * Compares the load balancers under a DiscreteEventSimulator, in virtual time.
+	 * 1. Generate 12 servers spread over 3 zones.
+	 * 2. For each load balancer, issue 1,000,000 requests with exponential gaps between arrivals,
+	 * at about 80% of what the servers can serve, and log-normal service times.
+	 * 3. Print served and rejected requests, throughput, mean and p99 latency per load balancer,
+	 * how evenly it spread the requests over the whole run and over the last minute, and the wall time
+	 * the simulation took.
+	 * Every run with the same seed prints the same numbers, as the zone-aware load balancer draws its
+	 * spillover from the simulator's Random too. The least connected load balancer runs twice,
+	 * with leases that outlast the simulation and with leases of 1-11 minutes, which expire as it runs.
+	 * The sharded load balancer runs twice too, the second time hedging requests that are slower than p95.
+	 */
+	public void runDiscreteEventSimulation() {
+		long seed = 42;
+		int numRequests = 1_000_000;
+		List<Server> servers = ServerFactory.createServers(12, List.of("zone-1", "zone-2", "zone-3"), false);
+		// median 10 ms, mean about 11.3 ms
+		Distribution serviceTime = Distribution.logNormal(TimeUnit.MILLISECONDS.toNanos(10), 0.5);
+		double capacityPerSecond = servers.size() * SERVER_PARALLELISM / 0.0113;
+		Distribution interArrival = Distribution.exponential(1e9 / (capacityPerSecond * 0.8));
+
+		System.out.println(String.format("%-26s %9s %9s %10s %10s %10s %7s %7s %8s %5s %9s", "load balancer",
+				"served", "rejected", "req/s", "mean ms", "p99 ms", "Jain", "CoV", "1m Jain", "peak", "wall ms"));
+		for (String label : List.of("round-robin", "least-connected", "least-connected 1-11 min", "sharded",
+				"sharded hedged at p95", "zone-aware")) {
+			DiscreteEventSimulator simulator = new DiscreteEventSimulator(seed);
+			LoadBalancer loadBalancer;
+			if (label.equals("round-robin")) {
+				loadBalancer = new RoundRobinLoadBalancer(servers);
+			} else if (label.startsWith("least-connected")) {
+				Random random = simulator.getRandom();
+				// leases of 1-11 minutes, or 1-11 days
+				long leaseUnitMillis = label.equals("least-connected") ? TimeUnit.DAYS.toMillis(1) : 60_000;
+				TimedServerPool acquiredServers = simulator.createServerPool();
+				loadBalancer = new LeastConnectedLoadBalancer(servers, acquiredServers,
+						() -> leaseUnitMillis + (long) (random.nextDouble() * 10 * leaseUnitMillis));
+				simulator.scheduleLeaseExpiry(acquiredServers, servers.stream().map(Server::getName).toList());
+			} else if (label.startsWith("sharded")) {
+				loadBalancer = new ShardedLeastConnectedLoadBalancer(servers, 1, 0);
+			} else {
+				loadBalancer = new ZoneAwareLoadBalancer(servers, "zone-1", SERVER_PARALLELISM, simulator.getRandom());
+			}
+			// 6 windows of 10 s of virtual time
+			MeteredLoadBalancer meteredLB = new MeteredLoadBalancer(loadBalancer,
+					new BalanceMetrics(servers, TimeUnit.SECONDS.toNanos(10), 6, simulator::now));
+			long startTime = System.currentTimeMillis();
+			DiscreteEventSimulator.RequestPolicy policy = label.endsWith("p95")
+					? new DiscreteEventSimulator.RequestPolicy(0, 0.95)
+					: DiscreteEventSimulator.RequestPolicy.NONE;
+			DiscreteEventSimulator.Result result = simulator.runWorkload(meteredLB, interArrival, serviceTime,
+					numRequests, SERVER_PARALLELISM, policy);
+			long elapsedTime = System.currentTimeMillis() - startTime;
+			BalanceMetrics.Snapshot balance = meteredLB.getMetrics().snapshot();
+			System.out.println(String.format("%-26s %9d %9d %10.1f %10.2f %10.2f %7.4f %7.4f %8.4f %5d %9d", label,
+					result.served(), result.rejected(), result.throughput(), result.meanLatencyMillis(),
+					result.p99LatencyMillis(), balance.jainsIndex(), balance.coefficientOfVariation(),
+					balance.windowJainsIndex(), balance.maxPeakConcurrency(), elapsedTime));
+		}
 	}
 
 	/**
 	 * Simulates a LoadBalancer.
-	 * 1. Prompts user to choose either Round Robin Load Balancer
-	 * or Least Connected Load Balancer.
+	 * 1. Prompts user to choose either Round Robin Load Balancer,
+	 * Least Connected Load Balancer or Zone Aware Load Balancer, or to compare them all
+	 * in a discrete-event simulation.
 	 * 2. Runs the chosen load balancer.
 	 */
 	public static void main(String[] args) {
 		Scanner scanner = new Scanner(System.in);
 		LoadBalancerSimulationRunner sim = new LoadBalancerSimulationRunner();
-		String invalidMessage = "Invalid choice. Please enter 1 or 2";
+		String invalidMessage = "Invalid choice. Please enter 1, 2, 3 or 4";
 		while (true) {
 			System.out.print(
 					"\n1. Round Robin Load Balancer\n" + 
 			"2. Least Connected Load Balancer\n" +
-			"\nPlease enter 1 or 2: ");
+			"3. Zone Aware Load Balancer\n" +
+			"4. Compare Load Balancers in a Discrete-Event Simulation\n" +
+			"\nPlease enter 1, 2, 3 or 4: ");
 			try {
 				int choice = scanner.nextInt();
 				if (choice == 1) {
@@ -101,6 +263,12 @@ public class LoadBalancerSimulationRunner {
 				} else if (choice == 2) {
 					sim.runLeastConnectedLB();
 					break;
+				} else if (choice == 3) {
+					sim.runZoneAwareLB();
+					break;
+				} else if (choice == 4) {
+					sim.runDiscreteEventSimulation();
+					break;
 				}
 			} catch (InputMismatchException e) {
 				e.printStackTrace();
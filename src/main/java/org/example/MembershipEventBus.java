@@ -0,0 +1,92 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Passes membership changes of a TimedServerPool on to its listeners, in batches.
+ *
+ * Publishers put expired servers on a lock-free queue and then try to become the one thread that delivers.
+ * The deliverer drains everything queued so far into one batch and hands it to every listener, and goes
+ * round again if more was published meanwhile; a publisher that finds a delivery in progress just leaves
+ * its servers on the queue for it. So servers expiring at the same time reach the listeners as one batch,
+ * no publisher blocks on another, and the listeners never run on the thread of a request.
+ */
+public class MembershipEventBus {
+
+	private final ConcurrentLinkedQueue<String> expired = new ConcurrentLinkedQueue<>();
+	private final List<MembershipListener> listeners = new CopyOnWriteArrayList<>();
+	private final AtomicBoolean delivering = new AtomicBoolean();
+	private final LongAdder published = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+
+	public void subscribe(MembershipListener listener) {
+		listeners.add(listener);
+	}
+
+	public void unsubscribe(MembershipListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Publishes servers whose lease ran out, and delivers them unless another thread is delivering.
+	 *
+	 * @param serverNames the expired servers
+	 */
+	public void publishExpired(Collection<String> serverNames) {
+		if (serverNames.isEmpty()) {
+			return;
+		}
+		expired.addAll(serverNames);
+		published.add(serverNames.size());
+		deliver();
+	}
+
+	private void deliver() {
+		// checking the queue after giving up the flag catches servers published while it was held
+		while (!expired.isEmpty() && delivering.compareAndSet(false, true)) {
+			try {
+				List<String> batch = new ArrayList<>();
+				String serverName;
+				while ((serverName = expired.poll()) != null) {
+					batch.add(serverName);
+				}
+				if (batch.isEmpty()) {
+					continue;
+				}
+				batches.increment();
+				List<String> serverNames = Collections.unmodifiableList(batch);
+				for (MembershipListener listener : listeners) {
+					try {
+						listener.serversExpired(serverNames);
+					} catch (RuntimeException e) {
+						// one broken listener mustn't keep the others from hearing about it
+						e.printStackTrace();
+					}
+				}
+			} finally {
+				delivering.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of expired servers published so far.
+	 */
+	public long getPublishedCount() {
+		return published.sum();
+	}
+
+	/**
+	 * Gets the number of batches delivered so far.
+	 */
+	public long getBatchCount() {
+		return batches.sum();
+	}
+}
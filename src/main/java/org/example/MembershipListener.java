@@ -0,0 +1,17 @@
+package org.example;
+
+import java.util.List;
+
+/**
+ * Listens for servers leaving a TimedServerPool, through its MembershipEventBus.
+ */
+@FunctionalInterface
+public interface MembershipListener {
+
+	/**
+	 * Called with the servers whose lease ran out since the last call, on the thread that expired them.
+	 *
+	 * @param serverNames the expired servers, in the order they expired
+	 */
+	void serversExpired(List<String> serverNames);
+}
@@ -0,0 +1,64 @@
+package org.example;
+
+/**
+ * A LoadBalancer that passes every call on to another one, and records in BalanceMetrics where the requests went.
+ * A request starts when serveRequest() hands it to a server, and completes when the server's count is
+ * decremented, so it wraps any strategy in any harness that decrements once a request is done, eg. RequestTask,
+ * the DiscreteEventSimulator or HttpReverseProxy.
+ */
+public class MeteredLoadBalancer implements LoadBalancer {
+
+	private final LoadBalancer loadBalancer;
+	private final BalanceMetrics metrics;
+
+	/**
+	 * Constructor
+	 *
+	 * @param loadBalancer the load balancer to measure
+	 * @param metrics      the metrics to record to, over the servers of the load balancer
+	 */
+	public MeteredLoadBalancer(LoadBalancer loadBalancer, BalanceMetrics metrics) {
+		this.loadBalancer = loadBalancer;
+		this.metrics = metrics;
+	}
+
+	public BalanceMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public String serveRequest(Request request) {
+		return serveRequest(request, 0);
+	}
+
+	@Override
+	public String serveRequest(Request request, long excludedServers) {
+		String serverName = loadBalancer.serveRequest(request, excludedServers);
+		if (serverName != null) {
+			metrics.requestStarted(serverName);
+		}
+		return serverName;
+	}
+
+	/**
+	 * Gets the status of the servers, followed by the balance measures.
+	 *
+	 * @return the status of the servers.
+	 */
+	@Override
+	public String getStatus() {
+		return loadBalancer.getStatus() + "\n" + metrics.snapshot();
+	}
+
+	@Override
+	public void incrementRequestCount(String serverName) {
+		loadBalancer.incrementRequestCount(serverName);
+		metrics.requestStarted(serverName);
+	}
+
+	@Override
+	public void decrementRequestCount(String serverName) {
+		loadBalancer.decrementRequestCount(serverName);
+		metrics.requestCompleted(serverName);
+	}
+}
@@ -0,0 +1,45 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The framing of a multiplexed backend connection. Every frame carries part of one stream:
+ * a 9 byte header (stream id, flags, payload length, big endian) followed by the payload.
+ *
+ * A request is sent as the payload of frames on a new stream id, and the backend answers with the
+ * bytes of an HTTP/1.1 response on the same stream id, in as many frames as it likes. The last frame
+ * of either direction has FLAG_END set. Stream ids are chosen by the proxy and only reused after the
+ * stream has ended, so responses may come back in any order.
+ *
+ * This is a deliberately small stand-in for HTTP/2 framing: no header compression, settings,
+ * priorities or flow control windows.
+ */
+final class MuxFrame {
+
+	static final int HEADER_BYTES = 9;
+	static final byte FLAG_END = 1;
+
+	private MuxFrame() {
+	}
+
+	/**
+	 * Puts a frame header at the buffer's position.
+	 */
+	static void putHeader(ByteBuffer buffer, int streamId, byte flags, int length) {
+		buffer.putInt(streamId);
+		buffer.put(flags);
+		buffer.putInt(length);
+	}
+
+	static int streamId(ByteBuffer buffer, int headerStart) {
+		return buffer.getInt(headerStart);
+	}
+
+	static byte flags(ByteBuffer buffer, int headerStart) {
+		return buffer.get(headerStart + 4);
+	}
+
+	static int length(ByteBuffer buffer, int headerStart) {
+		return buffer.getInt(headerStart + 5);
+	}
+}
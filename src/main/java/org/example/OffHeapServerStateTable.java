@@ -0,0 +1,279 @@
+package org.example;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Per-server state for very large fleets, stored off-heap so the GC never has to scan it.
+ *
+ * Instead of one Server, ServerCountPair, TimedValue and map entries per server, each field lives in
+ * its own column of a direct ByteBuffer (struct-of-arrays), 32 bytes per server in total:
+ *
+ *   id               int   server id, eg. ServerFactory.serverIndex(name)
+ *   active count     int   number of active connections
+ *   health bits      int   HEALTH_* flags
+ *   weight           int   relative weight of the server
+ *   total count      long  number of requests served
+ *   lease deadline   long  epoch millis at which the server's lease expires
+ *
+ * A slot is a server's row in the table. All fields are read and written through VarHandles,
+ * with atomic updates for the counters, health bits and lease deadline.
+ * A fleet of 1M servers fits in 32 MB.
+ */
+public class OffHeapServerStateTable {
+
+	// Health bits
+	public static final int HEALTH_REGISTERED = 1;
+	public static final int HEALTH_HEALTHY = 1 << 1;
+	public static final int HEALTH_DRAINING = 1 << 2;
+
+	static final int BYTES_PER_SERVER = 32;
+
+	private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+	private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	private final ByteBuffer buffer;
+	private final int capacity;
+	// Byte offset of each column. The long columns come after the int columns
+	// so that they stay 8-byte aligned, which atomic access requires.
+	private final int idOffset;
+	private final int activeOffset;
+	private final int healthOffset;
+	private final int weightOffset;
+	private final int totalOffset;
+	private final int leaseOffset;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity the maximum number of servers the table holds
+	 */
+	public OffHeapServerStateTable(int capacity) {
+		this(ByteBuffer.allocateDirect(requiredBytes(capacity)), capacity);
+	}
+
+	/**
+	 * Creates a table on top of an existing direct buffer, eg. a memory-mapped file.
+	 *
+	 * @param buffer   the buffer holding the table, starting at position 0
+	 * @param capacity the maximum number of servers the table holds
+	 */
+	OffHeapServerStateTable(ByteBuffer buffer, int capacity) {
+		if (!buffer.isDirect()) {
+			throw new IllegalArgumentException("buffer must be direct");
+		}
+		if (buffer.capacity() < requiredBytes(capacity)) {
+			throw new IllegalArgumentException("buffer of " + buffer.capacity() + " bytes is too small for "
+					+ capacity + " servers");
+		}
+		this.buffer = buffer;
+		this.capacity = capacity;
+		this.idOffset = 0;
+		this.activeOffset = idOffset + capacity * Integer.BYTES;
+		this.healthOffset = activeOffset + capacity * Integer.BYTES;
+		this.weightOffset = healthOffset + capacity * Integer.BYTES;
+		this.totalOffset = weightOffset + capacity * Integer.BYTES;
+		this.leaseOffset = totalOffset + capacity * Long.BYTES;
+	}
+
+	/**
+	 * Gets the number of bytes a table of the given capacity takes.
+	 *
+	 * @param capacity the maximum number of servers
+	 * @return the size of the table in bytes
+	 */
+	public static int requiredBytes(int capacity) {
+		if (capacity < 0 || capacity > Integer.MAX_VALUE / BYTES_PER_SERVER) {
+			throw new IllegalArgumentException("Unsupported capacity: " + capacity);
+		}
+		return capacity * BYTES_PER_SERVER;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Registers a server in a slot, with active and total counts of 0, marked as healthy.
+	 *
+	 * @param slot                the slot of the server
+	 * @param id                  the server id
+	 * @param weight              the weight of the server
+	 * @param leaseDeadlineMillis epoch millis at which the server's lease expires
+	 */
+	public void register(int slot, int id, int weight, long leaseDeadlineMillis) {
+		checkSlot(slot);
+		INT.setVolatile(buffer, idOffset + slot * Integer.BYTES, id);
+		INT.setVolatile(buffer, activeOffset + slot * Integer.BYTES, 0);
+		INT.setVolatile(buffer, weightOffset + slot * Integer.BYTES, weight);
+		LONG.setVolatile(buffer, totalOffset + slot * Long.BYTES, 0L);
+		LONG.setVolatile(buffer, leaseOffset + slot * Long.BYTES, leaseDeadlineMillis);
+		// published last, so a reader that sees the slot as registered sees its fields too
+		INT.setVolatile(buffer, healthOffset + slot * Integer.BYTES, HEALTH_REGISTERED | HEALTH_HEALTHY);
+	}
+
+	/**
+	 * Removes a server from a slot. Its fields are left as they were.
+	 *
+	 * @param slot the slot of the server
+	 */
+	public void unregister(int slot) {
+		checkSlot(slot);
+		INT.setVolatile(buffer, healthOffset + slot * Integer.BYTES, 0);
+	}
+
+	public int getId(int slot) {
+		checkSlot(slot);
+		return (int) INT.getVolatile(buffer, idOffset + slot * Integer.BYTES);
+	}
+
+	public int getActiveCount(int slot) {
+		checkSlot(slot);
+		return (int) INT.getVolatile(buffer, activeOffset + slot * Integer.BYTES);
+	}
+
+	/**
+	 * Atomically adds countDelta to the active count of a server.
+	 * A positive delta also adds to the total count.
+	 *
+	 * @param slot       the slot of the server
+	 * @param countDelta the active count delta
+	 * @return the updated active count.
+	 */
+	public int updateActiveCount(int slot, int countDelta) {
+		checkSlot(slot);
+		if (countDelta > 0) {
+			LONG.getAndAdd(buffer, totalOffset + slot * Long.BYTES, (long) countDelta);
+		}
+		return (int) INT.getAndAdd(buffer, activeOffset + slot * Integer.BYTES, countDelta) + countDelta;
+	}
+
+	public long getTotalCount(int slot) {
+		checkSlot(slot);
+		return (long) LONG.getVolatile(buffer, totalOffset + slot * Long.BYTES);
+	}
+
+	public int getWeight(int slot) {
+		checkSlot(slot);
+		return (int) INT.getVolatile(buffer, weightOffset + slot * Integer.BYTES);
+	}
+
+	public void setWeight(int slot, int weight) {
+		checkSlot(slot);
+		INT.setVolatile(buffer, weightOffset + slot * Integer.BYTES, weight);
+	}
+
+	public long getLeaseDeadline(int slot) {
+		checkSlot(slot);
+		return (long) LONG.getVolatile(buffer, leaseOffset + slot * Long.BYTES);
+	}
+
+	/**
+	 * Atomically extends or shortens the lease of a server.
+	 *
+	 * @param slot             the slot of the server
+	 * @param expectedDeadline the deadline the caller last read
+	 * @param newDeadline      the new deadline, in epoch millis
+	 * @return true if the deadline was updated.
+	 */
+	public boolean compareAndSetLeaseDeadline(int slot, long expectedDeadline, long newDeadline) {
+		checkSlot(slot);
+		return LONG.compareAndSet(buffer, leaseOffset + slot * Long.BYTES, expectedDeadline, newDeadline);
+	}
+
+	public int getHealth(int slot) {
+		checkSlot(slot);
+		return (int) INT.getVolatile(buffer, healthOffset + slot * Integer.BYTES);
+	}
+
+	/**
+	 * Atomically sets health bits of a server.
+	 *
+	 * @param slot the slot of the server
+	 * @param bits the HEALTH_* bits to set
+	 * @return the previous health bits.
+	 */
+	public int setHealthBits(int slot, int bits) {
+		checkSlot(slot);
+		return (int) INT.getAndBitwiseOr(buffer, healthOffset + slot * Integer.BYTES, bits);
+	}
+
+	/**
+	 * Atomically clears health bits of a server.
+	 *
+	 * @param slot the slot of the server
+	 * @param bits the HEALTH_* bits to clear
+	 * @return the previous health bits.
+	 */
+	public int clearHealthBits(int slot, int bits) {
+		checkSlot(slot);
+		return (int) INT.getAndBitwiseAnd(buffer, healthOffset + slot * Integer.BYTES, ~bits);
+	}
+
+	/**
+	 * Checks if a server can take requests: registered, healthy, not draining and its lease not expired.
+	 *
+	 * @param slot              the slot of the server
+	 * @param currentTimeMillis the current epoch millis
+	 * @return true if the server is available.
+	 */
+	public boolean isAvailable(int slot, long currentTimeMillis) {
+		int health = getHealth(slot);
+		return (health & (HEALTH_REGISTERED | HEALTH_HEALTHY | HEALTH_DRAINING)) == (HEALTH_REGISTERED | HEALTH_HEALTHY)
+				&& getLeaseDeadline(slot) > currentTimeMillis;
+	}
+
+	/**
+	 * Finds the available server with the lowest active count, breaking ties by lowest slot.
+	 * This is a linear scan over the active count column, which is contiguous in memory.
+	 *
+	 * @param currentTimeMillis the current epoch millis, to check leases against
+	 * @return the slot of the least connected server, or -1 if no server is available.
+	 */
+	public int findLeastConnected(long currentTimeMillis) {
+		int best = -1;
+		int bestCount = Integer.MAX_VALUE;
+		for (int slot = 0; slot < capacity; slot++) {
+			int count = (int) INT.getVolatile(buffer, activeOffset + slot * Integer.BYTES);
+			if (count < bestCount && isAvailable(slot, currentTimeMillis)) {
+				bestCount = count;
+				best = slot;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Gets the buffer that backs the table.
+	 *
+	 * @return the backing buffer.
+	 */
+	ByteBuffer buffer() {
+		return buffer;
+	}
+
+	private void checkSlot(int slot) {
+		if (slot < 0 || slot >= capacity) {
+			throw new IndexOutOfBoundsException("slot " + slot + " out of bounds for capacity " + capacity);
+		}
+	}
+
+	@Override
+	public String toString() {
+		long currentTime = System.currentTimeMillis();
+		int registered = 0;
+		int available = 0;
+		for (int slot = 0; slot < capacity; slot++) {
+			if ((getHealth(slot) & HEALTH_REGISTERED) != 0) {
+				registered++;
+				if (isAvailable(slot, currentTime)) {
+					available++;
+				}
+			}
+		}
+		return "OffHeapServerStateTable [capacity=" + capacity + ", registered=" + registered + ", available="
+				+ available + "]";
+	}
+}
@@ -0,0 +1,141 @@
+package org.example;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A fixed-size array of atomic long counters, where each counter sits on its own cache line.
+ *
+ * Counters in an AtomicLongArray, or boxed Integers in a map, end up next to each other in memory.
+ * When threads update neighbouring counters (eg. the counts of servers 'a' and 'b') they keep
+ * invalidating each other's cache line even though they never touch the same counter (false sharing).
+ * Here each counter is spaced 128 bytes apart, which also covers CPUs that prefetch cache lines in pairs,
+ * and the first counter is kept away from the array header.
+ */
+public class PaddedCounterArray {
+
+	// 16 longs = 128 bytes between two counters
+	private static final int STRIDE = 16;
+	private static final VarHandle COUNTERS = MethodHandles.arrayElementVarHandle(long[].class);
+
+	private final long[] counters;
+	private final int length;
+
+	/**
+	 * Constructor
+	 *
+	 * @param length the number of counters, all starting at 0
+	 */
+	public PaddedCounterArray(int length) {
+		if (length < 0) {
+			throw new IllegalArgumentException("length must not be negative: " + length);
+		}
+		this.length = length;
+		// one extra stride of padding on each side of the counters
+		this.counters = new long[(length + 2) * STRIDE];
+	}
+
+	/**
+	 * Gets the number of counters.
+	 *
+	 * @return the number of counters.
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Gets the current value of a counter.
+	 *
+	 * @param index the counter index
+	 * @return the counter value.
+	 */
+	public long get(int index) {
+		return (long) COUNTERS.getVolatile(counters, offset(index));
+	}
+
+	/**
+	 * Sets a counter to the given value.
+	 *
+	 * @param index the counter index
+	 * @param value the new value
+	 */
+	public void set(int index, long value) {
+		COUNTERS.setVolatile(counters, offset(index), value);
+	}
+
+	/**
+	 * Atomically adds delta to a counter.
+	 *
+	 * @param index the counter index
+	 * @param delta the value to add
+	 * @return the previous value.
+	 */
+	public long getAndAdd(int index, long delta) {
+		return (long) COUNTERS.getAndAdd(counters, offset(index), delta);
+	}
+
+	/**
+	 * Atomically increments a counter by 1.
+	 *
+	 * @param index the counter index
+	 * @return the updated value.
+	 */
+	public long incrementAndGet(int index) {
+		return getAndAdd(index, 1) + 1;
+	}
+
+	/**
+	 * Atomically decrements a counter by 1.
+	 *
+	 * @param index the counter index
+	 * @return the updated value.
+	 */
+	public long decrementAndGet(int index) {
+		return getAndAdd(index, -1) - 1;
+	}
+
+	/**
+	 * Atomically sets a counter to newValue if it currently holds expectedValue.
+	 *
+	 * @param index         the counter index
+	 * @param expectedValue the expected value
+	 * @param newValue      the new value
+	 * @return true if the counter was updated.
+	 */
+	public boolean compareAndSet(int index, long expectedValue, long newValue) {
+		return COUNTERS.compareAndSet(counters, offset(index), expectedValue, newValue);
+	}
+
+	/**
+	 * Sums all counters. The sum is not an atomic snapshot when counters are updated concurrently.
+	 *
+	 * @return the sum of all counters.
+	 */
+	public long sum() {
+		long sum = 0;
+		for (int i = 0; i < length; i++) {
+			sum += get(i);
+		}
+		return sum;
+	}
+
+	private int offset(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("index " + index + " out of bounds for length " + length);
+		}
+		return (index + 1) * STRIDE;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("[");
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append(get(i));
+		}
+		return result.append("]").toString();
+	}
+}
@@ -0,0 +1,177 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A LoadBalancer that limits the rate of requests per client, and per server, with token buckets.
+ *
+ * The client is the id of the request. Its bucket is checked before the wrapped load balancer selects
+ * a server, so that a client over its rate costs the strategy nothing. The servers' buckets are checked
+ * before selection too: the servers without a token are passed to the strategy as excluded servers, and
+ * the selected server's token is taken after, so that a server over its rate never gets the request.
+ * A request turned away by the servers still counts against its client.
+ *
+ * A strategy that ignores exclusions, eg. round robin, may still select a server over its rate, as may
+ * a request that raced another for a server's last token. The server has the request by then, so it is
+ * let through, and the limit holds from the next request on. When every server is over its rate, the
+ * request is turned away without asking the strategy.
+ *
+ * Buckets are single longs taken from with a CAS, see TokenBucket; the clients' are in a ClientRateLimiter,
+ * which keeps memory bounded however many clients there are, and the servers' in a PaddedCounterArray, as
+ * every request takes from one.
+ */
+public class RateLimitingLoadBalancer implements LoadBalancer {
+
+	private final LoadBalancer loadBalancer;
+	private final ClientRateLimiter clientRateLimiter;
+	private final TokenBucket serverTokenBucket;
+	private final PaddedCounterArray serverBuckets;
+	// LoadBalancer.serverBit() of each server, by index
+	private final long[] serverBits;
+	private final Map<String, Integer> serverNameToIndex = new HashMap<>();
+	private final LongAdder clientLimited = new LongAdder();
+	private final LongAdder serverLimited = new LongAdder();
+
+	/**
+	 * Constructor
+	 *
+	 * @param loadBalancer      the load balancer that picks the servers
+	 * @param servers           the servers of the load balancer
+	 * @param clientRateLimiter the limit per client, or null for none
+	 * @param serverTokenBucket the rate and burst of each server, or null for no limit
+	 */
+	public RateLimitingLoadBalancer(LoadBalancer loadBalancer, List<Server> servers,
+			ClientRateLimiter clientRateLimiter, TokenBucket serverTokenBucket) {
+		this.loadBalancer = loadBalancer;
+		this.clientRateLimiter = clientRateLimiter;
+		this.serverTokenBucket = serverTokenBucket;
+		this.serverBuckets = new PaddedCounterArray(servers.size());
+		this.serverBits = new long[servers.size()];
+		for (int i = 0; i < servers.size(); i++) {
+			serverNameToIndex.put(servers.get(i).getName(), i);
+			serverBits[i] = LoadBalancer.serverBit(servers.get(i).getName());
+			if (serverTokenBucket != null) {
+				serverBuckets.set(i, serverTokenBucket.full());
+			}
+		}
+	}
+
+	/**
+	 * Issues the request to the server the wrapped load balancer picks, if the client and the server are
+	 * within their rates.
+	 *
+	 * @param request the request that the LB will issue to a server.
+	 * @return the server name, or null if there was no server or a rate was exceeded
+	 */
+	@Override
+	public String serveRequest(Request request) {
+		return serveRequest(request, 0);
+	}
+
+	/**
+	 * Issues the request like serveRequest(), leaving out the excluded servers as well as the servers
+	 * over their rate.
+	 *
+	 * @param request         the request that the LB will issue to a server.
+	 * @param excludedServers the LoadBalancer.serverBit() of each excluded server, or-ed together
+	 * @return the server name, or null if there was no server left or a rate was exceeded
+	 */
+	@Override
+	public String serveRequest(Request request, long excludedServers) {
+		if (clientRateLimiter != null && !clientRateLimiter.tryAcquire(request.getId())) {
+			clientLimited.increment();
+			return null;
+		}
+		if (serverTokenBucket == null) {
+			return loadBalancer.serveRequest(request, excludedServers);
+		}
+		long limitedServers = 0;
+		int numLimited = 0;
+		long nowTicks = serverTokenBucket.nowTicks();
+		for (int i = 0; i < serverBits.length; i++) {
+			if (serverTokenBucket.tryTake(serverBuckets.get(i), nowTicks) == TokenBucket.NO_TOKEN) {
+				limitedServers |= serverBits[i];
+				numLimited++;
+			}
+		}
+		if (numLimited > 0 && numLimited == serverBits.length) {
+			serverLimited.increment();
+			return null;
+		}
+		String serverName = loadBalancer.serveRequest(request, excludedServers | limitedServers);
+		if (serverName == null) {
+			if (numLimited > 0) {
+				serverLimited.increment();
+			}
+			return null;
+		}
+		Integer index = serverNameToIndex.get(serverName);
+		if (index != null) {
+			// finds no token only if the strategy ignored the exclusions or another request took the last one;
+			// the server has the request either way
+			serverTokenBucket.tryAcquire(serverBuckets, index);
+		}
+		return serverName;
+	}
+
+	public ClientRateLimiter getClientRateLimiter() {
+		return clientRateLimiter;
+	}
+
+	/**
+	 * Gets the number of requests turned away because their client was over its rate.
+	 */
+	public long getClientLimitedCount() {
+		return clientLimited.sum();
+	}
+
+	/**
+	 * Gets the number of requests turned away because every server was over its rate.
+	 */
+	public long getServerLimitedCount() {
+		return serverLimited.sum();
+	}
+
+	/**
+	 * Gets the tokens a server has left.
+	 *
+	 * @param serverName the server name
+	 * @return the tokens, or 0 if servers aren't limited or the server is unknown
+	 */
+	public double getServerTokens(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		return index != null && serverTokenBucket != null ? serverTokenBucket.tokens(serverBuckets.get(index)) : 0;
+	}
+
+	/**
+	 * Gets the rate limiting counts, followed by the status of the wrapped load balancer.
+	 *
+	 * @return the status of the servers.
+	 */
+	@Override
+	public String getStatus() {
+		StringBuilder status = new StringBuilder();
+		status.append("Rate limits: client limited=" + clientLimited.sum());
+		status.append(", server limited=" + serverLimited.sum());
+		if (clientRateLimiter != null) {
+			status.append(", clients=" + clientRateLimiter.size() + "/" + clientRateLimiter.capacity());
+			status.append(", evictions=" + clientRateLimiter.getEvictionCount());
+		}
+		status.append("\n");
+		status.append(loadBalancer.getStatus());
+		return status.toString();
+	}
+
+	@Override
+	public void incrementRequestCount(String serverName) {
+		loadBalancer.incrementRequestCount(serverName);
+	}
+
+	@Override
+	public void decrementRequestCount(String serverName) {
+		loadBalancer.decrementRequestCount(serverName);
+	}
+}
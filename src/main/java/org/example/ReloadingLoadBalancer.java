@@ -0,0 +1,415 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A LoadBalancer whose strategy, servers, weights, limits and leases come from a BalancerConfig file,
+ * and which picks up changes to the file while it runs.
+ *
+ * Every config is compiled into a snapshot: the servers, a load balancer of the configured strategy over
+ * them, and the requests in flight per server. When the file changes, a new snapshot is built next to the
+ * running one, and swapped in under the write lock. The swap carries the counts over: every server that is
+ * in both configs starts in the new strategy with the requests it has in flight, and a least-connected
+ * server keeps the rest of its lease. Requests in flight on the old snapshot complete normally, and their
+ * decrement reaches the new one. Servers that leave the config are dropped with their counts, and the
+ * decrements of their requests are ignored. A file that doesn't parse is reported and the running
+ * snapshot is kept.
+ *
+ * Requests only take the read lock, which is shared, so they never wait for each other; they wait only
+ * for the swap itself. The new strategy is built and seeded with the counts before that, one update per
+ * server, so the swap only catches up on the counts that changed meanwhile and takes time in proportion
+ * to the number of servers, not to the requests in flight.
+ */
+public class ReloadingLoadBalancer implements LoadBalancer, Closeable {
+
+	private final Path configFile;
+	private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+	// Servers by name, kept across reloads so that a server stays the same object.
+	private final Map<String, Server> serverNameToServer = new ConcurrentHashMap<>();
+	private final AtomicLong totalInFlight = new AtomicLong();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder reloads = new LongAdder();
+	private final LongAdder failedReloads = new LongAdder();
+	private volatile Snapshot snapshot;
+	private WatchService watchService;
+	private Thread watcher;
+
+	/**
+	 * Constructor. Loads the config, call start() to watch it for changes.
+	 *
+	 * @param configFile the config file
+	 * @throws IOException              if the file can't be read
+	 * @throws IllegalArgumentException if the config is invalid
+	 */
+	public ReloadingLoadBalancer(Path configFile) throws IOException {
+		this.configFile = configFile.toAbsolutePath();
+		this.snapshot = build(BalancerConfig.load(this.configFile), null);
+	}
+
+	/**
+	 * Starts watching the config file, on a daemon thread.
+	 *
+	 * @throws IOException if the directory of the file can't be watched
+	 */
+	public synchronized void start() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		configFile.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		watcher = new Thread(this::watch, "config-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					changed |= configFile.getFileName().equals(event.context());
+				}
+				key.reset();
+				if (changed) {
+					// an editor may save in several writes, let them land before reading
+					Thread.sleep(50);
+					reload();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * Reads the config file and swaps it in, unless it's invalid or the same as the running config.
+	 *
+	 * @return true if a new config was swapped in
+	 */
+	public boolean reload() {
+		BalancerConfig config;
+		try {
+			config = BalancerConfig.load(configFile);
+		} catch (IOException | IllegalArgumentException e) {
+			failedReloads.increment();
+			System.err.println("Keeping the running config, " + configFile + " is invalid: " + e.getMessage());
+			return false;
+		}
+		return swap(config);
+	}
+
+	/**
+	 * Swaps in a config.
+	 *
+	 * @param config the new config
+	 * @return true if it differs from the running config and was swapped in
+	 */
+	synchronized boolean swap(BalancerConfig config) {
+		Snapshot current = snapshot;
+		if (config.equals(current.config)) {
+			return false;
+		}
+		Snapshot next = build(config, current);
+		// requests don't see the new strategy until the swap, so it can be seeded without the lock
+		long[] seeded = new long[next.servers.size()];
+		for (int i = 0; i < seeded.length; i++) {
+			String serverName = next.servers.get(i).getName();
+			Integer index = current.serverNameToIndex.get(serverName);
+			seeded[i] = index != null ? current.inFlight.get(index) : 0;
+			if (seeded[i] != 0) {
+				next.loadBalancer.updateRequestCount(serverName, Math.toIntExact(seeded[i]));
+			}
+		}
+		swapLock.writeLock().lock();
+		try {
+			long total = 0;
+			for (int i = 0; i < seeded.length; i++) {
+				String serverName = next.servers.get(i).getName();
+				Integer index = current.serverNameToIndex.get(serverName);
+				long count = index != null ? current.inFlight.get(index) : 0;
+				next.inFlight.set(i, count);
+				if (count != seeded[i]) {
+					next.loadBalancer.updateRequestCount(serverName, Math.toIntExact(count - seeded[i]));
+				}
+				total += count;
+			}
+			totalInFlight.set(total);
+			snapshot = next;
+		} finally {
+			swapLock.writeLock().unlock();
+		}
+		current.retire();
+		reloads.increment();
+		return true;
+	}
+
+	/**
+	 * Compiles a config into a snapshot. Least-connected servers that are still acquired by the previous
+	 * snapshot keep the rest of their lease, others are acquired for the configured lease.
+	 */
+	private Snapshot build(BalancerConfig config, Snapshot previous) {
+		List<Server> servers = new ArrayList<>();
+		for (String serverName : config.serverNames()) {
+			Server server = serverNameToServer.get(serverName);
+			if (server == null || !server.getZone().equals(config.zoneOf(serverName))) {
+				server = new Server(serverName, config.zoneOf(serverName), false);
+				serverNameToServer.put(serverName, server);
+			}
+			servers.add(server);
+		}
+		TimedServerPool acquiredServers = null;
+		LoadBalancer loadBalancer;
+		switch (config.strategy()) {
+		case ROUND_ROBIN -> loadBalancer = new RoundRobinLoadBalancer(servers);
+		case WEIGHTED_ROUND_ROBIN -> loadBalancer = new WeightedRoundRobinLoadBalancer(servers, config.weights());
+		case SHARDED_LEAST_CONNECTED -> loadBalancer = new ShardedLeastConnectedLoadBalancer(servers, config.shards(),
+				config.maxStalenessNanos());
+		case ZONE_AWARE -> loadBalancer = new ZoneAwareLoadBalancer(servers, config.localZone(),
+				config.spilloverThreshold());
+		default -> {
+			long now = System.currentTimeMillis();
+			List<Server> leased = new ArrayList<>();
+			List<Long> leases = new ArrayList<>();
+			for (Server server : servers) {
+				long deadline = previous != null && previous.acquiredServers != null
+						? previous.acquiredServers.getExpiryDeadline(server.getName())
+						: -1;
+				if (deadline < 0) {
+					leased.add(server);
+					leases.add(config.leaseMillis());
+				} else if (deadline > now) {
+					leased.add(server);
+					leases.add(deadline - now);
+				}
+			}
+			acquiredServers = new TimedServerPool();
+			int[] next = { 0 };
+			loadBalancer = new LeastConnectedLoadBalancer(leased, acquiredServers, () -> leases.get(next[0]++));
+		}
+		}
+		return new Snapshot(config, servers, loadBalancer, acquiredServers);
+	}
+
+	public BalancerConfig getConfig() {
+		return snapshot.config;
+	}
+
+	public long getReloadCount() {
+		return reloads.sum();
+	}
+
+	public long getFailedReloadCount() {
+		return failedReloads.sum();
+	}
+
+	/**
+	 * Gets the number of requests turned away by the limits.
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Gets the requests a server has in flight, as carried across reloads.
+	 *
+	 * @param serverName the server name
+	 * @return the count, or 0 if the server is not in the running config
+	 */
+	public long getInFlight(String serverName) {
+		Snapshot current = snapshot;
+		Integer index = current.serverNameToIndex.get(serverName);
+		return index != null ? current.inFlight.get(index) : 0;
+	}
+
+	/**
+	 * Issues the request to the server the configured strategy picks, unless a limit is reached.
+	 *
+	 * @param request the request that the LB will issue to a server.
+	 * @return the server name, or null if there was no server or a limit was reached
+	 */
+	@Override
+	public String serveRequest(Request request) {
+		return serveRequest(request, 0);
+	}
+
+	/**
+	 * Issues the request like serveRequest(), passing the excluded servers on to the configured strategy.
+	 *
+	 * @param request         the request that the LB will issue to a server.
+	 * @param excludedServers the LoadBalancer.serverBit() of each excluded server, or-ed together
+	 * @return the server name, or null if there was no server left or a limit was reached
+	 */
+	@Override
+	public String serveRequest(Request request, long excludedServers) {
+		swapLock.readLock().lock();
+		try {
+			Snapshot current = snapshot;
+			long maxInFlight = current.config.maxInFlight();
+			if (maxInFlight > 0 && totalInFlight.incrementAndGet() > maxInFlight) {
+				totalInFlight.decrementAndGet();
+				rejected.increment();
+				return null;
+			}
+			String serverName;
+			try {
+				serverName = current.loadBalancer.serveRequest(request, excludedServers);
+			} catch (ServerUnavailableException e) {
+				if (maxInFlight > 0) {
+					totalInFlight.decrementAndGet();
+				}
+				throw e;
+			}
+			Integer index = serverName != null ? current.serverNameToIndex.get(serverName) : null;
+			if (index == null) {
+				if (maxInFlight > 0) {
+					totalInFlight.decrementAndGet();
+				}
+				return null;
+			}
+			long count = current.inFlight.incrementAndGet(index);
+			long maxInFlightPerServer = current.config.maxInFlightPerServer();
+			if (maxInFlightPerServer > 0 && count > maxInFlightPerServer) {
+				current.inFlight.decrementAndGet(index);
+				current.loadBalancer.decrementRequestCount(serverName);
+				if (maxInFlight > 0) {
+					totalInFlight.decrementAndGet();
+				}
+				rejected.increment();
+				return null;
+			}
+			if (maxInFlight <= 0) {
+				totalInFlight.incrementAndGet();
+			}
+			return serverName;
+		} finally {
+			swapLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the running config and the status of its strategy.
+	 *
+	 * @return the status of the servers.
+	 */
+	@Override
+	public String getStatus() {
+		Snapshot current = snapshot;
+		StringBuilder status = new StringBuilder();
+		status.append("Config: strategy=" + current.config.strategy().getKey());
+		status.append(", servers=" + current.config.serverNames());
+		status.append(", in flight=" + totalInFlight.get());
+		status.append(", rejected=" + rejected.sum());
+		status.append(", reloads=" + reloads.sum());
+		status.append(", failed reloads=" + failedReloads.sum());
+		status.append("\n");
+		status.append(current.loadBalancer.getStatus());
+		return status.toString();
+	}
+
+	/**
+	 * Increments the no of requests that a server has by 1.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void incrementRequestCount(String serverName) {
+		swapLock.readLock().lock();
+		try {
+			Snapshot current = snapshot;
+			Integer index = current.serverNameToIndex.get(serverName);
+			if (index != null) {
+				current.inFlight.incrementAndGet(index);
+				totalInFlight.incrementAndGet();
+				current.loadBalancer.incrementRequestCount(serverName);
+			}
+		} finally {
+			swapLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Decrements the no of requests that a server has by 1. A server without requests in flight,
+	 * eg. one that left the config and came back, is not decremented below 0.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void decrementRequestCount(String serverName) {
+		swapLock.readLock().lock();
+		try {
+			Snapshot current = snapshot;
+			Integer index = current.serverNameToIndex.get(serverName);
+			if (index == null) {
+				return;
+			}
+			long count = current.inFlight.get(index);
+			while (count > 0 && !current.inFlight.compareAndSet(index, count, count - 1)) {
+				count = current.inFlight.get(index);
+			}
+			if (count > 0) {
+				totalInFlight.decrementAndGet();
+				current.loadBalancer.decrementRequestCount(serverName);
+			}
+		} finally {
+			swapLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stops watching the config file, and releases the running snapshot.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (watchService != null) {
+			watchService.close();
+		}
+		snapshot.retire();
+	}
+
+	/**
+	 * A config compiled into a load balancer over its servers.
+	 */
+	private static final class Snapshot {
+		final BalancerConfig config;
+		final List<Server> servers;
+		final Map<String, Integer> serverNameToIndex = new HashMap<>();
+		final LoadBalancer loadBalancer;
+		// only for least-connected
+		final TimedServerPool acquiredServers;
+		final PaddedCounterArray inFlight;
+
+		Snapshot(BalancerConfig config, List<Server> servers, LoadBalancer loadBalancer,
+				TimedServerPool acquiredServers) {
+			this.config = config;
+			this.servers = servers;
+			this.loadBalancer = loadBalancer;
+			this.acquiredServers = acquiredServers;
+			this.inFlight = new PaddedCounterArray(servers.size());
+			for (int i = 0; i < servers.size(); i++) {
+				serverNameToIndex.put(servers.get(i).getName(), i);
+			}
+		}
+
+		void retire() {
+			if (acquiredServers != null) {
+				acquiredServers.shutdownNow();
+			}
+		}
+	}
+}
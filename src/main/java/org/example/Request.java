@@ -2,12 +2,31 @@ package org.example;
 
 public class Request {
 
+    /**
+     * The deadline of a request that has none.
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
     private String id;
     private String requestType;
+    private final long deadlineNanos;
 
     public Request(String id, String requestType) {
+        this(id, requestType, NO_DEADLINE);
+    }
+
+    /**
+     * Constructor for a request that is given up on once its deadline has passed.
+     *
+     * @param id            the request id
+     * @param requestType   the request type
+     * @param deadlineNanos when the request is given up on, on the clock of whoever serves it: System.nanoTime(),
+     *                      or the virtual clock of a DiscreteEventSimulator. NO_DEADLINE for none.
+     */
+    public Request(String id, String requestType, long deadlineNanos) {
         this.id = id;
         this.requestType = requestType;
+        this.deadlineNanos = deadlineNanos;
     }
 
     public String getId() {
@@ -26,9 +45,28 @@ public class Request {
         this.requestType = requestType;
     }
 
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    public boolean hasDeadline() {
+        return deadlineNanos != NO_DEADLINE;
+    }
+
+    /**
+     * Gets the time left until the deadline.
+     *
+     * @param nowNanos the time now, on the clock of the deadline
+     * @return the nanos left, 0 or less once the deadline has passed, Long.MAX_VALUE if there is no deadline
+     */
+    public long remainingNanos(long nowNanos) {
+        return hasDeadline() ? deadlineNanos - nowNanos : Long.MAX_VALUE;
+    }
+
     @Override
     public String toString() {
-        return "Request [id=" + id + ", requestType=" + requestType + "]";
+        return "Request [id=" + id + ", requestType=" + requestType
+                + (hasDeadline() ? ", deadlineNanos=" + deadlineNanos : "") + "]";
     }
 
 }
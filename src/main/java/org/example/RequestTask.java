@@ -1,11 +1,16 @@
 package org.example;
 
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 public class RequestTask implements Runnable {
 	
 	private final LoadBalancer loadBalancer;
 	private final int requestId;
+	// optional, records the request for TraceReplayer
+	private final TraceRecorder traceRecorder;
+	// 0 for no deadline
+	private final long timeoutMillis;
 	private Random random;
 
 	/**
@@ -18,8 +23,37 @@ public class RequestTask implements Runnable {
 	 * @param requestId the requestId.
 	 */
 	public RequestTask(LoadBalancer loadBalancer, int requestId) {
+		this(loadBalancer, requestId, null);
+	}
+
+	/**
+	 * Constructor for a RequestTask whose request is recorded to a trace once it is done.
+	 *
+	 * @param loadBalancer  the loadBalancer object that gets the request.
+	 * @param requestId     the requestId.
+	 * @param traceRecorder the recorder, or null not to record.
+	 */
+	public RequestTask(LoadBalancer loadBalancer, int requestId, TraceRecorder traceRecorder) {
+		this(loadBalancer, requestId, traceRecorder, 0);
+	}
+
+	/**
+	 * Constructor for a RequestTask whose request has a deadline. A request that is not done by then
+	 * is given up on: the server's count is decremented at the deadline, and it is not recorded.
+	 *
+	 * @param loadBalancer  the loadBalancer object that gets the request.
+	 * @param requestId     the requestId.
+	 * @param traceRecorder the recorder, or null not to record.
+	 * @param timeoutMillis the time from the request's arrival to its deadline, 0 for no deadline.
+	 */
+	public RequestTask(LoadBalancer loadBalancer, int requestId, TraceRecorder traceRecorder, long timeoutMillis) {
+		if (timeoutMillis < 0) {
+			throw new IllegalArgumentException("timeoutMillis must not be negative: " + timeoutMillis);
+		}
 		this.loadBalancer = loadBalancer;
 		this.requestId = requestId;
+		this.traceRecorder = traceRecorder;
+		this.timeoutMillis = timeoutMillis;
 		random = new Random();
 	}
 
@@ -27,13 +61,13 @@ public class RequestTask implements Runnable {
 	 * A Request object is created, which is passed to the loadBalancer.
 	 * The loadBalancer serves the Request to the next Server, waits for
 	 * the request to complete (ie timeForRequestRun which is random),
-	 * and then decrements the request count of that server.
+	 * and then decrements the request count of that server. A request with a deadline
+	 * waits no longer than its deadline.
 	 *
 	 */
 	@Override
 	public void run() {
 		String clientId = String.valueOf(requestId);
-		Request request = new Request(clientId, "GET");
 		// mock stagger to space out the requests
 		long delayBeforeStartRequest = random.nextInt(3_000);
 		try {
@@ -41,20 +75,37 @@ public class RequestTask implements Runnable {
 		} catch (InterruptedException e1) {
 			e1.printStackTrace();
 		}
+		Request request = timeoutMillis > 0
+				? new Request(clientId, "GET", System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis))
+				: new Request(clientId, "GET");
+		long arrivalNanos = traceRecorder != null ? traceRecorder.now() : 0;
 		String serverName = loadBalancer.serveRequest(request);
 		System.out.println("--------------------------------------");
 		if (serverName == null) {
 			System.out.println("Unable to service request: " + request);
+			if (traceRecorder != null) {
+				traceRecorder.recordRejected(request, arrivalNanos);
+			}
 		} else {
 			// each request has a mocked random time to complete
 			long timeForRequestRun = random.nextInt(5_000);
+			long remainingMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, request.remainingNanos(System.nanoTime())));
+			boolean timedOut = timeForRequestRun > remainingMillis;
 			try {
-				Thread.sleep(timeForRequestRun);
-				loadBalancer.decrementRequestCount(serverName);
+				Thread.sleep(Math.min(timeForRequestRun, remainingMillis));
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
-			System.out.println("Completed Request#" + requestId);
+			// the count is decremented however the request ended, or the server would look busier than it is
+			loadBalancer.decrementRequestCount(serverName);
+			if (timedOut) {
+				System.out.println("Deadline exceeded for Request#" + requestId);
+			} else {
+				if (traceRecorder != null) {
+					traceRecorder.recordServed(request, serverName, arrivalNanos, traceRecorder.now());
+				}
+				System.out.println("Completed Request#" + requestId);
+			}
 		}
 		System.out.println("\n" + loadBalancer.getStatus() + "\n");
 		System.out.println("--------------------------------------");
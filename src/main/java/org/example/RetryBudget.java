@@ -0,0 +1,116 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket that caps retries at a share of the requests, so that retries can't multiply the load on
+ * servers that are already failing.
+ *
+ * Every request deposits retryRatio of a token, and every retry takes a whole one, so over time retries
+ * are at most retryRatio of the requests, eg. 0.1 for 10%. So that a quiet service can still retry, tokens
+ * also trickle in at minRetriesPerSecond. The bucket holds at most maxTokens, which bounds the burst of
+ * retries that an outage can set off after a calm period.
+ *
+ * Tokens are kept in millionths in an AtomicLong, so deposits and withdrawals are a CAS each and never block.
+ */
+public class RetryBudget {
+
+	private static final long MICROS_PER_TOKEN = 1_000_000;
+
+	private final long depositMicros;
+	private final double minRetriesPerSecond;
+	private final long maxMicros;
+	private final LongSupplier clockNanos;
+	private final AtomicLong balanceMicros;
+	private final AtomicLong lastRefillNanos;
+
+	/**
+	 * Constructor
+	 *
+	 * @param retryRatio          the retries allowed per request, eg. 0.1
+	 * @param minRetriesPerSecond the retries allowed per second whatever the number of requests, 0 for none
+	 * @param maxTokens           the most retries that can be saved up, at least 1
+	 */
+	public RetryBudget(double retryRatio, double minRetriesPerSecond, int maxTokens) {
+		this(retryRatio, minRetriesPerSecond, maxTokens, System::nanoTime);
+	}
+
+	/**
+	 * Constructor for a budget on a given clock, eg. the virtual clock of a DiscreteEventSimulator.
+	 *
+	 * @param retryRatio          the retries allowed per request, eg. 0.1
+	 * @param minRetriesPerSecond the retries allowed per second whatever the number of requests, 0 for none
+	 * @param maxTokens           the most retries that can be saved up, at least 1
+	 * @param clockNanos          the clock the trickle runs on
+	 */
+	public RetryBudget(double retryRatio, double minRetriesPerSecond, int maxTokens, LongSupplier clockNanos) {
+		if (retryRatio < 0 || minRetriesPerSecond < 0) {
+			throw new IllegalArgumentException("retryRatio and minRetriesPerSecond must not be negative");
+		}
+		if (maxTokens < 1) {
+			throw new IllegalArgumentException("maxTokens must be at least 1: " + maxTokens);
+		}
+		this.depositMicros = Math.round(retryRatio * MICROS_PER_TOKEN);
+		this.minRetriesPerSecond = minRetriesPerSecond;
+		this.maxMicros = maxTokens * MICROS_PER_TOKEN;
+		this.clockNanos = clockNanos;
+		// start full, so that the first requests can retry
+		this.balanceMicros = new AtomicLong(maxMicros);
+		this.lastRefillNanos = new AtomicLong(clockNanos.getAsLong());
+	}
+
+	/**
+	 * Deposits the share of a token that a request earns. Called once per request, not per attempt.
+	 */
+	public void deposit() {
+		add(depositMicros);
+	}
+
+	/**
+	 * Takes a token for a retry, if there is one.
+	 *
+	 * @return true if the retry may go ahead
+	 */
+	public boolean tryWithdraw() {
+		refill();
+		long balance;
+		do {
+			balance = balanceMicros.get();
+			if (balance < MICROS_PER_TOKEN) {
+				return false;
+			}
+		} while (!balanceMicros.compareAndSet(balance, balance - MICROS_PER_TOKEN));
+		return true;
+	}
+
+	/**
+	 * Gets the retries the budget allows right now.
+	 */
+	public double getBalance() {
+		refill();
+		return (double) balanceMicros.get() / MICROS_PER_TOKEN;
+	}
+
+	private void refill() {
+		if (minRetriesPerSecond == 0) {
+			return;
+		}
+		long now = clockNanos.getAsLong();
+		long last = lastRefillNanos.get();
+		long micros = (long) ((now - last) * minRetriesPerSecond / 1_000);
+		// the thread that moves the refill time on adds the tokens for it, the others see none due
+		if (micros > 0 && lastRefillNanos.compareAndSet(last, now)) {
+			add(micros);
+		}
+	}
+
+	private void add(long micros) {
+		long balance;
+		long next;
+		do {
+			balance = balanceMicros.get();
+			next = Math.min(maxMicros, balance + micros);
+		} while (next != balance && !balanceMicros.compareAndSet(balance, next));
+	}
+}
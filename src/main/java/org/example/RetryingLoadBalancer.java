@@ -0,0 +1,160 @@
+package org.example;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A LoadBalancer that retries a request on another server when the server it picked is unavailable.
+ *
+ * Each retry asks the wrapped load balancer again, excluding the servers already tried. The excluded servers
+ * are a long of LoadBalancer.serverBit()s on the stack, so a retry allocates nothing. The least connected
+ * load balancers skip excluded servers as they select; strategies that ignore exclusions, eg. round robin,
+ * move on by themselves, and if one picks an excluded server anyway it is given back and counts as an attempt.
+ *
+ * Retries are capped twice: at maxRetries per request, and by a RetryBudget over all requests, so that
+ * during an outage the servers see at most the budget's share of extra requests. When the wrapped load
+ * balancer has no server at all, eg. because every lease expired, the request fails at once, as a retry
+ * would find none either.
+ */
+public class RetryingLoadBalancer implements LoadBalancer {
+
+	private final LoadBalancer loadBalancer;
+	private final int maxRetries;
+	private final RetryBudget retryBudget;
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder serverFailures = new LongAdder();
+	private final LongAdder budgetExhausted = new LongAdder();
+	private final LongAdder retriesExhausted = new LongAdder();
+	private final LongAdder noServer = new LongAdder();
+
+	/**
+	 * Constructor
+	 *
+	 * @param loadBalancer the load balancer that picks the servers
+	 * @param maxRetries   the most retries for a request, 0 not to retry
+	 * @param retryBudget  the budget shared by all requests
+	 */
+	public RetryingLoadBalancer(LoadBalancer loadBalancer, int maxRetries, RetryBudget retryBudget) {
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException("maxRetries must not be negative: " + maxRetries);
+		}
+		this.loadBalancer = loadBalancer;
+		this.maxRetries = maxRetries;
+		this.retryBudget = retryBudget;
+	}
+
+	/**
+	 * Issues the request to the server the wrapped load balancer picks, and to others if that one is unavailable.
+	 *
+	 * @param request the request that the LB will issue to a server.
+	 * @return the server name, or null if no server took the request
+	 */
+	@Override
+	public String serveRequest(Request request) {
+		return serveRequest(request, 0);
+	}
+
+	@Override
+	public String serveRequest(Request request, long excludedServers) {
+		requests.increment();
+		retryBudget.deposit();
+		long triedServers = excludedServers;
+		for (int attempt = 0;; attempt++) {
+			if (attempt > 0) {
+				if (attempt > maxRetries) {
+					retriesExhausted.increment();
+					return null;
+				}
+				if (!retryBudget.tryWithdraw()) {
+					budgetExhausted.increment();
+					return null;
+				}
+				retries.increment();
+			}
+			String serverName;
+			try {
+				serverName = loadBalancer.serveRequest(request, triedServers);
+			} catch (ServerUnavailableException e) {
+				serverFailures.increment();
+				triedServers |= LoadBalancer.serverBit(e.getServerName());
+				continue;
+			}
+			if (serverName == null) {
+				noServer.increment();
+				return null;
+			}
+			if ((triedServers & LoadBalancer.serverBit(serverName)) == 0) {
+				return serverName;
+			}
+			// picked by a strategy that ignores exclusions
+			loadBalancer.decrementRequestCount(serverName);
+		}
+	}
+
+	public long getRequestCount() {
+		return requests.sum();
+	}
+
+	public long getRetryCount() {
+		return retries.sum();
+	}
+
+	/**
+	 * Gets the retries per request.
+	 */
+	public double getRetryRate() {
+		long requestCount = requests.sum();
+		return requestCount == 0 ? 0 : (double) retries.sum() / requestCount;
+	}
+
+	/**
+	 * Gets the number of times a picked server was unavailable.
+	 */
+	public long getServerFailureCount() {
+		return serverFailures.sum();
+	}
+
+	/**
+	 * Gets the number of requests that failed because the retry budget was empty.
+	 */
+	public long getBudgetExhaustedCount() {
+		return budgetExhausted.sum();
+	}
+
+	/**
+	 * Gets the number of requests that failed on their last retry.
+	 */
+	public long getRetriesExhaustedCount() {
+		return retriesExhausted.sum();
+	}
+
+	/**
+	 * Gets the number of requests that failed because the wrapped load balancer had no server left.
+	 */
+	public long getNoServerCount() {
+		return noServer.sum();
+	}
+
+	/**
+	 * Gets the retry metrics, followed by the status of the wrapped load balancer.
+	 *
+	 * @return the status of the servers.
+	 */
+	@Override
+	public String getStatus() {
+		return String.format("Retries: requests=%d, retries=%d, retry rate=%.3f, server failures=%d, "
+				+ "budget exhausted=%d, retries exhausted=%d, no server=%d, budget=%.1f%n", requests.sum(),
+				retries.sum(), getRetryRate(), serverFailures.sum(), budgetExhausted.sum(), retriesExhausted.sum(),
+				noServer.sum(), retryBudget.getBalance()) + loadBalancer.getStatus();
+	}
+
+	@Override
+	public void incrementRequestCount(String serverName) {
+		loadBalancer.incrementRequestCount(serverName);
+	}
+
+	@Override
+	public void decrementRequestCount(String serverName) {
+		loadBalancer.decrementRequestCount(serverName);
+	}
+}
@@ -1,17 +1,18 @@
 package org.example;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 public class RoundRobinLoadBalancer implements LoadBalancer {
     private List<Server> servers;
     private AtomicInteger currentIndex;
-    private Map<String, Integer> serverToRequestCount;
-    private Lock lock = new ReentrantLock();
+    // Maps a server name to its index in servers and requestCounts.
+    private Map<String, Integer> serverNameToIndex;
+    // Active request count per server, one cache line each so that concurrent
+    // updates to neighbouring servers don't false-share.
+    private PaddedCounterArray requestCounts;
 
 	/**
 	 * Constructor
@@ -21,18 +22,19 @@ public class RoundRobinLoadBalancer implements LoadBalancer {
     public RoundRobinLoadBalancer(List<Server> servers) {
     	this.currentIndex = new AtomicInteger(0);
         this.servers = servers;
-        this.serverToRequestCount = new ConcurrentHashMap<>();
+        this.serverNameToIndex = new HashMap<>();
+        this.requestCounts = new PaddedCounterArray(servers.size());
         setup(servers);
     }
 
 	/**
-	 * Assigns each server with a request count of 0.
+	 * Assigns each server an index into requestCounts, where its request count starts at 0.
 	 *
 	 * @param servers the list of servers
 	 */
     private void setup(List<Server> servers) {
-    	for (Server server : servers) {
-    		serverToRequestCount.put(server.getName(), 0);
+    	for (int i = 0; i < servers.size(); i++) {
+    		serverNameToIndex.put(servers.get(i).getName(), i);
     	}
     }
 
@@ -66,16 +68,10 @@ public class RoundRobinLoadBalancer implements LoadBalancer {
     @Override
     public String getStatus() {
     	StringBuilder status = new StringBuilder();
-		lock.lock();
-        // private Map<String, Integer> serverToRequestCount;
-		try {
-			for (Map.Entry<String, Integer> entry : serverToRequestCount.entrySet()) {
-				status.append("Server name: " + entry.getKey());
-				status.append(", active connections: " + entry.getValue());
-				status.append("\n");
-			}
-		} finally {
-			lock.unlock();
+		for (int i = 0; i < servers.size(); i++) {
+			status.append("Server name: " + servers.get(i).getName());
+			status.append(", active connections: " + requestCounts.get(i));
+			status.append("\n");
 		}
 
         return status.toString();
@@ -88,13 +84,9 @@ public class RoundRobinLoadBalancer implements LoadBalancer {
 	 */
 	@Override
 	public void incrementRequestCount(String serverName) {
-		lock.lock();
-		try {
-			if (serverToRequestCount.containsKey(serverName)) {
-				serverToRequestCount.put(serverName, serverToRequestCount.get(serverName) + 1);
-			}
-		} finally {
-			lock.unlock();
+		Integer index = serverNameToIndex.get(serverName);
+		if (index != null) {
+			requestCounts.incrementAndGet(index);
 		}
 	}
 
@@ -105,13 +97,9 @@ public class RoundRobinLoadBalancer implements LoadBalancer {
 	 */
 	@Override
 	public void decrementRequestCount(String serverName) {
-		lock.lock();
-		try {
-			if (serverToRequestCount.containsKey(serverName)) {
-				serverToRequestCount.put(serverName, serverToRequestCount.get(serverName) - 1);
-			}
-		} finally {
-			lock.unlock();
+		Integer index = serverNameToIndex.get(serverName);
+		if (index != null) {
+			requestCounts.decrementAndGet(index);
 		}
 	}
 
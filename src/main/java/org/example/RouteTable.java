@@ -0,0 +1,225 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable table that maps a request type to the route that serves it.
+ * A route is a group of servers with its own LoadBalancer, eg. writes to a primary group with
+ * least-connections and reads to a replica group with round robin. Request types that aren't in the
+ * table go to the default route.
+ *
+ * The request types are compiled into a perfect hash when the table is built: a seed is
+ * searched for that sends every request type to its own slot, so a lookup is one seeded hash of the
+ * request type, one array read and one string comparison, with no probing and no allocation.
+ * A table is never changed after it is built, so a new configuration means building a new table
+ * and swapping it in, see RoutingLoadBalancer.setRouteTable().
+ */
+public final class RouteTable {
+
+	private static final int MAX_SEED_ATTEMPTS = 1_000;
+
+	private final String[] requestTypes;
+	private final Route[] routes;
+	private final int seed;
+	private final int mask;
+	private final Route defaultRoute;
+	// every route once, in the order they were given, and the route each server belongs to
+	private final List<Route> distinctRoutes;
+	private final Map<String, Route> serverNameToRoute;
+
+	/**
+	 * Constructor. Several request types may share one Route, but different routes must not share servers,
+	 * so that every request count update goes to exactly one route.
+	 *
+	 * @param routesByRequestType the route for each request type, request types are matched case-sensitively
+	 * @param defaultRoute        the route for every other request type
+	 * @throws IllegalArgumentException if two routes share a server
+	 */
+	public RouteTable(Map<String, Route> routesByRequestType, Route defaultRoute) {
+		this.defaultRoute = defaultRoute;
+		this.serverNameToRoute = new HashMap<>();
+		Set<Route> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		List<Route> orderedRoutes = new ArrayList<>();
+		List<Route> candidates = new ArrayList<>(routesByRequestType.values());
+		candidates.add(defaultRoute);
+		for (Route route : candidates) {
+			if (!seen.add(route)) {
+				continue;
+			}
+			orderedRoutes.add(route);
+			for (Server server : route.getServers()) {
+				Route previous = serverNameToRoute.putIfAbsent(server.getName(), route);
+				if (previous != null) {
+					throw new IllegalArgumentException("Server " + server.getName() + " is in both route "
+							+ previous.getName() + " and route " + route.getName());
+				}
+			}
+		}
+		this.distinctRoutes = Collections.unmodifiableList(orderedRoutes);
+
+		int size = Integer.highestOneBit(Math.max(2, routesByRequestType.size() * 2 - 1)) << 1;
+		while (true) {
+			int foundSeed = findSeed(routesByRequestType.keySet(), size);
+			if (foundSeed != 0) {
+				this.seed = foundSeed;
+				this.mask = size - 1;
+				break;
+			}
+			size <<= 1;
+		}
+		this.requestTypes = new String[size];
+		this.routes = new Route[size];
+		for (Map.Entry<String, Route> entry : routesByRequestType.entrySet()) {
+			int index = index(entry.getKey(), seed, mask);
+			requestTypes[index] = entry.getKey();
+			routes[index] = entry.getValue();
+		}
+	}
+
+	/**
+	 * Searches for a seed under which no two request types hash to the same slot of a table of the given size.
+	 *
+	 * @return the seed, or 0 if none was found and the table must grow
+	 */
+	private static int findSeed(Set<String> keys, int size) {
+		boolean[] taken = new boolean[size];
+		for (int attempt = 1; attempt <= MAX_SEED_ATTEMPTS; attempt++) {
+			// golden ratio increments spread the seeds over the whole int range, and are never 0
+			int candidate = attempt * 0x9E3779B9;
+			Arrays.fill(taken, false);
+			boolean collision = false;
+			for (String key : keys) {
+				int index = index(key, candidate, size - 1);
+				if (taken[index]) {
+					collision = true;
+					break;
+				}
+				taken[index] = true;
+			}
+			if (!collision) {
+				return candidate;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Seeded FNV-1a over the chars of the request type. The seed changes every bit of the hash,
+	 * unlike String.hashCode(), so request types whose hash codes collide can still be separated.
+	 */
+	private static int index(String requestType, int seed, int mask) {
+		int hash = 0x811C9DC5 ^ seed;
+		for (int i = 0; i < requestType.length(); i++) {
+			hash = (hash ^ requestType.charAt(i)) * 0x01000193;
+		}
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * Finds the route for a request type.
+	 *
+	 * @param requestType the request type, may be null
+	 * @return the route, the default route if the request type has none of its own
+	 */
+	public Route lookup(String requestType) {
+		if (requestType == null) {
+			return defaultRoute;
+		}
+		int index = index(requestType, seed, mask);
+		String candidate = requestTypes[index];
+		return candidate != null && candidate.equals(requestType) ? routes[index] : defaultRoute;
+	}
+
+	/**
+	 * Finds the route a server belongs to.
+	 *
+	 * @param serverName the server name
+	 * @return the route, or null if the server is in no route
+	 */
+	public Route routeOfServer(String serverName) {
+		return serverNameToRoute.get(serverName);
+	}
+
+	public Route getDefaultRoute() {
+		return defaultRoute;
+	}
+
+	/**
+	 * Gets every route once, the default route last unless a request type also uses it.
+	 */
+	public List<Route> getRoutes() {
+		return distinctRoutes;
+	}
+
+	/**
+	 * Gets the request types that have their own route, by route, for status output.
+	 */
+	Map<Route, List<String>> requestTypesByRoute() {
+		Map<Route, List<String>> result = new LinkedHashMap<>();
+		for (Route route : distinctRoutes) {
+			result.put(route, new ArrayList<>());
+		}
+		for (int i = 0; i < requestTypes.length; i++) {
+			if (requestTypes[i] != null) {
+				result.get(routes[i]).add(requestTypes[i]);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "RouteTable [routes=" + distinctRoutes.size() + ", slots=" + requestTypes.length + ", default="
+				+ defaultRoute.getName() + "]";
+	}
+
+	/**
+	 * A group of servers and the strategy that balances requests over them.
+	 */
+	public static final class Route {
+		private final String name;
+		private final List<Server> servers;
+		private final LoadBalancer loadBalancer;
+
+		/**
+		 * Constructor
+		 *
+		 * @param name         the name of the route, eg. "writes"
+		 * @param servers      the servers of the route, which must be the servers loadBalancer balances over
+		 * @param loadBalancer the strategy for the route
+		 */
+		public Route(String name, List<Server> servers, LoadBalancer loadBalancer) {
+			if (servers.isEmpty()) {
+				throw new IllegalArgumentException("Route " + name + " has no servers");
+			}
+			this.name = name;
+			this.servers = List.copyOf(servers);
+			this.loadBalancer = loadBalancer;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public List<Server> getServers() {
+			return servers;
+		}
+
+		public LoadBalancer getLoadBalancer() {
+			return loadBalancer;
+		}
+
+		@Override
+		public String toString() {
+			return "Route [name=" + name + ", servers=" + servers.size() + "]";
+		}
+	}
+}
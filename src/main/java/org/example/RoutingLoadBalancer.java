@@ -0,0 +1,177 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A LoadBalancer that routes every request by its request type. The RouteTable picks the route,
+ * and the route's own LoadBalancer picks the server within the route's group.
+ *
+ * The table is held in a volatile snapshot and replaced as a whole, so a request sees either the old
+ * table or the new one, never a mix, and routing takes no lock. The snapshot also counts the requests
+ * in flight on each server, so that a swap can carry them over to a route whose LoadBalancer is new,
+ * like ReloadingLoadBalancer does. A request that completes after a swap is decremented through the
+ * snapshot that is current then.
+ */
+public class RoutingLoadBalancer implements LoadBalancer {
+
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Constructor
+	 *
+	 * @param routeTable the initial routes
+	 */
+	public RoutingLoadBalancer(RouteTable routeTable) {
+		Map<String, AtomicLong> serverNameToInFlight = new HashMap<>();
+		for (RouteTable.Route route : routeTable.getRoutes()) {
+			for (Server server : route.getServers()) {
+				serverNameToInFlight.put(server.getName(), new AtomicLong());
+			}
+		}
+		this.snapshot = new Snapshot(routeTable, serverNameToInFlight);
+	}
+
+	/**
+	 * Finds the route for the request's type, and issues the request to the server its strategy picks.
+	 *
+	 * @param request the request that the LB will issue to a server.
+	 */
+	@Override
+	public String serveRequest(Request request) {
+		return serveRequest(request, 0);
+	}
+
+	/**
+	 * Finds the route for the request's type like serveRequest(), and passes the excluded servers on to its strategy.
+	 *
+	 * @param request         the request that the LB will issue to a server.
+	 * @param excludedServers the LoadBalancer.serverBit() of each excluded server, or-ed together
+	 */
+	@Override
+	public String serveRequest(Request request, long excludedServers) {
+		Snapshot current = snapshot;
+		String serverName = current.routeTable.lookup(request.getRequestType()).getLoadBalancer()
+				.serveRequest(request, excludedServers);
+		if (serverName != null) {
+			AtomicLong inFlight = current.serverNameToInFlight.get(serverName);
+			if (inFlight != null) {
+				inFlight.incrementAndGet();
+			}
+		}
+		return serverName;
+	}
+
+	/**
+	 * Swaps in a new route table. A server whose route has a different LoadBalancer in the new table
+	 * starts in it with the requests it has in flight, so that their decrements, which go to the new
+	 * table, balance out; a route that keeps its LoadBalancer keeps its counts, and shares them with
+	 * the old snapshot. Servers that are in no route any more are dropped with their counts, and the
+	 * decrements of their requests are ignored. The new LoadBalancers are seeded before the table is
+	 * published, so requests never wait for a swap. A request that picked its server from the old table
+	 * while the swap was seeding isn't carried over; its decrement stops at 0 rather than going below.
+	 *
+	 * @param routeTable the new routes
+	 */
+	public synchronized void setRouteTable(RouteTable routeTable) {
+		Snapshot current = snapshot;
+		Map<String, AtomicLong> serverNameToInFlight = new HashMap<>();
+		for (RouteTable.Route route : routeTable.getRoutes()) {
+			for (Server server : route.getServers()) {
+				String serverName = server.getName();
+				AtomicLong inFlight = current.serverNameToInFlight.get(serverName);
+				RouteTable.Route previous = current.routeTable.routeOfServer(serverName);
+				if (inFlight == null || previous == null) {
+					inFlight = new AtomicLong();
+				} else if (previous.getLoadBalancer() != route.getLoadBalancer()) {
+					long count = inFlight.get();
+					inFlight = new AtomicLong(count);
+					if (count > 0) {
+						route.getLoadBalancer().updateRequestCount(serverName, Math.toIntExact(count));
+					}
+				}
+				serverNameToInFlight.put(serverName, inFlight);
+			}
+		}
+		this.snapshot = new Snapshot(routeTable, serverNameToInFlight);
+	}
+
+	public RouteTable getRouteTable() {
+		return snapshot.routeTable;
+	}
+
+	/**
+	 * Gets the status of every route: its name, the request types it serves, and its strategy's status.
+	 *
+	 * @return the status of the routes.
+	 */
+	@Override
+	public String getStatus() {
+		RouteTable table = snapshot.routeTable;
+		StringBuilder status = new StringBuilder();
+		for (Map.Entry<RouteTable.Route, List<String>> entry : table.requestTypesByRoute().entrySet()) {
+			RouteTable.Route route = entry.getKey();
+			status.append("Route: " + route.getName());
+			status.append(", request types: " + entry.getValue());
+			if (route == table.getDefaultRoute()) {
+				status.append(" (default)");
+			}
+			status.append("\n");
+			status.append(route.getLoadBalancer().getStatus());
+		}
+		return status.toString();
+	}
+
+	/**
+	 * Increments the no of requests that a server has by 1, on the route of the server.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void incrementRequestCount(String serverName) {
+		Snapshot current = snapshot;
+		RouteTable.Route route = current.routeTable.routeOfServer(serverName);
+		if (route != null) {
+			current.serverNameToInFlight.get(serverName).incrementAndGet();
+			route.getLoadBalancer().incrementRequestCount(serverName);
+		}
+	}
+
+	/**
+	 * Decrements the no of requests that a server has by 1, on the route of the server. A server without
+	 * requests in flight, eg. one that left the table and came back, is not decremented below 0.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void decrementRequestCount(String serverName) {
+		Snapshot current = snapshot;
+		RouteTable.Route route = current.routeTable.routeOfServer(serverName);
+		if (route == null) {
+			return;
+		}
+		AtomicLong inFlight = current.serverNameToInFlight.get(serverName);
+		long count = inFlight.get();
+		while (count > 0 && !inFlight.compareAndSet(count, count - 1)) {
+			count = inFlight.get();
+		}
+		if (count > 0) {
+			route.getLoadBalancer().decrementRequestCount(serverName);
+		}
+	}
+
+	/**
+	 * A route table with the requests in flight on each of its servers, published as a whole.
+	 */
+	private static final class Snapshot {
+		final RouteTable routeTable;
+		final Map<String, AtomicLong> serverNameToInFlight;
+
+		Snapshot(RouteTable routeTable, Map<String, AtomicLong> serverNameToInFlight) {
+			this.routeTable = routeTable;
+			this.serverNameToInFlight = Map.copyOf(serverNameToInFlight);
+		}
+	}
+}
@@ -2,23 +2,69 @@ package org.example;
 
 public class Server {
 
+    public static final String DEFAULT_ZONE = "default";
+
     private String name;
+    // the zone, rack or region the server runs in
+    private String zone;
+    // off for simulations that issue millions of requests
+    private boolean logRequests;
+    private volatile boolean available = true;
     
     public Server(String name) {
+    	this(name, DEFAULT_ZONE);
+    }
+
+    public Server(String name, String zone) {
+    	this(name, zone, true);
+    }
+
+    public Server(String name, String zone, boolean logRequests) {
     	this.name = name;
+    	this.zone = zone;
+    	this.logRequests = logRequests;
     }
 
+    /**
+     * Takes a request.
+     *
+     * @param request the request
+     * @throws ServerUnavailableException if the server is unavailable
+     */
     public void handleIncomingRequest(Request request) {
-        System.out.println(request + " being handled by " + this);
+        if (!available) {
+            throw new ServerUnavailableException(name);
+        }
+        if (logRequests) {
+            System.out.println(request + " being handled by " + this);
+        }
     }
 
     public String getName() {
         return name;
     }
 
+    public String getZone() {
+        return zone;
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Marks the server as up or down. A server that is down fails the requests it is given,
+     * see handleIncomingRequest().
+     *
+     * @param available false to fail requests
+     */
+    public void setAvailable(boolean available) {
+        this.available = available;
+    }
+
     @Override
     public String toString() {
-        return "Server [name=" + name + "]";
+        return "Server [name=" + name + ", zone=" + zone + "]";
     }
 
     @Override
@@ -1,12 +1,19 @@
 package org.example;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class ServerActiveConnectionTracker {
+public class ServerActiveConnectionTracker implements ConnectionTracker {
 	// Map to track server names and their corresponding request counts in
 	// the minHeap, in O(1) time.
 	private Map<String, ServerCountPair> serverToServerCountPair;
@@ -14,6 +21,11 @@ public class ServerActiveConnectionTracker {
 	// lowest request count
 	private PriorityBlockingQueue<ServerCountPair> minHeap;
     private Lock lock = new ReentrantLock();
+	// polls, offers and removes on minHeap, for LoadBalancerEvents
+	private long heapOperations;
+	// time each thread spent waiting for lock, for LoadBalancerEvents; a thread's own, so reading it
+	// takes no lock and an event doesn't count the waits of other threads
+	private final ThreadLocal<long[]> lockWaitNanos = ThreadLocal.withInitial(() -> new long[1]);
 	/**
 	 * Constructor
 	 */
@@ -27,8 +39,9 @@ public class ServerActiveConnectionTracker {
 	 *
 	 * @param serverName the server name
 	 */
+	@Override
 	public void addServer(String serverName) {
-		lock.lock();
+		lockAndTimeWait();
 		try {
 			updateServerCount(serverName, 0);
 		} finally {
@@ -36,25 +49,84 @@ public class ServerActiveConnectionTracker {
 		}
 	}
 
+	/**
+	 * Adds servers to the minHeap, with a request count of 0, by building the minHeap afresh from its
+	 * servers and the new ones. Building a heap from n servers is O(n), where offering them one by one
+	 * is O(n log n), so this is how a fleet of 100k servers is added at startup.
+	 *
+	 * @param serverNames the server names
+	 */
+	@Override
+	public void addServers(Collection<String> serverNames) {
+		lockAndTimeWait();
+		try {
+			Map<String, ServerCountPair> added = new HashMap<>();
+			for (String serverName : serverNames) {
+				if (serverToServerCountPair.containsKey(serverName)) {
+					updateServerCount(serverName, 0);
+				} else {
+					added.putIfAbsent(serverName, new ServerCountPair(0, serverName));
+				}
+			}
+			List<ServerCountPair> pairs = new ArrayList<>(minHeap.size() + added.size());
+			pairs.addAll(minHeap);
+			pairs.addAll(added.values());
+			serverToServerCountPair.putAll(added);
+			// the PriorityBlockingQueue constructor heapifies a list bottom up
+			minHeap = new PriorityBlockingQueue<>(pairs);
+			heapOperations += pairs.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Removes a server from the minHeap.
 	 *
 	 * @param serverName the server name
 	 */
+	@Override
 	public void removeServer(String serverName) {
-		lock.lock();
+		lockAndTimeWait();
 		try {
 			if (!serverToServerCountPair.containsKey(serverName)) {
 				return;
 			}
 			ServerCountPair pair = serverToServerCountPair.get(serverName);
 			minHeap.remove(pair);
+			heapOperations++;
 			serverToServerCountPair.remove(serverName);
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	/**
+	 * Removes servers from the minHeap in one pass over it, which costs the same as removing one server.
+	 * A server that was polled off the minHeap and not put back is only removed from serverToServerCountPair.
+	 *
+	 * @param serverNames the server names, servers that aren't tracked are ignored
+	 */
+	@Override
+	public void removeServers(Collection<String> serverNames) {
+		lockAndTimeWait();
+		try {
+			Set<ServerCountPair> pairs = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (String serverName : serverNames) {
+				ServerCountPair pair = serverToServerCountPair.remove(serverName);
+				if (pair != null) {
+					pairs.add(pair);
+				}
+			}
+			if (!pairs.isEmpty()) {
+				minHeap.removeIf(pairs::contains);
+				heapOperations++;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Updates the requestCount of a server in minHeap and serverToServerCountPair map.
 	 * countDelta=0 during init server,
@@ -67,8 +139,9 @@ public class ServerActiveConnectionTracker {
 	 * @param serverName the server name
 	 * @param countDelta the request count delta to add to the server
 	 */
+	@Override
 	public void updateServerCount(String serverName, int countDelta) {
-		lock.lock();
+		lockAndTimeWait();
 		try {
 			ServerCountPair pair = serverToServerCountPair.get(serverName);
 			// If map contains server, it exists on minHeap too.
@@ -77,24 +150,77 @@ public class ServerActiveConnectionTracker {
 				minHeap.remove(pair);
 				pair.count += countDelta;
 				minHeap.offer(pair);
+				heapOperations += 2;
 			} else {
 				pair = new ServerCountPair(countDelta, serverName);
 				serverToServerCountPair.put(serverName, pair);
 				minHeap.offer(pair);
+				heapOperations++;
 			}
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	/**
+	 * Gets the request count of a server.
+	 *
+	 * @param serverName the server name
+	 * @return the request count, or 0 if the server is not tracked.
+	 */
+	@Override
+	public int getServerCount(String serverName) {
+		lockAndTimeWait();
+		try {
+			ServerCountPair pair = serverToServerCountPair.get(serverName);
+			return pair != null ? pair.count : 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of polls, offers and removes done on the minHeap so far.
+	 *
+	 * @return the number of heap operations.
+	 */
+	@Override
+	public long getOperationCount() {
+		lockAndTimeWait();
+		try {
+			return heapOperations;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getLockWaitNanos() {
+		return lockWaitNanos.get()[0];
+	}
+
+	/**
+	 * Takes the lock, timing the wait only if it is held by another thread,
+	 * so that the uncontended case costs no clock reads.
+	 */
+	private void lockAndTimeWait() {
+		if (lock.tryLock()) {
+			return;
+		}
+		long start = System.nanoTime();
+		lock.lock();
+		lockWaitNanos.get()[0] += System.nanoTime() - start;
+	}
+
 	/**
 	 * Retrieves and removes the least connected server, ie the server with the lowest request count,
 	 * which will be at head of minHeap
 	 *
 	 * @return the least connected server.
 	 */
+	@Override
 	public String getLeastUsedServer() {
-		lock.lock();
+		lockAndTimeWait();
 		try {
 			// If min heap is empty, return null
 			if (minHeap.isEmpty()) {
@@ -102,6 +228,7 @@ public class ServerActiveConnectionTracker {
 			}
 
 			ServerCountPair pair = minHeap.poll();
+			heapOperations++;
 			String serverName = pair.serverName;
 			return serverName;
 		} finally {
@@ -114,9 +241,16 @@ public class ServerActiveConnectionTracker {
 	 *
 	 * @return the minHeap size.
 	 */
+	@Override
 	public int size() {
-		assert(minHeap.size() == serverToServerCountPair.size());
-		return minHeap.size();
+		// under the lock, as addServers() replaces the minHeap
+		lockAndTimeWait();
+		try {
+			assert(minHeap.size() == serverToServerCountPair.size());
+			return minHeap.size();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -124,15 +258,21 @@ public class ServerActiveConnectionTracker {
 	 *
 	 * @return true if minHeap size is 0.
 	 */
+	@Override
 	public boolean isEmpty() {
-		assert(minHeap.isEmpty() == serverToServerCountPair.isEmpty());
-		return minHeap.size() == 0;
+		lockAndTimeWait();
+		try {
+			assert(minHeap.isEmpty() == serverToServerCountPair.isEmpty());
+			return minHeap.size() == 0;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public String toString() {
 		StringBuffer result = new StringBuffer();
-		lock.lock();
+		lockAndTimeWait();
 		try {
 			result.append("ServerActiveConnectionTracker [");
 			for (Map.Entry<String, ServerCountPair> entrySet : serverToServerCountPair.entrySet()) {
@@ -1,5 +1,6 @@
 package org.example;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -15,7 +16,8 @@ public class ServerFactory {
      * @return a List of servers
      */
     public static List<Server> createServers(int numServers) {
-        List<Server> servers = new CopyOnWriteArrayList<>();
+        // built in an ArrayList, as every add to a CopyOnWriteArrayList copies it
+        List<Server> servers = new ArrayList<>(numServers);
 
         char serverNamePrefix = 'a';
         for (int i = 0; i < numServers; i++) {
@@ -24,7 +26,80 @@ public class ServerFactory {
             serverNamePrefix = incrementServerNamePrefix(serverNamePrefix);
         }
 
-        return servers;
+        return new CopyOnWriteArrayList<>(servers);
+    }
+
+    /**
+     * Creates a list of servers like createServers(numServers), spread over zones:
+     * the first server goes in the first zone, the second in the second, and so on round the zones.
+     *
+     * @param numServers the number of servers to create
+     * @param zones      the zones, at least one
+     * @return a List of servers
+     */
+    public static List<Server> createServers(int numServers, List<String> zones) {
+        return createServers(numServers, zones, true);
+    }
+
+    /**
+     * Creates a list of servers like createServers(numServers, zones).
+     *
+     * @param numServers  the number of servers to create
+     * @param zones       the zones, at least one
+     * @param logRequests whether the servers print every request they handle
+     * @return a List of servers
+     */
+    public static List<Server> createServers(int numServers, List<String> zones, boolean logRequests) {
+        if (zones.isEmpty()) {
+            throw new IllegalArgumentException("zones must not be empty");
+        }
+        // built in an ArrayList, as every add to a CopyOnWriteArrayList copies it
+        List<Server> servers = new ArrayList<>(numServers);
+
+        char serverNamePrefix = 'a';
+        for (int i = 0; i < numServers; i++) {
+            String serverName = generateServerName(serverNamePrefix, i);
+            servers.add(new Server(serverName, zones.get(i % zones.size()), logRequests));
+            serverNamePrefix = incrementServerNamePrefix(serverNamePrefix);
+        }
+
+        return new CopyOnWriteArrayList<>(servers);
+    }
+
+    /**
+     * Gets the position a server name has in the list created by createServers(),
+     * eg. 'a' is 0, 'z' is 25, 'a1' is 26 and 'b2' is 53.
+     * This lets a server name be used as an index without a map lookup.
+     *
+     * @param serverName the server name
+     * @return the index of the server, or -1 if the name is not one generated by this factory
+     */
+    public static int serverIndex(String serverName) {
+        if (serverName == null || serverName.isEmpty()) {
+            return -1;
+        }
+        char serverNamePrefix = serverName.charAt(0);
+        if (serverNamePrefix < 'a' || serverNamePrefix > 'z') {
+            return -1;
+        }
+        int letterIndex = serverNamePrefix - 'a';
+        if (serverName.length() == 1) {
+            return letterIndex;
+        }
+        // names past the first 26 carry a suffix of index/26, which is never 0 or zero-padded
+        if (serverName.charAt(1) == '0' || serverName.length() > 10) {
+            return -1;
+        }
+        long suffix = 0;
+        for (int i = 1; i < serverName.length(); i++) {
+            char digit = serverName.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            suffix = suffix * 10 + (digit - '0');
+        }
+        long index = suffix * ALPHABET_LENGTH + letterIndex;
+        return index > Integer.MAX_VALUE ? -1 : (int) index;
     }
 
     private static String generateServerName(char serverNamePrefix, int index) {
@@ -0,0 +1,21 @@
+package org.example;
+
+/**
+ * Thrown by a Server that can't take a request, eg. because it is down. The load balancer that picked the
+ * server lets it through without counting the request, so that the caller can try another server.
+ */
+public class ServerUnavailableException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String serverName;
+
+	public ServerUnavailableException(String serverName) {
+		super("Server " + serverName + " is unavailable");
+		this.serverName = serverName;
+	}
+
+	public String getServerName() {
+		return serverName;
+	}
+}
@@ -0,0 +1,231 @@
+package org.example;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ShardedLeastConnectedLoadBalancer implements LoadBalancer {
+
+	private final List<Server> servers;
+	private final Map<String, Integer> serverNameToIndex;
+	// LoadBalancer.serverBit() of each server
+	private final long[] serverBits;
+	// Each worker thread is mapped onto one shard, so threads on different shards
+	// never write to the same counter cells.
+	private final Shard[] shards;
+	// How old a shard's view of the other shards' counts may get before it is rebuilt.
+	// 0 means exact mode, where every selection sums the cells of every shard.
+	private final long maxStalenessNanos;
+
+	/**
+	 * Constructor
+	 *
+	 * @param servers           the list of servers to be used
+	 * @param numShards         the number of shards the worker threads are split across
+	 * @param maxStalenessNanos how stale a shard's view of the global counts may be, 0 for exact
+	 */
+	public ShardedLeastConnectedLoadBalancer(List<Server> servers, int numShards, long maxStalenessNanos) {
+		if (numShards < 1) {
+			throw new IllegalArgumentException("numShards must be at least 1: " + numShards);
+		}
+		if (maxStalenessNanos < 0) {
+			throw new IllegalArgumentException("maxStalenessNanos must not be negative: " + maxStalenessNanos);
+		}
+		this.servers = List.copyOf(servers);
+		this.maxStalenessNanos = maxStalenessNanos;
+		this.serverNameToIndex = new HashMap<>();
+		this.serverBits = new long[this.servers.size()];
+		for (int i = 0; i < this.servers.size(); i++) {
+			serverNameToIndex.put(this.servers.get(i).getName(), i);
+			serverBits[i] = LoadBalancer.serverBit(this.servers.get(i).getName());
+		}
+		this.shards = new Shard[numShards];
+		for (int i = 0; i < numShards; i++) {
+			shards[i] = new Shard(i);
+		}
+	}
+
+	/**
+	 * Determines the least connected server, as seen by the calling thread's shard,
+	 * and issues the request to it.
+	 *
+	 * @param request the request that the LB will issue to the next server.
+	 */
+	@Override
+	public String serveRequest(Request request) {
+		return serveRequest(request, 0);
+	}
+
+	/**
+	 * Determines the least connected server that is not excluded, as seen by the calling thread's shard,
+	 * and issues the request to it.
+	 *
+	 * @param request         the request that the LB will issue to the next server.
+	 * @param excludedServers the LoadBalancer.serverBit() of each excluded server, or-ed together
+	 */
+	@Override
+	public String serveRequest(Request request, long excludedServers) {
+		Shard shard = currentShard();
+		int index = shard.selectLeastConnected(excludedServers);
+		if (index < 0) {
+			return null;
+		}
+		Server server = servers.get(index);
+		server.handleIncomingRequest(request);
+		shard.cells.incrementAndGet(index);
+		return server.getName();
+	}
+
+	/**
+	 * Increments the no of requests that a server has by 1.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void incrementRequestCount(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		if (index != null) {
+			currentShard().cells.incrementAndGet(index);
+		}
+	}
+
+	/**
+	 * Decrements the no of requests that a server has by 1.
+	 * The decrement may land on a different shard than the increment did,
+	 * the sum over all shards stays exact.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void decrementRequestCount(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		if (index != null) {
+			currentShard().cells.decrementAndGet(index);
+		}
+	}
+
+	/**
+	 * Gets the exact active connection count of a server, summed over all shards.
+	 *
+	 * @param serverName the server name.
+	 * @return the active connection count, or 0 if the server is unknown.
+	 */
+	public long getActiveCount(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		return index != null ? sumAcrossShards(index) : 0;
+	}
+
+	/**
+	 * Gets the status of the servers.
+	 *
+	 * @return the status of the servers.
+	 */
+	@Override
+	public String getStatus() {
+		StringBuilder status = new StringBuilder();
+		status.append("Shards: ").append(shards.length).append("\n");
+		for (int i = 0; i < servers.size(); i++) {
+			status.append("Server name: ").append(servers.get(i).getName());
+			status.append(", active connections: ").append(sumAcrossShards(i));
+			status.append("\n");
+		}
+		return status.toString();
+	}
+
+	private Shard currentShard() {
+		return shards[(int) (Thread.currentThread().threadId() % shards.length)];
+	}
+
+	private long sumAcrossShards(int index) {
+		long sum = 0;
+		for (Shard shard : shards) {
+			sum += shard.cells.get(index);
+		}
+		return sum;
+	}
+
+	/**
+	 * A shard owns one counter cell per server. The exact active count of a server is
+	 * the sum of its cells over all shards, in the same way as a LongAdder. The cells are padded so
+	 * that threads updating neighbouring servers don't false-share a cache line.
+	 * Outside of exact mode, a shard selects from a cached snapshot of those sums,
+	 * corrected by the shard's own changes since the snapshot was taken.
+	 */
+	private class Shard {
+		final PaddedCounterArray cells;
+		// Where the scan for the least connected server starts, so that shards with the
+		// same stale view don't all break ties onto the same server.
+		final int scanOffset;
+		volatile Snapshot snapshot;
+
+		Shard(int shardIndex) {
+			cells = new PaddedCounterArray(servers.size());
+			scanOffset = servers.isEmpty() ? 0 : (int) ((long) shardIndex * servers.size() / shards.length);
+			snapshot = new Snapshot(new long[servers.size()], new long[servers.size()], System.nanoTime());
+		}
+
+		/**
+		 * Finds the index of the least connected server.
+		 *
+		 * @param excludedServers the servers not to choose
+		 * @return the server index, or -1 if there are no servers that aren't excluded.
+		 */
+		int selectLeastConnected(long excludedServers) {
+			int numServers = servers.size();
+			Snapshot view = null;
+			if (maxStalenessNanos > 0) {
+				view = snapshot;
+				long now = System.nanoTime();
+				if (now - view.takenNanos > maxStalenessNanos) {
+					view = refresh(now);
+				}
+			}
+			int best = -1;
+			long bestCount = Long.MAX_VALUE;
+			for (int n = 0; n < numServers; n++) {
+				int i = (scanOffset + n) % numServers;
+				if ((excludedServers & serverBits[i]) != 0) {
+					continue;
+				}
+				long count = view == null
+						? sumAcrossShards(i)
+						: view.totals[i] + (cells.get(i) - view.localBase[i]);
+				if (count < bestCount) {
+					bestCount = count;
+					best = i;
+				}
+			}
+			return best;
+		}
+
+		private Snapshot refresh(long now) {
+			int numServers = servers.size();
+			long[] totals = new long[numServers];
+			long[] localBase = new long[numServers];
+			for (int i = 0; i < numServers; i++) {
+				localBase[i] = cells.get(i);
+				totals[i] = sumAcrossShards(i);
+			}
+			Snapshot refreshed = new Snapshot(totals, localBase, now);
+			// Two threads may refresh at once, either snapshot is good enough.
+			snapshot = refreshed;
+			return refreshed;
+		}
+	}
+
+	/**
+	 * Immutable view of the global counts, taken at takenNanos.
+	 * localBase holds the shard's own cells at that time.
+	 */
+	private static class Snapshot {
+		final long[] totals;
+		final long[] localBase;
+		final long takenNanos;
+
+		Snapshot(long[] totals, long[] localBase, long takenNanos) {
+			this.totals = totals;
+			this.localBase = localBase;
+			this.takenNanos = takenNanos;
+		}
+	}
+}
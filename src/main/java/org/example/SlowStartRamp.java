@@ -0,0 +1,98 @@
+package org.example;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Slow-start for servers that join after the load balancer started.
+ *
+ * A new server has no active connections, so least connected would send it every request until it
+ * catches up, before its JIT and caches are warm. Instead, during the ramp window a new server gets
+ * a factor between minFactor and 1 that load balancers scale its share of traffic by:
+ *
+ *   factor = max(minFactor, (elapsed / window) ^ (1 / aggression))
+ *
+ * An aggression of 1 ramps up linearly, above 1 the factor rises quickly at first,
+ * below 1 it stays low for longer.
+ *
+ * Computing the factor is a map lookup and some arithmetic, with no allocation or locking.
+ */
+public class SlowStartRamp {
+
+	private final long windowNanos;
+	private final double aggression;
+	private final double minFactor;
+	// Start time of each server that is (or was) ramping up
+	private final Map<String, Long> serverToStartNanos = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param windowMillis how long a new server ramps up for
+	 * @param aggression   the shape of the curve, 1 for linear
+	 * @param minFactor    the factor a server starts at, between 0 and 1
+	 */
+	public SlowStartRamp(long windowMillis, double aggression, double minFactor) {
+		if (windowMillis <= 0) {
+			throw new IllegalArgumentException("windowMillis must be positive: " + windowMillis);
+		}
+		if (!(aggression > 0)) {
+			throw new IllegalArgumentException("aggression must be positive: " + aggression);
+		}
+		if (minFactor < 0 || minFactor > 1) {
+			throw new IllegalArgumentException("minFactor must be between 0 and 1: " + minFactor);
+		}
+		this.windowNanos = windowMillis * 1_000_000;
+		this.aggression = aggression;
+		this.minFactor = minFactor;
+	}
+
+	/**
+	 * Starts the ramp of a server that just joined.
+	 *
+	 * @param serverName the server name
+	 */
+	public void serverAdded(String serverName) {
+		serverToStartNanos.put(serverName, System.nanoTime());
+	}
+
+	/**
+	 * Forgets a server, eg. when it leaves the pool.
+	 *
+	 * @param serverName the server name
+	 */
+	public void serverRemoved(String serverName) {
+		serverToStartNanos.remove(serverName);
+	}
+
+	/**
+	 * Gets the current ramp factor of a server.
+	 *
+	 * @param serverName the server name
+	 * @return a factor between minFactor and 1, 1 if the server is not ramping up.
+	 */
+	public double factor(String serverName) {
+		Long startNanos = serverToStartNanos.get(serverName);
+		return startNanos == null ? 1.0 : factor(startNanos, System.nanoTime());
+	}
+
+	/**
+	 * Gets the ramp factor of a server that started at startNanos.
+	 *
+	 * @param startNanos the time the server joined
+	 * @param nowNanos   the current time
+	 * @return a factor between minFactor and 1.
+	 */
+	double factor(long startNanos, long nowNanos) {
+		long elapsedNanos = nowNanos - startNanos;
+		if (elapsedNanos >= windowNanos) {
+			return 1.0;
+		}
+		if (elapsedNanos <= 0) {
+			return minFactor;
+		}
+		double progress = (double) elapsedNanos / windowNanos;
+		double factor = aggression == 1.0 ? progress : Math.pow(progress, 1.0 / aggression);
+		return Math.max(minFactor, factor);
+	}
+}
@@ -0,0 +1,160 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkpoints an OffHeapServerStateTable to a memory-mapped file, so that connection counts,
+ * lease deadlines and health bits survive a restart instead of every server starting at 0.
+ *
+ * File layout (native byte order):
+ *
+ *   offset 0   int   MAGIC
+ *   offset 4   int   VERSION
+ *   offset 8   int   table capacity
+ *   offset 12  int   reserved
+ *   offset 16  long  sequence, odd while a checkpoint is being written
+ *   offset 24  long  epoch millis of the last complete checkpoint
+ *   offset 64  the table, in the OffHeapServerStateTable layout
+ *
+ * A checkpoint only reads the table, it never locks it, so the serve path is not blocked.
+ * The copy is not an atomic snapshot: counts that change during the copy may be off by the
+ * requests that were in flight, which is good enough for a warm restart.
+ */
+public class StateCheckpointer implements Closeable {
+
+	static final int MAGIC = 0x4C425354; // "LBST"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 64;
+
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int SEQUENCE_OFFSET = 16;
+	private static final int TIMESTAMP_OFFSET = 24;
+
+	private final OffHeapServerStateTable table;
+	private final FileChannel channel;
+	private final MappedByteBuffer mapped;
+	private ScheduledExecutorService executorService;
+	private long sequence;
+
+	/**
+	 * Constructor. Maps the checkpoint file, creating or resizing it as needed.
+	 *
+	 * @param table the table to checkpoint
+	 * @param file  the checkpoint file
+	 * @throws IOException if the file can't be mapped
+	 */
+	public StateCheckpointer(OffHeapServerStateTable table, Path file) throws IOException {
+		this.table = table;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		long fileSize = (long) HEADER_BYTES + OffHeapServerStateTable.requiredBytes(table.capacity());
+		if (channel.size() != fileSize) {
+			channel.truncate(Math.min(channel.size(), fileSize));
+		}
+		this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+		this.mapped.order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Starts checkpointing on a background thread, every periodMillis.
+	 *
+	 * @param periodMillis time between two checkpoints
+	 */
+	public synchronized void start(long periodMillis) {
+		if (executorService != null) {
+			return;
+		}
+		executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "state-checkpointer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executorService.scheduleAtFixedRate(this::checkpointQuietly, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Copies the table into the mapped file.
+	 * The sequence is odd while the copy is in progress, so that a crash half way
+	 * through leaves a file that restore() rejects rather than a torn table.
+	 */
+	public synchronized void checkpoint() {
+		mapped.putInt(0, MAGIC);
+		mapped.putInt(4, VERSION);
+		mapped.putInt(CAPACITY_OFFSET, table.capacity());
+		mapped.putLong(SEQUENCE_OFFSET, ++sequence);
+		ByteBuffer source = table.buffer().duplicate();
+		source.clear();
+		mapped.put(HEADER_BYTES, source, 0, source.capacity());
+		mapped.putLong(TIMESTAMP_OFFSET, System.currentTimeMillis());
+		mapped.putLong(SEQUENCE_OFFSET, ++sequence);
+		mapped.force();
+	}
+
+	private void checkpointQuietly() {
+		try {
+			checkpoint();
+		} catch (RuntimeException e) {
+			// keep the schedule alive, the next checkpoint may succeed
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Restores a table from a checkpoint file.
+	 *
+	 * @param file the checkpoint file
+	 * @return the restored table, or null if there is no checkpoint file
+	 * @throws IOException if the file is not a complete checkpoint of this version
+	 */
+	public static OffHeapServerStateTable restore(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			return null;
+		}
+		try (FileChannel readChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (readChannel.size() < HEADER_BYTES) {
+				throw new IOException("Checkpoint " + file + " is too small");
+			}
+			MappedByteBuffer source = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, readChannel.size());
+			source.order(ByteOrder.nativeOrder());
+			if (source.getInt(0) != MAGIC) {
+				throw new IOException("Checkpoint " + file + " has an unknown format");
+			}
+			if (source.getInt(4) != VERSION) {
+				throw new IOException("Checkpoint " + file + " has unsupported version " + source.getInt(4));
+			}
+			if ((source.getLong(SEQUENCE_OFFSET) & 1) != 0) {
+				throw new IOException("Checkpoint " + file + " was not completely written");
+			}
+			int capacity = source.getInt(CAPACITY_OFFSET);
+			int tableBytes = OffHeapServerStateTable.requiredBytes(capacity);
+			if (readChannel.size() < (long) HEADER_BYTES + tableBytes) {
+				throw new IOException("Checkpoint " + file + " is truncated");
+			}
+			ByteBuffer restored = ByteBuffer.allocateDirect(tableBytes);
+			restored.put(0, source, HEADER_BYTES, tableBytes);
+			return new OffHeapServerStateTable(restored, capacity);
+		}
+	}
+
+	/**
+	 * Stops checkpointing and closes the file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (executorService != null) {
+			executorService.shutdown();
+		}
+		channel.close();
+	}
+}
@@ -0,0 +1,346 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An L4 (TCP) forwarder that splices every client connection to a backend chosen by a LoadBalancer.
+ *
+ * When a client connects, LoadBalancer.serveRequest() picks the backend, which increments its count for
+ * the lifetime of the connection. Bytes are then shuttled both ways until both sides have closed, after
+ * which the count is decremented. Nothing about the bytes is interpreted, so any protocol can be carried.
+ *
+ * Each direction of a connection has one direct buffer from a DirectBufferPool: bytes are read from one
+ * channel into it and written from it to the other channel, without being copied in between and
+ * without allocating per read. A slow reader applies back pressure: while a buffer can't be written out,
+ * its source is not read from. Half-closes are passed on, so a client that shuts down its output still
+ * gets the rest of the backend's response.
+ */
+public final class TcpForwarder implements Closeable {
+
+	static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final LoadBalancer loadBalancer;
+	private final Map<String, BackendServer> serverNameToBackend;
+	private final DirectBufferPool bufferPool;
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final Thread eventLoop;
+	private volatile boolean running;
+
+	/**
+	 * Constructor. Binds the listening socket, call start() to start forwarding.
+	 *
+	 * @param loadBalancer the load balancer that picks a backend for every connection
+	 * @param backends     the backends, by the server names the load balancer returns
+	 * @param bindAddress  the address to listen on, port 0 for any free port
+	 * @throws IOException if the address can't be bound
+	 */
+	public TcpForwarder(LoadBalancer loadBalancer, List<BackendServer> backends, InetSocketAddress bindAddress)
+			throws IOException {
+		this.loadBalancer = loadBalancer;
+		this.serverNameToBackend = new HashMap<>();
+		for (BackendServer backend : backends) {
+			serverNameToBackend.put(backend.getName(), backend);
+		}
+		this.bufferPool = new DirectBufferPool(DEFAULT_BUFFER_SIZE, 1024);
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(bindAddress, 1024);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		this.eventLoop = new Thread(this::runEventLoop, "tcp-forwarder-" + getLocalAddress().getPort());
+	}
+
+	/**
+	 * Starts the selector thread.
+	 */
+	public void start() {
+		running = true;
+		eventLoop.start();
+	}
+
+	public InetSocketAddress getLocalAddress() {
+		try {
+			return (InetSocketAddress) serverChannel.getLocalAddress();
+		} catch (IOException e) {
+			throw new IllegalStateException("Forwarder is closed", e);
+		}
+	}
+
+	/**
+	 * Stops forwarding and closes all connections.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		if (eventLoop.isAlive() && Thread.currentThread() != eventLoop) {
+			try {
+				eventLoop.join(5_000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} else if (!eventLoop.isAlive()) {
+			closeAll();
+		}
+	}
+
+	private void runEventLoop() {
+		try {
+			while (running) {
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handle(key);
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			e.printStackTrace();
+		} finally {
+			closeAll();
+		}
+	}
+
+	private void handle(SelectionKey key) {
+		Side side = key.attachment() instanceof Side attached ? attached : null;
+		try {
+			if (!key.isValid()) {
+				return;
+			}
+			if (key.isAcceptable()) {
+				accept();
+				return;
+			}
+			if (key.isConnectable()) {
+				side.onConnectable();
+			}
+			if (key.isValid() && key.isWritable()) {
+				// this side can take more of the bytes read from its peer
+				side.peer.flush();
+			}
+			if (key.isValid() && key.isReadable()) {
+				side.onReadable();
+			}
+		} catch (IOException | CancelledKeyException e) {
+			if (side != null) {
+				side.splice.close();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			String serverName;
+			try {
+				// per host, as each connection comes from a new ephemeral port
+				String clientId = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+				serverName = loadBalancer.serveRequest(new Request(clientId, "TCP"));
+			} catch (RuntimeException e) {
+				// eg. ServerUnavailableException, which must not take the event loop and every connection down
+				serverName = null;
+			}
+			BackendServer backend = serverName != null ? serverNameToBackend.get(serverName) : null;
+			if (backend == null) {
+				if (serverName != null) {
+					loadBalancer.decrementRequestCount(serverName);
+				}
+				closeQuietly(channel);
+				continue;
+			}
+			Splice splice = new Splice(serverName);
+			try {
+				splice.open(channel, backend);
+			} catch (IOException e) {
+				splice.close();
+			}
+		}
+	}
+
+	private void closeAll() {
+		if (!selector.isOpen()) {
+			return;
+		}
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof Side side) {
+				side.splice.close();
+			}
+		}
+		closeQuietly(serverChannel);
+		closeQuietly(selector);
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// nothing left to do with it
+		}
+	}
+
+	/**
+	 * A client connection spliced to a backend connection.
+	 */
+	private class Splice {
+		final String serverName;
+		Side client;
+		Side backend;
+		boolean closed;
+
+		Splice(String serverName) {
+			this.serverName = serverName;
+		}
+
+		void open(SocketChannel clientChannel, BackendServer server) throws IOException {
+			client = new Side(this, clientChannel, true);
+			SocketChannel backendChannel = SocketChannel.open();
+			boolean connected;
+			try {
+				backendChannel.configureBlocking(false);
+				backendChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				connected = backendChannel.connect(server.getAddress());
+			} catch (IOException e) {
+				closeQuietly(backendChannel);
+				throw e;
+			}
+			backend = new Side(this, backendChannel, connected);
+			client.peer = backend;
+			backend.peer = client;
+			client.key = clientChannel.register(selector, 0, client);
+			backend.key = backendChannel.register(selector, 0, backend);
+			client.updateInterest();
+			backend.updateInterest();
+		}
+
+		/**
+		 * Closes both sides, once, and decrements the backend's count.
+		 */
+		void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (client != null) {
+				client.close();
+			}
+			if (backend != null) {
+				backend.close();
+			}
+			loadBalancer.decrementRequestCount(serverName);
+		}
+	}
+
+	/**
+	 * One side of a splice, ie one channel and the buffer of bytes read from it that are still
+	 * to be written to its peer.
+	 */
+	private class Side {
+		final Splice splice;
+		final SocketChannel channel;
+		final ByteBuffer buffer;
+		Side peer;
+		SelectionKey key;
+		boolean connected;
+		// end of stream has been read from this side
+		boolean inputClosed;
+		// the output of this side has been shut down, after its peer's input closed
+		boolean outputShutdown;
+
+		Side(Splice splice, SocketChannel channel, boolean connected) {
+			this.splice = splice;
+			this.channel = channel;
+			this.connected = connected;
+			this.buffer = bufferPool.acquire();
+		}
+
+		void onConnectable() throws IOException {
+			if (channel.finishConnect()) {
+				connected = true;
+				// pass on whatever the peer sent, or closed, while this side was connecting
+				peer.flush();
+				updateInterest();
+			}
+		}
+
+		void onReadable() throws IOException {
+			if (channel.read(buffer) < 0) {
+				inputClosed = true;
+			}
+			flush();
+		}
+
+		/**
+		 * Writes the bytes read from this side to its peer. Once this side's input has closed and
+		 * everything has been written, the peer's output is shut down too.
+		 */
+		void flush() throws IOException {
+			if (splice.closed || !peer.connected) {
+				return;
+			}
+			buffer.flip();
+			peer.channel.write(buffer);
+			buffer.compact();
+			if (inputClosed && buffer.position() == 0 && !peer.outputShutdown) {
+				peer.channel.shutdownOutput();
+				peer.outputShutdown = true;
+			}
+			if (outputShutdown && peer.outputShutdown) {
+				splice.close();
+				return;
+			}
+			updateInterest();
+			peer.updateInterest();
+		}
+
+		/**
+		 * Reads from this side while there is room in its buffer and its peer is connected,
+		 * and waits for this side to become writable while its peer has bytes waiting for it.
+		 */
+		void updateInterest() {
+			if (splice.closed) {
+				return;
+			}
+			int ops = 0;
+			if (!connected) {
+				ops = SelectionKey.OP_CONNECT;
+			} else {
+				if (!inputClosed && buffer.hasRemaining() && peer.connected) {
+					ops |= SelectionKey.OP_READ;
+				}
+				if (peer.buffer.position() > 0) {
+					ops |= SelectionKey.OP_WRITE;
+				}
+			}
+			// changing the interest set is a system call, so only do it when it changes
+			if (key.interestOps() != ops) {
+				key.interestOps(ops);
+			}
+		}
+
+		void close() {
+			if (key != null) {
+				key.cancel();
+			}
+			closeQuietly(channel);
+			bufferPool.release(buffer);
+		}
+	}
+}
@@ -1,40 +1,81 @@
 package org.example;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
 public class TimedServerPool {
 
 	private final Map<String, TimedValue> serverToTimedValue;
-	// Each thread in the thread pool represents a server and will delay <server's expiryTime> and then
-	// run removeExpiredEntries() to remove the server from the list of available servers.
-	private final ScheduledExecutorService executorService;
+	// Runs removeExpiredEntries() when the earliest lease is up, which then schedules itself for the next one.
+	private final ScheduledThreadPoolExecutor executorService;
+	// The leases by expiry time, for removeExpiredEntries(). Leases that were replaced or removed by
+	// another put() or expire() stay until their time is up, and are skipped then.
+	private PriorityQueue<TimedValue> deadlines = new PriorityQueue<>();
+	// The one scheduled run of removeExpiredEntries(), and when it runs, or Long.MAX_VALUE if none.
+	private ScheduledFuture<?> cleanupTask;
+	private long cleanupDeadline = Long.MAX_VALUE;
+	// The time in millis. Wall clock time, unless the pool runs under a simulated clock.
+	private final LongSupplier clock;
+	// Tells listeners, eg. a LeastConnectedLoadBalancer's tracker, which servers expired.
+	private final MembershipEventBus membershipEventBus = new MembershipEventBus();
 	private Lock lock = new ReentrantLock();
+	/**
+	 * Constructs a TimedServerPool with a single thread, which is enough for any number of servers.
+	 */
+	public TimedServerPool() {
+		this(1);
+	}
+
 	/**
 	 * Constructs a TimedServerPool object that consists of a Map and a ScheduledExecutorService.
 	 *
 	 * The ScheduledExecutorService is a thread pool that can schedule commands
-	 * to run after a given delay. The thread pool will have a thread count equal to the no of servers.
-	 * Here, the thread pool is used to simulate the server pool, where each thread represents a server
-	 * being alive. The thread's delay represents the expiryTime of the server. Upon the delay elapsing,
-	 * the thread runs the removeExpiredEntries() method which will remove the server from the list of
-	 * available servers.
+	 * to run after a given delay. Here, it is used to simulate the server pool: the servers' leases are
+	 * kept in order of expiry time, and one task is scheduled for the earliest. Upon the delay elapsing,
+	 * the task runs the removeExpiredEntries() method, which removes the servers whose time is up from the
+	 * list of available servers and schedules the task again for the next lease. So the number of threads
+	 * and of scheduled tasks doesn't grow with the number of servers.
 	 *
-	 * @param numThreads the number of threads, which is the no of servers.
+	 * @param numThreads the number of threads, only one of which runs at a time.
 	 */
 	public TimedServerPool(int numThreads) {
 		serverToTimedValue = new ConcurrentHashMap<>();
-		this.executorService = Executors.newScheduledThreadPool(numThreads);
+		// daemon threads, as the pool keeps its threads when it runs empty, so that servers can join later
+		this.executorService = new ScheduledThreadPoolExecutor(numThreads, runnable -> {
+			Thread thread = new Thread(runnable, "timed-server-pool");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// a rescheduled cleanup doesn't leave the cancelled one on the executor's queue
+		executorService.setRemoveOnCancelPolicy(true);
+		this.clock = System::currentTimeMillis;
+	}
+
+	/**
+	 * Constructs a TimedServerPool that runs on a clock of its caller's, eg. the virtual clock of a
+	 * DiscreteEventSimulator. No threads are started: nothing is removed when its time is up until
+	 * the caller calls expire() for it.
+	 *
+	 * @param clock the time in millis
+	 */
+	TimedServerPool(LongSupplier clock) {
+		serverToTimedValue = new ConcurrentHashMap<>();
+		this.executorService = null;
+		this.clock = clock;
 	}
 
 	/**
 	 * Add a server to the pool and its expiry time.
-	 * Also calls startCleanupTask() to schedule the server to be removed from the pool
+	 * Also calls startCleanupTask(), so that the server is removed from the pool
 	 * at the expiry time.
 	 * 
 	 * @param key              the server name
@@ -43,14 +84,54 @@ public class TimedServerPool {
 	public void put(String key, long expiryTimeMillis) {
 		lock.lock();
 		try {
-			serverToTimedValue.put(key, new TimedValue(key, expiryTimeMillis));
+			TimedValue timedValue = new TimedValue(key, expiryTimeMillis, clock.getAsLong());
+			serverToTimedValue.put(key, timedValue);
 			// Remove server from pool after it times out, ie in expiryTimeMillis.
-			startCleanupTask(expiryTimeMillis);
+			if (executorService != null) {
+				deadlines.offer(timedValue);
+				startCleanupTask(timedValue.getDeadline());
+			}
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	/**
+	 * Adds servers to the pool, all at once, eg. a whole fleet at startup. The leases are put in order
+	 * of expiry time in O(n), by building the heap afresh, rather than offered one by one.
+	 *
+	 * @param expiryTimeMillisByKey how long each server will be kept in the pool, by server name
+	 */
+	public void putAll(Map<String, Long> expiryTimeMillisByKey) {
+		lock.lock();
+		try {
+			long currentTime = clock.getAsLong();
+			List<TimedValue> timedValues = new ArrayList<>(deadlines.size() + expiryTimeMillisByKey.size());
+			for (Map.Entry<String, Long> entry : expiryTimeMillisByKey.entrySet()) {
+				TimedValue timedValue = new TimedValue(entry.getKey(), entry.getValue(), currentTime);
+				serverToTimedValue.put(entry.getKey(), timedValue);
+				timedValues.add(timedValue);
+			}
+			if (executorService != null && !timedValues.isEmpty()) {
+				timedValues.addAll(deadlines);
+				// the PriorityQueue constructor heapifies a list bottom up
+				deadlines = new PriorityQueue<>(timedValues);
+				startCleanupTask(deadlines.peek().getDeadline());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the bus that expired servers are published on, once they have been removed from the pool.
+	 *
+	 * @return the membership event bus
+	 */
+	public MembershipEventBus getMembershipEventBus() {
+		return membershipEventBus;
+	}
+
 	/**
 	 * Gets the TimedValue based on the key name
 	 * 
@@ -68,47 +149,111 @@ public class TimedServerPool {
 	}
 
 	/**
-	 * Gets the time value based on the key name
+	 * Gets the time at which a server's lease expires.
 	 *
-	 * @param expiryTimeMillis how much time the server is acquired for
+	 * @param key the server name
+	 * @return the expiry time in epoch millis, or -1 if the server is not in the pool
 	 */
-	private void startCleanupTask(long expiryTimeMillis) {
-		long initialDelayInMilliseconds = expiryTimeMillis;
-		executorService.schedule(this::removeExpiredEntries, initialDelayInMilliseconds, TimeUnit.MILLISECONDS);
+	public long getExpiryDeadline(String key) {
+		lock.lock();
+		try {
+			TimedValue timedValue = serverToTimedValue.get(key);
+			return timedValue != null ? timedValue.getDeadline() : -1;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
-	 * Removes an expired server from serverToTimedValue map.
+	 * Removes a server from the pool if its time is up. This is how servers expire in a pool
+	 * that runs on its caller's clock; the wall clock pool does it with its own threads.
+	 *
+	 * @param key the server name
+	 * @return true if the server was removed
+	 */
+	public boolean expire(String key) {
+		lock.lock();
+		try {
+			TimedValue timedValue = serverToTimedValue.get(key);
+			if (timedValue == null || !timedValue.isExpired(clock.getAsLong())) {
+				return false;
+			}
+			serverToTimedValue.remove(key);
+			recordExpiry(timedValue);
+		} finally {
+			lock.unlock();
+		}
+		// published outside the lock, so listeners can take their own locks in any order
+		membershipEventBus.publishExpired(List.of(key));
+		return true;
+	}
+
+	/**
+	 * Schedules removeExpiredEntries() for a lease's expiry time, unless it is already scheduled for
+	 * that time or earlier. Called with the lock held.
+	 *
+	 * @param deadline the expiry time in epoch millis
+	 */
+	private void startCleanupTask(long deadline) {
+		if (deadline >= cleanupDeadline) {
+			return;
+		}
+		if (cleanupTask != null) {
+			cleanupTask.cancel(false);
+		}
+		cleanupDeadline = deadline;
+		long initialDelayInMilliseconds = Math.max(0, deadline - clock.getAsLong());
+		cleanupTask = executorService.schedule(this::removeExpiredEntries, initialDelayInMilliseconds,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Removes the expired servers from serverToTimedValue map, and publishes them as one batch.
 	 * This method is invoked by a thread in the scheduled thread pool and signifies
-	 * that a server's expiryTime has elapsed and thus needs to be removed.
+	 * that the earliest expiryTime has elapsed. Servers whose expiryTime elapsed by
+	 * now are taken off the front of the deadlines and removed together, and the
+	 * method is scheduled again for the next expiryTime.
 	 *
 	 */
 	private void removeExpiredEntries() {
-		long currentTime = System.currentTimeMillis();
-		String serverToRemove = null;
-		TimedValue timedValue = null;
+		long currentTime = clock.getAsLong();
+		List<String> serversRemoved = new ArrayList<>();
 
 		lock.lock();
 		try {
-			for (Map.Entry<String, TimedValue> entry : serverToTimedValue.entrySet()) {
-				if (entry.getValue().isExpired(currentTime)) {
-					serverToRemove = entry.getKey();
-					timedValue = entry.getValue();
-					break;
+			cleanupTask = null;
+			cleanupDeadline = Long.MAX_VALUE;
+			while (!deadlines.isEmpty() && deadlines.peek().isExpired(currentTime)) {
+				TimedValue timedValue = deadlines.poll();
+				String serverToRemove = timedValue.getKey();
+				// skip leases that were replaced, or already removed by expire()
+				if (serverToTimedValue.get(serverToRemove) != timedValue) {
+					continue;
 				}
-			}
-			if (serverToRemove != null) {
 				serverToTimedValue.remove(serverToRemove);
+				serversRemoved.add(serverToRemove);
+				recordExpiry(timedValue);
 				System.out.println("==> Released Server " + serverToRemove + ", total time server [expiry time = "
 						+ +timedValue.expiryTimeMillis + " ms] was acquired until time of release: "
-						+ timedValue.getElapsedTime() + " ms");
+						+ timedValue.getElapsedTime(currentTime) + " ms");
 			}
-			if (serverToTimedValue.isEmpty()) {
-				shutdown();
+			// an empty pool doesn't shut down, a server may still be put later; that is up to shutdown()
+			if (!deadlines.isEmpty()) {
+				startCleanupTask(deadlines.peek().getDeadline());
 			}
 		} finally {
 			lock.unlock();
 		}
+		membershipEventBus.publishExpired(serversRemoved);
+	}
+
+	private static void recordExpiry(TimedValue timedValue) {
+		LoadBalancerEvents.LeaseExpiry event = new LoadBalancerEvents.LeaseExpiry();
+		if (event.shouldCommit()) {
+			event.serverName = timedValue.getKey();
+			event.leaseMillis = timedValue.expiryTimeMillis;
+			event.commit();
+		}
 	}
 
 	/**
@@ -143,7 +288,19 @@ public class TimedServerPool {
 	 * Shuts down the scheduled thread pool.
 	 */
 	public void shutdown() {
-		executorService.shutdown();
+		if (executorService != null) {
+			executorService.shutdown();
+		}
+	}
+
+	/**
+	 * Shuts down the scheduled thread pool without waiting for the leases still running,
+	 * which then never expire. For a pool that is not used any more.
+	 */
+	public void shutdownNow() {
+		if (executorService != null) {
+			executorService.shutdownNow();
+		}
 	}
 
 	@Override
@@ -156,7 +313,7 @@ public class TimedServerPool {
 				result.append("\nserver=");
 				result.append(entrySet.getKey());
 				result.append(", milliseconds remaining=");
-				result.append(entrySet.getValue().getMillisecondsRemaining());
+				result.append(entrySet.getValue().getMillisecondsRemaining(clock.getAsLong()));
 				result.append("; ");
 			}
 			result.append("]");
@@ -173,16 +330,16 @@ public class TimedServerPool {
 	 * where expiryTimeMillis is the server's expiry time.
 	 *
 	 */
-	private static class TimedValue {
+	private static class TimedValue implements Comparable<TimedValue> {
 		private String key;
 		private long startTimestamp;
 		private long expiryTimeMillis;
 
-		TimedValue(String key, long expiryTimeMillis) {
+		TimedValue(String key, long expiryTimeMillis, long startTimestamp) {
 			this.key = key;
 			this.expiryTimeMillis = expiryTimeMillis;
 			// timestamp at the time the server starts
-			this.startTimestamp = System.currentTimeMillis();
+			this.startTimestamp = startTimestamp;
 		}
 
 		/**
@@ -199,8 +356,8 @@ public class TimedServerPool {
 		 *
 		 * @return elapsed time since server started.
 		 */
-		public long getElapsedTime() {
-			return System.currentTimeMillis() - startTimestamp;
+		public long getElapsedTime(long currentTimeMillis) {
+			return currentTimeMillis - startTimestamp;
 		}
 
 		/**
@@ -208,13 +365,25 @@ public class TimedServerPool {
 		 *
 		 * @return time remaining for server until it expires
 		 */
-		public long getMillisecondsRemaining() {
-			return expiryTimeMillis - (System.currentTimeMillis() - startTimestamp);
+		public long getMillisecondsRemaining(long currentTimeMillis) {
+			return expiryTimeMillis - (currentTimeMillis - startTimestamp);
 		}
 
 		String getKey() {
 			return key;
 		}
+
+		long getDeadline() {
+			return startTimestamp + expiryTimeMillis;
+		}
+
+		/**
+		 * Sorts leases by expiry time, for the deadlines.
+		 */
+		@Override
+		public int compareTo(TimedValue other) {
+			return Long.compare(getDeadline(), other.getDeadline());
+		}
 	}
 
 }
@@ -0,0 +1,195 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * The rate and burst of a token bucket, and the arithmetic of buckets that follow them.
+ *
+ * A bucket is a single long, so that it can be taken from with one CAS and kept by the million in an
+ * AtomicLongArray without an object each. The top bit is always 0, the next 23 bits are the tokens in
+ * 256ths and the low 40 bits the time the tokens were last counted, in ticks:
+ *
+ *   0 | tokens * 256 (23 bits) | ticks since the TokenBucket was made (40 bits)
+ *
+ * A tick is the time it takes to earn 1/256 of a token at the rate, so the tokens earned since the
+ * last count are the ticks since then, with nothing left over however often they are counted.
+ * Tokens are not added on a timer, but counted whenever a token is taken. A failed take writes nothing,
+ * so requests that are turned away don't contend on the bucket. The ticks wrap after 2^32 tokens' worth
+ * of time, eg. 50 days at 1000 tokens a second. A bucket last counted more than half of that ago looks
+ * as if it was counted in the future, so a bucket left alone for longer than 25 days may not refill
+ * until the ticks come round again.
+ */
+public final class TokenBucket {
+
+	/**
+	 * What tryTake() returns when there is no token.
+	 */
+	static final long NO_TOKEN = -1;
+	static final int UNITS_PER_TOKEN = 256;
+	static final int TIME_BITS = 40;
+	static final long TIME_MASK = (1L << TIME_BITS) - 1;
+	private static final long MAX_UNITS = (1L << (63 - TIME_BITS)) - 1;
+
+	private final double tokensPerSecond;
+	private final int burst;
+	private final long burstUnits;
+	private final double nanosPerTick;
+	private final LongSupplier clockNanos;
+	private final long originNanos;
+
+	/**
+	 * Constructor
+	 *
+	 * @param tokensPerSecond the rate tokens come back at
+	 * @param burst           the most tokens a bucket holds, and has to begin with, up to 32767
+	 */
+	public TokenBucket(double tokensPerSecond, int burst) {
+		this(tokensPerSecond, burst, System::nanoTime);
+	}
+
+	/**
+	 * Constructor for buckets on a given clock, eg. the virtual clock of a DiscreteEventSimulator.
+	 *
+	 * @param tokensPerSecond the rate tokens come back at
+	 * @param burst           the most tokens a bucket holds, and has to begin with, up to 32767
+	 * @param clockNanos      the clock
+	 */
+	public TokenBucket(double tokensPerSecond, int burst, LongSupplier clockNanos) {
+		if (!(tokensPerSecond > 0)) {
+			throw new IllegalArgumentException("tokensPerSecond must be positive: " + tokensPerSecond);
+		}
+		if (burst < 1 || (long) burst * UNITS_PER_TOKEN > MAX_UNITS) {
+			throw new IllegalArgumentException("burst must be in [1, " + MAX_UNITS / UNITS_PER_TOKEN + "]: " + burst);
+		}
+		this.tokensPerSecond = tokensPerSecond;
+		this.burst = burst;
+		this.burstUnits = (long) burst * UNITS_PER_TOKEN;
+		this.nanosPerTick = 1e9 / (tokensPerSecond * UNITS_PER_TOKEN);
+		this.clockNanos = clockNanos;
+		this.originNanos = clockNanos.getAsLong();
+	}
+
+	public double getTokensPerSecond() {
+		return tokensPerSecond;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * Gets a full bucket.
+	 */
+	public long full() {
+		return pack(burstUnits, nowTicks());
+	}
+
+	/**
+	 * Takes a token from a bucket held in an AtomicLong.
+	 *
+	 * @param bucket the bucket
+	 * @return true if there was a token
+	 */
+	public boolean tryAcquire(AtomicLong bucket) {
+		long now = nowTicks();
+		while (true) {
+			long state = bucket.get();
+			long next = tryTake(state, now);
+			if (next == NO_TOKEN) {
+				return false;
+			}
+			if (bucket.compareAndSet(state, next)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Takes a token from a bucket held in an AtomicLongArray.
+	 *
+	 * @param buckets the buckets
+	 * @param index   the index of the bucket
+	 * @return true if there was a token
+	 */
+	public boolean tryAcquire(AtomicLongArray buckets, int index) {
+		long now = nowTicks();
+		while (true) {
+			long state = buckets.get(index);
+			long next = tryTake(state, now);
+			if (next == NO_TOKEN) {
+				return false;
+			}
+			if (buckets.compareAndSet(index, state, next)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Takes a token from a bucket held in a PaddedCounterArray, for buckets that are taken from by every request.
+	 *
+	 * @param buckets the buckets
+	 * @param index   the index of the bucket
+	 * @return true if there was a token
+	 */
+	public boolean tryAcquire(PaddedCounterArray buckets, int index) {
+		long now = nowTicks();
+		while (true) {
+			long state = buckets.get(index);
+			long next = tryTake(state, now);
+			if (next == NO_TOKEN) {
+				return false;
+			}
+			if (buckets.compareAndSet(index, state, next)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Gets the tokens in a bucket now.
+	 *
+	 * @param state the bucket
+	 * @return the tokens, with fractions
+	 */
+	public double tokens(long state) {
+		return (double) (refill(state, nowTicks()) >>> TIME_BITS) / UNITS_PER_TOKEN;
+	}
+
+	/**
+	 * Works out a bucket with a token taken.
+	 *
+	 * @param state    the bucket
+	 * @param nowTicks the time now
+	 * @return the bucket to CAS in, or NO_TOKEN if there was none
+	 */
+	long tryTake(long state, long nowTicks) {
+		long refilled = refill(state, nowTicks);
+		long units = refilled >>> TIME_BITS;
+		if (units < UNITS_PER_TOKEN) {
+			return NO_TOKEN;
+		}
+		return pack(units - UNITS_PER_TOKEN, refilled & TIME_MASK);
+	}
+
+	private long refill(long state, long nowTicks) {
+		long units = state >>> TIME_BITS;
+		// a tick is a unit. The difference is signed, as a thread that lost a CAS to one with a later
+		// time retries with its own, older time, which must neither refill the bucket nor move it back.
+		long elapsedTicks = (nowTicks - state) << (64 - TIME_BITS) >> (64 - TIME_BITS);
+		if (elapsedTicks <= 0) {
+			return state;
+		}
+		return pack(Math.min(burstUnits, units + elapsedTicks), nowTicks);
+	}
+
+	long nowTicks() {
+		return (long) ((clockNanos.getAsLong() - originNanos) / nanosPerTick) & TIME_MASK;
+	}
+
+	private static long pack(long units, long ticks) {
+		return units << TIME_BITS | (ticks & TIME_MASK);
+	}
+}
@@ -0,0 +1,82 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * One request of a trace written by TraceRecorder and read by TraceReplayer.
+ *
+ * A trace file is a header followed by records, all of them fixed size and big-endian,
+ * so that a trace captured on one machine can be replayed on any other:
+ *
+ *   header, HEADER_BYTES:
+ *   offset 0   int   MAGIC
+ *   offset 4   int   VERSION
+ *   offset 8   long  epoch millis when the recording started
+ *
+ *   record, RECORD_BYTES:
+ *   offset 0   long  request id
+ *   offset 8   long  arrival time in nanos since the recording started
+ *   offset 16  long  service time in nanos, 0 if the request was rejected
+ *   offset 24  int   index of the server by ServerFactory.serverIndex(), -1 if rejected or not a factory name
+ *   offset 28  byte  request type, an index into REQUEST_TYPES, 0 for other types
+ *   offset 29  byte  outcome
+ *   offset 30  2 bytes reserved
+ *
+ * @param requestId    the request id
+ * @param arrivalNanos the arrival time in nanos since the recording started
+ * @param serviceNanos the service time in nanos
+ * @param serverIndex  the index of the server that served the request, or -1
+ * @param requestType  the request type, null if it was not one of REQUEST_TYPES
+ * @param outcome      OUTCOME_SERVED or OUTCOME_REJECTED
+ */
+public record TraceRecord(long requestId, long arrivalNanos, long serviceNanos, int serverIndex, String requestType,
+		byte outcome) {
+
+	static final int MAGIC = 0x4C425452; // "LBTR"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 16;
+	static final int RECORD_BYTES = 32;
+
+	public static final byte OUTCOME_SERVED = 0;
+	public static final byte OUTCOME_REJECTED = 1;
+
+	// the request types a record can hold, index 0 stands for every other type
+	static final List<String> REQUEST_TYPES = List.of("", "GET", "POST", "PUT", "DELETE", "HEAD", "PATCH", "OPTIONS");
+
+	public boolean isServed() {
+		return outcome == OUTCOME_SERVED;
+	}
+
+	/**
+	 * Gets the code a request type is stored as.
+	 */
+	static byte requestTypeCode(String requestType) {
+		int code = requestType == null ? 0 : REQUEST_TYPES.indexOf(requestType);
+		return (byte) Math.max(0, code);
+	}
+
+	/**
+	 * Writes a record at the position of the buffer and moves the position past it.
+	 */
+	static void put(ByteBuffer buffer, long requestId, long arrivalNanos, long serviceNanos, int serverIndex,
+			byte requestTypeCode, byte outcome) {
+		buffer.putLong(requestId);
+		buffer.putLong(arrivalNanos);
+		buffer.putLong(serviceNanos);
+		buffer.putInt(serverIndex);
+		buffer.put(requestTypeCode);
+		buffer.put(outcome);
+		buffer.putShort((short) 0);
+	}
+
+	/**
+	 * Reads the record at an offset of the buffer.
+	 */
+	static TraceRecord get(ByteBuffer buffer, int offset) {
+		int code = buffer.get(offset + 28);
+		String requestType = code > 0 && code < REQUEST_TYPES.size() ? REQUEST_TYPES.get(code) : null;
+		return new TraceRecord(buffer.getLong(offset), buffer.getLong(offset + 8), buffer.getLong(offset + 16),
+				buffer.getInt(offset + 24), requestType, buffer.get(offset + 29));
+	}
+}
@@ -0,0 +1,176 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Records the requests a load balancer serves to a trace file, in the format described in TraceRecord,
+ * so that the traffic can be replayed against other strategies with TraceReplayer.
+ *
+ * The caller takes the arrival time with now() before it calls serveRequest(), and records the request once it
+ * is done, or right away if it was rejected. So records are in the order requests finished, not the order they
+ * arrived; TraceReplayer puts them back in order.
+ *
+ * A record is copied into a direct buffer under a lock, and the buffer goes to the file only when it is full,
+ * so recording costs a few dozen bytes of copying per request. If a write fails the recorder stops recording
+ * rather than fail the requests it records.
+ */
+public class TraceRecorder implements Closeable {
+
+	private static final int BUFFER_BYTES = 64 * 1024;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+	private final long originNanos;
+	private final Lock lock = new ReentrantLock();
+	// ids for requests whose id isn't a number
+	private final AtomicLong nextRequestId = new AtomicLong(-1);
+	private long records;
+	// set when a write failed or the recorder was closed
+	private boolean stopped;
+
+	/**
+	 * Constructor. Creates the trace file, replacing any file of that name, and writes the header.
+	 *
+	 * @param file the trace file
+	 * @throws IOException if the file can't be written
+	 */
+	public TraceRecorder(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		this.originNanos = System.nanoTime();
+		buffer.putInt(TraceRecord.MAGIC);
+		buffer.putInt(TraceRecord.VERSION);
+		buffer.putLong(System.currentTimeMillis());
+	}
+
+	/**
+	 * Gets the time to pass as the arrival or completion time of a request.
+	 */
+	public long now() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records a request that was served.
+	 *
+	 * @param request         the request
+	 * @param serverName      the server that served it
+	 * @param arrivalNanos    now() before the request went to the load balancer
+	 * @param completionNanos now() when the request was done
+	 */
+	public void recordServed(Request request, String serverName, long arrivalNanos, long completionNanos) {
+		record(request, arrivalNanos, completionNanos - arrivalNanos, ServerFactory.serverIndex(serverName),
+				TraceRecord.OUTCOME_SERVED);
+	}
+
+	/**
+	 * Records a request that the load balancer had no server for.
+	 *
+	 * @param request      the request
+	 * @param arrivalNanos now() before the request went to the load balancer
+	 */
+	public void recordRejected(Request request, long arrivalNanos) {
+		record(request, arrivalNanos, 0, -1, TraceRecord.OUTCOME_REJECTED);
+	}
+
+	private void record(Request request, long arrivalNanos, long serviceNanos, int serverIndex, byte outcome) {
+		long requestId = requestId(request.getId());
+		byte requestType = TraceRecord.requestTypeCode(request.getRequestType());
+		lock.lock();
+		try {
+			if (stopped) {
+				return;
+			}
+			if (buffer.remaining() < TraceRecord.RECORD_BYTES) {
+				writeBuffer();
+			}
+			TraceRecord.put(buffer, requestId, arrivalNanos - originNanos, serviceNanos, serverIndex, requestType,
+					outcome);
+			records++;
+		} catch (IOException e) {
+			stopped = true;
+			e.printStackTrace();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Numeric ids are kept, others get a negative id of their own, counting down from -1.
+	 */
+	private long requestId(String id) {
+		if (id != null && !id.isEmpty() && id.length() < 19) {
+			long value = 0;
+			for (int i = 0; i < id.length(); i++) {
+				char digit = id.charAt(i);
+				if (digit < '0' || digit > '9') {
+					return nextRequestId.getAndDecrement();
+				}
+				value = value * 10 + (digit - '0');
+			}
+			return value;
+		}
+		return nextRequestId.getAndDecrement();
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Gets the number of requests recorded so far.
+	 */
+	public long getRecordCount() {
+		lock.lock();
+		try {
+			return records;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the buffered records to the file.
+	 *
+	 * @throws IOException if the write fails
+	 */
+	public void flush() throws IOException {
+		lock.lock();
+		try {
+			if (!stopped) {
+				writeBuffer();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the buffered records and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (!stopped) {
+				writeBuffer();
+			}
+			stopped = true;
+			channel.close();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Replays a trace written by TraceRecorder through a load balancer, under a DiscreteEventSimulator,
+ * to see how a strategy would have balanced the traffic the trace was captured from.
+ *
+ * The trace is memory-mapped a window at a time and read record by record, so a trace of any size
+ * is replayed in bounded memory. Every request arrives at its recorded arrival time and takes its recorded
+ * service time, on whichever server the load balancer picks. Requests that were rejected when the trace
+ * was captured have no service time; they are replayed with the mean service time of the requests
+ * before them.
+ *
+ * Usage: TraceReplayer trace-file number-of-servers [server-parallelism]
+ * The recorded service times already include any queueing the servers did when the trace was captured,
+ * so by default a server works on any number of requests at once.
+ */
+public class TraceReplayer implements Closeable {
+
+	// 64 MiB of records per mapping
+	private static final long DEFAULT_WINDOW_RECORDS = 2 * 1024 * 1024;
+	// records are in completion order, which is at most the longest service time behind arrival order
+	private static final int READ_AHEAD = 4096;
+
+	private final Path file;
+	private final FileChannel channel;
+	private final long startEpochMillis;
+	private final long recordCount;
+	private final long windowRecords;
+
+	/**
+	 * Constructor. Opens the trace and checks its header.
+	 *
+	 * @param file the trace file
+	 * @throws IOException if the file is not a trace of this version
+	 */
+	public TraceReplayer(Path file) throws IOException {
+		this(file, DEFAULT_WINDOW_RECORDS);
+	}
+
+	TraceReplayer(Path file, long windowRecords) throws IOException {
+		this.file = file;
+		this.windowRecords = windowRecords;
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < TraceRecord.HEADER_BYTES) {
+				throw new IOException("Trace " + file + " is too small");
+			}
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, TraceRecord.HEADER_BYTES);
+			if (header.getInt(0) != TraceRecord.MAGIC) {
+				throw new IOException("Trace " + file + " has an unknown format");
+			}
+			if (header.getInt(4) != TraceRecord.VERSION) {
+				throw new IOException("Trace " + file + " has unsupported version " + header.getInt(4));
+			}
+			this.startEpochMillis = header.getLong(8);
+			// a recorder that was killed may have left part of a record at the end
+			this.recordCount = (size - TraceRecord.HEADER_BYTES) / TraceRecord.RECORD_BYTES;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Gets the epoch millis when the recording started.
+	 */
+	public long getStartEpochMillis() {
+		return startEpochMillis;
+	}
+
+	/**
+	 * Streams the records of the trace, in the order they were recorded.
+	 *
+	 * @return the records, the iterator throws UncheckedIOException if the trace can't be mapped
+	 */
+	public Iterator<TraceRecord> records() {
+		return new Iterator<>() {
+			private long next;
+			private MappedByteBuffer window;
+			private long windowStart;
+
+			@Override
+			public boolean hasNext() {
+				return next < recordCount;
+			}
+
+			@Override
+			public TraceRecord next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				if (window == null || next - windowStart >= windowRecords) {
+					windowStart = next;
+					long records = Math.min(windowRecords, recordCount - next);
+					try {
+						window = channel.map(FileChannel.MapMode.READ_ONLY,
+								TraceRecord.HEADER_BYTES + next * TraceRecord.RECORD_BYTES,
+								records * TraceRecord.RECORD_BYTES);
+					} catch (IOException e) {
+						throw new UncheckedIOException("Can't map trace " + file, e);
+					}
+				}
+				int offset = (int) ((next - windowStart) * TraceRecord.RECORD_BYTES);
+				next++;
+				return TraceRecord.get(window, offset);
+			}
+		};
+	}
+
+	/**
+	 * Replays the trace through a load balancer.
+	 *
+	 * @param simulator         the simulator to replay under, eg. one whose pool the load balancer uses
+	 * @param loadBalancer      the load balancer
+	 * @param servers           the servers of the load balancer, the servers of the trace are matched to them
+	 *                          by ServerFactory.serverIndex()
+	 * @param serverParallelism the number of requests a server works on at a time
+	 * @return the balance of the replay next to the balance the trace was captured with
+	 */
+	public Report replay(DiscreteEventSimulator simulator, LoadBalancer loadBalancer, List<Server> servers,
+			int serverParallelism) {
+		long[] captured = new long[servers.size()];
+		Iterator<TraceRecord> records = records();
+		Iterator<DiscreteEventSimulator.Arrival> arrivals = new Iterator<>() {
+			private long servedCount;
+			private double totalServiceNanos;
+
+			@Override
+			public boolean hasNext() {
+				return records.hasNext();
+			}
+
+			@Override
+			public DiscreteEventSimulator.Arrival next() {
+				TraceRecord record = records.next();
+				long serviceNanos = record.serviceNanos();
+				if (record.isServed()) {
+					servedCount++;
+					totalServiceNanos += serviceNanos;
+					if (record.serverIndex() >= 0 && record.serverIndex() < captured.length) {
+						captured[record.serverIndex()]++;
+					}
+				} else {
+					serviceNanos = servedCount == 0 ? 0 : (long) (totalServiceNanos / servedCount);
+				}
+				return new DiscreteEventSimulator.Arrival(record.arrivalNanos(), serviceNanos, record.requestType());
+			}
+		};
+		DiscreteEventSimulator.Result result = simulator.replay(loadBalancer, arrivals, READ_AHEAD,
+				serverParallelism);
+		long[] replayed = new long[servers.size()];
+		for (int i = 0; i < servers.size(); i++) {
+			replayed[i] = result.completedByServer().getOrDefault(servers.get(i).getName(), 0L);
+		}
+		return new Report(result, BalanceMetrics.jainsIndex(replayed), BalanceMetrics.maxMeanRatio(replayed),
+				BalanceMetrics.jainsIndex(captured), BalanceMetrics.maxMeanRatio(captured));
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * The outcome of a replay.
+	 *
+	 * @param result               what happened in the replay
+	 * @param jainsIndex           Jain's fairness index of the requests served per server in the replay
+	 * @param maxMeanRatio         the most requests a server served over the mean, in the replay
+	 * @param capturedJainsIndex   Jain's fairness index of the requests served per server in the trace
+	 * @param capturedMaxMeanRatio the most requests a server served over the mean, in the trace
+	 */
+	public record Report(DiscreteEventSimulator.Result result, double jainsIndex, double maxMeanRatio,
+			double capturedJainsIndex, double capturedMaxMeanRatio) {
+	}
+
+	/**
+	 * Replays a trace through each load balancer, and prints how each one balanced it.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: TraceReplayer trace-file number-of-servers [server-parallelism]");
+			return;
+		}
+		Path file = Paths.get(args[0]);
+		List<Server> servers = ServerFactory.createServers(Integer.parseInt(args[1]), List.of(Server.DEFAULT_ZONE),
+				false);
+		int serverParallelism = args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+		try (TraceReplayer replayer = new TraceReplayer(file)) {
+			System.out.println("Replaying " + replayer.getRecordCount() + " requests from " + file);
+			System.out.println(String.format("%-16s %9s %9s %10s %10s %7s %8s", "load balancer", "served", "rejected",
+					"mean ms", "p99 ms", "Jain", "max/mean"));
+			boolean capturedPrinted = false;
+			for (String label : List.of("round-robin", "least-connected", "sharded")) {
+				DiscreteEventSimulator simulator = new DiscreteEventSimulator(42);
+				LoadBalancer loadBalancer;
+				if (label.equals("round-robin")) {
+					loadBalancer = new RoundRobinLoadBalancer(servers);
+				} else if (label.equals("least-connected")) {
+					// leases that outlast any trace
+					loadBalancer = new LeastConnectedLoadBalancer(servers, simulator.createServerPool(),
+							() -> Long.MAX_VALUE / 2);
+				} else {
+					loadBalancer = new ShardedLeastConnectedLoadBalancer(servers, 1, 0);
+				}
+				Report report = replayer.replay(simulator, loadBalancer, servers, serverParallelism);
+				if (!capturedPrinted) {
+					System.out.println(String.format("%-16s %9s %9s %10s %10s %7.4f %8.3f", "(captured)", "", "", "",
+							"", report.capturedJainsIndex(), report.capturedMaxMeanRatio()));
+					capturedPrinted = true;
+				}
+				DiscreteEventSimulator.Result result = report.result();
+				System.out.println(String.format("%-16s %9d %9d %10.2f %10.2f %7.4f %8.3f", label, result.served(),
+						result.rejected(), result.meanLatencyMillis(), result.p99LatencyMillis(), report.jainsIndex(),
+						report.maxMeanRatio()));
+			}
+		}
+	}
+}
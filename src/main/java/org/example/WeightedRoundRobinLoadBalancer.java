@@ -0,0 +1,188 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class WeightedRoundRobinLoadBalancer implements LoadBalancer {
+
+	private static final int DEFAULT_WEIGHT = 1;
+
+	// Copied on write when a server is added, so selection can iterate it without a copy.
+	private volatile WeightedServer[] weightedServers;
+	private final Map<String, WeightedServer> serverNameToWeightedServer;
+	private final Lock lock = new ReentrantLock();
+	// Optional slow-start for servers added after construction.
+	private volatile SlowStartRamp slowStartRamp;
+
+	/**
+	 * Constructor
+	 *
+	 * @param servers the list of servers to be used
+	 * @param weights the weight of each server by name, servers not in the map get a weight of 1
+	 */
+	public WeightedRoundRobinLoadBalancer(List<Server> servers, Map<String, Integer> weights) {
+		serverNameToWeightedServer = new ConcurrentHashMap<>();
+		WeightedServer[] initialServers = new WeightedServer[servers.size()];
+		for (int i = 0; i < servers.size(); i++) {
+			Server server = servers.get(i);
+			initialServers[i] = new WeightedServer(server, weights.getOrDefault(server.getName(), DEFAULT_WEIGHT));
+			serverNameToWeightedServer.put(server.getName(), initialServers[i]);
+		}
+		weightedServers = initialServers;
+	}
+
+	/**
+	 * Determines the next server in the weighted round robin, and issues the request to it.
+	 *
+	 * @param request the request that the LB will issue to the next server.
+	 */
+	@Override
+	public String serveRequest(Request request) {
+		Server server = getNextServer();
+		if (server == null) {
+			return null;
+		}
+		server.handleIncomingRequest(request);
+		incrementRequestCount(server.getName());
+		return server.getName();
+	}
+
+	/**
+	 * Adds a server that joins after the load balancer was created.
+	 * If slow-start is on, the server's weight ramps up over the ramp window.
+	 *
+	 * @param server the server to add
+	 * @param weight the weight of the server
+	 */
+	public void addServer(Server server, int weight) {
+		lock.lock();
+		try {
+			if (serverNameToWeightedServer.containsKey(server.getName())) {
+				return;
+			}
+			WeightedServer weightedServer = new WeightedServer(server, weight);
+			WeightedServer[] updatedServers = Arrays.copyOf(weightedServers, weightedServers.length + 1);
+			updatedServers[updatedServers.length - 1] = weightedServer;
+			serverNameToWeightedServer.put(server.getName(), weightedServer);
+			if (slowStartRamp != null) {
+				slowStartRamp.serverAdded(server.getName());
+			}
+			weightedServers = updatedServers;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Turns on slow-start for servers added from now on.
+	 *
+	 * @param slowStartRamp the ramp for new servers, or null to turn slow-start off
+	 */
+	public void setSlowStartRamp(SlowStartRamp slowStartRamp) {
+		this.slowStartRamp = slowStartRamp;
+	}
+
+	/**
+	 * Finds the next server with smooth weighted round robin: every server's current weight grows by
+	 * its effective weight, the server with the highest current weight is chosen and its current weight
+	 * drops by the total. A server with weight 3 next to one with weight 1 is chosen 3 times out of 4,
+	 * spread out rather than 3 times in a row.
+	 * The effective weight of a server that is ramping up is its weight times its ramp factor.
+	 *
+	 * @return the next server, or null if there are no servers.
+	 */
+	private Server getNextServer() {
+		SlowStartRamp ramp = slowStartRamp;
+		lock.lock();
+		try {
+			WeightedServer best = null;
+			double totalWeight = 0;
+			for (WeightedServer weightedServer : weightedServers) {
+				double effectiveWeight = weightedServer.weight;
+				if (ramp != null) {
+					effectiveWeight *= ramp.factor(weightedServer.server.getName());
+				}
+				weightedServer.currentWeight += effectiveWeight;
+				totalWeight += effectiveWeight;
+				if (best == null || weightedServer.currentWeight > best.currentWeight) {
+					best = weightedServer;
+				}
+			}
+			if (best == null) {
+				return null;
+			}
+			best.currentWeight -= totalWeight;
+			return best.server;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the status of the servers.
+	 *
+	 * @return the status of the servers.
+	 */
+	@Override
+	public String getStatus() {
+		StringBuilder status = new StringBuilder();
+		for (WeightedServer weightedServer : weightedServers) {
+			status.append("Server name: " + weightedServer.server.getName());
+			status.append(", weight: " + weightedServer.weight);
+			status.append(", active connections: " + weightedServer.activeCount.get());
+			status.append("\n");
+		}
+		return status.toString();
+	}
+
+	/**
+	 * Increments the no of requests that a server has by 1.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void incrementRequestCount(String serverName) {
+		WeightedServer weightedServer = serverNameToWeightedServer.get(serverName);
+		if (weightedServer != null) {
+			weightedServer.activeCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Decrements the no of requests that a server has by 1.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void decrementRequestCount(String serverName) {
+		WeightedServer weightedServer = serverNameToWeightedServer.get(serverName);
+		if (weightedServer != null) {
+			weightedServer.activeCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Inner class to represent a server with its configured weight, its current weight in the
+	 * smooth weighted round robin, and its active request count.
+	 */
+	private static class WeightedServer {
+		final Server server;
+		final int weight;
+		final AtomicInteger activeCount = new AtomicInteger();
+		// only read and written with the lock held
+		double currentWeight;
+
+		WeightedServer(Server server, int weight) {
+			if (weight < 0) {
+				throw new IllegalArgumentException("Weight of " + server.getName() + " must not be negative: " + weight);
+			}
+			this.server = server;
+			this.weight = weight;
+		}
+	}
+}
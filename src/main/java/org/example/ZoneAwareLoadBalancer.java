@@ -0,0 +1,312 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.random.RandomGenerator;
+
+/**
+ * A least-connections LoadBalancer that prefers servers in its own zone.
+ *
+ * While the average active request count of the local servers stays at or below the spillover threshold,
+ * every request goes to the least connected local server. Above the threshold, the share of requests
+ * that spills over to other zones is the share of local load above the threshold: at twice the threshold
+ * half the requests spill. A spilled request goes to a remote zone chosen at random in proportion to its
+ * spare capacity, ie how far its servers are below the threshold in total, and then to the least connected
+ * server of that zone. Zones that are at the threshold themselves get nothing, so spilling never moves
+ * load from a busy zone to a busier one.
+ */
+public class ZoneAwareLoadBalancer implements LoadBalancer {
+
+	private final List<Server> servers;
+	private final Map<String, Integer> serverNameToIndex;
+	// Active request count per server, one cache line each.
+	private final PaddedCounterArray activeCounts;
+	private final String localZone;
+	private final int[] localServers;
+	private final int[][] remoteZoneServers;
+	private final double spilloverThreshold;
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder crossZoneRequests = new LongAdder();
+	// the spillover draws, or null for ThreadLocalRandom
+	private final RandomGenerator random;
+
+	/**
+	 * Constructor
+	 *
+	 * @param servers            the list of servers to be used, with their zones
+	 * @param localZone          the zone the load balancer runs in
+	 * @param spilloverThreshold the average active requests per local server above which requests spill over
+	 */
+	public ZoneAwareLoadBalancer(List<Server> servers, String localZone, double spilloverThreshold) {
+		this(servers, localZone, spilloverThreshold, null);
+	}
+
+	/**
+	 * Constructor for reproducible runs, eg. in a simulation, that draws the spillover from the given
+	 * generator. The generator is shared by every thread that serves requests.
+	 *
+	 * @param servers            the list of servers to be used, with their zones
+	 * @param localZone          the zone the load balancer runs in
+	 * @param spilloverThreshold the average active requests per local server above which requests spill over
+	 * @param random             the generator of the spillover draws, or null for ThreadLocalRandom
+	 */
+	public ZoneAwareLoadBalancer(List<Server> servers, String localZone, double spilloverThreshold,
+			RandomGenerator random) {
+		if (!(spilloverThreshold > 0)) {
+			throw new IllegalArgumentException("spilloverThreshold must be positive: " + spilloverThreshold);
+		}
+		this.servers = List.copyOf(servers);
+		this.localZone = localZone;
+		this.spilloverThreshold = spilloverThreshold;
+		this.random = random;
+		this.serverNameToIndex = new HashMap<>();
+		this.activeCounts = new PaddedCounterArray(this.servers.size());
+		Map<String, List<Integer>> zoneToIndexes = new LinkedHashMap<>();
+		List<Integer> local = new ArrayList<>();
+		for (int i = 0; i < this.servers.size(); i++) {
+			Server server = this.servers.get(i);
+			serverNameToIndex.put(server.getName(), i);
+			if (localZone.equals(server.getZone())) {
+				local.add(i);
+			} else {
+				zoneToIndexes.computeIfAbsent(server.getZone(), zone -> new ArrayList<>()).add(i);
+			}
+		}
+		this.localServers = toArray(local);
+		this.remoteZoneServers = new int[zoneToIndexes.size()][];
+		int zone = 0;
+		for (List<Integer> indexes : zoneToIndexes.values()) {
+			remoteZoneServers[zone++] = toArray(indexes);
+		}
+	}
+
+	private static int[] toArray(List<Integer> indexes) {
+		int[] result = new int[indexes.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = indexes.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Determines the server for the request, preferring the local zone, and issues the request to it.
+	 *
+	 * @param request the request that the LB will issue to the next server.
+	 */
+	@Override
+	public String serveRequest(Request request) {
+		return serveRequest(request, 0);
+	}
+
+	/**
+	 * Determines the server for the request like serveRequest(), leaving out the excluded servers,
+	 * and issues the request to it.
+	 *
+	 * @param request         the request that the LB will issue to the next server.
+	 * @param excludedServers the LoadBalancer.serverBit() of each excluded server, or-ed together
+	 */
+	@Override
+	public String serveRequest(Request request, long excludedServers) {
+		int index = selectServer(excludedServers);
+		if (index < 0) {
+			return null;
+		}
+		Server server = servers.get(index);
+		server.handleIncomingRequest(request);
+		activeCounts.incrementAndGet(index);
+		requests.increment();
+		if (!localZone.equals(server.getZone())) {
+			crossZoneRequests.increment();
+		}
+		return server.getName();
+	}
+
+	/**
+	 * Picks the least connected local server, unless local load is past the threshold
+	 * and the request is one of the share that spills over. When every local server is excluded, it's
+	 * as if there were none.
+	 *
+	 * @param excludedServers the servers not to choose
+	 * @return the index of the server, or -1 if there are no servers left
+	 */
+	private int selectServer(long excludedServers) {
+		int local = leastConnected(localServers, excludedServers);
+		if (local < 0) {
+			return selectRemote(excludedServers, false);
+		}
+		double localLoad = (double) totalActive(localServers) / localServers.length;
+		if (localLoad <= spilloverThreshold || remoteZoneServers.length == 0) {
+			return local;
+		}
+		double spillFraction = (localLoad - spilloverThreshold) / localLoad;
+		if (random().nextDouble() >= spillFraction) {
+			return local;
+		}
+		int remote = selectRemote(excludedServers, true);
+		return remote >= 0 ? remote : local;
+	}
+
+	/**
+	 * Picks a remote zone in proportion to its spare capacity, and its least connected server.
+	 *
+	 * A zone whose servers are all excluded has no spare capacity.
+	 *
+	 * @param excludedServers the servers not to choose
+	 * @param hasLocal        whether there is a local server to fall back to
+	 * @return the index of the server, or -1 if no remote zone has spare capacity and there is a local server,
+	 * or no server is left at all
+	 */
+	private int selectRemote(long excludedServers, boolean hasLocal) {
+		double totalSpare = 0;
+		for (int[] zone : remoteZoneServers) {
+			totalSpare += spareCapacity(zone, excludedServers);
+		}
+		if (totalSpare <= 0) {
+			// every zone is past the threshold, fall back to the least connected server anywhere
+			return hasLocal ? -1 : leastConnectedOfAllZones(excludedServers);
+		}
+		double draw = random().nextDouble(totalSpare);
+		for (int[] zone : remoteZoneServers) {
+			double spare = spareCapacity(zone, excludedServers);
+			if (spare > 0 && (draw -= spare) < 0) {
+				return leastConnected(zone, excludedServers);
+			}
+		}
+		// rounding left the draw just past the last zone with spare capacity
+		for (int i = remoteZoneServers.length - 1; i >= 0; i--) {
+			if (spareCapacity(remoteZoneServers[i], excludedServers) > 0) {
+				return leastConnected(remoteZoneServers[i], excludedServers);
+			}
+		}
+		return -1;
+	}
+
+	private RandomGenerator random() {
+		return random != null ? random : ThreadLocalRandom.current();
+	}
+
+	private double spareCapacity(int[] zone, long excludedServers) {
+		if (excludedServers != 0 && leastConnected(zone, excludedServers) < 0) {
+			return 0;
+		}
+		return Math.max(0, spilloverThreshold * zone.length - totalActive(zone));
+	}
+
+	private int leastConnectedOfAllZones(long excludedServers) {
+		int best = -1;
+		for (int[] zone : remoteZoneServers) {
+			int candidate = leastConnected(zone, excludedServers);
+			if (candidate >= 0 && (best < 0 || activeCounts.get(candidate) < activeCounts.get(best))) {
+				best = candidate;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the index of the least connected server of the zone that isn't excluded, or -1 if there is none
+	 */
+	private int leastConnected(int[] zone, long excludedServers) {
+		int best = -1;
+		long bestCount = Long.MAX_VALUE;
+		for (int index : zone) {
+			if (isExcluded(index, excludedServers)) {
+				continue;
+			}
+			long count = activeCounts.get(index);
+			if (count < bestCount) {
+				best = index;
+				bestCount = count;
+			}
+		}
+		return best;
+	}
+
+	private boolean isExcluded(int index, long excludedServers) {
+		return excludedServers != 0 && (excludedServers & LoadBalancer.serverBit(servers.get(index).getName())) != 0;
+	}
+
+	private long totalActive(int[] zone) {
+		long total = 0;
+		for (int index : zone) {
+			total += activeCounts.get(index);
+		}
+		return total;
+	}
+
+	/**
+	 * Gets the active request count of a server.
+	 *
+	 * @param serverName the server name
+	 * @return the count, or -1 if the server is unknown
+	 */
+	public long getActiveCount(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		return index == null ? -1 : activeCounts.get(index);
+	}
+
+	/**
+	 * Gets the number of requests served so far.
+	 */
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	/**
+	 * Gets the number of requests served so far by a server outside the local zone.
+	 */
+	public long getCrossZoneRequests() {
+		return crossZoneRequests.sum();
+	}
+
+	/**
+	 * Gets the status of the servers.
+	 *
+	 * @return the status of the servers.
+	 */
+	@Override
+	public String getStatus() {
+		StringBuilder status = new StringBuilder();
+		status.append("Local zone: " + localZone);
+		status.append(", cross-zone requests: " + crossZoneRequests.sum() + " of " + requests.sum());
+		status.append("\n");
+		for (int i = 0; i < servers.size(); i++) {
+			status.append("Server name: " + servers.get(i).getName());
+			status.append(", zone: " + servers.get(i).getZone());
+			status.append(", active connections: " + activeCounts.get(i));
+			status.append("\n");
+		}
+		return status.toString();
+	}
+
+	/**
+	 * Increments the no of requests that a server has by 1.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void incrementRequestCount(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		if (index != null) {
+			activeCounts.incrementAndGet(index);
+		}
+	}
+
+	/**
+	 * Decrements the no of requests that a server has by 1.
+	 *
+	 * @param serverName the server name.
+	 */
+	@Override
+	public void decrementRequestCount(String serverName) {
+		Integer index = serverNameToIndex.get(serverName);
+		if (index != null) {
+			activeCounts.decrementAndGet(index);
+		}
+	}
+}
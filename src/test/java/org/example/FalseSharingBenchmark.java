@@ -0,0 +1,83 @@
+package org.example;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Measures how counters for neighbouring servers scale when each thread updates its own server.
+ * Compares a packed AtomicLongArray, where neighbouring counters share a cache line,
+ * against PaddedCounterArray.
+ *
+ * Not run as part of the unit tests. Run with:
+ * mvn test-compile && java -cp target/classes:target/test-classes org.example.FalseSharingBenchmark
+ */
+public class FalseSharingBenchmark {
+
+	private static final int OPS_PER_THREAD = 20_000_000;
+
+	public static void main(String[] args) throws InterruptedException {
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		System.out.println("threads, packed Mops/s, padded Mops/s");
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			// warm up both variants once before measuring
+			if (threads == 1) {
+				measurePacked(threads);
+				measurePadded(threads);
+			}
+			double packed = measurePacked(threads);
+			double padded = measurePadded(threads);
+			System.out.printf("%d, %.1f, %.1f%n", threads, packed, padded);
+		}
+	}
+
+	private static double measurePacked(int threads) throws InterruptedException {
+		AtomicLongArray counters = new AtomicLongArray(threads);
+		return run(threads, index -> {
+			for (int i = 0; i < OPS_PER_THREAD; i++) {
+				counters.incrementAndGet(index);
+			}
+			return index;
+		});
+	}
+
+	private static double measurePadded(int threads) throws InterruptedException {
+		PaddedCounterArray counters = new PaddedCounterArray(threads);
+		return run(threads, index -> {
+			for (int i = 0; i < OPS_PER_THREAD; i++) {
+				counters.incrementAndGet(index);
+			}
+			return index;
+		});
+	}
+
+	/**
+	 * Runs the work on the given number of threads, thread i updating counter i.
+	 *
+	 * @return the throughput in million operations per second.
+	 */
+	private static double run(int threads, IntUnaryOperator work) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			int index = t;
+			workers[t] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				work.applyAsInt(index);
+			});
+			workers[t].start();
+		}
+		long startTime = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		long elapsedNanos = System.nanoTime() - startTime;
+		return (double) threads * OPS_PER_THREAD / elapsedNanos * 1_000;
+	}
+}
@@ -0,0 +1,216 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures herding in a cluster of GossipLoadBalancer nodes, each in a process of its own, with and without gossip.
+ *
+ * Every node is sent Poisson arrivals and holds each request for an exponential service time, recording what
+ * it served with a TraceRecorder. Once the nodes are done, their traces are merged on the epoch time in their
+ * headers, and swept to find how many requests each server had in flight, from all nodes together, at every
+ * moment. Herding shows up as a high max/mean of those counts: without gossip every node favours the
+ * same servers, the first in the list, because it only knows about its own requests.
+ *
+ * Usage: GossipClusterHarness [nodes] [servers] [seconds] [gossip-interval-millis]
+ *
+ * Not run as part of the unit tests. Run with:
+ * mvn test-compile && java -cp target/classes:target/test-classes org.example.GossipClusterHarness
+ */
+public class GossipClusterHarness {
+
+	private static final long MEAN_INTER_ARRIVAL_NANOS = 5_000_000;
+	private static final long MEAN_SERVICE_NANOS = 10_000_000;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && args[0].equals("node")) {
+			runNode(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Long.parseLong(args[3]), Path.of(args[4]));
+			return;
+		}
+		int numNodes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int numServers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		long gossipIntervalMillis = args.length > 3 ? Long.parseLong(args[3]) : 5;
+		System.out.println(numNodes + " nodes, " + numServers + " servers, " + seconds + " s, gossip every "
+				+ gossipIntervalMillis + " ms");
+		System.out.println(String.format("%-8s %9s %8s %10s %10s %7s", "gossip", "requests", "peak", "max/mean",
+				"idle share", "Jain"));
+		for (boolean gossip : new boolean[] { false, true }) {
+			Herding herding = runCluster(numNodes, numServers, seconds, gossip, gossipIntervalMillis);
+			System.out.println(String.format("%-8s %9d %8d %10.3f %9.1f%% %7.4f", gossip ? "on" : "off",
+					herding.requests, herding.peakConcurrency, herding.meanMaxMeanRatio, 100 * herding.idleShare,
+					herding.jainsIndex));
+		}
+	}
+
+	/**
+	 * Starts a process per node, tells each one the others' gossip addresses and when to start,
+	 * and merges their traces once they're done.
+	 */
+	private static Herding runCluster(int numNodes, int numServers, int seconds, boolean gossip,
+			long gossipIntervalMillis) throws IOException, InterruptedException {
+		Path directory = Files.createTempDirectory("gossip-cluster");
+		List<Process> processes = new ArrayList<>();
+		List<Path> traces = new ArrayList<>();
+		List<BufferedReader> outputs = new ArrayList<>();
+		List<String> addresses = new ArrayList<>();
+		String javaCommand = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+		for (int nodeId = 0; nodeId < numNodes; nodeId++) {
+			Path trace = directory.resolve("node-" + nodeId + ".trace");
+			Process process = new ProcessBuilder(javaCommand, "-cp", System.getProperty("java.class.path"),
+					GossipClusterHarness.class.getName(), "node", String.valueOf(nodeId), String.valueOf(numServers),
+					String.valueOf(gossipIntervalMillis), trace.toString())
+					.redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+			processes.add(process);
+			traces.add(trace);
+			outputs.add(output);
+		}
+		for (BufferedReader output : outputs) {
+			// each node binds any free port and says which
+			addresses.add("127.0.0.1:" + output.readLine().substring("PORT ".length()));
+		}
+		long startEpochMillis = System.currentTimeMillis() + 1_000;
+		for (int nodeId = 0; nodeId < numNodes; nodeId++) {
+			List<String> peers = new ArrayList<>(addresses);
+			peers.remove(nodeId);
+			PrintWriter input = new PrintWriter(processes.get(nodeId).getOutputStream(), true);
+			input.println(startEpochMillis + " " + seconds * 1_000L + " "
+					+ (gossip && !peers.isEmpty() ? String.join(",", peers) : "-"));
+		}
+		for (Process process : processes) {
+			if (!process.waitFor(seconds + 30, TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+				throw new IllegalStateException("node didn't finish");
+			}
+		}
+		Herding herding = measureHerding(traces, numServers);
+		for (Path trace : traces) {
+			Files.deleteIfExists(trace);
+		}
+		Files.deleteIfExists(directory);
+		return herding;
+	}
+
+	/**
+	 * Runs one node: waits for its peers and start time on stdin, then serves its arrivals for the duration.
+	 */
+	private static void runNode(int nodeId, int numServers, long gossipIntervalMillis, Path traceFile)
+			throws IOException, InterruptedException {
+		List<Server> servers = ServerFactory.createServers(numServers, List.of(Server.DEFAULT_ZONE), false);
+		try (GossipLoadBalancer loadBalancer = new GossipLoadBalancer(servers, nodeId,
+				new InetSocketAddress("127.0.0.1", 0), gossipIntervalMillis);
+				TraceRecorder recorder = new TraceRecorder(traceFile)) {
+			System.out.println("PORT " + loadBalancer.getLocalAddress().getPort());
+			System.out.flush();
+			String[] plan = new BufferedReader(new InputStreamReader(System.in)).readLine().split(" ");
+			long startEpochMillis = Long.parseLong(plan[0]);
+			long durationMillis = Long.parseLong(plan[1]);
+			if (!plan[2].equals("-")) {
+				for (String peer : plan[2].split(",")) {
+					String[] hostAndPort = peer.split(":");
+					loadBalancer.addPeer(new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+				}
+				loadBalancer.start();
+			}
+
+			ScheduledExecutorService completions = Executors.newSingleThreadScheduledExecutor();
+			Random random = new Random(nodeId);
+			Distribution interArrival = Distribution.exponential(MEAN_INTER_ARRIVAL_NANOS);
+			Distribution serviceTime = Distribution.exponential(MEAN_SERVICE_NANOS);
+			Thread.sleep(Math.max(0, startEpochMillis - System.currentTimeMillis()));
+			long endNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+			long nextArrival = System.nanoTime();
+			for (long requestId = 0; nextArrival < endNanos; requestId++) {
+				LockSupport.parkNanos(nextArrival - System.nanoTime());
+				Request request = new Request(String.valueOf(requestId), "GET");
+				long arrival = recorder.now();
+				String serverName = loadBalancer.serveRequest(request);
+				completions.schedule(() -> {
+					loadBalancer.decrementRequestCount(serverName);
+					recorder.recordServed(request, serverName, arrival, recorder.now());
+				}, serviceTime.sampleNanos(random), TimeUnit.NANOSECONDS);
+				nextArrival += interArrival.sampleNanos(random);
+			}
+			completions.shutdown();
+			completions.awaitTermination(30, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Sweeps the requests of every trace, in time order, counting how many each server has in flight.
+	 */
+	private static Herding measureHerding(List<Path> traces, int numServers) throws IOException {
+		List<long[]> events = new ArrayList<>();
+		long[] served = new long[numServers];
+		for (Path trace : traces) {
+			try (TraceReplayer replayer = new TraceReplayer(trace)) {
+				long originNanos = TimeUnit.MILLISECONDS.toNanos(replayer.getStartEpochMillis());
+				Iterator<TraceRecord> records = replayer.records();
+				while (records.hasNext()) {
+					TraceRecord record = records.next();
+					if (!record.isServed() || record.serverIndex() < 0 || record.serverIndex() >= numServers) {
+						continue;
+					}
+					long start = originNanos + record.arrivalNanos();
+					events.add(new long[] { start, record.serverIndex(), 1 });
+					events.add(new long[] { start + record.serviceNanos(), record.serverIndex(), -1 });
+					served[record.serverIndex()]++;
+				}
+			}
+		}
+		// completions before arrivals at the same instant
+		events.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[2], b[2]));
+
+		long[] inFlight = new long[numServers];
+		long total = 0;
+		long peak = 0;
+		double weightedRatio = 0;
+		double weightedIdle = 0;
+		double busyNanos = 0;
+		long previousTime = events.isEmpty() ? 0 : events.get(0)[0];
+		for (long[] event : events) {
+			long elapsed = event[0] - previousTime;
+			if (total > 0 && elapsed > 0) {
+				long max = Arrays.stream(inFlight).max().getAsLong();
+				long idle = Arrays.stream(inFlight).filter(count -> count == 0).count();
+				weightedRatio += elapsed * (double) max * numServers / total;
+				weightedIdle += elapsed * (double) idle / numServers;
+				busyNanos += elapsed;
+			}
+			inFlight[(int) event[1]] += event[2];
+			total += event[2];
+			peak = Math.max(peak, inFlight[(int) event[1]]);
+			previousTime = event[0];
+		}
+		return new Herding(events.size() / 2, peak, busyNanos == 0 ? 1 : weightedRatio / busyNanos,
+				busyNanos == 0 ? 0 : weightedIdle / busyNanos, BalanceMetrics.jainsIndex(served));
+	}
+
+	/**
+	 * How the cluster spread its requests.
+	 *
+	 * @param requests         the requests served by all nodes
+	 * @param peakConcurrency  the most requests any server had in flight at once, from all nodes
+	 * @param meanMaxMeanRatio the busiest server's requests in flight over the mean, averaged over time
+	 * @param idleShare        the share of servers with nothing in flight while others were busy, averaged over time
+	 * @param jainsIndex       Jain's fairness index of the requests served per server
+	 */
+	private record Herding(long requests, long peakConcurrency, double meanMaxMeanRatio, double idleShare,
+			double jainsIndex) {
+	}
+}
@@ -0,0 +1,90 @@
+package org.example;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end throughput of HttpReverseProxy on localhost: client threads with kept-alive connections
+ * send GET requests through the proxy to stand-in backends for a fixed time. The same clients are
+ * then run directly against one backend, as a baseline without the proxy hop.
+ *
+ * Not run as part of the unit tests. Run with:
+ * mvn test-compile && java -cp target/classes:target/test-classes org.example.HttpProxyBenchmark [clients] [seconds]
+ */
+public class HttpProxyBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int numClients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		List<StubHttpBackend> stubs = new ArrayList<>();
+		List<BackendServer> backends = new ArrayList<>();
+		for (Server server : ServerFactory.createServers(4)) {
+			StubHttpBackend stub = new StubHttpBackend(server.getName());
+			stubs.add(stub);
+			backends.add(stub.toBackendServer());
+		}
+		MeteredLoadBalancer loadBalancer = new MeteredLoadBalancer(
+				new ShardedLeastConnectedLoadBalancer(new ArrayList<>(backends), 1, 0),
+				new BalanceMetrics(new ArrayList<>(backends), 1_000_000_000L, seconds));
+		try (HttpReverseProxy proxy = new HttpReverseProxy(loadBalancer, backends,
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+			proxy.start();
+			// warm up
+			run(proxy.getLocalAddress(), numClients, 1);
+			double proxied = run(proxy.getLocalAddress(), numClients, seconds);
+			BalanceMetrics.Snapshot balance = loadBalancer.getMetrics().snapshot();
+			double direct = run(stubs.get(0).getAddress(), numClients, seconds);
+			System.out.printf("clients=%d through proxy: %.0f req/s, direct to one backend: %.0f req/s%n", numClients,
+					proxied, direct);
+			System.out.printf("balance over the last %d s through proxy: Jain's index=%.4f, max/mean=%.3f%n", seconds,
+					balance.windowJainsIndex(), balance.windowMaxMeanRatio());
+		} finally {
+			for (StubHttpBackend stub : stubs) {
+				stub.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of requests per second over all clients.
+	 */
+	private static double run(InetSocketAddress address, int numClients, int seconds) throws InterruptedException {
+		AtomicLong completed = new AtomicLong();
+		CountDownLatch start = new CountDownLatch(1);
+		long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+		List<Thread> clients = new ArrayList<>();
+		for (int i = 0; i < numClients; i++) {
+			Thread client = new Thread(() -> {
+				try (HttpTestClient httpClient = new HttpTestClient(address)) {
+					start.await();
+					long requests = 0;
+					while (System.nanoTime() < deadline) {
+						if (httpClient.get("/").status() != 200) {
+							throw new IOException("Unexpected status");
+						}
+						requests++;
+					}
+					completed.addAndGet(requests);
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			clients.add(client);
+			client.start();
+		}
+		long startTime = System.nanoTime();
+		start.countDown();
+		for (Thread client : clients) {
+			client.join();
+		}
+		return completed.get() / ((System.nanoTime() - startTime) / 1e9);
+	}
+}
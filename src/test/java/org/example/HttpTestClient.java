@@ -0,0 +1,91 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal blocking HTTP/1.1 client with one kept-alive connection.
+ */
+class HttpTestClient implements Closeable {
+
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+
+	HttpTestClient(InetSocketAddress address) throws IOException {
+		socket = new Socket(address.getAddress(), address.getPort());
+		socket.setTcpNoDelay(true);
+		in = new BufferedInputStream(socket.getInputStream());
+		out = socket.getOutputStream();
+	}
+
+	Response get(String path) throws IOException {
+		return send("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n");
+	}
+
+	Response post(String path, String body) throws IOException {
+		return send("POST " + path + " HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length() + "\r\n\r\n"
+				+ body);
+	}
+
+	Response send(String rawRequest) throws IOException {
+		out.write(rawRequest.getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+		return readResponse();
+	}
+
+	Response readResponse() throws IOException {
+		String statusLine = StubHttpBackend.readLine(in);
+		if (statusLine == null) {
+			return null;
+		}
+		int status = Integer.parseInt(statusLine.split(" ")[1]);
+		int contentLength = 0;
+		boolean chunked = false;
+		String backend = null;
+		String line;
+		while (!(line = StubHttpBackend.readLine(in)).isEmpty()) {
+			String lowerCase = line.toLowerCase();
+			if (lowerCase.startsWith("content-length:")) {
+				contentLength = Integer.parseInt(line.substring(15).trim());
+			} else if (lowerCase.startsWith("transfer-encoding:") && lowerCase.contains("chunked")) {
+				chunked = true;
+			} else if (lowerCase.startsWith("x-backend:")) {
+				backend = line.substring(10).trim();
+			}
+		}
+		String body = chunked ? readChunked() : new String(in.readNBytes(contentLength), StandardCharsets.US_ASCII);
+		return new Response(status, backend, body);
+	}
+
+	private String readChunked() throws IOException {
+		StringBuilder body = new StringBuilder();
+		int size;
+		while ((size = Integer.parseInt(StubHttpBackend.readLine(in).split(";")[0].trim(), 16)) > 0) {
+			body.append(new String(in.readNBytes(size), StandardCharsets.US_ASCII));
+			StubHttpBackend.readLine(in);
+		}
+		while (!StubHttpBackend.readLine(in).isEmpty()) {
+			// skip the trailer
+		}
+		return body.toString();
+	}
+
+	boolean isClosedByPeer() throws IOException {
+		return in.read() < 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	record Response(int status, String backend, String body) {
+	}
+}
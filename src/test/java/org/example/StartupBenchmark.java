@@ -0,0 +1,101 @@
+package org.example;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how long a LeastConnectedLoadBalancer takes to start with 1k to 100k servers, and how many
+ * threads it starts. Adding the servers one by one, which offers each into the tracker's minHeap and the
+ * pool's deadlines, is compared with adding them all at once, which builds both heaps in O(n).
+ *
+ * Not run as part of the unit tests. Run with:
+ * mvn test-compile && java -cp target/classes:target/test-classes org.example.StartupBenchmark
+ */
+public class StartupBenchmark {
+
+	private static final long LEASE_MILLIS = 600_000;
+	private static final int RUNS = 5;
+
+	public static void main(String[] args) {
+		// warm up before measuring
+		for (int i = 0; i < RUNS; i++) {
+			measureOneByOne(ServerFactory.createServers(10_000, List.of(Server.DEFAULT_ZONE), false));
+			measureBulk(ServerFactory.createServers(10_000, List.of(Server.DEFAULT_ZONE), false));
+			measureBalancer(ServerFactory.createServers(10_000, List.of(Server.DEFAULT_ZONE), false));
+		}
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		System.out.println("servers, create ms, one by one ms, bulk ms, balancer ms, threads started");
+		for (int numServers = 1_000; numServers <= 100_000; numServers *= 10) {
+			long startTime = System.nanoTime();
+			List<Server> servers = ServerFactory.createServers(numServers, List.of(Server.DEFAULT_ZONE), false);
+			double create = (System.nanoTime() - startTime) / 1e6;
+			double oneByOne = Double.MAX_VALUE;
+			double bulk = Double.MAX_VALUE;
+			double balancer = Double.MAX_VALUE;
+			long threadsBefore = threads.getTotalStartedThreadCount();
+			for (int i = 0; i < RUNS; i++) {
+				oneByOne = Math.min(oneByOne, measureOneByOne(servers));
+				bulk = Math.min(bulk, measureBulk(servers));
+				balancer = Math.min(balancer, measureBalancer(servers));
+			}
+			long threadsStarted = (threads.getTotalStartedThreadCount() - threadsBefore) / RUNS;
+			System.out.printf("%d, %.1f, %.1f, %.1f, %.1f, %d%n", numServers, create, oneByOne, bulk, balancer,
+					threadsStarted);
+		}
+	}
+
+	/**
+	 * Adds the servers to a tracker and a pool one at a time.
+	 *
+	 * @return the millis taken
+	 */
+	private static double measureOneByOne(List<Server> servers) {
+		long startTime = System.nanoTime();
+		ServerActiveConnectionTracker tracker = new ServerActiveConnectionTracker();
+		TimedServerPool pool = new TimedServerPool();
+		for (Server server : servers) {
+			pool.put(server.getName(), LEASE_MILLIS);
+			tracker.addServer(server.getName());
+		}
+		double millis = (System.nanoTime() - startTime) / 1e6;
+		pool.shutdownNow();
+		return millis;
+	}
+
+	/**
+	 * Adds the servers to a tracker and a pool all at once.
+	 *
+	 * @return the millis taken
+	 */
+	private static double measureBulk(List<Server> servers) {
+		long startTime = System.nanoTime();
+		ServerActiveConnectionTracker tracker = new ServerActiveConnectionTracker();
+		TimedServerPool pool = new TimedServerPool();
+		Map<String, Long> leases = new LinkedHashMap<>();
+		for (Server server : servers) {
+			leases.put(server.getName(), LEASE_MILLIS);
+		}
+		pool.putAll(leases);
+		tracker.addServers(leases.keySet());
+		double millis = (System.nanoTime() - startTime) / 1e6;
+		pool.shutdownNow();
+		return millis;
+	}
+
+	/**
+	 * Constructs a LeastConnectedLoadBalancer, on a pool the benchmark can shut down.
+	 *
+	 * @return the millis taken
+	 */
+	private static double measureBalancer(List<Server> servers) {
+		long startTime = System.nanoTime();
+		TimedServerPool pool = new TimedServerPool();
+		new LeastConnectedLoadBalancer(servers, pool, () -> LEASE_MILLIS);
+		double millis = (System.nanoTime() - startTime) / 1e6;
+		pool.shutdownNow();
+		return millis;
+	}
+}
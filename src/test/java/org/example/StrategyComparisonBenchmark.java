@@ -0,0 +1,299 @@
+package org.example;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleFunction;
+import java.util.function.Supplier;
+
+/**
+ * Runs every load balancing strategy through the same workload profiles under a DiscreteEventSimulator,
+ * and writes how each did to strategy-comparison.csv and strategy-comparison.json, to be kept and compared
+ * across commits. The profiles are:
+ * - uniform: Poisson arrivals and service times spread evenly over 5-15 ms
+ * - heavy-tailed: Poisson arrivals and log-normal service times with a long tail
+ * - bursty: arrivals in bursts of 50 at 5 times the mean rate, see Distribution.bursty()
+ * - heterogeneous: a third of the servers at half speed and a third at double speed, with weighted round
+ *   robin weighted by speed
+ * - churn: leases of 1-3 s on the virtual clock, after which a server is gone for 250 ms and then rejoins.
+ *   Only the strategies that take their servers from a TimedServerPool run it.
+ * Every profile runs at 80% of what the servers can serve. The workloads are drawn from a Random seeded
+ * with the seed, as is the zone-aware spillover, so every run gives the same requests and selections.
+ *
+ * For each strategy and profile the report has the throughput and p99 latency in virtual time, the p99
+ * wall time of a serveRequest() call, Jain's fairness index of the requests served per server divided by
+ * the server's speed, and the bytes serveRequest() allocates per call. The wrappers, eg.
+ * RetryingLoadBalancer, and the GossipLoadBalancer, which needs a cluster, are not run.
+ *
+ * Not run as part of the unit tests. Run with:
+ * mvn test-compile && java -cp target/classes:target/test-classes org.example.StrategyComparisonBenchmark
+ * [output-directory] [seed] [requests-per-profile]
+ */
+public class StrategyComparisonBenchmark {
+
+	private static final int SERVER_PARALLELISM = 2;
+	private static final double LOAD = 0.8;
+	private static final List<String> ZONES = List.of("zone-1", "zone-2", "zone-3");
+	private static final List<String> STRATEGIES = List.of("round-robin", "weighted-round-robin", "least-connected",
+			"least-connected-buckets", "sharded", "zone-aware");
+	private static final long CHURN_DOWNTIME_MILLIS = 250;
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/**
+	 * A workload profile.
+	 *
+	 * @param meanServiceNanos the mean of serviceTime, at speed 1
+	 * @param interArrival     makes the gaps between arrivals for a mean gap, once per run
+	 * @param speeds           the speed of each server
+	 * @param churn            whether leases run out and servers rejoin
+	 */
+	private record Profile(String name, Distribution serviceTime, double meanServiceNanos,
+			DoubleFunction<Distribution> interArrival, double[] speeds, boolean churn) {
+
+		double meanInterArrivalNanos() {
+			return meanServiceNanos / (Arrays.stream(speeds).sum() * SERVER_PARALLELISM * LOAD);
+		}
+	}
+
+	/**
+	 * How a strategy did on a profile.
+	 */
+	private record Row(String profile, String strategy, DiscreteEventSimulator.Result result,
+			double p99SelectionNanos, double jainsIndex, double bytesPerSelection, long wallMillis) {
+	}
+
+	public static void main(String[] args) throws IOException {
+		Path outputDirectory = Paths.get(args.length > 0 ? args[0] : "target");
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+		int numRequests = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+		List<Server> servers = ServerFactory.createServers(12, ZONES, false);
+		List<Profile> profiles = profiles(servers.size());
+
+		// warm up every strategy before measuring
+		for (String strategy : STRATEGIES) {
+			run(profiles.get(0), strategy, servers, seed, 20_000);
+		}
+		List<Row> rows = new ArrayList<>();
+		System.out.println(String.format("%-14s %-24s %9s %9s %10s %9s %12s %7s %10s %8s", "profile", "strategy",
+				"served", "rejected", "req/s", "p99 ms", "p99 select ns", "Jain", "bytes/op", "wall ms"));
+		for (Profile profile : profiles) {
+			for (String strategy : STRATEGIES) {
+				if (profile.churn() && !strategy.startsWith("least-connected")) {
+					continue;
+				}
+				Row row = run(profile, strategy, servers, seed, numRequests);
+				rows.add(row);
+				System.out.println(String.format(Locale.ROOT, "%-14s %-24s %9d %9d %10.1f %9.2f %12.0f %7.4f %10.1f %8d",
+						row.profile(), row.strategy(), row.result().served(), row.result().rejected(),
+						row.result().throughput(), row.result().p99LatencyMillis(), row.p99SelectionNanos(),
+						row.jainsIndex(), row.bytesPerSelection(), row.wallMillis()));
+			}
+		}
+		Files.createDirectories(outputDirectory);
+		Path csv = Files.writeString(outputDirectory.resolve("strategy-comparison.csv"), toCsv(rows));
+		Path json = Files.writeString(outputDirectory.resolve("strategy-comparison.json"),
+				toJson(rows, seed, numRequests));
+		System.out.println("Wrote " + csv + " and " + json);
+	}
+
+	private static List<Profile> profiles(int numServers) {
+		double[] sameSpeed = new double[numServers];
+		Arrays.fill(sameSpeed, 1);
+		double[] mixedSpeeds = new double[numServers];
+		for (int i = 0; i < numServers; i++) {
+			mixedSpeeds[i] = new double[] { 0.5, 1, 2 }[i % 3];
+		}
+		long millis = TimeUnit.MILLISECONDS.toNanos(1);
+		// median 10 ms, mean about 11.3 ms
+		Distribution logNormal = Distribution.logNormal(10 * millis, 0.5);
+		double logNormalMean = 10 * millis * Math.exp(0.5 * 0.5 / 2);
+		// median 10 ms, mean about 21.8 ms, and 1 in 1000 over 470 ms
+		double heavyTailedMean = 10 * millis * Math.exp(1.25 * 1.25 / 2);
+		return List.of(
+				new Profile("uniform", Distribution.uniform(5 * millis, 15 * millis), 10 * millis,
+						Distribution::exponential, sameSpeed, false),
+				new Profile("heavy-tailed", Distribution.logNormal(10 * millis, 1.25), heavyTailedMean,
+						Distribution::exponential, sameSpeed, false),
+				new Profile("bursty", logNormal, logNormalMean, mean -> Distribution.bursty(mean, 5, 50), sameSpeed,
+						false),
+				new Profile("heterogeneous", logNormal, logNormalMean, Distribution::exponential, mixedSpeeds, false),
+				new Profile("churn", logNormal, logNormalMean, Distribution::exponential, sameSpeed, true));
+	}
+
+	private static Row run(Profile profile, String strategy, List<Server> servers, long seed, int numRequests) {
+		DiscreteEventSimulator simulator = new DiscreteEventSimulator(seed);
+		Map<String, Double> speeds = new HashMap<>();
+		Map<String, Integer> weights = new HashMap<>();
+		for (int i = 0; i < servers.size(); i++) {
+			String serverName = servers.get(i).getName();
+			speeds.put(serverName, profile.speeds()[i]);
+			weights.put(serverName, (int) Math.round(profile.speeds()[i] * 2));
+			simulator.setServerSpeed(serverName, profile.speeds()[i]);
+		}
+		TimedLoadBalancer loadBalancer = new TimedLoadBalancer(create(strategy, simulator, servers, weights,
+				profile.churn()), numRequests);
+
+		long startTime = System.currentTimeMillis();
+		DiscreteEventSimulator.Result result = simulator.runWorkload(loadBalancer,
+				profile.interArrival().apply(profile.meanInterArrivalNanos()), profile.serviceTime(), numRequests,
+				SERVER_PARALLELISM);
+		long wallMillis = System.currentTimeMillis() - startTime;
+
+		long[] servedPerSpeed = new long[servers.size()];
+		for (int i = 0; i < servers.size(); i++) {
+			String serverName = servers.get(i).getName();
+			servedPerSpeed[i] = Math.round(result.completedByServer().getOrDefault(serverName, 0L)
+					/ speeds.get(serverName));
+		}
+		return new Row(profile.name(), strategy, result, loadBalancer.p99Nanos(),
+				BalanceMetrics.jainsIndex(servedPerSpeed), loadBalancer.bytesPerSelection(), wallMillis);
+	}
+
+	private static LoadBalancer create(String strategy, DiscreteEventSimulator simulator, List<Server> servers,
+			Map<String, Integer> weights, boolean churn) {
+		return switch (strategy) {
+		case "round-robin" -> new RoundRobinLoadBalancer(servers);
+		case "weighted-round-robin" -> new WeightedRoundRobinLoadBalancer(servers, weights);
+		case "least-connected" -> leaseServers(simulator, servers, churn, ServerActiveConnectionTracker::new);
+		case "least-connected-buckets" -> leaseServers(simulator, servers, churn, BucketedConnectionTracker::new);
+		case "sharded" -> new ShardedLeastConnectedLoadBalancer(servers, 1, 0);
+		case "zone-aware" -> new ZoneAwareLoadBalancer(servers, ZONES.get(0), SERVER_PARALLELISM,
+				simulator.getRandom());
+		default -> throw new IllegalArgumentException("unknown strategy: " + strategy);
+		};
+	}
+
+	/**
+	 * Creates a LeastConnectedLoadBalancer on a pool on the virtual clock. With churn, leases are 1-3 s, and a
+	 * server whose lease ran out is added back CHURN_DOWNTIME_MILLIS later with a new one; without, leases
+	 * outlast the workload.
+	 */
+	private static LoadBalancer leaseServers(DiscreteEventSimulator simulator, List<Server> servers, boolean churn,
+			Supplier<ConnectionTracker> trackerFactory) {
+		Random random = simulator.getRandom();
+		Supplier<Long> leaseMillis = churn ? () -> 1_000 + (long) (random.nextDouble() * 2_000)
+				: () -> TimeUnit.DAYS.toMillis(1);
+		TimedServerPool acquiredServers = simulator.createServerPool();
+		LeastConnectedLoadBalancer loadBalancer = new LeastConnectedLoadBalancer(servers, acquiredServers,
+				leaseMillis::get, trackerFactory.get());
+		List<String> serverNames = servers.stream().map(Server::getName).toList();
+		simulator.scheduleLeaseExpiry(acquiredServers, serverNames);
+		if (churn) {
+			for (Server server : servers) {
+				scheduleRejoin(simulator, loadBalancer, acquiredServers, server, leaseMillis);
+			}
+		}
+		return loadBalancer;
+	}
+
+	private static void scheduleRejoin(DiscreteEventSimulator simulator, LeastConnectedLoadBalancer loadBalancer,
+			TimedServerPool acquiredServers, Server server, Supplier<Long> leaseMillis) {
+		long rejoinMillis = acquiredServers.getExpiryDeadline(server.getName()) + CHURN_DOWNTIME_MILLIS;
+		simulator.scheduleAt(TimeUnit.MILLISECONDS.toNanos(rejoinMillis), () -> {
+			loadBalancer.addServer(server, leaseMillis.get());
+			simulator.scheduleLeaseExpiry(acquiredServers, List.of(server.getName()));
+			scheduleRejoin(simulator, loadBalancer, acquiredServers, server, leaseMillis);
+		});
+	}
+
+	private static String toCsv(List<Row> rows) {
+		StringBuilder csv = new StringBuilder("profile,strategy,served,rejected,throughput_per_s,mean_latency_ms,"
+				+ "p99_latency_ms,p99_selection_ns,jains_index,bytes_per_selection,wall_ms\n");
+		for (Row row : rows) {
+			DiscreteEventSimulator.Result result = row.result();
+			csv.append(String.format(Locale.ROOT, "%s,%s,%d,%d,%.1f,%.3f,%.3f,%.0f,%.4f,%.1f,%d%n", row.profile(),
+					row.strategy(), result.served(), result.rejected(), result.throughput(),
+					result.meanLatencyMillis(), result.p99LatencyMillis(), row.p99SelectionNanos(), row.jainsIndex(),
+					row.bytesPerSelection(), row.wallMillis()));
+		}
+		return csv.toString();
+	}
+
+	private static String toJson(List<Row> rows, long seed, int numRequests) {
+		StringBuilder json = new StringBuilder();
+		json.append(String.format(Locale.ROOT, "{%n  \"seed\": %d,%n  \"requestsPerProfile\": %d,%n  \"load\": %.2f,%n"
+				+ "  \"results\": [%n", seed, numRequests, LOAD));
+		for (int i = 0; i < rows.size(); i++) {
+			Row row = rows.get(i);
+			DiscreteEventSimulator.Result result = row.result();
+			json.append(String.format(Locale.ROOT, "    {\"profile\": \"%s\", \"strategy\": \"%s\", \"served\": %d, "
+					+ "\"rejected\": %d, \"throughputPerSecond\": %.1f, \"meanLatencyMillis\": %.3f, "
+					+ "\"p99LatencyMillis\": %.3f, \"p99SelectionNanos\": %.0f, \"jainsIndex\": %.4f, "
+					+ "\"bytesPerSelection\": %.1f, \"wallMillis\": %d}%s%n", row.profile(), row.strategy(),
+					result.served(), result.rejected(), result.throughput(), result.meanLatencyMillis(),
+					result.p99LatencyMillis(), row.p99SelectionNanos(), row.jainsIndex(), row.bytesPerSelection(),
+					row.wallMillis(), i < rows.size() - 1 ? "," : ""));
+		}
+		return json.append(String.format("  ]%n}%n")).toString();
+	}
+
+	/**
+	 * Passes every call on to a load balancer, and measures the wall time and the bytes allocated of each
+	 * serveRequest() call.
+	 */
+	private static final class TimedLoadBalancer implements LoadBalancer {
+		private final LoadBalancer loadBalancer;
+		private long[] selectionNanos;
+		private int selections;
+		private long allocatedBytes;
+
+		TimedLoadBalancer(LoadBalancer loadBalancer, int expectedSelections) {
+			this.loadBalancer = loadBalancer;
+			this.selectionNanos = new long[expectedSelections];
+		}
+
+		@Override
+		public String serveRequest(Request request) {
+			long bytesBefore = THREADS.getCurrentThreadAllocatedBytes();
+			long startTime = System.nanoTime();
+			String serverName = loadBalancer.serveRequest(request);
+			long elapsedNanos = System.nanoTime() - startTime;
+			allocatedBytes += THREADS.getCurrentThreadAllocatedBytes() - bytesBefore;
+			if (selections == selectionNanos.length) {
+				selectionNanos = Arrays.copyOf(selectionNanos, selections * 2);
+			}
+			selectionNanos[selections++] = elapsedNanos;
+			return serverName;
+		}
+
+		double p99Nanos() {
+			if (selections == 0) {
+				return 0;
+			}
+			long[] sorted = Arrays.copyOf(selectionNanos, selections);
+			Arrays.sort(sorted);
+			return sorted[(int) Math.ceil(selections * 0.99) - 1];
+		}
+
+		double bytesPerSelection() {
+			return selections == 0 ? 0 : (double) allocatedBytes / selections;
+		}
+
+		@Override
+		public String getStatus() {
+			return loadBalancer.getStatus();
+		}
+
+		@Override
+		public void incrementRequestCount(String serverName) {
+			loadBalancer.incrementRequestCount(serverName);
+		}
+
+		@Override
+		public void decrementRequestCount(String serverName) {
+			loadBalancer.decrementRequestCount(serverName);
+		}
+	}
+}
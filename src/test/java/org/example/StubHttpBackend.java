@@ -0,0 +1,155 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for a real backend. Answers every HTTP/1.1 request with 200 and
+ * echoes the request body, or its own name if the request has no body. A request for a path starting
+ * with /chunked is answered with the body in chunks of CHUNK_SIZE bytes and a trailer.
+ * Connections are kept alive unless the request says "Connection: close".
+ */
+class StubHttpBackend implements Closeable {
+
+	static final int CHUNK_SIZE = 7;
+
+	private final String name;
+	private final ServerSocket serverSocket;
+	private final ExecutorService executorService = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "stub-backend");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicInteger requestsServed = new AtomicInteger();
+	private final AtomicInteger connectionsAccepted = new AtomicInteger();
+
+	StubHttpBackend(String name) throws IOException {
+		this.name = name;
+		this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+		executorService.execute(this::acceptLoop);
+	}
+
+	InetSocketAddress getAddress() {
+		return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+	}
+
+	BackendServer toBackendServer() {
+		return new BackendServer(name, getAddress());
+	}
+
+	int getRequestsServed() {
+		return requestsServed.get();
+	}
+
+	int getConnectionsAccepted() {
+		return connectionsAccepted.get();
+	}
+
+	private void acceptLoop() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				connectionsAccepted.incrementAndGet();
+				executorService.execute(() -> serve(socket));
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (socket) {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			while (true) {
+				int contentLength = 0;
+				boolean close = false;
+				String line = readLine(in);
+				if (line == null) {
+					return;
+				}
+				boolean chunked = line.split(" ")[1].startsWith("/chunked");
+				while (!(line = readLine(in)).isEmpty()) {
+					String lowerCase = line.toLowerCase();
+					if (lowerCase.startsWith("content-length:")) {
+						contentLength = Integer.parseInt(line.substring(15).trim());
+					} else if (lowerCase.startsWith("connection:") && lowerCase.contains("close")) {
+						close = true;
+					}
+				}
+				byte[] body = in.readNBytes(contentLength);
+				if (body.length == 0) {
+					body = name.getBytes(StandardCharsets.US_ASCII);
+				}
+				String head = "HTTP/1.1 200 OK\r\n"
+						+ (chunked ? "Transfer-Encoding: chunked\r\n" : "Content-Length: " + body.length + "\r\n")
+						+ "X-Backend: " + name + "\r\n" + (close ? "Connection: close\r\n" : "") + "\r\n";
+				// counted before the response goes out, so a client that has the response sees the count
+				requestsServed.incrementAndGet();
+				out.write(head.getBytes(StandardCharsets.US_ASCII));
+				if (chunked) {
+					writeChunked(out, body);
+				} else {
+					out.write(body);
+				}
+				out.flush();
+				if (close) {
+					return;
+				}
+			}
+		} catch (IOException e) {
+			// client went away
+		}
+	}
+
+	private static void writeChunked(OutputStream out, byte[] body) throws IOException {
+		for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+			int length = Math.min(CHUNK_SIZE, body.length - offset);
+			// an extension on the first chunk, which must be skipped
+			String size = Integer.toHexString(length) + (offset == 0 ? ";name=value" : "") + "\r\n";
+			out.write(size.getBytes(StandardCharsets.US_ASCII));
+			out.write(body, offset, length);
+			out.write('\r');
+			out.write('\n');
+		}
+		out.write("0\r\nX-Trailer: done\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Reads a CRLF terminated line.
+	 *
+	 * @return the line without CRLF, or null at the end of the stream
+	 */
+	static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				return line.size() == 0 ? null : line.toString(StandardCharsets.US_ASCII);
+			}
+			if (b != '\r') {
+				line.write(b);
+			}
+		}
+		return line.toString(StandardCharsets.US_ASCII);
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		executorService.shutdownNow();
+	}
+}
@@ -0,0 +1,172 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for a multiplexed backend. Reads MuxFrame streams and answers each request on its own
+ * thread, after an optional delay, so responses on one connection can come back out of order.
+ * The response echoes the request body, or the backend's name if there is none, and is sent as two
+ * frames: the head, then the body with FLAG_END.
+ */
+class StubMuxBackend implements Closeable {
+
+	private final String name;
+	private final long delayMillis;
+	private final ServerSocket serverSocket;
+	private final ExecutorService executorService = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "stub-mux-backend");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger requestsServed = new AtomicInteger();
+	private final AtomicInteger connectionsAccepted = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+
+	StubMuxBackend(String name, long delayMillis) throws IOException {
+		this.name = name;
+		this.delayMillis = delayMillis;
+		this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+		executorService.execute(this::acceptLoop);
+	}
+
+	InetSocketAddress getAddress() {
+		return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+	}
+
+	BackendServer toBackendServer(int concurrencyLimit) {
+		return new BackendServer(name, getAddress(), concurrencyLimit, true);
+	}
+
+	int getRequestsServed() {
+		return requestsServed.get();
+	}
+
+	int getConnectionsAccepted() {
+		return connectionsAccepted.get();
+	}
+
+	/**
+	 * Gets the most requests that were being worked on at once, over all connections.
+	 */
+	int getMaxInFlight() {
+		return maxInFlight.get();
+	}
+
+	private void acceptLoop() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				connectionsAccepted.incrementAndGet();
+				sockets.add(socket);
+				executorService.execute(() -> serve(socket));
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (socket) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			Map<Integer, ByteArrayOutputStream> requests = new HashMap<>();
+			while (true) {
+				int streamId = in.readInt();
+				byte flags = in.readByte();
+				byte[] payload = in.readNBytes(in.readInt());
+				requests.computeIfAbsent(streamId, id -> new ByteArrayOutputStream()).write(payload);
+				if ((flags & MuxFrame.FLAG_END) != 0) {
+					byte[] request = requests.remove(streamId).toByteArray();
+					executorService.execute(() -> answer(out, streamId, request));
+				}
+			}
+		} catch (EOFException e) {
+			// the proxy closed the connection
+		} catch (IOException e) {
+			// the proxy went away
+		} finally {
+			sockets.remove(socket);
+		}
+	}
+
+	private void answer(DataOutputStream out, int streamId, byte[] request) {
+		int current = inFlight.incrementAndGet();
+		maxInFlight.accumulateAndGet(current, Math::max);
+		try {
+			if (delayMillis > 0) {
+				Thread.sleep(delayMillis);
+			}
+			byte[] body = requestBody(request);
+			if (body.length == 0) {
+				body = name.getBytes(StandardCharsets.US_ASCII);
+			}
+			byte[] head = ("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\nX-Backend: " + name + "\r\n\r\n")
+					.getBytes(StandardCharsets.US_ASCII);
+			synchronized (out) {
+				writeFrame(out, streamId, (byte) 0, head);
+				writeFrame(out, streamId, MuxFrame.FLAG_END, body);
+				out.flush();
+			}
+			requestsServed.incrementAndGet();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// the proxy went away
+		} finally {
+			inFlight.decrementAndGet();
+		}
+	}
+
+	private static void writeFrame(DataOutputStream out, int streamId, byte flags, byte[] payload) throws IOException {
+		out.writeInt(streamId);
+		out.writeByte(flags);
+		out.writeInt(payload.length);
+		out.write(payload);
+	}
+
+	/**
+	 * Gets the body of a request, ie everything after the blank line that ends the head.
+	 */
+	private static byte[] requestBody(byte[] request) {
+		for (int i = 0; i + 3 < request.length; i++) {
+			if (request[i] == '\r' && request[i + 1] == '\n' && request[i + 2] == '\r' && request[i + 3] == '\n') {
+				byte[] body = new byte[request.length - i - 4];
+				System.arraycopy(request, i + 4, body, 0, body.length);
+				return body;
+			}
+		}
+		return new byte[0];
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		// unlike a closed ServerSocket, this is noticed by the proxy
+		for (Socket socket : sockets) {
+			socket.close();
+		}
+		executorService.shutdownNow();
+	}
+}
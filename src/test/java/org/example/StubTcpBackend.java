@@ -0,0 +1,72 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local stand-in for a TCP backend that echoes every byte back, and closes its side
+ * of the connection once the client has closed its side.
+ */
+class StubTcpBackend implements Closeable {
+
+	private final String name;
+	private final ServerSocket serverSocket;
+	private final ExecutorService executorService = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "stub-tcp-backend");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	StubTcpBackend(String name) throws IOException {
+		this.name = name;
+		this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+		executorService.execute(this::acceptLoop);
+	}
+
+	InetSocketAddress getAddress() {
+		return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+	}
+
+	BackendServer toBackendServer() {
+		return new BackendServer(name, getAddress());
+	}
+
+	private void acceptLoop() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				executorService.execute(() -> echo(socket));
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void echo(Socket socket) {
+		try (socket) {
+			InputStream in = socket.getInputStream();
+			OutputStream out = socket.getOutputStream();
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+		} catch (IOException e) {
+			// client went away
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		executorService.shutdownNow();
+	}
+}
@@ -0,0 +1,214 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares TcpForwarder against a naive forwarder that copies between socket streams with two threads
+ * and a heap buffer per connection, on localhost with echoing stand-in backends:
+ * 1. bulk throughput in Gbps, with each client streaming a payload and reading the echo back,
+ * 2. connections per second, with each client connecting, exchanging one byte and closing.
+ *
+ * Not run as part of the unit tests. Run with:
+ * mvn test-compile && java -cp target/classes:target/test-classes org.example.TcpForwardingBenchmark [clients]
+ */
+public class TcpForwardingBenchmark {
+
+	private static final int PAYLOAD_BYTES = 64 * 1024 * 1024;
+	private static final int CONNECT_SECONDS = 3;
+
+	public static void main(String[] args) throws Exception {
+		int numClients = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		List<StubTcpBackend> stubs = new ArrayList<>();
+		List<BackendServer> backends = new ArrayList<>();
+		for (Server server : ServerFactory.createServers(4)) {
+			StubTcpBackend stub = new StubTcpBackend(server.getName());
+			stubs.add(stub);
+			backends.add(stub.toBackendServer());
+		}
+		InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+		try (TcpForwarder forwarder = new TcpForwarder(
+				new ShardedLeastConnectedLoadBalancer(new ArrayList<>(backends), 1, 0), backends, loopback);
+				StreamCopyForwarder naive = new StreamCopyForwarder(
+						new ShardedLeastConnectedLoadBalancer(new ArrayList<>(backends), 1, 0), backends)) {
+			forwarder.start();
+			// warm up
+			measureThroughput(forwarder.getLocalAddress(), numClients);
+			measureThroughput(naive.getAddress(), numClients);
+			System.out.printf("clients=%d TcpForwarder: %.2f Gbps, %.0f conn/s%n", numClients,
+					measureThroughput(forwarder.getLocalAddress(), numClients),
+					measureConnectionRate(forwarder.getLocalAddress(), numClients));
+			System.out.printf("clients=%d stream copy:  %.2f Gbps, %.0f conn/s%n", numClients,
+					measureThroughput(naive.getAddress(), numClients),
+					measureConnectionRate(naive.getAddress(), numClients));
+		} finally {
+			for (StubTcpBackend stub : stubs) {
+				stub.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the echoed bytes over all clients, in gigabits per second.
+	 */
+	private static double measureThroughput(InetSocketAddress address, int numClients) throws InterruptedException {
+		AtomicLong echoedBytes = new AtomicLong();
+		long elapsedNanos = runClients(numClients, () -> {
+			try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+				Thread writer = new Thread(() -> {
+					byte[] chunk = new byte[64 * 1024];
+					try {
+						OutputStream out = socket.getOutputStream();
+						for (int sent = 0; sent < PAYLOAD_BYTES; sent += chunk.length) {
+							out.write(chunk);
+						}
+						socket.shutdownOutput();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				});
+				writer.start();
+				InputStream in = socket.getInputStream();
+				byte[] buffer = new byte[64 * 1024];
+				long received = 0;
+				int read;
+				while ((read = in.read(buffer)) >= 0) {
+					received += read;
+				}
+				writer.join();
+				echoedBytes.addAndGet(received);
+			}
+		});
+		return echoedBytes.get() * 8.0 / elapsedNanos;
+	}
+
+	/**
+	 * @return the number of connections per second over all clients.
+	 */
+	private static double measureConnectionRate(InetSocketAddress address, int numClients)
+			throws InterruptedException {
+		AtomicLong connections = new AtomicLong();
+		long deadline = System.nanoTime() + CONNECT_SECONDS * 1_000_000_000L;
+		long elapsedNanos = runClients(numClients, () -> {
+			while (System.nanoTime() < deadline) {
+				try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+					socket.getOutputStream().write(1);
+					if (socket.getInputStream().read() < 0) {
+						throw new IOException("Connection closed before echo");
+					}
+				}
+				connections.incrementAndGet();
+			}
+		});
+		return connections.get() / (elapsedNanos / 1e9);
+	}
+
+	private static long runClients(int numClients, ClientWork work) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> clients = new ArrayList<>();
+		for (int i = 0; i < numClients; i++) {
+			Thread client = new Thread(() -> {
+				try {
+					start.await();
+					work.run();
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			});
+			clients.add(client);
+			client.start();
+		}
+		long startTime = System.nanoTime();
+		start.countDown();
+		for (Thread client : clients) {
+			client.join();
+		}
+		return System.nanoTime() - startTime;
+	}
+
+	private interface ClientWork {
+		void run() throws Exception;
+	}
+
+	/**
+	 * The naive baseline: two threads per connection, each copying one direction through
+	 * InputStream.transferTo() with its own heap buffer.
+	 */
+	private static class StreamCopyForwarder implements Closeable {
+		private final LoadBalancer loadBalancer;
+		private final List<BackendServer> backends;
+		private final ServerSocket serverSocket;
+		private final ExecutorService executorService = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable);
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		StreamCopyForwarder(LoadBalancer loadBalancer, List<BackendServer> backends) throws IOException {
+			this.loadBalancer = loadBalancer;
+			this.backends = backends;
+			this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+			executorService.execute(this::acceptLoop);
+		}
+
+		InetSocketAddress getAddress() {
+			return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+		}
+
+		private void acceptLoop() {
+			while (!serverSocket.isClosed()) {
+				try {
+					Socket client = serverSocket.accept();
+					String serverName = loadBalancer.serveRequest(new Request("naive", "TCP"));
+					BackendServer backend = backends.stream().filter(b -> b.getName().equals(serverName)).findFirst()
+							.orElseThrow();
+					Socket upstream = new Socket(backend.getAddress().getAddress(), backend.getAddress().getPort());
+					CountDownLatch bothDone = new CountDownLatch(2);
+					executorService.execute(() -> copy(client, upstream, bothDone));
+					executorService.execute(() -> copy(upstream, client, bothDone));
+					executorService.execute(() -> {
+						try {
+							bothDone.await();
+							client.close();
+							upstream.close();
+						} catch (InterruptedException | IOException e) {
+							// closing anyway
+						}
+						loadBalancer.decrementRequestCount(serverName);
+					});
+				} catch (IOException e) {
+					return;
+				}
+			}
+		}
+
+		private static void copy(Socket from, Socket to, CountDownLatch done) {
+			try {
+				from.getInputStream().transferTo(to.getOutputStream());
+				to.shutdownOutput();
+			} catch (IOException e) {
+				// connection broken
+			} finally {
+				done.countDown();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+			executorService.shutdownNow();
+		}
+	}
+}
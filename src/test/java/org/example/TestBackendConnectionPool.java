@@ -0,0 +1,162 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TestBackendConnectionPool {
+
+	private StubHttpBackend stub;
+	private BackendConnectionPool pool;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		stub = new StubHttpBackend("a");
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		if (pool != null) {
+			pool.close();
+		}
+		stub.close();
+	}
+
+	@Test
+	void testPrewarm() throws IOException {
+		pool = new BackendConnectionPool(60_000, 3);
+		pool.addServer(new BackendServer("a", stub.getAddress(), 2));
+
+		// capped by the concurrency limit
+		BackendConnectionPool.Stats stats = pool.getStats("a");
+		assertEquals(2, stats.open());
+		assertEquals(2, stats.idle());
+
+		SocketChannel channel = pool.tryBorrow("a");
+		assertTrue(channel.isConnected());
+		assertEquals(1, pool.getStats("a").hits());
+		assertEquals(0, pool.getStats("a").misses());
+	}
+
+	@Test
+	void testHitsAndMisses() throws IOException {
+		pool = new BackendConnectionPool(60_000, 0);
+		pool.addServer(stub.toBackendServer());
+
+		SocketChannel first = pool.tryBorrow("a");
+		pool.release("a", first, true);
+		SocketChannel second = pool.tryBorrow("a");
+
+		assertSame(first, second);
+		BackendConnectionPool.Stats stats = pool.getStats("a");
+		assertEquals(1, stats.hits());
+		assertEquals(1, stats.misses());
+		assertEquals(1, stats.open());
+		assertEquals(0, stats.idle());
+	}
+
+	@Test
+	void testConcurrencyLimit() throws IOException {
+		pool = new BackendConnectionPool(60_000, 0);
+		pool.addServer(new BackendServer("a", stub.getAddress(), 2));
+
+		SocketChannel first = pool.tryBorrow("a");
+		SocketChannel second = pool.tryBorrow("a");
+		assertNotNull(first);
+		assertNotNull(second);
+		assertNull(pool.tryBorrow("a"));
+		assertNull(pool.borrow("a", 5, TimeUnit.MILLISECONDS));
+		assertEquals(1, pool.getStats("a").timeouts());
+
+		// a connection that can't be reused makes room for a new one
+		pool.release("a", first, false);
+		assertFalse(first.isOpen());
+		assertNotNull(pool.tryBorrow("a"));
+		assertEquals(2, pool.getStats("a").open());
+	}
+
+	@Test
+	void testBorrowWaitsForRelease() throws Exception {
+		pool = new BackendConnectionPool(60_000, 0);
+		pool.addServer(new BackendServer("a", stub.getAddress(), 1));
+		SocketChannel held = pool.tryBorrow("a");
+
+		Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			pool.release("a", held, true);
+		});
+		releaser.start();
+		SocketChannel channel = pool.borrow("a", 5, TimeUnit.SECONDS);
+		releaser.join();
+
+		assertSame(held, channel);
+		BackendConnectionPool.Stats stats = pool.getStats("a");
+		assertEquals(1, stats.waits());
+		assertTrue(stats.waitNanos() > 0);
+		assertEquals(0, stats.timeouts());
+	}
+
+	@Test
+	void testIdleEviction() throws Exception {
+		pool = new BackendConnectionPool(1, 2);
+		pool.addServer(stub.toBackendServer());
+		SocketChannel borrowed = pool.tryBorrow("a");
+
+		Thread.sleep(10);
+		pool.evictIdleConnections();
+		// the background evictor may be closing the idle connection right now
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (pool.getStats("a").open() > 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+
+		// the borrowed connection is not idle, so it is left open
+		BackendConnectionPool.Stats stats = pool.getStats("a");
+		assertEquals(0, stats.idle());
+		assertEquals(1, stats.open());
+		assertTrue(stats.evictions() >= 1);
+		assertTrue(borrowed.isOpen());
+	}
+
+	@Test
+	void testUnknownServerAndRemoval() throws IOException {
+		pool = new BackendConnectionPool(60_000, 1);
+		assertNull(pool.tryBorrow("a"));
+		assertNull(pool.getStats("a"));
+
+		pool.addServer(stub.toBackendServer());
+		SocketChannel borrowed = pool.tryBorrow("a");
+		pool.removeServer("a");
+		assertNull(pool.getStats("a"));
+		// released after the server was removed, so it is closed rather than pooled
+		pool.release("a", borrowed, true);
+		assertFalse(borrowed.isOpen());
+	}
+
+	@Test
+	void testServerDown() throws IOException {
+		InetSocketAddress address;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			address = (InetSocketAddress) socket.getLocalSocketAddress();
+		}
+		pool = new BackendConnectionPool(60_000, 2);
+		// pre-warming a server that isn't up is not an error
+		pool.addServer(new BackendServer("b", address));
+		assertEquals(0, pool.getStats("b").open());
+
+		assertThrows(IOException.class, () -> pool.tryBorrow("b"));
+		assertEquals(0, pool.getStats("b").open());
+	}
+}
@@ -0,0 +1,119 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TestBalanceMetrics {
+
+	private final List<Server> servers = ServerFactory.createServers(4);
+	private long now;
+
+	@Test
+	void testBalanceMeasures() {
+		assertEquals(1.0, BalanceMetrics.jainsIndex(new long[] { 5, 5, 5, 5 }), 1e-9);
+		assertEquals(0.25, BalanceMetrics.jainsIndex(new long[] { 20, 0, 0, 0 }), 1e-9);
+		assertEquals(1.0, BalanceMetrics.jainsIndex(new long[] { 0, 0 }), 1e-9);
+		// mean 2, standard deviation 1
+		assertEquals(0.5, BalanceMetrics.coefficientOfVariation(new long[] { 1, 3, 1, 3 }), 1e-9);
+		assertEquals(0.0, BalanceMetrics.coefficientOfVariation(new long[] { 7, 7 }), 1e-9);
+		assertEquals(1.5, BalanceMetrics.maxMeanRatio(new long[] { 1, 3, 1, 3 }), 1e-9);
+		assertEquals(4.0, BalanceMetrics.maxMeanRatio(new long[] { 20, 0, 0, 0 }), 1e-9);
+	}
+
+	@Test
+	void testCountsAndPeakConcurrency() {
+		BalanceMetrics metrics = new BalanceMetrics(servers, 1_000, 3, () -> now);
+		metrics.requestStarted("a");
+		metrics.requestStarted("a");
+		metrics.requestStarted("a");
+		metrics.requestCompleted("a");
+		metrics.requestStarted("b");
+		metrics.requestCompleted("b");
+		metrics.requestStarted("unknown");
+
+		BalanceMetrics.Snapshot snapshot = metrics.snapshot();
+		assertEquals(List.of("a", "b", "c", "d"), snapshot.getServerNames());
+		assertArrayEquals(new long[] { 1, 1, 0, 0 }, snapshot.getServed());
+		assertArrayEquals(new long[] { 3, 1, 0, 0 }, snapshot.getPeakConcurrency());
+		assertArrayEquals(new long[] { 2, 0, 0, 0 }, snapshot.getInFlight());
+		assertEquals(3, snapshot.maxPeakConcurrency());
+		assertEquals(0.5, snapshot.jainsIndex(), 1e-9);
+	}
+
+	@Test
+	void testSlidingWindows() {
+		// 3 windows of 1000 ns
+		BalanceMetrics metrics = new BalanceMetrics(servers, 1_000, 3, () -> now);
+		// early on, everything goes to a
+		for (int i = 0; i < 8; i++) {
+			metrics.requestStarted("a");
+			metrics.requestCompleted("a");
+		}
+		now = 1_500;
+		metrics.requestStarted("b");
+		assertArrayEquals(new long[] { 8, 0, 0, 0 }, metrics.snapshot().getWindowServed());
+
+		// then it evens out, and the first window slides out
+		now = 3_000;
+		for (Server server : servers) {
+			metrics.requestStarted(server.getName());
+			metrics.requestCompleted(server.getName());
+		}
+		metrics.requestCompleted("b");
+		BalanceMetrics.Snapshot snapshot = metrics.snapshot();
+		assertArrayEquals(new long[] { 1, 2, 1, 1 }, snapshot.getWindowServed());
+		assertArrayEquals(new long[] { 9, 2, 1, 1 }, snapshot.getServed());
+		// b still had its request from 1500 in flight when this window started
+		assertArrayEquals(new long[] { 1, 2, 1, 1 }, snapshot.getWindowPeakConcurrency());
+		assertTrue(snapshot.windowJainsIndex() > snapshot.jainsIndex());
+
+		// nothing since, so the windows are empty
+		now = 10_000;
+		assertArrayEquals(new long[] { 0, 0, 0, 0 }, metrics.snapshot().getWindowServed());
+		assertEquals(1.0, metrics.snapshot().windowMaxMeanRatio(), 1e-9);
+	}
+
+	@Test
+	void testConcurrentUpdates() throws InterruptedException {
+		BalanceMetrics metrics = new BalanceMetrics(servers, TimeUnit.SECONDS.toNanos(60), 1);
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		for (int t = 0; t < 4; t++) {
+			executorService.execute(() -> {
+				for (int i = 0; i < 100_000; i++) {
+					String serverName = servers.get(i % servers.size()).getName();
+					metrics.requestStarted(serverName);
+					metrics.requestCompleted(serverName);
+				}
+			});
+		}
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+
+		BalanceMetrics.Snapshot snapshot = metrics.snapshot();
+		assertArrayEquals(new long[] { 100_000, 100_000, 100_000, 100_000 }, snapshot.getServed());
+		assertArrayEquals(new long[] { 0, 0, 0, 0 }, snapshot.getInFlight());
+		assertTrue(snapshot.maxPeakConcurrency() >= 1 && snapshot.maxPeakConcurrency() <= 4);
+		assertEquals(0.0, snapshot.coefficientOfVariation(), 1e-9);
+	}
+
+	@Test
+	void testMeteredLoadBalancer() {
+		MeteredLoadBalancer meteredLB = new MeteredLoadBalancer(new RoundRobinLoadBalancer(servers),
+				new BalanceMetrics(servers, 1_000, 3, () -> now));
+		for (int i = 0; i < 6; i++) {
+			String serverName = meteredLB.serveRequest(new Request(String.valueOf(i), "GET"));
+			meteredLB.decrementRequestCount(serverName);
+		}
+
+		BalanceMetrics.Snapshot snapshot = meteredLB.getMetrics().snapshot();
+		assertArrayEquals(new long[] { 2, 2, 1, 1 }, snapshot.getServed());
+		assertEquals(2 * 4 / 6.0, snapshot.maxMeanRatio(), 1e-9);
+		assertTrue(meteredLB.getStatus().contains("Balance: Jain's index="));
+	}
+}
@@ -0,0 +1,124 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class TestBucketedConnectionTracker {
+
+	@Test
+	void testGetLeastUsedServer() {
+		BucketedConnectionTracker tracker = new BucketedConnectionTracker();
+		tracker.addServer("a");
+		tracker.addServer("b");
+		tracker.addServer("c");
+		tracker.updateServerCount("a", 5);
+		tracker.updateServerCount("b", 2);
+		tracker.updateServerCount("c", 8);
+		assertEquals(3, tracker.size());
+		assertEquals("b", tracker.getLeastUsedServer());
+		assertEquals(2, tracker.size());
+		assertEquals(2, tracker.getServerCount("b"));
+	}
+
+	@Test
+	void testTiesGoToLongestInBucket() {
+		BucketedConnectionTracker tracker = new BucketedConnectionTracker();
+		tracker.addServer("c");
+		tracker.addServer("b");
+		tracker.addServer("a");
+		tracker.updateServerCount("b", 1);
+		tracker.updateServerCount("b", -1);
+		assertEquals("c", tracker.getLeastUsedServer());
+		assertEquals("a", tracker.getLeastUsedServer());
+		assertEquals("b", tracker.getLeastUsedServer());
+		assertNull(tracker.getLeastUsedServer());
+		assertTrue(tracker.isEmpty());
+
+		// a taken server is back in the running once its count is updated
+		tracker.updateServerCount("a", 1);
+		assertEquals("a", tracker.getLeastUsedServer());
+		assertEquals(1, tracker.getServerCount("a"));
+	}
+
+	@Test
+	void testRemoveServers() {
+		BucketedConnectionTracker tracker = new BucketedConnectionTracker();
+		for (String serverName : List.of("a", "b", "c", "d")) {
+			tracker.addServer(serverName);
+		}
+		assertEquals("a", tracker.getLeastUsedServer());
+		tracker.removeServers(List.of("a", "b", "unknown"));
+		tracker.removeServer("c");
+		assertEquals(1, tracker.size());
+		assertEquals(0, tracker.getServerCount("a"));
+		assertEquals("d", tracker.getLeastUsedServer());
+	}
+
+	@Test
+	void testCountsBeyondInitialBuckets() {
+		BucketedConnectionTracker tracker = new BucketedConnectionTracker();
+		tracker.addServer("a");
+		tracker.addServer("b");
+		tracker.updateServerCount("a", 1_000);
+		tracker.updateServerCount("b", 999);
+		tracker.updateServerCount("a", -2);
+		assertEquals("a", tracker.getLeastUsedServer());
+		assertEquals(998, tracker.getServerCount("a"));
+	}
+
+	@Test
+	void testRandomUpdatesAgainstModel() {
+		BucketedConnectionTracker tracker = new BucketedConnectionTracker();
+		int numServers = 50;
+		Map<String, Integer> counts = new HashMap<>();
+		Set<String> running = new HashSet<>();
+		for (int i = 0; i < numServers; i++) {
+			tracker.addServer("s" + i);
+			counts.put("s" + i, 0);
+			running.add("s" + i);
+		}
+		Random random = new Random(7);
+		for (int i = 0; i < 20_000; i++) {
+			String serverName = "s" + random.nextInt(numServers);
+			int countDelta = random.nextInt(3) - 1;
+			if (counts.get(serverName) + countDelta >= 0) {
+				tracker.updateServerCount(serverName, countDelta);
+				counts.merge(serverName, countDelta, Integer::sum);
+				running.add(serverName);
+			}
+			if (random.nextInt(4) == 0 && !running.isEmpty()) {
+				int minCount = running.stream().mapToInt(counts::get).min().getAsInt();
+				String leastUsed = tracker.getLeastUsedServer();
+				assertTrue(running.remove(leastUsed));
+				assertEquals(minCount, counts.get(leastUsed));
+			}
+			assertEquals(running.size(), tracker.size());
+		}
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			assertEquals(entry.getValue(), tracker.getServerCount(entry.getKey()));
+		}
+	}
+
+	@Test
+	void testLeastConnectedLoadBalancerWithBuckets() {
+		List<Server> servers = ServerFactory.createServers(4, List.of(Server.DEFAULT_ZONE), false);
+		DiscreteEventSimulator simulator = new DiscreteEventSimulator(1);
+		LoadBalancer loadBalancer = new LeastConnectedLoadBalancer(servers, simulator.createServerPool(),
+				() -> Long.MAX_VALUE / 2, new BucketedConnectionTracker());
+		DiscreteEventSimulator.Result result = simulator.runWorkload(loadBalancer, Distribution.exponential(1_000_000),
+				Distribution.exponential(3_000_000), 20_000, 1);
+
+		assertEquals(20_000, result.served());
+		for (Server server : servers) {
+			assertTrue(result.completedByServer().get(server.getName()) > 4_000);
+		}
+	}
+}
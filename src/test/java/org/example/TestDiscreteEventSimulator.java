@@ -0,0 +1,220 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TestDiscreteEventSimulator {
+
+	private final List<Server> servers = ServerFactory.createServers(4, List.of(Server.DEFAULT_ZONE), false);
+
+	@Test
+	void testEventsRunInTimeOrder() {
+		DiscreteEventSimulator simulator = new DiscreteEventSimulator(1);
+		List<String> order = new ArrayList<>();
+		simulator.schedule(30, () -> order.add("c"));
+		simulator.schedule(10, () -> {
+			order.add("a");
+			// scheduled from inside an event, relative to its time
+			simulator.schedule(5, () -> order.add("a+5"));
+		});
+		simulator.schedule(20, () -> order.add("b1"));
+		simulator.schedule(20, () -> order.add("b2"));
+
+		simulator.runUntil(20);
+		assertEquals(List.of("a", "a+5", "b1", "b2"), order);
+		assertEquals(20, simulator.now());
+
+		simulator.run();
+		assertEquals(List.of("a", "a+5", "b1", "b2", "c"), order);
+		assertEquals(30, simulator.now());
+		assertEquals(5, simulator.getEventsRun());
+		assertThrows(IllegalArgumentException.class, () -> simulator.scheduleAt(29, () -> {}));
+	}
+
+	@Test
+	void testSameSeedGivesSameResult() {
+		DiscreteEventSimulator.Result first = runLeastConnected(7);
+		DiscreteEventSimulator.Result second = runLeastConnected(7);
+		DiscreteEventSimulator.Result otherSeed = runLeastConnected(8);
+
+		assertEquals(first, second);
+		assertEquals(20_000, first.served());
+		assertNotEquals(first.simulatedNanos(), otherSeed.simulatedNanos());
+	}
+
+	@Test
+	void testLeastConnectedBalancesBetterThanRoundRobinUnderLoad() {
+		// service times vary a lot, so round robin piles requests onto servers that are still busy
+		Distribution interArrival = Distribution.exponential(600_000);
+		Distribution serviceTime = Distribution.logNormal(1_500_000, 1.0);
+		DiscreteEventSimulator simulator = new DiscreteEventSimulator(5);
+		MeteredLoadBalancer roundRobinLB = new MeteredLoadBalancer(new RoundRobinLoadBalancer(servers),
+				new BalanceMetrics(servers, 1_000_000_000, 5, simulator::now));
+		DiscreteEventSimulator.Result roundRobin = simulator.runWorkload(roundRobinLB, interArrival, serviceTime,
+				50_000, 1);
+		simulator = new DiscreteEventSimulator(5);
+		MeteredLoadBalancer leastConnectedLB = new MeteredLoadBalancer(
+				new ShardedLeastConnectedLoadBalancer(servers, 1, 0),
+				new BalanceMetrics(servers, 1_000_000_000, 5, simulator::now));
+		DiscreteEventSimulator.Result leastConnected = simulator.runWorkload(leastConnectedLB, interArrival,
+				serviceTime, 50_000, 1);
+
+		BalanceMetrics.Snapshot roundRobinBalance = roundRobinLB.getMetrics().snapshot();
+		BalanceMetrics.Snapshot leastConnectedBalance = leastConnectedLB.getMetrics().snapshot();
+		// round robin spreads the requests evenly, least connected spreads the work
+		assertEquals(1.0, roundRobinBalance.jainsIndex(), 1e-6);
+		assertTrue(leastConnectedBalance.jainsIndex() > 0.9);
+		assertTrue(leastConnectedBalance.maxPeakConcurrency() < roundRobinBalance.maxPeakConcurrency());
+		assertTrue(leastConnected.p99LatencyMillis() < roundRobin.p99LatencyMillis());
+	}
+
+	private DiscreteEventSimulator.Result runLeastConnected(long seed) {
+		DiscreteEventSimulator simulator = new DiscreteEventSimulator(seed);
+		LoadBalancer loadBalancer = new ShardedLeastConnectedLoadBalancer(servers, 1, 0);
+		return simulator.runWorkload(loadBalancer, Distribution.exponential(1_000_000),
+				Distribution.logNormal(2_000_000, 0.5), 20_000, 1);
+	}
+
+	@Test
+	void testRequestsQueueBehindBusyServer() {
+		DiscreteEventSimulator simulator = new DiscreteEventSimulator(1);
+		List<Server> oneServer = servers.subList(0, 1);
+		// 3 requests 1 ms apart, each taking 10 ms on a server that works on 2 at a time
+		DiscreteEventSimulator.Result result = simulator.runWorkload(new RoundRobinLoadBalancer(oneServer),
+				Distribution.constant(1_000_000), Distribution.constant(10_000_000), 3, 2);
+
+		assertEquals(3, result.served());
+		// the third request arrives at 3 ms and waits until the first is done at 11 ms
+		assertEquals(21_000_000, result.simulatedNanos());
+		assertEquals(18.0, result.p99LatencyMillis(), 0.001);
+		assertEquals((10 + 10 + 18) / 3.0, result.meanLatencyMillis(), 0.001);
+		assertEquals(3L, result.completedByServer().get("a"));
+	}
+
+	@Test
+	void testRequestsPastTheirDeadlineAreGivenUpOn() {
+		DiscreteEventSimulator simulator = new DiscreteEventSimulator(1);
+		List<Server> oneServer = servers.subList(0, 1);
+		MeteredLoadBalancer loadBalancer = new MeteredLoadBalancer(new RoundRobinLoadBalancer(oneServer),
+				new BalanceMetrics(oneServer, 1_000_000_000, 1, simulator::now));
+		// 3 requests 1 ms apart, each taking 10 ms on a server that works on 1 at a time, with 15 ms to live
+		DiscreteEventSimulator.Result result = simulator.runWorkload(loadBalancer, Distribution.constant(1_000_000),
+				Distribution.constant(10_000_000), 3, 1, new DiscreteEventSimulator.RequestPolicy(15_000_000, 0));
+
+		// the first is done at 11 ms; the second starts then and is cancelled at 17 ms,
+		// which starts the third, cancelled at 18 ms
+		assertEquals(1, result.served());
+		assertEquals(2, result.timedOut());
+		assertEquals(10.0, result.p99LatencyMillis(), 0.001);
+		assertEquals(18_000_000, result.simulatedNanos());
+		assertEquals(0, loadBalancer.getMetrics().snapshot().getInFlight()[0]);
+	}
+
+	@Test
+	void testHedgingCutsTailLatency() {
+		List<Server> eightServers = ServerFactory.createServers(8, List.of(Server.DEFAULT_ZONE), false);
+		DiscreteEventSimulator.Result[] results = new DiscreteEventSimulator.Result[2];
+		for (int i = 0; i < 2; i++) {
+			DiscreteEventSimulator simulator = new DiscreteEventSimulator(5);
+			MeteredLoadBalancer loadBalancer = new MeteredLoadBalancer(
+					new ShardedLeastConnectedLoadBalancer(eightServers, 1, 0),
+					new BalanceMetrics(eightServers, 1_000_000_000, 5, simulator::now));
+			results[i] = simulator.runWorkload(loadBalancer, Distribution.exponential(400_000),
+					Distribution.logNormal(1_500_000, 1.0), 50_000, 2,
+					new DiscreteEventSimulator.RequestPolicy(0, i == 0 ? 0 : 0.95));
+			// every duplicate is decremented, whether it won or was cancelled
+			for (long inFlight : loadBalancer.getMetrics().snapshot().getInFlight()) {
+				assertEquals(0, inFlight);
+			}
+		}
+		DiscreteEventSimulator.Result unhedged = results[0];
+		DiscreteEventSimulator.Result hedged = results[1];
+
+		assertEquals(0, unhedged.hedges());
+		assertEquals(50_000, hedged.served());
+		// about the slowest 5% are hedged, and the duplicate wins for most of them
+		assertEquals(0.05, (double) hedged.hedges() / hedged.served(), 0.02);
+		assertTrue(hedged.hedgeWins() > hedged.hedges() / 2, hedged.toString());
+		assertTrue(hedged.p99LatencyMillis() < 0.8 * unhedged.p99LatencyMillis(), hedged + " " + unhedged);
+	}
+
+	@Test
+	void testLeasesExpireInVirtualTime() {
+		DiscreteEventSimulator simulator = new DiscreteEventSimulator(1);
+		TimedServerPool acquiredServers = simulator.createServerPool();
+		long[] leases = { 60_000, 120_000, 180_000, 240_000 };
+		int[] next = { 0 };
+		LoadBalancer loadBalancer = new LeastConnectedLoadBalancer(servers, acquiredServers, () -> leases[next[0]++]);
+		simulator.scheduleLeaseExpiry(acquiredServers, List.of("a", "b", "c", "d"));
+
+		// a request every 10 ms for 5 minutes of virtual time
+		long startTime = System.currentTimeMillis();
+		DiscreteEventSimulator.Result result = simulator.runWorkload(loadBalancer, Distribution.constant(10_000_000),
+				Distribution.constant(1_000_000), 30_000, 1);
+
+		assertTrue(System.currentTimeMillis() - startTime < 10_000);
+		// a expires after 1 minute and d, the last, after 4, so the last minute is rejected
+		assertEquals(24_000, result.served(), 1);
+		assertEquals(6_000, result.rejected(), 1);
+		assertEquals(0, acquiredServers.size());
+	}
+
+	@Test
+	void testDistributions() {
+		Random random = new Random(3);
+		int samples = 100_000;
+		double exponentialTotal = 0;
+		double uniformTotal = 0;
+		List<Long> logNormal = new ArrayList<>();
+		Distribution exponential = Distribution.exponential(1_000);
+		Distribution uniform = Distribution.uniform(100, 200);
+		Distribution logNormalDistribution = Distribution.logNormal(1_000, 0.5);
+		for (int i = 0; i < samples; i++) {
+			exponentialTotal += exponential.sampleNanos(random);
+			long sample = uniform.sampleNanos(random);
+			assertTrue(sample >= 100 && sample < 200);
+			uniformTotal += sample;
+			logNormal.add(logNormalDistribution.sampleNanos(random));
+		}
+		assertEquals(1_000, exponentialTotal / samples, 20);
+		assertEquals(150, uniformTotal / samples, 1);
+		logNormal.sort(null);
+		assertEquals(1_000, logNormal.get(samples / 2), 20);
+		assertEquals(5, Distribution.constant(5).sampleNanos(random));
+		assertThrows(IllegalArgumentException.class, () -> Distribution.exponential(0));
+
+		// bursts of 10 at 5 times the rate, and the same mean
+		Distribution bursty = Distribution.bursty(1_000, 5, 10);
+		double burstyTotal = 0;
+		int shortGaps = 0;
+		for (int i = 0; i < samples; i++) {
+			long sample = bursty.sampleNanos(random);
+			burstyTotal += sample;
+			if (sample < 1_000) {
+				shortGaps++;
+			}
+		}
+		assertEquals(1_000, burstyTotal / samples, 30);
+		assertTrue(shortGaps > samples * 0.8, String.valueOf(shortGaps));
+	}
+
+	@Test
+	void testFasterServerServesSooner() {
+		DiscreteEventSimulator simulator = new DiscreteEventSimulator(1);
+		simulator.setServerSpeed("b", 2);
+		// round robin sends the first request to a and the second to b, 1 ms later
+		DiscreteEventSimulator.Result result = simulator.runWorkload(new RoundRobinLoadBalancer(servers.subList(0, 2)),
+				Distribution.constant(1_000_000), Distribution.constant(10_000_000), 2, 1);
+
+		assertEquals(2, result.served());
+		// a is done at 1 + 10 ms, b at 2 + 5 ms
+		assertEquals(11_000_000, result.simulatedNanos());
+		assertEquals(7.5, result.meanLatencyMillis(), 0.001);
+		assertThrows(IllegalArgumentException.class, () -> simulator.setServerSpeed("a", 0));
+	}
+}
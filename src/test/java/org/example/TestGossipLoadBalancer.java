@@ -0,0 +1,121 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+class TestGossipLoadBalancer {
+
+	private final List<Server> servers = ServerFactory.createServers(4, List.of(Server.DEFAULT_ZONE), false);
+
+	@Test
+	void testMessageRoundTrip() {
+		int numEntries = 1_000;
+		int[] serverIndexes = new int[numEntries];
+		long[] counts = new long[numEntries];
+		for (int i = 0; i < numEntries; i++) {
+			serverIndexes[i] = i * 3;
+			counts[i] = i % 2 == 0 ? i : -i * 1_000_000L;
+		}
+		List<ByteBuffer> datagrams = GossipMessage.encode(7, 300, true, serverIndexes, counts, numEntries);
+		assertTrue(datagrams.size() > 1);
+
+		int entry = 0;
+		for (ByteBuffer datagram : datagrams) {
+			assertTrue(datagram.remaining() <= GossipMessage.MAX_DATAGRAM_BYTES);
+			GossipMessage message = GossipMessage.decode(datagram);
+			assertEquals(7, message.nodeId);
+			assertEquals(300, message.round);
+			assertTrue(message.full);
+			for (int i = 0; i < message.serverIndexes.length; i++, entry++) {
+				assertEquals(serverIndexes[entry], message.serverIndexes[i]);
+				assertEquals(counts[entry], message.counts[i]);
+			}
+		}
+		assertEquals(numEntries, entry);
+	}
+
+	@Test
+	void testEmptyRoundAndMalformedDatagrams() {
+		List<ByteBuffer> datagrams = GossipMessage.encode(1, 2, false, new int[0], new long[0], 0);
+		assertEquals(1, datagrams.size());
+		// magic, two one-byte varints, flags and the number of entries
+		assertEquals(9, datagrams.get(0).remaining());
+		assertEquals(0, GossipMessage.decode(datagrams.get(0)).serverIndexes.length);
+
+		assertThrows(IllegalArgumentException.class, () -> GossipMessage.decode(ByteBuffer.wrap(new byte[20])));
+		ByteBuffer truncated = GossipMessage.encode(1, 2, false, new int[] { 5 }, new long[] { 300 }, 1).get(0);
+		truncated.limit(truncated.limit() - 1);
+		assertThrows(IllegalArgumentException.class, () -> GossipMessage.decode(truncated));
+
+		// index gaps that would wrap to a negative server index
+		for (long gap : new long[] { 0xFFFFFFFFL, Integer.MAX_VALUE, Long.MAX_VALUE }) {
+			ByteBuffer crafted = ByteBuffer.allocate(GossipMessage.MAX_DATAGRAM_BYTES);
+			crafted.putInt(GossipMessage.MAGIC);
+			GossipMessage.putVarint(crafted, 1);
+			GossipMessage.putVarint(crafted, 2);
+			crafted.put((byte) 0);
+			crafted.putShort((short) 2);
+			GossipMessage.putVarint(crafted, 0);
+			GossipMessage.putVarint(crafted, GossipMessage.zigZag(1));
+			GossipMessage.putVarint(crafted, gap);
+			GossipMessage.putVarint(crafted, GossipMessage.zigZag(1));
+			assertThrows(IllegalArgumentException.class, () -> GossipMessage.decode(crafted.flip()));
+		}
+	}
+
+	@Test
+	void testNodesSeeEachOthersLoad() throws IOException, InterruptedException {
+		InetSocketAddress anyPort = new InetSocketAddress("127.0.0.1", 0);
+		try (GossipLoadBalancer first = new GossipLoadBalancer(servers, 1, anyPort, 5);
+				GossipLoadBalancer second = new GossipLoadBalancer(servers, 2, anyPort, 5)) {
+			first.addPeer(second.getLocalAddress());
+			second.addPeer(first.getLocalAddress());
+			first.start();
+			second.start();
+
+			assertEquals("a", first.serveRequest(new Request("1", "GET")));
+			assertEquals("b", first.serveRequest(new Request("2", "GET")));
+			assertEquals("c", first.serveRequest(new Request("3", "GET")));
+			waitFor(() -> second.getRemoteCount("c") == 1);
+			// on its own counts, the second node would have picked a as well
+			assertEquals("d", second.serveRequest(new Request("4", "GET")));
+
+			first.decrementRequestCount("a");
+			waitFor(() -> second.getRemoteCount("a") == 0 && first.getRemoteCount("d") == 1);
+			assertEquals("a", second.serveRequest(new Request("5", "GET")));
+			assertTrue(first.getStatus().contains("server=d, local=0, remote=1"));
+		}
+	}
+
+	@Test
+	void testLoadOfSilentPeerIsDropped() throws IOException, InterruptedException {
+		InetSocketAddress anyPort = new InetSocketAddress("127.0.0.1", 0);
+		try (GossipLoadBalancer survivor = new GossipLoadBalancer(servers, 1, anyPort, 5)) {
+			survivor.start();
+			GossipLoadBalancer leaving = new GossipLoadBalancer(servers, 2, anyPort, 5);
+			leaving.addPeer(survivor.getLocalAddress());
+			leaving.start();
+			leaving.serveRequest(new Request("1", "GET"));
+			waitFor(() -> survivor.getRemoteCount("a") == 1);
+
+			leaving.close();
+			waitFor(() -> survivor.getRemoteCount("a") == 0);
+			assertEquals("a", survivor.serveRequest(new Request("2", "GET")));
+		}
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for gossip");
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TestHttpReverseProxy {
+
+	private final List<StubHttpBackend> stubs = new ArrayList<>();
+	private HttpReverseProxy proxy;
+
+	private List<BackendServer> startBackends(int numBackends) throws IOException {
+		List<BackendServer> backends = new ArrayList<>();
+		for (Server server : ServerFactory.createServers(numBackends)) {
+			StubHttpBackend stub = new StubHttpBackend(server.getName());
+			stubs.add(stub);
+			backends.add(stub.toBackendServer());
+		}
+		return backends;
+	}
+
+	private InetSocketAddress startProxy(LoadBalancer loadBalancer, List<BackendServer> backends) throws IOException {
+		proxy = new HttpReverseProxy(loadBalancer, backends, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		proxy.start();
+		return proxy.getLocalAddress();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		if (proxy != null) {
+			proxy.close();
+		}
+		for (StubHttpBackend stub : stubs) {
+			stub.close();
+		}
+	}
+
+	@Test
+	void testRequestsAreRoundRobined() throws IOException {
+		List<BackendServer> backends = startBackends(3);
+		InetSocketAddress address = startProxy(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			for (int i = 0; i < 6; i++) {
+				HttpTestClient.Response response = client.get("/");
+				assertEquals(200, response.status());
+				assertEquals(backends.get(i % 3).getName(), response.backend());
+				assertEquals(backends.get(i % 3).getName(), response.body());
+			}
+		}
+	}
+
+	@Test
+	void testBackendConnectionIsKeptAlive() throws IOException {
+		List<BackendServer> backends = startBackends(1);
+		InetSocketAddress address = startProxy(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			for (int i = 0; i < 5; i++) {
+				assertEquals(200, client.get("/").status());
+			}
+		}
+		assertEquals(5, stubs.get(0).getRequestsServed());
+		BackendConnectionPool.Stats stats = proxy.getConnectionPool().getStats("a");
+		assertEquals(5, stats.hits());
+		assertEquals(0, stats.misses());
+		assertEquals(HttpReverseProxy.DEFAULT_PREWARM_CONNECTIONS, stubs.get(0).getConnectionsAccepted());
+	}
+
+	@Test
+	void testBackendConnectionsAreSharedBetweenClients() throws IOException {
+		List<BackendServer> backends = startBackends(1);
+		InetSocketAddress address = startProxy(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		for (int i = 0; i < 10; i++) {
+			try (HttpTestClient client = new HttpTestClient(address)) {
+				assertEquals("a", client.get("/").body());
+			}
+		}
+		assertEquals(10, stubs.get(0).getRequestsServed());
+		assertEquals(0, proxy.getConnectionPool().getStats("a").misses());
+	}
+
+	@Test
+	void testBackendAtConcurrencyLimit() throws IOException {
+		StubHttpBackend stub = new StubHttpBackend("a");
+		stubs.add(stub);
+		List<BackendServer> backends = List.of(new BackendServer("a", stub.getAddress(), 1));
+		BackendConnectionPool connectionPool = new BackendConnectionPool(60_000, 0);
+		proxy = new HttpReverseProxy(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends,
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), connectionPool);
+		proxy.start();
+		// hold the only connection the backend allows
+		SocketChannel held = connectionPool.tryBorrow("a");
+		try (HttpTestClient client = new HttpTestClient(proxy.getLocalAddress())) {
+			assertEquals(503, client.get("/").status());
+			connectionPool.release("a", held, true);
+			assertEquals(200, client.get("/").status());
+		} finally {
+			connectionPool.close();
+		}
+	}
+
+	@Test
+	void testRequestBodyIsForwarded() throws IOException {
+		List<BackendServer> backends = startBackends(1);
+		InetSocketAddress address = startProxy(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			HttpTestClient.Response response = client.post("/echo", "hello world");
+			assertEquals(200, response.status());
+			assertEquals("hello world", response.body());
+		}
+	}
+
+	@Test
+	void testChunkedResponseIsForwarded() throws IOException {
+		List<BackendServer> backends = startBackends(1);
+		InetSocketAddress address = startProxy(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		// the chunks of a body this long span several reads into a buffer
+		String body = "0123456789".repeat(1_200);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			for (int i = 0; i < 3; i++) {
+				HttpTestClient.Response response = client.post("/chunked", body);
+				assertEquals(200, response.status());
+				assertEquals(body, response.body());
+			}
+			// the connection is still in step after the chunked responses
+			assertEquals("a", client.get("/").body());
+			assertEquals("a", client.get("/chunked").body());
+		}
+		assertEquals(5, stubs.get(0).getRequestsServed());
+		assertEquals(0, proxy.getConnectionPool().getStats("a").misses());
+	}
+
+	@Test
+	void testPipelinedRequests() throws IOException {
+		List<BackendServer> backends = startBackends(2);
+		InetSocketAddress address = startProxy(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			String request = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n";
+			assertEquals("a", client.send(request + request).body());
+			assertEquals("b", client.readResponse().body());
+		}
+	}
+
+	@Test
+	void testConnectionClose() throws IOException {
+		List<BackendServer> backends = startBackends(1);
+		InetSocketAddress address = startProxy(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			HttpTestClient.Response response = client.send("GET / HTTP/1.1\r\nConnection: close\r\n\r\n");
+			assertEquals(200, response.status());
+			assertTrue(client.isClosedByPeer());
+		}
+	}
+
+	@Test
+	void testRequestCountIsDecrementedAfterResponse() throws IOException {
+		List<BackendServer> backends = startBackends(2);
+		ShardedLeastConnectedLoadBalancer leastConnectedLB = new ShardedLeastConnectedLoadBalancer(
+				new ArrayList<>(backends), 1, 0);
+		InetSocketAddress address = startProxy(leastConnectedLB, backends);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			for (int i = 0; i < 4; i++) {
+				// every response decrements, so least connected keeps picking 'a'
+				assertEquals("a", client.get("/").backend());
+			}
+		}
+		// the last decrement happens on the proxy thread, just after the response was written
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (leastConnectedLB.getActiveCount("a") != 0 && System.currentTimeMillis() < deadline) {
+			Thread.onSpinWait();
+		}
+		assertEquals(0, leastConnectedLB.getActiveCount("a"));
+	}
+
+	@Test
+	void testNoServerAvailable() throws IOException {
+		InetSocketAddress address = startProxy(new ShardedLeastConnectedLoadBalancer(List.of(), 1, 0), List.of());
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			assertEquals(503, client.get("/").status());
+		}
+	}
+
+	@Test
+	void testClientIsRateLimitedAcrossConnections() throws IOException {
+		List<BackendServer> backends = startBackends(2);
+		RateLimitingLoadBalancer rateLimitingLB = new RateLimitingLoadBalancer(
+				new RoundRobinLoadBalancer(new ArrayList<>(backends)), new ArrayList<>(backends),
+				new ClientRateLimiter(new TokenBucket(1, 1, () -> 0), 100), null);
+		InetSocketAddress address = startProxy(rateLimitingLB, backends);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			assertEquals(200, client.get("/").status());
+		}
+		// a new connection comes from a new port, but the same host
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			assertEquals(503, client.get("/").status());
+		}
+		assertEquals(1, rateLimitingLB.getClientLimitedCount());
+	}
+
+	@Test
+	void testUnavailableBackend() throws IOException {
+		List<BackendServer> backends = startBackends(2);
+		backends.get(0).setAvailable(false);
+		InetSocketAddress address = startProxy(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			// the balancer throws for a, which is answered without taking the proxy down
+			assertEquals(503, client.get("/").status());
+			assertEquals("b", client.get("/").body());
+		}
+		// with retries, the request fails over to b
+		proxy.close();
+		RetryingLoadBalancer retryingLB = new RetryingLoadBalancer(new RoundRobinLoadBalancer(new ArrayList<>(backends)),
+				3, new RetryBudget(0.1, 0, 10));
+		address = startProxy(retryingLB, backends);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			assertEquals("b", client.get("/").body());
+			assertEquals("b", client.get("/").body());
+		}
+		assertEquals(0, stubs.get(0).getRequestsServed());
+	}
+
+	@Test
+	void testIdempotentRequestIsRetriedOnBrokenPooledConnection() throws IOException {
+		try (DroppingBackend backend = new DroppingBackend("")) {
+			assertEquals(List.of(200, 200), sendTwiceOnPooledConnection(backend, "GET"));
+			// the second request was sent on the pooled connection and again on a new one
+			assertEquals(3, backend.requestsReceived.get());
+		}
+	}
+
+	@Test
+	void testNonIdempotentRequestIsNotRetried() throws IOException {
+		try (DroppingBackend backend = new DroppingBackend("")) {
+			assertEquals(List.of(200, 502), sendTwiceOnPooledConnection(backend, "POST"));
+			assertEquals(2, backend.requestsReceived.get());
+		}
+	}
+
+	@Test
+	void testRequestIsNotRetriedAfterResponseBytes() throws IOException {
+		try (DroppingBackend backend = new DroppingBackend("HTTP/1.1 200 OK\r\nContent-Le")) {
+			assertEquals(List.of(200, 502), sendTwiceOnPooledConnection(backend, "GET"));
+			assertEquals(2, backend.requestsReceived.get());
+		}
+	}
+
+	/**
+	 * Sends two requests through a proxy whose pool starts empty, so that the second one goes out on the
+	 * connection the first one opened.
+	 *
+	 * @return the status codes of the responses
+	 */
+	private List<Integer> sendTwiceOnPooledConnection(DroppingBackend backend, String method) throws IOException {
+		List<BackendServer> backends = List.of(new BackendServer("a", backend.getAddress()));
+		try (BackendConnectionPool connectionPool = new BackendConnectionPool(60_000, 0)) {
+			proxy = new HttpReverseProxy(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends,
+					new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), connectionPool);
+			proxy.start();
+			List<Integer> statuses = new ArrayList<>();
+			try (HttpTestClient client = new HttpTestClient(proxy.getLocalAddress())) {
+				String request = method + " / HTTP/1.1\r\nContent-Length: 0\r\n\r\n";
+				statuses.add(client.send(request).status());
+				statuses.add(client.send(request).status());
+			}
+			proxy.close();
+			return statuses;
+		}
+	}
+
+	@Test
+	void testBackendDown() throws IOException {
+		List<BackendServer> backends = startBackends(1);
+		stubs.get(0).close();
+		InetSocketAddress address = startProxy(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			assertEquals(502, client.get("/").status());
+		}
+	}
+
+	/**
+	 * A backend that answers the first request on each connection, and then drops the connection
+	 * when the next one comes, after writing a partial reply.
+	 */
+	private static class DroppingBackend implements Closeable {
+		final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		final AtomicInteger requestsReceived = new AtomicInteger();
+		final String partialReply;
+
+		DroppingBackend(String partialReply) throws IOException {
+			this.partialReply = partialReply;
+			Thread thread = new Thread(this::acceptLoop, "dropping-backend");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		InetSocketAddress getAddress() {
+			return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+		}
+
+		private void acceptLoop() {
+			while (!serverSocket.isClosed()) {
+				try (Socket socket = serverSocket.accept()) {
+					InputStream in = new BufferedInputStream(socket.getInputStream());
+					readRequest(in);
+					socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n"
+							.getBytes(StandardCharsets.US_ASCII));
+					if (readRequest(in)) {
+						socket.getOutputStream().write(partialReply.getBytes(StandardCharsets.US_ASCII));
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		}
+
+		private boolean readRequest(InputStream in) throws IOException {
+			if (StubHttpBackend.readLine(in) == null) {
+				return false;
+			}
+			while (!StubHttpBackend.readLine(in).isEmpty()) {
+				// requests have no body
+			}
+			requestsReceived.incrementAndGet();
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+		}
+	}
+}
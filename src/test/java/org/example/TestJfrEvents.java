@@ -0,0 +1,82 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jdk.jfr.Recording;
+
+class TestJfrEvents {
+
+	private final List<Server> servers = ServerFactory.createServers(4, List.of(Server.DEFAULT_ZONE), false);
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testEventsAreRecordedAndReported() throws IOException {
+		JfrReport.Report report = recordWorkload(tempDir.resolve("enabled.jfr"));
+
+		// a request every 10 ms for 5 minutes, on leases of 1 to 4 minutes
+		assertEquals(30_000, report.selections());
+		assertEquals(6_000, report.emptySelections(), 1);
+		// recordings are JVM-wide, so pools left running by other tests may expire leases too
+		assertTrue(report.leaseExpiries() >= 4);
+		// the simulator increments a count when a request starts and decrements it when it completes
+		assertEquals(48_000, report.countUpdates(), 2);
+		// expired servers leave the heap when their lease runs out, so a selection polls the heap and looks up
+		// a lease once if it finds a server and not at all if the heap is empty
+		assertEquals(0.8, report.meanHeapOperations(), 0.001);
+		assertEquals(1, report.maxHeapOperations());
+		assertEquals(0.8, report.meanLeaseLookups(), 0.001);
+		assertEquals(1, report.maxLeaseLookups());
+		// the simulator runs on one thread, so nothing else ever holds the tracker's lock
+		assertEquals(0, report.selectionTrackerLockWait());
+		assertEquals(0, report.countUpdateTrackerLockWait());
+		assertTrue(report.maxSelectionNanos() >= report.p99SelectionNanos());
+		assertTrue(report.p99SelectionNanos() >= report.p50SelectionNanos());
+		assertTrue(report.toString().startsWith("Server selections: 30000"));
+	}
+
+	@Test
+	void testDisabledEventsAreNotRecorded() throws IOException {
+		LoadBalancerEvents.disable();
+		try {
+			JfrReport.Report report = recordWorkload(tempDir.resolve("disabled.jfr"));
+			assertEquals(0, report.selections());
+			assertEquals(0, report.countUpdates());
+			assertEquals(0, report.leaseExpiries());
+		} finally {
+			LoadBalancerEvents.enable();
+		}
+	}
+
+	private JfrReport.Report recordWorkload(Path file) throws IOException {
+		try (Recording recording = new Recording()) {
+			recording.enable("org.example.ServerSelection").withThreshold(Duration.ZERO);
+			recording.enable("org.example.CountUpdate").withThreshold(Duration.ZERO);
+			recording.enable("org.example.LeaseExpiry");
+			recording.start();
+
+			DiscreteEventSimulator simulator = new DiscreteEventSimulator(1);
+			TimedServerPool acquiredServers = simulator.createServerPool();
+			long[] leases = { 60_000, 120_000, 180_000, 240_000 };
+			int[] next = { 0 };
+			LoadBalancer loadBalancer = new LeastConnectedLoadBalancer(servers, acquiredServers,
+					() -> leases[next[0]++]);
+			simulator.scheduleLeaseExpiry(acquiredServers, List.of("a", "b", "c", "d"));
+			simulator.runWorkload(loadBalancer, Distribution.constant(10_000_000), Distribution.constant(1_000_000),
+					30_000, 1);
+
+			recording.stop();
+			recording.dump(file);
+		}
+		return JfrReport.analyze(file);
+	}
+}
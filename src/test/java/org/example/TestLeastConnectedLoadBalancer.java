@@ -2,7 +2,12 @@ package org.example;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
@@ -44,4 +49,90 @@ class TestLeastConnectedLoadBalancer {
 		assertEquals("a", serverName);
 	}
 
+	@Test
+	void testSlowStartServerIsNotFlooded() {
+		List<Server> servers = ServerFactory.createServers(2);
+		LeastConnectedLoadBalancer leastConnectedLB = new LeastConnectedLoadBalancer(servers);
+		for (int i = 0; i < 5; i++) {
+			leastConnectedLB.incrementRequestCount("a");
+			leastConnectedLB.incrementRequestCount("b");
+		}
+		// at the very start of its ramp, with a min factor of 0, 'c' is passed over
+		// even though it has the fewest connections
+		leastConnectedLB.setSlowStartRamp(new SlowStartRamp(60_000, 1.0, 0.0));
+		leastConnectedLB.addServer(new Server("c"), 60_000);
+		Request request = new Request("1", "GET");
+		assertEquals("a", leastConnectedLB.serveRequest(request));
+		assertEquals("b", leastConnectedLB.serveRequest(request));
+	}
+
+	@Test
+	void testSlowStartServerGetsFactorOfFairShare() {
+		List<Server> servers = ServerFactory.createServers(2);
+		LeastConnectedLoadBalancer leastConnectedLB = new LeastConnectedLoadBalancer(servers);
+		for (int i = 0; i < 10; i++) {
+			leastConnectedLB.incrementRequestCount("a");
+			leastConnectedLB.incrementRequestCount("b");
+		}
+		// for the first half of its ramp, 'c' stays at its min factor of 0.5
+		leastConnectedLB.setSlowStartRamp(new SlowStartRamp(60_000, 1.0, 0.5));
+		leastConnectedLB.addServer(new Server("c"), 60_000);
+		Map<String, Integer> served = new HashMap<>();
+		Request request = new Request("1", "GET");
+		for (int i = 0; i < 120; i++) {
+			served.merge(leastConnectedLB.serveRequest(request), 1, Integer::sum);
+		}
+		// 'c' ends up with half the connections of 'a' and 'b', 28 of 140, rather than catching up with them
+		assertEquals(28, served.get("c"), 1);
+		assertEquals(46, served.get("a"), 1);
+		assertEquals(46, served.get("b"), 1);
+	}
+
+	@Test
+	void testSlowStartForgetsExpiredServer() throws InterruptedException {
+		List<Server> servers = ServerFactory.createServers(2);
+		LeastConnectedLoadBalancer leastConnectedLB = new LeastConnectedLoadBalancer(servers);
+		SlowStartRamp ramp = new SlowStartRamp(60_000, 1.0, 0.25);
+		leastConnectedLB.setSlowStartRamp(ramp);
+		leastConnectedLB.addServer(new Server("c"), 50);
+		assertEquals(0.25, ramp.factor("c"), 1e-3);
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (ramp.factor("c") != 1.0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		// no longer ramping, as it was forgotten when its lease ran out
+		assertEquals(1.0, ramp.factor("c"));
+	}
+
+	@Test
+	void testServerIsCalledOutsideTheLock() throws InterruptedException {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Server slowServer = new Server("a", Server.DEFAULT_ZONE, false) {
+			@Override
+			public void handleIncomingRequest(Request request) {
+				entered.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		LeastConnectedLoadBalancer leastConnectedLB = new LeastConnectedLoadBalancer(
+				List.of(slowServer, new Server("b", Server.DEFAULT_ZONE, false)));
+		leastConnectedLB.incrementRequestCount("b");
+		Thread thread = new Thread(() -> leastConnectedLB.serveRequest(new Request("1", "GET")));
+		thread.start();
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+		// 'a' is still handling its request, which doesn't hold up selection or count updates
+		assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+			assertEquals("b", leastConnectedLB.serveRequest(new Request("2", "GET"), LoadBalancer.serverBit("a")));
+			leastConnectedLB.decrementRequestCount("b");
+		});
+		release.countDown();
+		thread.join();
+	}
+
 }
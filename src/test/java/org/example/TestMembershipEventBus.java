@@ -0,0 +1,122 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TestMembershipEventBus {
+
+	private final List<Server> servers = ServerFactory.createServers(4, List.of(Server.DEFAULT_ZONE), false);
+
+	@Test
+	void testBatchIsDeliveredToEveryListener() {
+		MembershipEventBus bus = new MembershipEventBus();
+		List<List<String>> first = new ArrayList<>();
+		List<List<String>> second = new ArrayList<>();
+		bus.subscribe(first::add);
+		bus.subscribe(serverNames -> {
+			throw new IllegalStateException("broken listener");
+		});
+		bus.subscribe(second::add);
+
+		bus.publishExpired(List.of("a", "b"));
+		bus.publishExpired(List.of());
+
+		assertEquals(List.of(List.of("a", "b")), first);
+		assertEquals(first, second);
+		assertEquals(2, bus.getPublishedCount());
+		assertEquals(1, bus.getBatchCount());
+	}
+
+	@Test
+	void testConcurrentPublishersDeliverEveryServerOnce() throws InterruptedException {
+		MembershipEventBus bus = new MembershipEventBus();
+		Set<String> delivered = ConcurrentHashMap.newKeySet();
+		bus.subscribe(serverNames -> {
+			for (String serverName : serverNames) {
+				assertTrue(delivered.add(serverName));
+			}
+		});
+		ExecutorService executorService = Executors.newFixedThreadPool(4);
+		for (int t = 0; t < 4; t++) {
+			int thread = t;
+			executorService.execute(() -> {
+				for (int i = 0; i < 10_000; i++) {
+					bus.publishExpired(List.of(thread + "-" + i));
+				}
+			});
+		}
+		executorService.shutdown();
+		assertTrue(executorService.awaitTermination(1, TimeUnit.MINUTES));
+
+		assertEquals(40_000, delivered.size());
+		assertEquals(40_000, bus.getPublishedCount());
+		assertTrue(bus.getBatchCount() <= 40_000);
+	}
+
+	@Test
+	void testPoolPublishesExpiredServers() throws InterruptedException {
+		TimedServerPool pool = new TimedServerPool(3);
+		Set<String> expired = ConcurrentHashMap.newKeySet();
+		pool.getMembershipEventBus().subscribe(expired::addAll);
+		pool.put("a", 200);
+		pool.put("b", 200);
+		pool.put("c", 60_000);
+
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (expired.size() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		assertEquals(Set.of("a", "b"), expired);
+		assertNull(pool.get("a"));
+		assertEquals("c", pool.get("c"));
+		pool.shutdown();
+	}
+
+	@Test
+	void testLeastConnectedDropsExpiredServersWithoutSelecting() {
+		DiscreteEventSimulator simulator = new DiscreteEventSimulator(1);
+		TimedServerPool acquiredServers = simulator.createServerPool();
+		long[] leases = { 1_000, 2_000, 60_000, 60_000 };
+		int[] next = { 0 };
+		LeastConnectedLoadBalancer loadBalancer = new LeastConnectedLoadBalancer(servers, acquiredServers,
+				() -> leases[next[0]++]);
+		simulator.scheduleLeaseExpiry(acquiredServers, List.of("a", "b", "c", "d"));
+
+		// no request has been served, so only the expiry events can have taken a and b off the heap
+		simulator.runUntil(TimeUnit.SECONDS.toNanos(3));
+		assertTrue(loadBalancer.getStatus().startsWith("Remaining acquired servers: 2"));
+		assertEquals(2, acquiredServers.getMembershipEventBus().getPublishedCount());
+		assertEquals("c", loadBalancer.serveRequest(new Request("1", "GET")));
+	}
+
+	@Test
+	void testLeastConnectedKeepsServerAddedAgainBeforeItsBatch() {
+		DiscreteEventSimulator simulator = new DiscreteEventSimulator(1);
+		TimedServerPool acquiredServers = simulator.createServerPool();
+		long[] leases = { 1_000, 60_000, 60_000, 60_000 };
+		int[] next = { 0 };
+		LeastConnectedLoadBalancer loadBalancer = new LeastConnectedLoadBalancer(servers, acquiredServers,
+				() -> leases[next[0]++]);
+		simulator.scheduleLeaseExpiry(acquiredServers, List.of("a", "b", "c", "d"));
+		simulator.runUntil(TimeUnit.SECONDS.toNanos(2));
+		assertNull(acquiredServers.get("a"));
+
+		// 'a' is added again, and only then does a batch with its old lease in it arrive
+		loadBalancer.addServer(servers.get(0), 60_000);
+		acquiredServers.getMembershipEventBus().publishExpired(List.of("a"));
+		assertTrue(loadBalancer.getStatus().startsWith("Remaining acquired servers: 4"));
+		for (String serverName : List.of("b", "c", "d")) {
+			loadBalancer.incrementRequestCount(serverName);
+		}
+		assertEquals("a", loadBalancer.serveRequest(new Request("1", "GET")));
+	}
+}
@@ -0,0 +1,152 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TestMultiplexedForwarding {
+
+	private final ExecutorService clients = Executors.newCachedThreadPool();
+	private StubMuxBackend stub;
+	private HttpReverseProxy proxy;
+
+	private InetSocketAddress start(LoadBalancer loadBalancer, BackendServer backend) throws IOException {
+		proxy = new HttpReverseProxy(loadBalancer, List.of(backend),
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		proxy.start();
+		return proxy.getLocalAddress();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		clients.shutdownNow();
+		if (proxy != null) {
+			proxy.close();
+		}
+		if (stub != null) {
+			stub.close();
+		}
+	}
+
+	private Future<HttpTestClient.Response> getInBackground(InetSocketAddress address) {
+		return clients.submit(() -> {
+			try (HttpTestClient client = new HttpTestClient(address)) {
+				return client.get("/");
+			}
+		});
+	}
+
+	@Test
+	void testConcurrentRequestsShareFewConnections() throws Exception {
+		stub = new StubMuxBackend("a", 100);
+		BackendServer backend = stub.toBackendServer(BackendServer.DEFAULT_CONCURRENCY_LIMIT);
+		InetSocketAddress address = start(new RoundRobinLoadBalancer(List.of(backend)), backend);
+
+		List<Future<HttpTestClient.Response>> responses = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			responses.add(getInBackground(address));
+		}
+		for (Future<HttpTestClient.Response> response : responses) {
+			HttpTestClient.Response result = response.get(10, TimeUnit.SECONDS);
+			assertEquals(200, result.status());
+			assertEquals("a", result.body());
+		}
+
+		assertEquals(20, stub.getRequestsServed());
+		assertTrue(stub.getConnectionsAccepted() <= HttpReverseProxy.DEFAULT_MUX_CONNECTIONS);
+		// more requests were in flight at once than there were connections
+		assertTrue(stub.getMaxInFlight() > HttpReverseProxy.DEFAULT_MUX_CONNECTIONS);
+	}
+
+	@Test
+	void testActiveCountIsStreamsInFlight() throws Exception {
+		stub = new StubMuxBackend("a", 500);
+		BackendServer backend = stub.toBackendServer(BackendServer.DEFAULT_CONCURRENCY_LIMIT);
+		ShardedLeastConnectedLoadBalancer loadBalancer = new ShardedLeastConnectedLoadBalancer(List.of(backend), 1, 0);
+		InetSocketAddress address = start(loadBalancer, backend);
+
+		List<Future<HttpTestClient.Response>> responses = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			responses.add(getInBackground(address));
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (loadBalancer.getActiveCount("a") < 6 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(6, loadBalancer.getActiveCount("a"));
+		assertTrue(proxy.getMuxConnectionCount("a") <= HttpReverseProxy.DEFAULT_MUX_CONNECTIONS);
+
+		for (Future<HttpTestClient.Response> response : responses) {
+			assertEquals(200, response.get(10, TimeUnit.SECONDS).status());
+		}
+		deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (loadBalancer.getActiveCount("a") > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(0, loadBalancer.getActiveCount("a"));
+	}
+
+	@Test
+	void testBodyAndPipelinedRequests() throws IOException {
+		stub = new StubMuxBackend("a", 0);
+		BackendServer backend = stub.toBackendServer(BackendServer.DEFAULT_CONCURRENCY_LIMIT);
+		InetSocketAddress address = start(new RoundRobinLoadBalancer(List.of(backend)), backend);
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			assertEquals("hello world", client.post("/", "hello world").body());
+			String request = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n";
+			assertEquals("a", client.send(request + request).body());
+			assertEquals("a", client.readResponse().body());
+		}
+	}
+
+	@Test
+	void testStreamLimit() throws Exception {
+		stub = new StubMuxBackend("a", 500);
+		BackendServer backend = stub.toBackendServer(1);
+		ShardedLeastConnectedLoadBalancer loadBalancer = new ShardedLeastConnectedLoadBalancer(List.of(backend), 1, 0);
+		InetSocketAddress address = start(loadBalancer, backend);
+
+		Future<HttpTestClient.Response> first = getInBackground(address);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (loadBalancer.getActiveCount("a") < 1 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		try (HttpTestClient client = new HttpTestClient(address)) {
+			assertEquals(503, client.get("/").status());
+		}
+		assertEquals(200, first.get(10, TimeUnit.SECONDS).status());
+	}
+
+	@Test
+	void testConnectionLost() throws Exception {
+		stub = new StubMuxBackend("a", 2_000);
+		BackendServer backend = stub.toBackendServer(BackendServer.DEFAULT_CONCURRENCY_LIMIT);
+		ShardedLeastConnectedLoadBalancer loadBalancer = new ShardedLeastConnectedLoadBalancer(List.of(backend), 1, 0);
+		InetSocketAddress address = start(loadBalancer, backend);
+
+		Future<HttpTestClient.Response> response = getInBackground(address);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (stub.getConnectionsAccepted() < 1 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		stub.close();
+
+		assertEquals(502, response.get(10, TimeUnit.SECONDS).status());
+		deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (loadBalancer.getActiveCount("a") > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(0, loadBalancer.getActiveCount("a"));
+	}
+}
@@ -0,0 +1,71 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TestOffHeapServerStateTable {
+
+	private static final long FOREVER = Long.MAX_VALUE;
+
+	@Test
+	void testRegisterServer() {
+		OffHeapServerStateTable table = new OffHeapServerStateTable(4);
+		int slot = ServerFactory.serverIndex("c");
+		table.register(slot, slot, 3, FOREVER);
+		assertEquals(2, table.getId(slot));
+		assertEquals(3, table.getWeight(slot));
+		assertEquals(0, table.getActiveCount(slot));
+		assertTrue(table.isAvailable(slot, System.currentTimeMillis()));
+		assertFalse(table.isAvailable(0, System.currentTimeMillis()));
+	}
+
+	@Test
+	void testUpdateActiveCount() {
+		OffHeapServerStateTable table = new OffHeapServerStateTable(2);
+		table.register(0, 0, 1, FOREVER);
+		assertEquals(1, table.updateActiveCount(0, 1));
+		assertEquals(2, table.updateActiveCount(0, 1));
+		assertEquals(1, table.updateActiveCount(0, -1));
+		assertEquals(2, table.getTotalCount(0));
+	}
+
+	@Test
+	void testFindLeastConnected() {
+		OffHeapServerStateTable table = new OffHeapServerStateTable(3);
+		for (int slot = 0; slot < 3; slot++) {
+			table.register(slot, slot, 1, FOREVER);
+		}
+		table.updateActiveCount(0, 2);
+		table.updateActiveCount(1, 1);
+		table.updateActiveCount(2, 1);
+		assertEquals(1, table.findLeastConnected(System.currentTimeMillis()));
+		table.setHealthBits(1, OffHeapServerStateTable.HEALTH_DRAINING);
+		assertEquals(2, table.findLeastConnected(System.currentTimeMillis()));
+	}
+
+	@Test
+	void testExpiredLeaseIsSkipped() {
+		OffHeapServerStateTable table = new OffHeapServerStateTable(2);
+		long now = System.currentTimeMillis();
+		table.register(0, 0, 1, now - 1);
+		table.register(1, 1, 1, now + 60_000);
+		table.updateActiveCount(1, 5);
+		assertEquals(1, table.findLeastConnected(now));
+		assertTrue(table.compareAndSetLeaseDeadline(1, now + 60_000, now));
+		assertEquals(-1, table.findLeastConnected(now));
+	}
+
+	@Test
+	void testMillionServersFitInTensOfMegabytes() {
+		int numServers = 1_000_000;
+		assertEquals(32_000_000, OffHeapServerStateTable.requiredBytes(numServers));
+		OffHeapServerStateTable table = new OffHeapServerStateTable(numServers);
+		int slot = ServerFactory.serverIndex("n38461");
+		table.register(slot, slot, 1, FOREVER);
+		table.updateActiveCount(slot, 1);
+		assertEquals(1, table.getActiveCount(slot));
+		assertEquals(999_999, slot);
+	}
+
+}
@@ -0,0 +1,55 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TestPaddedCounterArray {
+
+	@Test
+	void testCountersStartAtZero() {
+		PaddedCounterArray counters = new PaddedCounterArray(3);
+		assertEquals(3, counters.length());
+		assertEquals(0, counters.sum());
+	}
+
+	@Test
+	void testCountersAreIndependent() {
+		PaddedCounterArray counters = new PaddedCounterArray(3);
+		counters.incrementAndGet(0);
+		counters.incrementAndGet(0);
+		counters.decrementAndGet(2);
+		assertEquals(2, counters.get(0));
+		assertEquals(0, counters.get(1));
+		assertEquals(-1, counters.get(2));
+		assertEquals(1, counters.sum());
+	}
+
+	@Test
+	void testConcurrentIncrements() throws InterruptedException {
+		PaddedCounterArray counters = new PaddedCounterArray(2);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			int index = t % 2;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 10_000; i++) {
+					counters.incrementAndGet(index);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(20_000, counters.get(0));
+		assertEquals(20_000, counters.get(1));
+	}
+
+	@Test
+	void testIndexOutOfBounds() {
+		PaddedCounterArray counters = new PaddedCounterArray(2);
+		assertThrows(IndexOutOfBoundsException.class, () -> counters.get(2));
+		assertThrows(IndexOutOfBoundsException.class, () -> counters.incrementAndGet(-1));
+	}
+
+}
@@ -0,0 +1,107 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class TestRateLimitingLoadBalancer {
+
+	private final List<Server> servers = ServerFactory.createServers(3, List.of(Server.DEFAULT_ZONE), false);
+	private final long[] now = { 0 };
+
+	@Test
+	void testClientOverItsRateIsRejectedBeforeSelection() {
+		ShardedLeastConnectedLoadBalancer shardedLB = new ShardedLeastConnectedLoadBalancer(servers, 1, 0);
+		RateLimitingLoadBalancer rateLimitingLB = new RateLimitingLoadBalancer(shardedLB, servers,
+				new ClientRateLimiter(new TokenBucket(1, 2, () -> now[0]), 100), null);
+
+		assertNotNull(rateLimitingLB.serveRequest(new Request("greedy", "GET")));
+		assertNotNull(rateLimitingLB.serveRequest(new Request("greedy", "GET")));
+		assertNull(rateLimitingLB.serveRequest(new Request("greedy", "GET")));
+		// other clients are not held back by it
+		assertNotNull(rateLimitingLB.serveRequest(new Request("polite", "GET")));
+		assertEquals(1, rateLimitingLB.getClientLimitedCount());
+		assertEquals(3, shardedLB.getActiveCount("a") + shardedLB.getActiveCount("b") + shardedLB.getActiveCount("c"));
+
+		now[0] += 1_000_000_000;
+		assertNotNull(rateLimitingLB.serveRequest(new Request("greedy", "GET")));
+	}
+
+	@Test
+	void testServerOverItsRateIsPassedOver() {
+		ShardedLeastConnectedLoadBalancer shardedLB = new ShardedLeastConnectedLoadBalancer(servers, 1, 0);
+		RateLimitingLoadBalancer rateLimitingLB = new RateLimitingLoadBalancer(shardedLB, servers, null,
+				new TokenBucket(1, 2, () -> now[0]));
+
+		Map<String, Integer> served = new HashMap<>();
+		for (int i = 0; i < 6; i++) {
+			String serverName = rateLimitingLB.serveRequest(new Request(String.valueOf(i), "GET"));
+			served.merge(serverName, 1, Integer::sum);
+			// complete right away, so least connected would pick a every time
+			shardedLB.decrementRequestCount(serverName);
+		}
+		assertEquals(Map.of("a", 2, "b", 2, "c", 2), served);
+
+		// every server is out of tokens, and the counts are back where they were
+		assertNull(rateLimitingLB.serveRequest(new Request("6", "GET")));
+		assertEquals(1, rateLimitingLB.getServerLimitedCount());
+		assertEquals(0, shardedLB.getActiveCount("a") + shardedLB.getActiveCount("b") + shardedLB.getActiveCount("c"));
+		assertEquals(0, rateLimitingLB.getServerTokens("a"), 1e-9);
+	}
+
+	@Test
+	void testServerOverItsRateNeverGetsTheRequest() {
+		Map<String, Integer> dispatched = new HashMap<>();
+		List<Server> recordingServers = new ArrayList<>();
+		for (String name : List.of("a", "b")) {
+			recordingServers.add(new Server(name, Server.DEFAULT_ZONE, false) {
+				@Override
+				public void handleIncomingRequest(Request request) {
+					dispatched.merge(getName(), 1, Integer::sum);
+				}
+			});
+		}
+		ShardedLeastConnectedLoadBalancer shardedLB = new ShardedLeastConnectedLoadBalancer(recordingServers, 1, 0);
+		RateLimitingLoadBalancer rateLimitingLB = new RateLimitingLoadBalancer(shardedLB, recordingServers, null,
+				new TokenBucket(1, 1, () -> now[0]));
+
+		for (int i = 0; i < 3; i++) {
+			String serverName = rateLimitingLB.serveRequest(new Request(String.valueOf(i), "GET"));
+			if (serverName != null) {
+				shardedLB.decrementRequestCount(serverName);
+			}
+		}
+		assertEquals(Map.of("a", 1, "b", 1), dispatched);
+	}
+
+	@Test
+	void testZoneAwareServerOverItsRateIsPassedOver() {
+		ZoneAwareLoadBalancer zoneAwareLB = new ZoneAwareLoadBalancer(servers, Server.DEFAULT_ZONE, 1.0);
+		RateLimitingLoadBalancer rateLimitingLB = new RateLimitingLoadBalancer(zoneAwareLB, servers, null,
+				new TokenBucket(1, 1, () -> now[0]));
+
+		assertEquals("a", rateLimitingLB.serveRequest(new Request("1", "GET")));
+		zoneAwareLB.decrementRequestCount("a");
+		// a is still the least connected, but out of tokens
+		assertEquals("b", rateLimitingLB.serveRequest(new Request("2", "GET")));
+		assertEquals(0, zoneAwareLB.getActiveCount("a"));
+		assertEquals(0, rateLimitingLB.getServerLimitedCount());
+	}
+
+	@Test
+	void testServerLimitWithStrategyThatIgnoresExclusions() {
+		RateLimitingLoadBalancer rateLimitingLB = new RateLimitingLoadBalancer(new RoundRobinLoadBalancer(servers),
+				servers, null, new TokenBucket(1, 1, () -> now[0]));
+		assertEquals("a", rateLimitingLB.serveRequest(new Request("1", "GET")));
+		assertEquals("b", rateLimitingLB.serveRequest(new Request("2", "GET")));
+		assertEquals("c", rateLimitingLB.serveRequest(new Request("3", "GET")));
+		assertNull(rateLimitingLB.serveRequest(new Request("4", "GET")));
+		assertTrue(rateLimitingLB.getStatus().startsWith("Rate limits: client limited=0, server limited=1\n"),
+				rateLimitingLB.getStatus());
+	}
+}
@@ -0,0 +1,186 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestReloadingLoadBalancer {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testParseRejectsInvalidConfigs() throws IOException {
+		assertThrows(IllegalArgumentException.class, () -> load("strategy=fastest\nservers=a,b\n"));
+		assertThrows(IllegalArgumentException.class, () -> load("strategy=round-robin\nservers=\n"));
+		assertThrows(IllegalArgumentException.class, () -> load("strategy=round-robin\nservers=a,a\n"));
+		assertThrows(IllegalArgumentException.class, () -> load("strategy=round-robin\nservers=a\nweight.a=0\n"));
+		assertThrows(IllegalArgumentException.class, () -> load("strategy=zone-aware\nservers=a\n"));
+		// a typo is not ignored
+		assertThrows(IllegalArgumentException.class, () -> load("strategy=round-robin\nservers=a\nlimit.maxInFlght=3\n"));
+
+		BalancerConfig config = load("strategy=weighted-round-robin\nservers=a, b\nweight.b=3\nzone.b=zone-2\n");
+		assertEquals(BalancerConfig.Strategy.WEIGHTED_ROUND_ROBIN, config.strategy());
+		assertEquals(3, config.weights().get("b"));
+		assertEquals(Server.DEFAULT_ZONE, config.zoneOf("a"));
+		assertEquals("zone-2", config.zoneOf("b"));
+		assertEquals(60_000, config.leaseMillis());
+	}
+
+	@Test
+	void testSwapKeepsRequestsInFlight() throws IOException {
+		Path file = write("strategy=round-robin\nservers=a,b,c\n");
+		try (ReloadingLoadBalancer loadBalancer = new ReloadingLoadBalancer(file)) {
+			// round robin puts 3 on a, 1 on b and c
+			for (int i = 0; i < 3; i++) {
+				loadBalancer.serveRequest(new Request(String.valueOf(i), "GET"));
+			}
+			loadBalancer.incrementRequestCount("a");
+			loadBalancer.incrementRequestCount("a");
+			assertEquals(3, loadBalancer.getInFlight("a"));
+
+			write("strategy=least-connected\nservers=a,b,c\n");
+			assertTrue(loadBalancer.reload());
+			assertEquals(BalancerConfig.Strategy.LEAST_CONNECTED, loadBalancer.getConfig().strategy());
+			assertEquals(3, loadBalancer.getInFlight("a"));
+			assertEquals(1, loadBalancer.getInFlight("b"));
+
+			// least connected starts from the counts, so a is not picked until the others catch up
+			Map<String, Integer> served = new HashMap<>();
+			for (int i = 0; i < 4; i++) {
+				served.merge(loadBalancer.serveRequest(new Request(String.valueOf(i), "GET")), 1, Integer::sum);
+			}
+			assertEquals(Map.of("b", 2, "c", 2), served);
+
+			// requests from before the swap complete on the new strategy
+			loadBalancer.decrementRequestCount("a");
+			assertEquals(2, loadBalancer.getInFlight("a"));
+			assertFalse(loadBalancer.reload());
+			assertEquals(1, loadBalancer.getReloadCount());
+		}
+	}
+
+	@Test
+	void testRemovedServerIsNotDecrementedWhenItComesBack() throws IOException {
+		Path file = write("strategy=round-robin\nservers=a,b\n");
+		try (ReloadingLoadBalancer loadBalancer = new ReloadingLoadBalancer(file)) {
+			assertEquals("a", loadBalancer.serveRequest(new Request("1", "GET")));
+
+			write("strategy=round-robin\nservers=b\n");
+			assertTrue(loadBalancer.reload());
+			loadBalancer.decrementRequestCount("a");
+			assertEquals(0, loadBalancer.getInFlight("a"));
+
+			write("strategy=round-robin\nservers=a,b\n");
+			assertTrue(loadBalancer.reload());
+			loadBalancer.decrementRequestCount("a");
+			assertEquals(0, loadBalancer.getInFlight("a"));
+			assertTrue(loadBalancer.getStatus().startsWith("Config: strategy=round-robin, servers=[a, b], in flight=0"),
+					loadBalancer.getStatus());
+		}
+	}
+
+	@Test
+	void testLimits() throws IOException {
+		Path file = write("strategy=least-connected\nservers=a,b\nlimit.maxInFlightPerServer=2\n");
+		try (ReloadingLoadBalancer loadBalancer = new ReloadingLoadBalancer(file)) {
+			for (int i = 0; i < 4; i++) {
+				assertNotNull(loadBalancer.serveRequest(new Request(String.valueOf(i), "GET")));
+			}
+			assertNull(loadBalancer.serveRequest(new Request("4", "GET")));
+			assertEquals(1, loadBalancer.getRejectedCount());
+			assertEquals(2, loadBalancer.getInFlight("a"));
+
+			// the global limit counts the requests already in flight
+			write("strategy=least-connected\nservers=a,b\nlimit.maxInFlight=5\n");
+			assertTrue(loadBalancer.reload());
+			assertNotNull(loadBalancer.serveRequest(new Request("5", "GET")));
+			assertNull(loadBalancer.serveRequest(new Request("6", "GET")));
+			loadBalancer.decrementRequestCount("a");
+			assertNotNull(loadBalancer.serveRequest(new Request("7", "GET")));
+			assertEquals(2, loadBalancer.getRejectedCount());
+		}
+	}
+
+	@Test
+	void testInvalidFileKeepsRunningConfig() throws IOException {
+		Path file = write("strategy=round-robin\nservers=a,b\n");
+		try (ReloadingLoadBalancer loadBalancer = new ReloadingLoadBalancer(file)) {
+			BalancerConfig config = loadBalancer.getConfig();
+			write("strategy=round-robin\nservers=a,b\nlease.millis=soon\n");
+			assertFalse(loadBalancer.reload());
+			assertSame(config, loadBalancer.getConfig());
+			assertEquals(1, loadBalancer.getFailedReloadCount());
+			assertEquals("a", loadBalancer.serveRequest(new Request("1", "GET")));
+		}
+	}
+
+	@Test
+	void testWatcherPicksUpChanges() throws IOException, InterruptedException {
+		Path file = write("strategy=round-robin\nservers=a,b\n");
+		try (ReloadingLoadBalancer loadBalancer = new ReloadingLoadBalancer(file)) {
+			loadBalancer.start();
+			write("strategy=round-robin\nservers=a,b,c\n");
+			// the default watch service polls on some platforms, so give it a while
+			long deadline = System.currentTimeMillis() + 20_000;
+			while (loadBalancer.getReloadCount() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(20);
+			}
+			assertEquals(3, loadBalancer.getConfig().serverNames().size());
+		}
+	}
+
+	@Test
+	void testSwapsUnderLoadKeepCountsExact() throws IOException, InterruptedException {
+		BalancerConfig roundRobin = load("strategy=round-robin\nservers=a,b,c\n");
+		BalancerConfig leastConnected = load("strategy=least-connected\nservers=a,b,c\n");
+		Path file = write("strategy=least-connected\nservers=a,b,c\n");
+		try (ReloadingLoadBalancer loadBalancer = new ReloadingLoadBalancer(file)) {
+			AtomicBoolean running = new AtomicBoolean(true);
+			Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread(() -> {
+					int i = 0;
+					while (running.get()) {
+						String serverName = loadBalancer.serveRequest(new Request(String.valueOf(i++), "GET"));
+						loadBalancer.decrementRequestCount(serverName);
+					}
+				});
+				threads[t].start();
+			}
+			for (int i = 0; i < 100; i++) {
+				loadBalancer.swap(i % 2 == 0 ? roundRobin : leastConnected);
+			}
+			running.set(false);
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			// counts that changed while a new strategy was being seeded were caught up on in the swap
+			assertEquals(0,
+					loadBalancer.getInFlight("a") + loadBalancer.getInFlight("b") + loadBalancer.getInFlight("c"));
+			assertTrue(loadBalancer.getStatus().contains("in flight=0"), loadBalancer.getStatus());
+			Map<String, Integer> served = new HashMap<>();
+			for (int i = 0; i < 3; i++) {
+				served.merge(loadBalancer.serveRequest(new Request(String.valueOf(i), "GET")), 1, Integer::sum);
+			}
+			assertEquals(Map.of("a", 1, "b", 1, "c", 1), served);
+		}
+	}
+
+	private BalancerConfig load(String properties) throws IOException {
+		return BalancerConfig.load(write(properties));
+	}
+
+	private Path write(String properties) throws IOException {
+		return Files.writeString(tempDir.resolve("balancer.properties"), properties);
+	}
+}
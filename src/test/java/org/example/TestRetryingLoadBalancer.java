@@ -0,0 +1,153 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class TestRetryingLoadBalancer {
+
+	private final List<Server> servers = ServerFactory.createServers(4, List.of(Server.DEFAULT_ZONE), false);
+
+	@Test
+	void testLeastConnectedRetriesAnotherServer() {
+		ServerActiveConnectionTracker tracker = new ServerActiveConnectionTracker();
+		LeastConnectedLoadBalancer leastConnectedLB = new LeastConnectedLoadBalancer(servers,
+				new DiscreteEventSimulator(1).createServerPool(), () -> 60_000, tracker);
+		RetryingLoadBalancer retryingLB = new RetryingLoadBalancer(leastConnectedLB, 3, new RetryBudget(0.1, 0, 10));
+		servers.get(0).setAvailable(false);
+		servers.get(1).setAvailable(false);
+
+		// a and b are the least connected, but down
+		assertEquals("c", retryingLB.serveRequest(new Request("1", "GET")));
+		assertEquals(2, retryingLB.getRetryCount());
+		assertEquals(2, retryingLB.getServerFailureCount());
+		// the servers that failed are back on the minHeap with their counts unchanged
+		assertEquals(4, tracker.size());
+		assertEquals(0, tracker.getServerCount("a"));
+		assertEquals(0, tracker.getServerCount("b"));
+		assertEquals(1, tracker.getServerCount("c"));
+
+		servers.get(0).setAvailable(true);
+		assertEquals("a", retryingLB.serveRequest(new Request("2", "GET")));
+		assertEquals(2, retryingLB.getRetryCount());
+		assertEquals(1.0, retryingLB.getRetryRate(), 1e-9);
+	}
+
+	@Test
+	void testExcludedServersAreSkipped() {
+		ShardedLeastConnectedLoadBalancer shardedLB = new ShardedLeastConnectedLoadBalancer(servers, 1, 0);
+		long excluded = LoadBalancer.serverBit("a") | LoadBalancer.serverBit("b");
+		assertEquals("c", shardedLB.serveRequest(new Request("1", "GET"), excluded));
+		assertEquals("d", shardedLB.serveRequest(new Request("2", "GET"), excluded));
+		assertNull(shardedLB.serveRequest(new Request("3", "GET"),
+				excluded | LoadBalancer.serverBit("c") | LoadBalancer.serverBit("d")));
+		// the first 26 names from ServerFactory never share a bit
+		long all = 0;
+		for (Server server : ServerFactory.createServers(26, List.of(Server.DEFAULT_ZONE), false)) {
+			all |= LoadBalancer.serverBit(server.getName());
+		}
+		assertEquals(26, Long.bitCount(all));
+	}
+
+	@Test
+	void testRoundRobinMovesOnToNextServer() {
+		RetryingLoadBalancer retryingLB = new RetryingLoadBalancer(new RoundRobinLoadBalancer(servers), 3,
+				new RetryBudget(0.1, 0, 10));
+		servers.get(0).setAvailable(false);
+		assertEquals("b", retryingLB.serveRequest(new Request("1", "GET")));
+		assertEquals(1, retryingLB.getRetryCount());
+
+		// with every server down, the request fails after maxRetries
+		servers.forEach(server -> server.setAvailable(false));
+		assertNull(retryingLB.serveRequest(new Request("2", "GET")));
+		assertEquals(4, retryingLB.getRetryCount());
+		assertEquals(1, retryingLB.getRetriesExhaustedCount());
+	}
+
+	@Test
+	void testZoneAwareBehindRoutingRetriesAnotherServer() {
+		ZoneAwareLoadBalancer zoneAwareLB = new ZoneAwareLoadBalancer(servers, Server.DEFAULT_ZONE, 1.0);
+		RoutingLoadBalancer routingLB = new RoutingLoadBalancer(
+				new RouteTable(Map.of(), new RouteTable.Route("all", servers, zoneAwareLB)));
+		RetryingLoadBalancer retryingLB = new RetryingLoadBalancer(routingLB, 3, new RetryBudget(0.1, 0, 10));
+		servers.get(0).setAvailable(false);
+		servers.get(1).setAvailable(false);
+
+		// without the exclusions reaching the zone-aware LB, every retry would pick a again
+		assertEquals("c", retryingLB.serveRequest(new Request("1", "GET")));
+		assertEquals(2, retryingLB.getRetryCount());
+		assertEquals(0, zoneAwareLB.getActiveCount("a") + zoneAwareLB.getActiveCount("b"));
+		assertEquals(1, zoneAwareLB.getActiveCount("c"));
+	}
+
+	@Test
+	void testGossipRetriesAnotherServer() throws IOException {
+		try (GossipLoadBalancer gossipLB = new GossipLoadBalancer(servers, 1, new InetSocketAddress("127.0.0.1", 0),
+				100)) {
+			RetryingLoadBalancer retryingLB = new RetryingLoadBalancer(gossipLB, 3, new RetryBudget(0.1, 0, 10));
+			servers.get(0).setAvailable(false);
+
+			assertEquals("b", retryingLB.serveRequest(new Request("1", "GET")));
+			assertEquals(1, retryingLB.getRetryCount());
+			assertNull(gossipLB.serveRequest(new Request("2", "GET"), LoadBalancer.serverBit("a")
+					| LoadBalancer.serverBit("b") | LoadBalancer.serverBit("c") | LoadBalancer.serverBit("d")));
+		}
+	}
+
+	@Test
+	void testNoServerLeftFailsAtOnce() {
+		ShardedLeastConnectedLoadBalancer shardedLB = new ShardedLeastConnectedLoadBalancer(servers.subList(0, 2), 1,
+				0);
+		RetryingLoadBalancer retryingLB = new RetryingLoadBalancer(shardedLB, 5, new RetryBudget(0.1, 0, 10));
+		servers.get(0).setAvailable(false);
+		servers.get(1).setAvailable(false);
+
+		assertNull(retryingLB.serveRequest(new Request("1", "GET")));
+		// a and b were tried, and then there was nothing left to retry on
+		assertEquals(2, retryingLB.getServerFailureCount());
+		assertEquals(1, retryingLB.getNoServerCount());
+		assertEquals(0, retryingLB.getRetriesExhaustedCount());
+		assertEquals(0, shardedLB.getActiveCount("a") + shardedLB.getActiveCount("b"));
+	}
+
+	@Test
+	void testBudgetCapsRetriesDuringOutage() {
+		RetryingLoadBalancer retryingLB = new RetryingLoadBalancer(
+				new ShardedLeastConnectedLoadBalancer(servers, 1, 0), 3, new RetryBudget(0.1, 0, 10));
+		servers.forEach(server -> server.setAvailable(false));
+
+		int numRequests = 1_000;
+		for (int i = 0; i < numRequests; i++) {
+			assertNull(retryingLB.serveRequest(new Request(String.valueOf(i), "GET")));
+		}
+		// 10 saved up, and a tenth of a token per request, rather than 3 retries per request
+		assertEquals(10 + numRequests / 10, retryingLB.getRetryCount(), 1);
+		assertTrue(retryingLB.getBudgetExhaustedCount() > numRequests * 0.8);
+		assertTrue(retryingLB.getStatus().startsWith("Retries: requests=1000"), retryingLB.getStatus());
+	}
+
+	@Test
+	void testBudgetTricklesInOverTime() {
+		long[] now = { 0 };
+		RetryBudget budget = new RetryBudget(0, 2, 5, () -> now[0]);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(budget.tryWithdraw());
+		}
+		assertFalse(budget.tryWithdraw());
+
+		now[0] += 1_000_000_000L;
+		assertEquals(2.0, budget.getBalance(), 1e-6);
+		assertTrue(budget.tryWithdraw());
+		assertTrue(budget.tryWithdraw());
+		assertFalse(budget.tryWithdraw());
+
+		// no more than maxTokens are saved up
+		now[0] += 60_000_000_000L;
+		assertEquals(5.0, budget.getBalance(), 1e-6);
+	}
+}
@@ -0,0 +1,183 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+class TestRoutingLoadBalancer {
+
+	private final List<Server> servers = ServerFactory.createServers(6);
+	private final List<Server> writeServers = servers.subList(0, 2);
+	private final List<Server> readServers = servers.subList(2, 5);
+	private final List<Server> reportServers = servers.subList(5, 6);
+
+	private RouteTable createRouteTable() {
+		RouteTable.Route writes = new RouteTable.Route("writes", writeServers,
+				new ShardedLeastConnectedLoadBalancer(writeServers, 1, 0));
+		RouteTable.Route reads = new RouteTable.Route("reads", readServers, new RoundRobinLoadBalancer(readServers));
+		RouteTable.Route reports = new RouteTable.Route("reports", reportServers,
+				new RoundRobinLoadBalancer(reportServers));
+		Map<String, RouteTable.Route> routes = new HashMap<>();
+		routes.put("POST", writes);
+		routes.put("PUT", writes);
+		routes.put("DELETE", writes);
+		routes.put("REPORT", reports);
+		return new RouteTable(routes, reads);
+	}
+
+	@Test
+	void testRequestsAreRoutedByType() {
+		RoutingLoadBalancer routingLB = new RoutingLoadBalancer(createRouteTable());
+
+		assertEquals("a", routingLB.serveRequest(new Request("1", "POST")));
+		assertEquals("b", routingLB.serveRequest(new Request("2", "PUT")));
+		assertEquals("c", routingLB.serveRequest(new Request("3", "GET")));
+		assertEquals("d", routingLB.serveRequest(new Request("4", "HEAD")));
+		assertEquals("e", routingLB.serveRequest(new Request("5", null)));
+		assertEquals("f", routingLB.serveRequest(new Request("6", "REPORT")));
+		assertEquals("f", routingLB.serveRequest(new Request("7", "REPORT")));
+		// request types are case-sensitive, like HTTP methods
+		assertEquals("c", routingLB.serveRequest(new Request("8", "post")));
+	}
+
+	@Test
+	void testCountsGoToTheRouteOfTheServer() {
+		RouteTable routeTable = createRouteTable();
+		RoutingLoadBalancer routingLB = new RoutingLoadBalancer(routeTable);
+		ShardedLeastConnectedLoadBalancer writeLB = (ShardedLeastConnectedLoadBalancer) routeTable.lookup("POST")
+				.getLoadBalancer();
+
+		assertEquals("a", routingLB.serveRequest(new Request("1", "POST")));
+		assertEquals(1, writeLB.getActiveCount("a"));
+		// a is busy, so least-connections picks b
+		assertEquals("b", routingLB.serveRequest(new Request("2", "DELETE")));
+		routingLB.decrementRequestCount("a");
+		assertEquals(0, writeLB.getActiveCount("a"));
+		assertEquals("a", routingLB.serveRequest(new Request("3", "POST")));
+
+		// servers of other routes don't touch the write route
+		routingLB.incrementRequestCount("c");
+		routingLB.incrementRequestCount("unknown");
+		assertEquals(1, writeLB.getActiveCount("a"));
+		assertEquals(1, writeLB.getActiveCount("b"));
+	}
+
+	@Test
+	void testRouteTableSwap() {
+		RoutingLoadBalancer routingLB = new RoutingLoadBalancer(createRouteTable());
+		assertEquals("a", routingLB.serveRequest(new Request("1", "POST")));
+
+		RouteTable.Route everything = new RouteTable.Route("everything", servers.subList(4, 6),
+				new RoundRobinLoadBalancer(servers.subList(4, 6)));
+		routingLB.setRouteTable(new RouteTable(Map.of(), everything));
+
+		assertEquals("e", routingLB.serveRequest(new Request("2", "POST")));
+		assertEquals("f", routingLB.serveRequest(new Request("3", "GET")));
+		// a is in no route any more, so its decrement is dropped
+		routingLB.decrementRequestCount("a");
+		assertTrue(routingLB.getStatus().contains("Route: everything, request types: [] (default)"));
+	}
+
+	@Test
+	void testRouteTableSwapCarriesCountsToNewLoadBalancer() {
+		RouteTable routeTable = createRouteTable();
+		RoutingLoadBalancer routingLB = new RoutingLoadBalancer(routeTable);
+		assertEquals("a", routingLB.serveRequest(new Request("1", "POST")));
+		assertEquals("b", routingLB.serveRequest(new Request("2", "POST")));
+		assertEquals("a", routingLB.serveRequest(new Request("3", "POST")));
+
+		// the writes get a new LoadBalancer, the reads keep theirs
+		ShardedLeastConnectedLoadBalancer newWriteLB = new ShardedLeastConnectedLoadBalancer(writeServers, 1, 0);
+		RouteTable.Route writes = new RouteTable.Route("writes", writeServers, newWriteLB);
+		routingLB.setRouteTable(new RouteTable(Map.of("POST", writes), routeTable.getDefaultRoute()));
+		assertEquals(2, newWriteLB.getActiveCount("a"));
+		assertEquals(1, newWriteLB.getActiveCount("b"));
+
+		// the requests served before the swap complete on the new LoadBalancer, without going below 0
+		for (int i = 0; i < 3; i++) {
+			routingLB.decrementRequestCount("a");
+		}
+		routingLB.decrementRequestCount("b");
+		assertEquals(0, newWriteLB.getActiveCount("a"));
+		assertEquals(0, newWriteLB.getActiveCount("b"));
+		assertEquals("a", routingLB.serveRequest(new Request("4", "POST")));
+		assertEquals("b", routingLB.serveRequest(new Request("5", "POST")));
+	}
+
+	@Test
+	void testSwapsDontTakeCountsBelowZeroUnderLoad() throws InterruptedException {
+		List<Server> quietServers = ServerFactory.createServers(2, List.of(Server.DEFAULT_ZONE), false);
+		RoutingLoadBalancer routingLB = new RoutingLoadBalancer(new RouteTable(Map.of(),
+				new RouteTable.Route("all", quietServers, new ShardedLeastConnectedLoadBalancer(quietServers, 1, 0))));
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				int i = 0;
+				while (running.get()) {
+					String serverName = routingLB.serveRequest(new Request(String.valueOf(i++), "GET"));
+					routingLB.decrementRequestCount(serverName);
+				}
+			});
+			threads[t].start();
+		}
+		ShardedLeastConnectedLoadBalancer lastLB = null;
+		for (int i = 0; i < 200; i++) {
+			lastLB = new ShardedLeastConnectedLoadBalancer(quietServers, 1, 0);
+			routingLB.setRouteTable(new RouteTable(Map.of(), new RouteTable.Route("all", quietServers, lastLB)));
+		}
+		running.set(false);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// requests that raced a swap may be missing from the new LoadBalancer, but never make it go negative
+		assertTrue(lastLB.getActiveCount("a") >= 0, lastLB.getStatus());
+		assertTrue(lastLB.getActiveCount("b") >= 0, lastLB.getStatus());
+	}
+
+	@Test
+	void testRoutesMustNotShareServers() {
+		RouteTable.Route writes = new RouteTable.Route("writes", servers.subList(0, 3),
+				new RoundRobinLoadBalancer(servers.subList(0, 3)));
+		RouteTable.Route reads = new RouteTable.Route("reads", servers.subList(2, 6),
+				new RoundRobinLoadBalancer(servers.subList(2, 6)));
+
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> new RouteTable(Map.of("POST", writes), reads));
+		assertTrue(e.getMessage().contains("Server c"));
+		assertThrows(IllegalArgumentException.class, () -> new RouteTable.Route("empty", List.of(),
+				new RoundRobinLoadBalancer(List.of())));
+	}
+
+	@Test
+	void testPerfectHashWithManyRequestTypes() {
+		RouteTable.Route fallback = new RouteTable.Route("fallback", reportServers,
+				new RoundRobinLoadBalancer(reportServers));
+		Map<String, RouteTable.Route> routes = new HashMap<>();
+		Map<String, RouteTable.Route> expected = new HashMap<>();
+		for (int i = 0; i < 200; i++) {
+			List<Server> group = List.of(new Server("server" + i));
+			RouteTable.Route route = new RouteTable.Route("route" + i, group, new RoundRobinLoadBalancer(group));
+			routes.put("/api/v1/resource" + i, route);
+			expected.put("/api/v1/resource" + i, route);
+		}
+		// "Aa" and "BB" have the same String.hashCode()
+		routes.put("Aa", fallback);
+		List<Server> bbGroup = servers.subList(0, 1);
+		routes.put("BB", new RouteTable.Route("bb", bbGroup, new RoundRobinLoadBalancer(bbGroup)));
+
+		RouteTable routeTable = new RouteTable(routes, fallback);
+
+		for (Map.Entry<String, RouteTable.Route> entry : expected.entrySet()) {
+			assertSame(entry.getValue(), routeTable.lookup(entry.getKey()));
+		}
+		assertEquals("bb", routeTable.lookup("BB").getName());
+		assertEquals("fallback", routeTable.lookup("Aa").getName());
+		assertSame(fallback, routeTable.lookup("/api/v1/resource200"));
+	}
+}
@@ -2,6 +2,9 @@ package org.example;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 
 class TestServerActiveConnectionTracker {
@@ -62,4 +65,49 @@ class TestServerActiveConnectionTracker {
 		assertEquals("a", tracker.getLeastUsedServer());
 	}
 
+	@Test
+	void testAddServersBuildsTheHeapAtOnce() {
+		ServerActiveConnectionTracker tracker = new ServerActiveConnectionTracker();
+		tracker.addServer("m");
+		tracker.updateServerCount("m", 2);
+		tracker.addServer("n");
+		// n is taken out of the running, and put back by addServers()
+		assertEquals("n", tracker.getLeastUsedServer());
+
+		List<String> serverNames = new ArrayList<>();
+		for (int i = 9_999; i >= 0; i--) {
+			serverNames.add("server-" + i);
+		}
+		serverNames.add("server-0");
+		serverNames.add("n");
+		tracker.addServers(serverNames);
+		assertEquals(10_002, tracker.size());
+		assertEquals(2, tracker.getServerCount("m"));
+		assertEquals(0, tracker.getServerCount("n"));
+
+		tracker.updateServerCount("n", 1);
+		assertEquals("server-0", tracker.getLeastUsedServer());
+		assertEquals("server-1", tracker.getLeastUsedServer());
+	}
+
+	@Test
+	void testLockWaitIsTheCallingThreads() throws InterruptedException {
+		ServerActiveConnectionTracker tracker = new ServerActiveConnectionTracker();
+		tracker.addServers(List.of("a", "b", "c", "d"));
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 100_000; i++) {
+					tracker.updateServerCount(String.valueOf((char) ('a' + i % 4)), i % 2 == 0 ? 1 : -1);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// the threads may have waited for each other, but this one waited for none of it
+		assertEquals(0, tracker.getLockWaitNanos());
+	}
+
 }
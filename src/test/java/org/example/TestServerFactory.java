@@ -25,4 +25,30 @@ class TestServerFactory {
 		}
 	}
 
+	@Test
+	void testServerIndexRoundTrip() {
+		List<Server> servers = ServerFactory.createServers(100);
+		for (int i = 0; i < servers.size(); i++) {
+			assertEquals(i, ServerFactory.serverIndex(servers.get(i).getName()));
+		}
+	}
+
+	@Test
+	void testServerIndexInvalidName() {
+		assertEquals(-1, ServerFactory.serverIndex(""));
+		assertEquals(-1, ServerFactory.serverIndex("A"));
+		assertEquals(-1, ServerFactory.serverIndex("a0"));
+		assertEquals(-1, ServerFactory.serverIndex("ab"));
+	}
+
+	@Test
+	void testCreateServersInZones() {
+		List<Server> servers = ServerFactory.createServers(5, List.of("zone-1", "zone-2"));
+		assertEquals("a", servers.get(0).getName());
+		assertEquals("zone-1", servers.get(0).getZone());
+		assertEquals("zone-2", servers.get(1).getZone());
+		assertEquals("zone-1", servers.get(4).getZone());
+		assertEquals(Server.DEFAULT_ZONE, ServerFactory.createServers(1).get(0).getZone());
+	}
+
 }
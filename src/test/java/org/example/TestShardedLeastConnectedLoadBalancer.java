@@ -0,0 +1,144 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+class TestShardedLeastConnectedLoadBalancer {
+
+	@Test
+	void testServerRequestExact() {
+		List<Server> servers = ServerFactory.createServers(3);
+		LoadBalancer shardedLB = new ShardedLeastConnectedLoadBalancer(servers, 1, 0);
+		shardedLB.incrementRequestCount("a");
+		shardedLB.incrementRequestCount("a");
+		shardedLB.incrementRequestCount("b");
+		Request request = new Request("1", "GET");
+		assertEquals("c", shardedLB.serveRequest(request));
+	}
+
+	@Test
+	void testCountsAreExactAcrossShards() throws InterruptedException {
+		List<Server> servers = ServerFactory.createServers(2);
+		ShardedLeastConnectedLoadBalancer shardedLB = new ShardedLeastConnectedLoadBalancer(servers, 4, 0);
+		// increment on one thread, decrement on another: the cells differ but the sum is exact
+		shardedLB.incrementRequestCount("a");
+		shardedLB.incrementRequestCount("a");
+		Thread other = new Thread(() -> shardedLB.decrementRequestCount("a"));
+		other.start();
+		other.join();
+		assertEquals(1, shardedLB.getActiveCount("a"));
+		assertEquals(0, shardedLB.getActiveCount("b"));
+	}
+
+	@Test
+	void testStaleViewStillSeesOwnChanges() {
+		List<Server> servers = ServerFactory.createServers(2);
+		LoadBalancer shardedLB = new ShardedLeastConnectedLoadBalancer(servers, 1, TimeUnit.HOURS.toNanos(1));
+		Request request = new Request("1", "GET");
+		// The snapshot is never refreshed, but the shard's own selections are applied on top of it.
+		assertEquals("a", shardedLB.serveRequest(request));
+		assertEquals("b", shardedLB.serveRequest(request));
+		assertEquals("a", shardedLB.serveRequest(request));
+	}
+
+	/**
+	 * Measures the imbalance that sharding introduces against the global tracker.
+	 * Imbalance is the mean "regret" of a selection: how many more requests the chosen server
+	 * had in flight than the least loaded server at that moment.
+	 */
+	@Test
+	void testImbalanceVersusGlobalTracker() throws InterruptedException {
+		int numServers = 7;
+		int requestsPerThread = 50;
+		long staleness = TimeUnit.MICROSECONDS.toNanos(200);
+		for (int threads : new int[] { 1, 8, 64 }) {
+			List<Server> servers = ServerFactory.createServers(numServers);
+			Workload global = runWorkload(new LeastConnectedLoadBalancer(servers), servers, threads, requestsPerThread);
+			Workload sharded = runWorkload(new ShardedLeastConnectedLoadBalancer(servers, 4, staleness), servers,
+					threads, requestsPerThread);
+			assertEquals(threads * requestsPerThread, global.served());
+			assertEquals(threads * requestsPerThread, sharded.served());
+			if (threads == 1) {
+				// a single thread always sees its own changes, so there is nothing to be stale about
+				assertEquals(0.0, global.meanRegret());
+				assertEquals(0.0, sharded.meanRegret());
+			} else {
+				// the global tracker is only off by the requests whose counts are being updated, and
+				// staleness may cost the sharded one some more, but a selection should stay well below
+				// the fair share of in-flight requests per server
+				assertTrue(global.meanRegret() < (double) threads / numServers,
+						"global regret " + global.meanRegret() + " at " + threads + " threads");
+				assertTrue(sharded.meanRegret() < (double) threads / numServers,
+						"sharded regret " + sharded.meanRegret() + " at " + threads + " threads");
+			}
+		}
+	}
+
+	private static Workload runWorkload(LoadBalancer lb, List<Server> servers, int threads, int requestsPerThread)
+			throws InterruptedException {
+		Map<String, Integer> nameToIndex = new HashMap<>();
+		for (int i = 0; i < servers.size(); i++) {
+			nameToIndex.put(servers.get(i).getName(), i);
+		}
+		AtomicIntegerArray inFlight = new AtomicIntegerArray(servers.size());
+		AtomicIntegerArray totals = new AtomicIntegerArray(servers.size());
+		AtomicLong regret = new AtomicLong();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			Thread worker = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				for (int r = 0; r < requestsPerThread; r++) {
+					String name = lb.serveRequest(new Request(String.valueOf(r), "GET"));
+					int index = nameToIndex.get(name);
+					int min = Integer.MAX_VALUE;
+					for (int i = 0; i < inFlight.length(); i++) {
+						min = Math.min(min, inFlight.get(i));
+					}
+					regret.addAndGet(inFlight.getAndIncrement(index) - min);
+					totals.incrementAndGet(index);
+					LockSupport.parkNanos(50_000);
+					inFlight.decrementAndGet(index);
+					lb.decrementRequestCount(name);
+				}
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return new Workload(totals, regret.get());
+	}
+
+	private record Workload(AtomicIntegerArray totals, long regret) {
+		int served() {
+			int sum = 0;
+			for (int i = 0; i < totals.length(); i++) {
+				sum += totals.get(i);
+			}
+			return sum;
+		}
+
+		double meanRegret() {
+			return (double) regret / served();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TestSlowStartRamp {
+
+	private static final long MILLIS = 1_000_000;
+
+	@Test
+	void testUnknownServerIsNotRamping() {
+		SlowStartRamp ramp = new SlowStartRamp(1_000, 1.0, 0.1);
+		assertEquals(1.0, ramp.factor("a"));
+	}
+
+	@Test
+	void testLinearRamp() {
+		SlowStartRamp ramp = new SlowStartRamp(1_000, 1.0, 0.1);
+		assertEquals(0.1, ramp.factor(0, 0));
+		assertEquals(0.5, ramp.factor(0, 500 * MILLIS), 1e-9);
+		assertEquals(1.0, ramp.factor(0, 1_000 * MILLIS));
+		assertEquals(1.0, ramp.factor(0, 5_000 * MILLIS));
+	}
+
+	@Test
+	void testAggressiveRampRisesFaster() {
+		SlowStartRamp ramp = new SlowStartRamp(1_000, 2.0, 0.0);
+		assertEquals(0.5, ramp.factor(0, 250 * MILLIS), 1e-9);
+	}
+
+	@Test
+	void testRampStartsAtMinFactor() {
+		SlowStartRamp ramp = new SlowStartRamp(60_000, 1.0, 0.25);
+		ramp.serverAdded("a");
+		assertEquals(0.25, ramp.factor("a"), 1e-3);
+		ramp.serverRemoved("a");
+		assertEquals(1.0, ramp.factor("a"));
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestStateCheckpointer {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testRestoreMissingCheckpoint() throws IOException {
+		assertNull(StateCheckpointer.restore(tempDir.resolve("missing.bin")));
+	}
+
+	@Test
+	void testCheckpointAndRestore() throws IOException {
+		Path file = tempDir.resolve("state.bin");
+		long leaseDeadline = System.currentTimeMillis() + 60_000;
+		OffHeapServerStateTable table = new OffHeapServerStateTable(3);
+		table.register(1, 1, 2, leaseDeadline);
+		table.updateActiveCount(1, 4);
+		try (StateCheckpointer checkpointer = new StateCheckpointer(table, file)) {
+			checkpointer.checkpoint();
+		}
+		OffHeapServerStateTable restored = StateCheckpointer.restore(file);
+		assertEquals(3, restored.capacity());
+		assertEquals(4, restored.getActiveCount(1));
+		assertEquals(2, restored.getWeight(1));
+		assertEquals(leaseDeadline, restored.getLeaseDeadline(1));
+		assertEquals(0, restored.getHealth(0));
+	}
+
+	@Test
+	void testRestoreRejectsUnfinishedCheckpoint() throws IOException {
+		Path file = tempDir.resolve("state.bin");
+		try (StateCheckpointer checkpointer = new StateCheckpointer(new OffHeapServerStateTable(1), file)) {
+			checkpointer.checkpoint();
+		}
+		// simulate a crash in the middle of a checkpoint: the sequence is left odd
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			ByteBuffer sequence = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.nativeOrder());
+			sequence.putLong(0, 3).rewind();
+			channel.write(sequence, 16);
+		}
+		assertThrows(IOException.class, () -> StateCheckpointer.restore(file));
+	}
+
+	@Test
+	void testLeastConnectedWarmStartsFromCheckpoint() throws IOException {
+		Path file = tempDir.resolve("state.bin");
+		List<Server> servers = ServerFactory.createServers(3);
+		LeastConnectedLoadBalancer leastConnectedLB = new LeastConnectedLoadBalancer(servers);
+		OffHeapServerStateTable table = new OffHeapServerStateTable(servers.size());
+		leastConnectedLB.attachStateTable(table);
+		leastConnectedLB.incrementRequestCount("a");
+		leastConnectedLB.incrementRequestCount("a");
+		leastConnectedLB.incrementRequestCount("c");
+		try (StateCheckpointer checkpointer = new StateCheckpointer(table, file)) {
+			checkpointer.checkpoint();
+		}
+
+		// after the restart 'a' doesn't win the tie-break, 'b' had the fewest connections
+		LoadBalancer restartedLB = new LeastConnectedLoadBalancer(servers, StateCheckpointer.restore(file), 60_000);
+		assertEquals("b", restartedLB.serveRequest(new Request("1", "GET")));
+	}
+
+	@Test
+	void testRestoredCountsDrainFromTheStateTable() throws InterruptedException {
+		List<Server> servers = ServerFactory.createServers(3);
+		OffHeapServerStateTable restoredState = new OffHeapServerStateTable(servers.size());
+		for (int slot = 0; slot < servers.size(); slot++) {
+			restoredState.register(slot, slot, 1, System.currentTimeMillis() + 60_000);
+		}
+		restoredState.updateActiveCount(0, 2);
+		LeastConnectedLoadBalancer restartedLB = new LeastConnectedLoadBalancer(servers, restoredState, 200);
+		OffHeapServerStateTable table = new OffHeapServerStateTable(4);
+		restartedLB.attachStateTable(table);
+		assertEquals(2, table.getActiveCount(0));
+
+		// the restored count drains from the table as well, so the next checkpoint doesn't save it again
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (table.getActiveCount(0) != 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, table.getActiveCount(0));
+
+		// servers that join later are registered, and unregistered when their lease runs out
+		restartedLB.addServer(new Server("d"), 100);
+		assertNotEquals(0, table.getHealth(3) & OffHeapServerStateTable.HEALTH_REGISTERED);
+		deadline = System.currentTimeMillis() + 5_000;
+		while (table.getHealth(3) != 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, table.getHealth(3));
+	}
+
+}
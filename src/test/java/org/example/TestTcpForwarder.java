@@ -0,0 +1,131 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TestTcpForwarder {
+
+	private final List<StubTcpBackend> stubs = new ArrayList<>();
+	private TcpForwarder forwarder;
+
+	private InetSocketAddress startForwarder(LoadBalancer loadBalancer, List<BackendServer> backends)
+			throws IOException {
+		forwarder = new TcpForwarder(loadBalancer, backends, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		forwarder.start();
+		return forwarder.getLocalAddress();
+	}
+
+	private List<BackendServer> startBackends(int numBackends) throws IOException {
+		List<BackendServer> backends = new ArrayList<>();
+		for (Server server : ServerFactory.createServers(numBackends)) {
+			StubTcpBackend stub = new StubTcpBackend(server.getName());
+			stubs.add(stub);
+			backends.add(stub.toBackendServer());
+		}
+		return backends;
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		if (forwarder != null) {
+			forwarder.close();
+		}
+		for (StubTcpBackend stub : stubs) {
+			stub.close();
+		}
+	}
+
+	@Test
+	void testBytesAreEchoedThroughForwarder() throws IOException {
+		List<BackendServer> backends = startBackends(2);
+		InetSocketAddress address = startForwarder(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			socket.getOutputStream().write("hello".getBytes(StandardCharsets.US_ASCII));
+			assertEquals("hello", new String(socket.getInputStream().readNBytes(5), StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Test
+	void testLargeTransferWithHalfClose() throws IOException {
+		List<BackendServer> backends = startBackends(1);
+		InetSocketAddress address = startForwarder(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		byte[] payload = new byte[1024 * 1024];
+		new Random(42).nextBytes(payload);
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			InputStream in = socket.getInputStream();
+			Thread writer = new Thread(() -> {
+				try {
+					socket.getOutputStream().write(payload);
+					socket.shutdownOutput();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			});
+			writer.start();
+			byte[] echoed = in.readAllBytes();
+			assertTrue(Arrays.equals(payload, echoed));
+		}
+	}
+
+	@Test
+	void testConnectionCountIsDecrementedOnClose() throws Exception {
+		List<BackendServer> backends = startBackends(2);
+		ShardedLeastConnectedLoadBalancer leastConnectedLB = new ShardedLeastConnectedLoadBalancer(
+				new ArrayList<>(backends), 1, 0);
+		InetSocketAddress address = startForwarder(leastConnectedLB, backends);
+		try (Socket first = new Socket(address.getAddress(), address.getPort());
+				Socket second = new Socket(address.getAddress(), address.getPort())) {
+			first.getOutputStream().write(1);
+			second.getOutputStream().write(1);
+			first.getInputStream().read();
+			second.getInputStream().read();
+			// the two open connections went to different backends
+			assertEquals(1, leastConnectedLB.getActiveCount("a"));
+			assertEquals(1, leastConnectedLB.getActiveCount("b"));
+		}
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (leastConnectedLB.getActiveCount("a") + leastConnectedLB.getActiveCount("b") != 0
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, leastConnectedLB.getActiveCount("a"));
+		assertEquals(0, leastConnectedLB.getActiveCount("b"));
+	}
+
+	@Test
+	void testUnavailableBackend() throws IOException {
+		List<BackendServer> backends = startBackends(2);
+		backends.get(0).setAvailable(false);
+		InetSocketAddress address = startForwarder(new RoundRobinLoadBalancer(new ArrayList<>(backends)), backends);
+		// the balancer throws for a, and only that connection is closed
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			assertEquals(-1, socket.getInputStream().read());
+		}
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			socket.getOutputStream().write("hello".getBytes(StandardCharsets.US_ASCII));
+			assertEquals("hello", new String(socket.getInputStream().readNBytes(5), StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Test
+	void testNoServerAvailable() throws IOException {
+		InetSocketAddress address = startForwarder(new ShardedLeastConnectedLoadBalancer(List.of(), 1, 0), List.of());
+		try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+			assertEquals(-1, socket.getInputStream().read());
+		}
+	}
+
+}
@@ -2,6 +2,11 @@ package org.example;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.jupiter.api.Test;
 
 class TestTimedServerPool {
@@ -67,4 +72,58 @@ class TestTimedServerPool {
 		assertTrue(pool.isEmpty());
 	}
 
+	@Test
+	void testPutAllExpiresInOrderOfExpiryTime() throws InterruptedException {
+		TimedServerPool pool = new TimedServerPool();
+		List<String> expired = new ArrayList<>();
+		pool.getMembershipEventBus().subscribe(serverNames -> {
+			synchronized (expired) {
+				expired.addAll(serverNames);
+			}
+		});
+		Map<String, Long> leases = new LinkedHashMap<>();
+		leases.put("a", 60_000L);
+		leases.put("b", 600L);
+		leases.put("c", 300L);
+		pool.putAll(leases);
+		// a lease put later that is up sooner is removed first
+		pool.put("d", 100);
+		// c's lease is replaced by a longer one
+		pool.put("c", 60_000);
+		assertEquals(4, pool.size());
+
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (pool.size() > 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		Thread.sleep(100);
+		synchronized (expired) {
+			assertEquals(List.of("d", "b"), expired);
+		}
+		assertEquals("a", pool.get("a"));
+		assertEquals("c", pool.get("c"));
+		pool.shutdownNow();
+	}
+
+	@Test
+	void testServerPutAfterPoolRanEmptyStillExpires() throws InterruptedException {
+		TimedServerPool pool = new TimedServerPool();
+		pool.put("a", 50);
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (!pool.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(pool.isEmpty());
+
+		// eg. a server added to a LeastConnectedLoadBalancer after every lease ran out
+		pool.put("b", 50);
+		assertEquals("b", pool.get("b"));
+		deadline = System.currentTimeMillis() + 5_000;
+		while (!pool.isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertNull(pool.get("b"));
+		pool.shutdownNow();
+	}
+
 }
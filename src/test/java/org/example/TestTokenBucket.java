@@ -0,0 +1,155 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.Test;
+
+class TestTokenBucket {
+
+	@Test
+	void testBurstThenRate() {
+		long[] now = { 0 };
+		TokenBucket tokenBucket = new TokenBucket(10, 5, () -> now[0]);
+		AtomicLong bucket = new AtomicLong(tokenBucket.full());
+		for (int i = 0; i < 5; i++) {
+			assertTrue(tokenBucket.tryAcquire(bucket));
+		}
+		assertFalse(tokenBucket.tryAcquire(bucket));
+
+		// a token every 100 ms
+		now[0] += 100_000_000;
+		assertTrue(tokenBucket.tryAcquire(bucket));
+		assertFalse(tokenBucket.tryAcquire(bucket));
+		now[0] += 50_000_000;
+		assertEquals(0.5, tokenBucket.tokens(bucket.get()), 0.01);
+
+		// no more than the burst is saved up
+		now[0] += 3_600_000_000_000L;
+		assertEquals(5.0, tokenBucket.tokens(bucket.get()), 1e-9);
+	}
+
+	@Test
+	void testFrequentChecksDontLoseFractions() {
+		long[] now = { 0 };
+		TokenBucket tokenBucket = new TokenBucket(1_000, 1, () -> now[0]);
+		AtomicLong bucket = new AtomicLong(tokenBucket.full());
+		int acquired = 0;
+		// check every 20 us for 10 s, far more often than a token comes back
+		for (int i = 0; i < 500_000; i++) {
+			now[0] += 20_000;
+			if (tokenBucket.tryAcquire(bucket)) {
+				acquired++;
+			}
+		}
+		assertEquals(10_000, acquired, 10);
+	}
+
+	@Test
+	void testConcurrentAcquireTakesExactlyTheBurst() throws InterruptedException {
+		// a rate so low that nothing comes back during the test
+		TokenBucket tokenBucket = new TokenBucket(1e-6, 20_000);
+		AtomicLong bucket = new AtomicLong(tokenBucket.full());
+		LongAdder acquired = new LongAdder();
+		int numThreads = 4;
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			threads[t] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < 10_000; i++) {
+					if (tokenBucket.tryAcquire(bucket)) {
+						acquired.increment();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(20_000, acquired.sum());
+	}
+
+	@Test
+	void testOlderTimeDoesntRefillOrMoveBack() {
+		long[] now = { 0 };
+		TokenBucket tokenBucket = new TokenBucket(1_000, 5, () -> now[0]);
+		AtomicLong bucket = new AtomicLong(tokenBucket.full());
+		for (int i = 0; i < 5; i++) {
+			assertTrue(tokenBucket.tryAcquire(bucket));
+		}
+		long older = tokenBucket.nowTicks();
+		now[0] += 1_000_000;
+		assertTrue(tokenBucket.tryAcquire(bucket));
+		long state = bucket.get();
+
+		// as a thread that read its time before the take above and lost the CAS to it
+		assertEquals(TokenBucket.NO_TOKEN, tokenBucket.tryTake(state, older));
+		assertEquals(0.0, tokenBucket.tokens(state), 1e-9);
+		assertEquals(state & TokenBucket.TIME_MASK, tokenBucket.nowTicks());
+	}
+
+	@Test
+	void testConcurrentAcquireWithAdvancingClock() throws InterruptedException {
+		AtomicLong now = new AtomicLong();
+		TokenBucket tokenBucket = new TokenBucket(1_000, 10, now::get);
+		AtomicLong bucket = new AtomicLong(tokenBucket.full());
+		LongAdder acquired = new LongAdder();
+		int numThreads = 4;
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			threads[t] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < 100_000; i++) {
+					// the clock moves on between threads reading it and taking a token
+					now.addAndGet(1_000);
+					if (tokenBucket.tryAcquire(bucket)) {
+						acquired.increment();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// 400 ms at 1000 a second, on top of the burst
+		assertTrue(acquired.sum() <= 10 + 400, "acquired " + acquired.sum());
+		assertTrue(acquired.sum() >= 400 - 10, "acquired " + acquired.sum());
+	}
+
+	@Test
+	void testClientTableStaysBoundedAndKeepsActiveClients() {
+		long[] now = { 0 };
+		ClientRateLimiter limiter = new ClientRateLimiter(new TokenBucket(1, 3, () -> now[0]), 1_000);
+		assertEquals(1_024, limiter.capacity());
+
+		// a client over its rate stays limited while a million one-off clients pass through
+		for (int i = 0; i < 3; i++) {
+			assertTrue(limiter.tryAcquire("heavy"));
+		}
+		for (int i = 0; i < 1_000_000; i++) {
+			assertTrue(limiter.tryAcquire("client-" + i));
+			if (i % 100 == 0) {
+				assertFalse(limiter.tryAcquire("heavy"));
+			}
+		}
+		assertEquals(1_024, limiter.size());
+		assertTrue(limiter.getEvictionCount() >= 1_000_000 - 1_024);
+	}
+}
@@ -0,0 +1,158 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestTraceReplayer {
+
+	@TempDir
+	Path directory;
+
+	private final List<Server> servers = ServerFactory.createServers(4, List.of(Server.DEFAULT_ZONE), false);
+
+	@Test
+	void testRecordAndReadBack() throws IOException {
+		Path file = directory.resolve("recorded.trace");
+		try (TraceRecorder recorder = new TraceRecorder(file)) {
+			long arrival = recorder.now();
+			recorder.recordServed(new Request("7", "POST"), "b", arrival, arrival + 5_000);
+			recorder.recordRejected(new Request("client-8", "GET"), arrival + 1_000);
+			// more than one buffer of records
+			for (int i = 0; i < 3_000; i++) {
+				recorder.recordServed(new Request(String.valueOf(100 + i), "BREW"), "c1", arrival, arrival + i);
+			}
+			assertEquals(3_002, recorder.getRecordCount());
+		}
+
+		try (TraceReplayer replayer = new TraceReplayer(file)) {
+			assertEquals(3_002, replayer.getRecordCount());
+			assertTrue(Math.abs(System.currentTimeMillis() - replayer.getStartEpochMillis()) < 60_000);
+			Iterator<TraceRecord> records = replayer.records();
+			TraceRecord served = records.next();
+			assertEquals(7, served.requestId());
+			assertEquals("POST", served.requestType());
+			assertEquals(5_000, served.serviceNanos());
+			assertEquals(1, served.serverIndex());
+			assertTrue(served.isServed());
+			TraceRecord rejected = records.next();
+			assertEquals(-1, rejected.requestId());
+			assertEquals("GET", rejected.requestType());
+			assertEquals(-1, rejected.serverIndex());
+			assertEquals(TraceRecord.OUTCOME_REJECTED, rejected.outcome());
+			assertEquals(served.arrivalNanos() + 1_000, rejected.arrivalNanos());
+			for (int i = 0; i < 3_000; i++) {
+				TraceRecord record = records.next();
+				assertEquals(100 + i, record.requestId());
+				assertNull(record.requestType());
+				assertEquals(28, record.serverIndex());
+			}
+			assertFalse(records.hasNext());
+		}
+	}
+
+	@Test
+	void testReplayPutsRecordsBackInArrivalOrder() throws IOException {
+		// b arrived after a, but finished first, so it was recorded first
+		Path file = writeTrace(List.of(
+				new TraceRecord(2, 1_000_000, 2_000_000, 0, "GET", TraceRecord.OUTCOME_SERVED),
+				new TraceRecord(1, 0, 10_000_000, 1, "GET", TraceRecord.OUTCOME_SERVED)));
+		List<Server> oneServer = servers.subList(0, 1);
+
+		try (TraceReplayer replayer = new TraceReplayer(file)) {
+			TraceReplayer.Report report = replayer.replay(new DiscreteEventSimulator(1),
+					new RoundRobinLoadBalancer(oneServer), oneServer, 1);
+
+			// a runs from 0 to 10 ms, b waits for it and runs from 10 to 12 ms
+			DiscreteEventSimulator.Result result = report.result();
+			assertEquals(2, result.served());
+			assertEquals(12_000_000, result.simulatedNanos());
+			assertEquals(11.0, result.p99LatencyMillis(), 0.001);
+			assertEquals(10.5, result.meanLatencyMillis(), 0.001);
+		}
+	}
+
+	@Test
+	void testReplayReportsBalance() throws IOException {
+		// captured with every request on server a, and a rejected request in the middle
+		List<TraceRecord> records = new ArrayList<>();
+		for (int i = 0; i < 400; i++) {
+			byte outcome = i == 200 ? TraceRecord.OUTCOME_REJECTED : TraceRecord.OUTCOME_SERVED;
+			records.add(new TraceRecord(i, i * 1_000_000L, 500_000, outcome == TraceRecord.OUTCOME_SERVED ? 0 : -1,
+					"GET", outcome));
+		}
+		Path file = writeTrace(records);
+
+		try (TraceReplayer replayer = new TraceReplayer(file)) {
+			TraceReplayer.Report report = replayer.replay(new DiscreteEventSimulator(1),
+					new RoundRobinLoadBalancer(servers), servers, 1);
+
+			assertEquals(400, report.result().served());
+			assertEquals(0.25, report.capturedJainsIndex(), 0.001);
+			assertEquals(4.0, report.capturedMaxMeanRatio(), 0.001);
+			assertEquals(1.0, report.jainsIndex(), 0.001);
+			assertEquals(1.0, report.maxMeanRatio(), 0.001);
+			// the rejected request is replayed with the mean service time
+			assertEquals(0.5, report.result().meanLatencyMillis(), 0.001);
+		}
+	}
+
+	@Test
+	void testStreamsThroughSeveralWindows() throws IOException {
+		List<TraceRecord> records = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			records.add(new TraceRecord(i, i, 1, 0, "GET", TraceRecord.OUTCOME_SERVED));
+		}
+		Path file = writeTrace(records);
+		// a record cut off half way, as a killed recorder would leave it
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+			channel.write(ByteBuffer.allocate(TraceRecord.RECORD_BYTES / 2));
+		}
+
+		try (TraceReplayer replayer = new TraceReplayer(file, 3)) {
+			assertEquals(10, replayer.getRecordCount());
+			Iterator<TraceRecord> iterator = replayer.records();
+			for (int i = 0; i < 10; i++) {
+				assertEquals(records.get(i), iterator.next());
+			}
+			assertFalse(iterator.hasNext());
+		}
+	}
+
+	@Test
+	void testRejectsOtherFiles() throws IOException {
+		Path file = directory.resolve("not.trace");
+		Files.write(file, new byte[64]);
+		assertThrows(IOException.class, () -> new TraceReplayer(file));
+		Files.write(file, new byte[4]);
+		assertThrows(IOException.class, () -> new TraceReplayer(file));
+	}
+
+	private Path writeTrace(List<TraceRecord> records) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(TraceRecord.HEADER_BYTES + records.size() * TraceRecord.RECORD_BYTES);
+		buffer.putInt(TraceRecord.MAGIC);
+		buffer.putInt(TraceRecord.VERSION);
+		buffer.putLong(System.currentTimeMillis());
+		for (TraceRecord record : records) {
+			TraceRecord.put(buffer, record.requestId(), record.arrivalNanos(), record.serviceNanos(),
+					record.serverIndex(), TraceRecord.requestTypeCode(record.requestType()), record.outcome());
+		}
+		buffer.flip();
+		Path file = Files.createTempFile(directory, "test", ".trace");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(buffer);
+		}
+		return file;
+	}
+}
@@ -0,0 +1,50 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class TestWeightedRoundRobinLoadBalancer {
+
+	@Test
+	void testEqualWeightsIsRoundRobin() {
+		List<Server> servers = ServerFactory.createServers(3);
+		LoadBalancer weightedLB = new WeightedRoundRobinLoadBalancer(servers, Map.of());
+		for (int i = 0; i < 6; i++) {
+			String serverName = weightedLB.serveRequest(new Request(String.valueOf(i), "GET"));
+			assertEquals(servers.get(i % 3).getName(), serverName);
+		}
+	}
+
+	@Test
+	void testWeightsAreSpreadOut() {
+		List<Server> servers = ServerFactory.createServers(3);
+		LoadBalancer weightedLB = new WeightedRoundRobinLoadBalancer(servers, Map.of("a", 5, "b", 1, "c", 1));
+		StringBuilder sequence = new StringBuilder();
+		for (int i = 0; i < 7; i++) {
+			sequence.append(weightedLB.serveRequest(new Request(String.valueOf(i), "GET")));
+		}
+		// smooth weighted round robin doesn't send 5 requests to 'a' in a row
+		assertEquals("aabacaa", sequence.toString());
+	}
+
+	@Test
+	void testSlowStartServerGetsLessTraffic() {
+		List<Server> servers = ServerFactory.createServers(2);
+		WeightedRoundRobinLoadBalancer weightedLB = new WeightedRoundRobinLoadBalancer(servers, Map.of());
+		weightedLB.setSlowStartRamp(new SlowStartRamp(60_000, 1.0, 0.1));
+		weightedLB.addServer(new Server("c"), 1);
+		Map<String, Integer> served = new HashMap<>();
+		for (int i = 0; i < 210; i++) {
+			served.merge(weightedLB.serveRequest(new Request(String.valueOf(i), "GET")), 1, Integer::sum);
+		}
+		// at the start of its ramp 'c' has a weight of about 0.1 next to 1 and 1
+		assertTrue(served.getOrDefault("c", 0) <= 15, "ramping server got " + served.get("c"));
+		assertTrue(served.get("a") >= 95);
+	}
+
+}
@@ -0,0 +1,134 @@
+package org.example;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TestZoneAwareLoadBalancer {
+
+	// a, d, g in zone-1; b, e, h in zone-2; c, f, i in zone-3
+	private final List<Server> servers = ServerFactory.createServers(9, List.of("zone-1", "zone-2", "zone-3"));
+
+	@Test
+	void testLocalServersBelowThreshold() {
+		ZoneAwareLoadBalancer zoneAwareLB = new ZoneAwareLoadBalancer(servers, "zone-1", 2);
+
+		// up to 2 requests per local server stay local, spread by least connections
+		for (int i = 0; i < 6; i++) {
+			String serverName = zoneAwareLB.serveRequest(new Request(String.valueOf(i), "GET"));
+			assertTrue(List.of("a", "d", "g").contains(serverName), serverName);
+		}
+		assertEquals(2, zoneAwareLB.getActiveCount("a"));
+		assertEquals(2, zoneAwareLB.getActiveCount("d"));
+		assertEquals(2, zoneAwareLB.getActiveCount("g"));
+		assertEquals(0, zoneAwareLB.getCrossZoneRequests());
+	}
+
+	@Test
+	void testSpilloverIsProportionalToExcessLoad() {
+		ZoneAwareLoadBalancer zoneAwareLB = new ZoneAwareLoadBalancer(servers, "zone-1", 2);
+		// local load of 4 per server is twice the threshold, so half the requests should spill
+		for (String serverName : List.of("a", "d", "g")) {
+			for (int i = 0; i < 4; i++) {
+				zoneAwareLB.incrementRequestCount(serverName);
+			}
+		}
+
+		int numRequests = 10_000;
+		Map<String, Integer> zoneCounts = new HashMap<>();
+		for (int i = 0; i < numRequests; i++) {
+			String serverName = zoneAwareLB.serveRequest(new Request(String.valueOf(i), "GET"));
+			zoneCounts.merge(zoneOf(serverName), 1, Integer::sum);
+			// keep the load where it is
+			zoneAwareLB.decrementRequestCount(serverName);
+		}
+
+		double spilled = (double) zoneAwareLB.getCrossZoneRequests() / numRequests;
+		assertEquals(0.5, spilled, 0.03);
+		// both remote zones are idle, so they share the spilled requests evenly
+		assertEquals(zoneCounts.get("zone-2"), zoneCounts.get("zone-3"), numRequests * 0.03);
+	}
+
+	@Test
+	void testRemoteZoneIsChosenBySpareCapacity() {
+		ZoneAwareLoadBalancer zoneAwareLB = new ZoneAwareLoadBalancer(servers, "zone-1", 2);
+		for (String serverName : List.of("a", "d", "g")) {
+			for (int i = 0; i < 20; i++) {
+				zoneAwareLB.incrementRequestCount(serverName);
+			}
+		}
+		// zone-2 has 6 - 4 = 2 spare, zone-3 has 6 - 0 = 6 spare
+		for (String serverName : List.of("b", "e")) {
+			zoneAwareLB.incrementRequestCount(serverName);
+			zoneAwareLB.incrementRequestCount(serverName);
+		}
+
+		Map<String, Integer> zoneCounts = new HashMap<>();
+		for (int i = 0; i < 10_000; i++) {
+			String serverName = zoneAwareLB.serveRequest(new Request(String.valueOf(i), "GET"));
+			zoneCounts.merge(zoneOf(serverName), 1, Integer::sum);
+			zoneAwareLB.decrementRequestCount(serverName);
+		}
+
+		double ratio = (double) zoneCounts.get("zone-3") / zoneCounts.get("zone-2");
+		assertEquals(3.0, ratio, 0.4);
+	}
+
+	@Test
+	void testSeededSpilloverIsReproducible() {
+		List<String> first = spilloverSelections(new Random(42));
+		assertEquals(first, spilloverSelections(new Random(42)));
+		assertTrue(first.stream().anyMatch(serverName -> !zoneOf(serverName).equals("zone-1")), first.toString());
+	}
+
+	private List<String> spilloverSelections(Random random) {
+		ZoneAwareLoadBalancer zoneAwareLB = new ZoneAwareLoadBalancer(servers, "zone-1", 2, random);
+		for (String serverName : List.of("a", "d", "g")) {
+			for (int i = 0; i < 4; i++) {
+				zoneAwareLB.incrementRequestCount(serverName);
+			}
+		}
+		List<String> selections = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			String serverName = zoneAwareLB.serveRequest(new Request(String.valueOf(i), "GET"));
+			selections.add(serverName);
+			zoneAwareLB.decrementRequestCount(serverName);
+		}
+		return selections;
+	}
+
+	@Test
+	void testNoSpilloverToBusierZones() {
+		ZoneAwareLoadBalancer zoneAwareLB = new ZoneAwareLoadBalancer(servers, "zone-1", 1);
+		for (Server server : servers) {
+			for (int i = 0; i < 3; i++) {
+				zoneAwareLB.incrementRequestCount(server.getName());
+			}
+		}
+		for (int i = 0; i < 100; i++) {
+			String serverName = zoneAwareLB.serveRequest(new Request(String.valueOf(i), "GET"));
+			assertEquals("zone-1", zoneOf(serverName));
+			zoneAwareLB.decrementRequestCount(serverName);
+		}
+	}
+
+	@Test
+	void testNoLocalServers() {
+		ZoneAwareLoadBalancer zoneAwareLB = new ZoneAwareLoadBalancer(servers, "zone-9", 2);
+		String serverName = zoneAwareLB.serveRequest(new Request("1", "GET"));
+		assertNotNull(serverName);
+		assertEquals(1, zoneAwareLB.getCrossZoneRequests());
+
+		assertNull(new ZoneAwareLoadBalancer(List.of(), "zone-1", 2).serveRequest(new Request("2", "GET")));
+	}
+
+	private String zoneOf(String serverName) {
+		return servers.get(ServerFactory.serverIndex(serverName)).getZone();
+	}
+}
@@ -0,0 +1,70 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * Measures a least-connected selection on each ConnectionTracker, from 10 to a million servers.
+ * Every server has 4 requests in flight on average; each operation completes the oldest request
+ * (a decrement) and then takes the least used server and increments it, as LeastConnectedLoadBalancer does.
+ *
+ * Each size runs for about a second per tracker, so the heap, whose remove is linear, gets through far
+ * fewer operations on the large sizes.
+ *
+ * Not run as part of the unit tests. Run with:
+ * mvn test-compile && java -Xmx4g -cp target/classes:target/test-classes org.example.TrackerBenchmark
+ */
+public class TrackerBenchmark {
+
+	private static final int REQUESTS_PER_SERVER = 4;
+	private static final long RUN_NANOS = 1_000_000_000L;
+
+	public static void main(String[] args) {
+		// warm up both trackers before measuring
+		measure(ServerActiveConnectionTracker::new, 1_000);
+		measure(BucketedConnectionTracker::new, 1_000);
+		System.out.println("servers, heap ns/op, buckets ns/op");
+		for (int numServers = 10; numServers <= 1_000_000; numServers *= 10) {
+			double heap = measure(ServerActiveConnectionTracker::new, numServers);
+			double buckets = measure(BucketedConnectionTracker::new, numServers);
+			System.out.printf("%d, %.0f, %.0f%n", numServers, heap, buckets);
+		}
+	}
+
+	/**
+	 * Starts every server with its requests in flight, then completes and selects for RUN_NANOS.
+	 *
+	 * @return the nanos per operation
+	 */
+	private static double measure(Supplier<ConnectionTracker> trackerFactory, int numServers) {
+		ConnectionTracker tracker = trackerFactory.get();
+		String[] serverNames = new String[numServers];
+		for (int i = 0; i < numServers; i++) {
+			serverNames[i] = "server-" + i;
+			// a server that isn't tracked yet starts at the delta, which is cheap for the heap too
+			tracker.updateServerCount(serverNames[i], REQUESTS_PER_SERVER);
+		}
+		ArrayDeque<String> inFlight = new ArrayDeque<>(numServers * REQUESTS_PER_SERVER);
+		for (int r = 0; r < REQUESTS_PER_SERVER; r++) {
+			for (String serverName : serverNames) {
+				inFlight.add(serverName);
+			}
+		}
+		long operations = 0;
+		long startTime = System.nanoTime();
+		long elapsedNanos;
+		do {
+			tracker.updateServerCount(inFlight.poll(), -1);
+			inFlight.add(select(tracker));
+			operations++;
+			elapsedNanos = System.nanoTime() - startTime;
+		} while (elapsedNanos < RUN_NANOS);
+		return (double) elapsedNanos / operations;
+	}
+
+	private static String select(ConnectionTracker tracker) {
+		String serverName = tracker.getLeastUsedServer();
+		tracker.updateServerCount(serverName, 1);
+		return serverName;
+	}
+}